@@ -20,8 +20,7 @@
 package org.openremote.agent.protocol;
 
 import org.apache.camel.ProducerTemplate;
-import org.apache.camel.builder.RouteBuilder;
-import org.openremote.container.concurrent.GlobalLock;
+import org.openremote.container.concurrent.KeyedLockManager;
 import org.openremote.container.message.MessageBrokerContext;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.timer.TimerService;
@@ -34,34 +33,30 @@ import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.attribute.AttributeState;
-import org.openremote.model.protocol.ProtocolUtil;
+import org.openremote.model.protocol.AgentLinkPipeline;
 import org.openremote.model.syslog.SyslogCategory;
-import org.openremote.model.util.Pair;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.model.protocol.ProtocolUtil.hasDynamicWriteValue;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.AGENT;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 
 /**
  * Thread-safe base implementation for protocols.
  * <p>
- * Subclasses should use the {@link GlobalLock#withLock} and {@link GlobalLock#withLockReturning} methods
- * to guard critical sections when modifying shared state:
+ * Subclasses should use the {@link KeyedLockManager#withLock} and {@link KeyedLockManager#withLockReturning}
+ * methods with the {@link KeyedLockManager.Scope#AGENT} scope and the agent ID as key to guard critical sections
+ * when modifying shared state:
  * <blockquote><pre>{@code
- * withLock(getProtocolName(), () -> {
+ * withLock(AGENT, agent.getId(), getProtocolName(), () -> {
  *     // Critical section
  * });
  * }</pre></blockquote>
  * <blockquote><pre>{@code
- * return withLockReturning(() -> {
+ * return withLockReturning(AGENT, agent.getId(), getProtocolName(), () -> {
  *     // Critical section
  *     return ...;
  * });
@@ -69,13 +64,15 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * <p>
  * All <code>abstract</code> methods are always called within lock scope. An implementation can rely on this lock
  * and safely modify internal, protocol-specific shared state. However, if a protocol implementation schedules
- * an asynchronous task, this task must obtain the lock to call any protocol operations.
+ * an asynchronous task, this task must obtain the lock to call any protocol operations. Protocol instances of
+ * different agents do not share a lock and can run concurrently; protocols must not obtain the
+ * {@link org.openremote.container.concurrent.GlobalLock} within lock scope.
  */
 public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends AgentLink<?>> implements Protocol<T> {
 
     private static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, AbstractProtocol.class);
     protected final Map<AttributeRef, Attribute<?>> linkedAttributes = new HashMap<>();
-    protected final Set<AttributeRef> dynamicAttributes = new HashSet<>();
+    protected final Map<AttributeRef, AgentLinkPipeline> linkPipelines = new HashMap<>();
     protected MessageBrokerContext messageBrokerContext;
     protected ProducerTemplate producerTemplate;
     protected TimerService timerService;
@@ -98,32 +95,8 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         datapointService = container.getService(ProtocolDatapointService.class);
         messageBrokerContext = container.getService(MessageBrokerService.class).getContext();
 
-        withLock(getProtocolName() + "::start", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::start", () -> {
             try {
-                messageBrokerContext.addRoutes(new RouteBuilder() {
-                    @Override
-                    public void configure() throws Exception {
-                        from(ACTUATOR_TOPIC)
-                            .routeId("Actuator-" + getProtocolName() + getAgent().getId())
-                            .process(exchange -> {
-                                Protocol<?> protocolInstance = exchange.getIn().getHeader(ACTUATOR_TOPIC_TARGET_PROTOCOL, Protocol.class);
-                                if (protocolInstance != AbstractProtocol.this) {
-                                    return;
-                                }
-
-                                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                                Attribute<?> linkedAttribute = getLinkedAttributes().get(event.getAttributeRef());
-
-                                if (linkedAttribute == null) {
-                                    LOG.info("Attempt to write to attribute that is not actually linked to this protocol '" + AbstractProtocol.this + "': " + linkedAttribute);
-                                    return;
-                                }
-
-                                processLinkedAttributeWrite(event);
-                            });
-                    }
-                });
-
                 doStart(container);
 
             } catch (Exception ex) {
@@ -135,12 +108,10 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
 
     @Override
     final public void stop(Container container) {
-        withLock(getProtocolName() + "::stop", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::stop", () -> {
             linkedAttributes.clear();
+            linkPipelines.clear();
             try {
-                messageBrokerContext.stopRoute("Actuator-" + getProtocolName(), 1, TimeUnit.MILLISECONDS);
-                messageBrokerContext.removeRoute("Actuator-" + getProtocolName());
-
                 doStop(container);
 
             } catch (Exception ex) {
@@ -155,7 +126,7 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
 
     @Override
     final public void linkAttribute(String assetId, Attribute<?> attribute) throws Exception {
-        withLock(getProtocolName() + "::linkAttribute", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::linkAttribute", () -> {
 
             AttributeRef attributeRef = new AttributeRef(assetId, attribute.getName());
 
@@ -167,17 +138,13 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
             // Need to add to map before actual linking as protocols may want to update the value as part of
             // linking process and without entry in the map any update would be blocked
             linkedAttributes.put(attributeRef, attribute);
-
-            // Check for dynamic value placeholder
-
-            if (hasDynamicWriteValue(agent.getAgentLink(attribute))) {
-                dynamicAttributes.add(attributeRef);
-            }
+            linkPipelines.put(attributeRef, new AgentLinkPipeline(assetId, attribute, agent.getAgentLink(attribute)));
 
             try {
                 doLinkAttribute(assetId, attribute, agent.getAgentLink(attribute));
             } catch (Exception e) {
                 linkedAttributes.remove(attributeRef);
+                linkPipelines.remove(attributeRef);
                 throw new RuntimeException(e);
             }
         });
@@ -185,11 +152,11 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
 
     @Override
     final public void unlinkAttribute(String assetId, Attribute<?> attribute) throws Exception {
-        withLock(getProtocolName() + "::unlinkAttributes", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::unlinkAttributes", () -> {
             AttributeRef attributeRef = new AttributeRef(assetId, attribute.getName());
 
             if (linkedAttributes.remove(attributeRef) != null) {
-                dynamicAttributes.remove(attributeRef);
+                linkPipelines.remove(attributeRef);
                 doUnlinkAttribute(assetId, attribute, agent.getAgentLink(attribute));
             }
         });
@@ -204,9 +171,10 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         return linkedAttributes;
     }
 
-    final protected void processLinkedAttributeWrite(AttributeEvent event) {
+    @Override
+    final public void processLinkedAttributeWrite(AttributeEvent event) {
         LOG.finest("Processing linked attribute write on protocol '" + this + "': " + event);
-        withLock(getProtocolName() + "::processLinkedAttributeWrite", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::processLinkedAttributeWrite", () -> {
 
             Attribute<?> attribute = linkedAttributes.get(event.getAttributeRef());
 
@@ -216,22 +184,17 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
 
                 AgentLink<?> agentLink = agent.getAgentLink(attribute);
 
-                Pair<Boolean, Object> ignoreAndConverted = ProtocolUtil.doOutboundValueProcessing(
-                    event.getAssetId(),
-                    attribute,
-                    agentLink,
-                    event.getValue().orElse(null),
-                    dynamicAttributes.contains(event.getAttributeRef()));
+                Object processedValue = linkPipelines.get(event.getAttributeRef()).processOutbound(event.getValue().orElse(null));
 
-                if (ignoreAndConverted.key) {
+                if (processedValue == AgentLinkPipeline.IGNORE) {
                     LOG.fine("Value conversion returned ignore so attribute will not write to protocol: " + event.getAttributeRef());
                     return;
                 }
 
-                doLinkedAttributeWrite(attribute, agent.getAgentLink(attribute), event, ignoreAndConverted.value);
+                doLinkedAttributeWrite(attribute, agent.getAgentLink(attribute), event, processedValue);
 
                 if (agent.isUpdateOnWrite().orElse(false) || agentLink.getUpdateOnWrite().orElse(false)) {
-                    updateLinkedAttribute(new AttributeState(event.getAttributeRef(), ignoreAndConverted.value));
+                    updateLinkedAttribute(new AttributeState(event.getAttributeRef(), processedValue));
                 }
             }
         });
@@ -251,7 +214,7 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
      * publish new sensor values, which performs additional verification and uses a different messaging queue.
      */
     final protected void sendAttributeEvent(AttributeEvent event) {
-        withLock(getProtocolName() + "::sendAttributeEvent", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::sendAttributeEvent", () -> {
             // Don't allow updating linked attributes with this mechanism as it could cause an infinite loop
             if (linkedAttributes.containsKey(event.getAttributeRef())) {
                 LOG.warning("Cannot update an attribute linked to the same protocol; use updateLinkedAttribute for that: " + event);
@@ -263,26 +226,66 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
 
     /**
      * Update the value of a linked attribute. Call this to publish new sensor values. This will call
-     * {@link ProtocolUtil#doInboundValueProcessing} before sending on the sensor queue.
+     * {@link AgentLinkPipeline#processInbound} before sending on the sensor queue.
      */
     final protected void updateLinkedAttribute(final AttributeState state, long timestamp) {
+        AttributeEvent attributeEvent = createLinkedAttributeEvent(state, timestamp);
+
+        if (attributeEvent != null) {
+            LOG.finer("Sending linked attribute update on sensor queue: " + attributeEvent);
+            producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
+        }
+    }
+
+    /**
+     * Update the values of many linked attributes at once, e.g. all the values read by a poll. Each value goes through
+     * the same processing as with {@link #updateLinkedAttribute(AttributeState, long)} but they are sent on the sensor
+     * queue as a single message; the events are processed in the order of the states.
+     */
+    final protected void updateLinkedAttributes(final Collection<AttributeState> states, long timestamp) {
+        List<AttributeEvent> attributeEvents = new ArrayList<>(states.size());
+
+        for (AttributeState state : states) {
+            AttributeEvent attributeEvent = createLinkedAttributeEvent(state, timestamp);
+            if (attributeEvent != null) {
+                attributeEvents.add(attributeEvent);
+            }
+        }
+
+        if (!attributeEvents.isEmpty()) {
+            LOG.finer("Sending " + attributeEvents.size() + " linked attribute update(s) on sensor queue: " + this);
+            producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvents, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
+        }
+    }
+
+    /**
+     * Update the values of many linked attributes at once, with the current system time as event time see
+     * {@link #updateLinkedAttributes(Collection, long)} for more details.
+     */
+    final protected void updateLinkedAttributes(final Collection<AttributeState> states) {
+        updateLinkedAttributes(states, timerService.getCurrentTimeMillis());
+    }
+
+    /**
+     * Applies {@link AgentLinkPipeline#processInbound} to the state, returns <code>null</code> if the attribute
+     * isn't linked or the value should be ignored.
+     */
+    protected AttributeEvent createLinkedAttributeEvent(AttributeState state, long timestamp) {
         Attribute<?> attribute = linkedAttributes.get(state.getRef());
 
         if (attribute == null) {
             LOG.severe("Update linked attribute called for un-linked attribute: " + state);
-            return;
+            return null;
         }
 
-        Pair<Boolean, Object> ignoreAndConverted = ProtocolUtil.doInboundValueProcessing(state.getRef().getId(), attribute, agent.getAgentLink(attribute), state.getValue().orElse(null));
+        Object processedValue = linkPipelines.get(state.getRef()).processInbound(state.getValue().orElse(null));
 
-        if (ignoreAndConverted.key) {
+        if (processedValue == AgentLinkPipeline.IGNORE) {
             LOG.fine("Value conversion returned ignore so attribute will not be updated: " + state.getRef());
-            return;
+            return null;
         }
 
-        AttributeEvent attributeEvent = new AttributeEvent(new AttributeState(state.getRef(), ignoreAndConverted.value), timestamp);
-        LOG.finer("Sending linked attribute update on sensor queue: " + attributeEvent);
-        producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
+        return new AttributeEvent(new AttributeState(state.getRef(), processedValue), timestamp);
     }
 
     /**
@@ -334,7 +337,7 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
     /**
      * An Attribute event (write) has been requested for an attribute linked to this protocol. The
      * processedValue is the resulting value after applying standard outbound value processing
-     * (see {@link ProtocolUtil#doOutboundValueProcessing}). Protocol implementations should generally use the
+     * (see {@link AgentLinkPipeline#processOutbound}). Protocol implementations should generally use the
      * processedValue but may also choose to use the original value for some purpose if required.
      */
     abstract protected void doLinkedAttributeWrite(Attribute<?> attribute, U agentLink, AttributeEvent event, Object processedValue);
@@ -5,7 +5,8 @@ import org.openremote.model.attribute.AttributeRef;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.AGENT;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
 
 /**
  * Controller class represent a Controller defined in a Manager Agent and store all sensors and commands linked to that Controller agent
@@ -54,7 +55,7 @@ public class Controller {
     }
 
     public void removeAttributeRef(AttributeRef attributeRef) {
-        withLock(ControllerProtocol.PROTOCOL_DISPLAY_NAME + ":Controller::removeAttributeRef", () -> {
+        withLock(AGENT, controllerConfigName, ControllerProtocol.PROTOCOL_DISPLAY_NAME + ":Controller::removeAttributeRef", () -> {
             this.commandsList.remove(attributeRef);
             this.sensorsList.remove(attributeRef);
         });
@@ -55,8 +55,9 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.AGENT;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.withLockReturning;
 import static org.openremote.container.web.WebTargetBuilder.CONNECTION_POOL_SIZE;
 import static org.openremote.container.web.WebTargetBuilder.createClient;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
@@ -264,7 +265,7 @@ public class ControllerProtocol extends AbstractProtocol<ControllerAgent, Contro
     }
 
     private void executeInitialStatus(AttributeRef attributeRef, String deviceName, String sensorName, Consumer<Response> responseConsumer) {
-        withLock(getProtocolName() + "::executeInitialStatus::" + attributeRef, () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::executeInitialStatus::" + attributeRef, () -> {
             LOG.info("### Initial status check for " + attributeRef.getName() + " [" + deviceName + "," + sensorName + "] ...");
 
             HTTPProtocol.HttpClientRequest checkRequest = RequestBuilder.buildStatusRequest(deviceName, Arrays.asList(sensorName), controllerWebTarget);
@@ -319,7 +320,7 @@ public class ControllerProtocol extends AbstractProtocol<ControllerAgent, Contro
      * to the Protocol) and collect all sensor's name to put them into polling request
      */
     private Future<?> computePollingTask(String deviceName) {
-        return withLockReturning(getProtocolName() + "::computePollingTask::" + deviceName, () -> {
+        return withLockReturning(AGENT, agent.getId(), getProtocolName() + "::computePollingTask::" + deviceName, () -> {
             List<String> sensorNameList = controller.collectSensorNameLinkedToDeviceName(deviceName);
 
             if (sensorNameList.isEmpty()) {
@@ -474,7 +475,7 @@ public class ControllerProtocol extends AbstractProtocol<ControllerAgent, Contro
      * Heartbeat is used when connection with Controller 2.x is lost and is running until connection is back
      */
     private void executeHeartbeat(Consumer<Response> responseConsumer) {
-        withLock(getProtocolName() + "::executeHeartbeat", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::executeHeartbeat", () -> {
             LOG.info("Doing heartbeat check for controller: " + controllerWebTarget.getUriBuilder().build());
 
             HTTPProtocol.HttpClientRequest checkRequest = RequestBuilder.buildCheckRequest(controllerWebTarget);
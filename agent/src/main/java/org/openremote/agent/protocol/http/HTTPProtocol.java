@@ -63,7 +63,8 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.AGENT;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
 import static org.openremote.container.web.QueryParameterInjectorFilter.QUERY_PARAMETERS_PROPERTY;
 import static org.openremote.container.web.WebTargetBuilder.createClient;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
@@ -570,16 +571,19 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
         }
 
         if (attributeRef != null) {
-            updateLinkedAttribute(new AttributeState(attributeRef, value));
+            List<AttributeState> states = new ArrayList<>();
+            states.add(new AttributeState(attributeRef, value));
 
             // Look for any attributes that also want to use this polling response
             synchronized (pollingLinkedAttributeMap) {
                 Set<AttributeRef> linkedRefs = pollingLinkedAttributeMap.get(attributeRef);
                 if (linkedRefs != null) {
                     Object finalValue = value;
-                    linkedRefs.forEach(ref -> updateLinkedAttribute(new AttributeState(ref, finalValue)));
+                    linkedRefs.forEach(ref -> states.add(new AttributeState(ref, finalValue)));
                 }
             }
+
+            updateLinkedAttributes(states);
         }
     }
 
@@ -592,7 +596,7 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
     }
 
     protected void cancelPolling(AttributeRef attributeRef) {
-        withLock(getProtocolName() + "::cancelPolling", () -> {
+        withLock(AGENT, agent.getId(), getProtocolName() + "::cancelPolling", () -> {
             ScheduledFuture<?> pollTask = pollingMap.remove(attributeRef);
             if (pollTask != null) {
                 pollTask.cancel(false);
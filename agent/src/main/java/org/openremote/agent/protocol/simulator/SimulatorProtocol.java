@@ -37,7 +37,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.AGENT;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 
 public class SimulatorProtocol extends AbstractProtocol<SimulatorAgent, SimulatorAgentLink> {
@@ -162,7 +163,7 @@ public class SimulatorProtocol extends AbstractProtocol<SimulatorAgent, Simulato
 
         LOG.info("Next update for asset " + attributeRef.getId() + " for attribute " + attributeRef.getName() + " in " + nextRunRelative + " second(s)");
         return executorService.schedule(() -> {
-            withLock(getProtocolName() + "::firingNextUpdate", () -> {
+            withLock(AGENT, agent.getId(), getProtocolName() + "::firingNextUpdate", () -> {
                 LOG.info("Updating asset " + attributeRef.getId() + " for attribute " + attributeRef.getName() + " with value " + nextDatapoint.value.toString());
                 try {
                     updateLinkedAttribute(new AttributeState(attributeRef, nextDatapoint.value));
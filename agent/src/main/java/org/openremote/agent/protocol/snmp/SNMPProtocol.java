@@ -14,7 +14,9 @@ import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.ValueUtil;
 import org.snmp4j.PDU;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -72,21 +74,25 @@ public class SNMPProtocol extends AbstractProtocol<SNMPAgent, SNMPAgentLink> {
 
                             PDU pdu = msg.getSnmpMessage();
 
+                            List<AttributeState> states = new ArrayList<>();
                             AttributeRef wildCardAttributeRef;
                             if ((wildCardAttributeRef = oidMap.get("*")) != null) {
                                 ObjectNode wildCardValue = ValueUtil.createJsonObject();
                                 pdu.getVariableBindings().forEach(variableBinding -> {
                                     wildCardValue.put(variableBinding.getOid().format(), variableBinding.toValueString());
                                 });
-                                updateLinkedAttribute(new AttributeState(wildCardAttributeRef, wildCardValue));
+                                states.add(new AttributeState(wildCardAttributeRef, wildCardValue));
                             }
 
                             pdu.getVariableBindings().forEach(variableBinding -> {
                                 AttributeRef attributeRef = oidMap.get(variableBinding.getOid().format());
                                 if (attributeRef != null) {
-                                    updateLinkedAttribute(new AttributeState(attributeRef, variableBinding.toValueString()));
+                                    states.add(new AttributeState(attributeRef, variableBinding.toValueString()));
                                 }
                             });
+
+                            // All bindings of the trap are sent as one batch
+                            updateLinkedAttributes(states);
                         });
             }
         });
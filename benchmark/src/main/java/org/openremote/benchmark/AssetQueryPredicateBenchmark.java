@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.manager.rules.AssetQueryPredicate;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.impl.*;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.LogicGroup;
+import org.openremote.model.query.filter.*;
+import org.openremote.model.rules.AssetState;
+import org.openremote.model.value.ValueType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Matching rules asset state facts with asset queries, with a predicate created for each match (as rules used to do)
+ * and with a compiled predicate that is reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AssetQueryPredicateBenchmark {
+
+    @SuppressWarnings("unchecked")
+    protected static final Class<? extends Asset<?>>[] ASSET_TYPES = new Class[]{ThingAsset.class, LightAsset.class, RoomAsset.class, ElectricityProducerSolarAsset.class};
+    protected static final String[] REALMS = {"master", "building", "smartcity"};
+
+    @Param({"ids", "types", "attributeValue", "attributeGroup"})
+    public String queryType;
+
+    protected TimerService timerService;
+    protected AssetStorageService assetStorageService;
+    protected List<AssetState<?>> assetStates;
+    protected AssetQuery query;
+    protected Predicate<AssetState<?>> compiledPredicate;
+
+    @Setup
+    public void setup() throws Exception {
+        timerService = new TimerService() {{
+            clock = Clock.REAL;
+        }};
+        assetStorageService = new AssetStorageService();
+        assetStates = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            Asset<?> asset = ASSET_TYPES[i % ASSET_TYPES.length].getDeclaredConstructor(String.class).newInstance("Asset " + i);
+            asset.setId("asset" + i);
+            asset.setRealm(REALMS[i % REALMS.length]);
+            for (int j = 0; j < 5; j++) {
+                Attribute<Double> attribute = new Attribute<>("attribute" + j, ValueType.NUMBER, (double) ((i + j) % 100));
+                attribute.setTimestamp(timerService.getCurrentTimeMillis());
+                assetStates.add(new AssetState<>(asset, attribute, AttributeEvent.Source.SENSOR));
+            }
+        }
+
+        query = switch (queryType) {
+            case "ids" -> new AssetQuery().ids("asset1", "asset10", "asset100").attributeName("attribute1");
+            case "types" -> new AssetQuery().types(LightAsset.class, ElectricityProducerAsset.class).realm(new RealmPredicate("building"));
+            case "attributeValue" -> new AssetQuery().attributes(new AttributePredicate("attribute2", new NumberPredicate(50, AssetQuery.Operator.GREATER_THAN)));
+            default -> new AssetQuery().attributes(new LogicGroup<>(
+                LogicGroup.Operator.OR,
+                new AttributePredicate(new StringPredicate(AssetQuery.Match.BEGIN, "attribute"), new NumberPredicate(95, AssetQuery.Operator.GREATER_EQUALS)),
+                new AttributePredicate("attribute0", new NumberPredicate(10, AssetQuery.Operator.LESS_THAN))));
+        };
+
+        compiledPredicate = AssetQueryPredicate.compile(timerService, assetStorageService, query);
+    }
+
+    @Benchmark
+    public long interpreted() {
+        Predicate<AssetState<?>> predicate = new AssetQueryPredicate(timerService, assetStorageService, query);
+        return assetStates.stream().filter(predicate).count();
+    }
+
+    @Benchmark
+    public long compiled() {
+        return assetStates.stream().filter(compiledPredicate).count();
+    }
+}
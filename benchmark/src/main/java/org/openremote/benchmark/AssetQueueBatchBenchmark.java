@@ -0,0 +1,168 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.impl.ThingAsset;
+import org.openremote.model.attribute.Attribute;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.openremote.container.persistence.PersistenceService.*;
+import static org.openremote.model.value.ValueType.NUMBER;
+
+/**
+ * Storing the attribute values of asset queue events one transaction and update per event (the single event path) and
+ * one transaction and multi-row update per batch of events (the batched path, see
+ * {@link org.openremote.manager.asset.AssetProcessingService#OR_ASSET_QUEUE_BATCH_SIZE}); the score is events per
+ * second. Unlike the other benchmarks this needs the development database (as the tests do), configured with the
+ * usual OR_DB_* environment variables; the values are written to a temporary asset table that shadows the real one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AssetQueueBatchBenchmark {
+
+    protected static final int ASSET_COUNT = 100;
+    protected static final int EVENT_COUNT = 1000;
+
+    @Param({"100"})
+    public int batchSize;
+
+    protected Connection connection;
+    protected EntityManager entityManager;
+    protected BenchmarkAssetStorageService assetStorageService;
+    protected List<Asset<?>> assets;
+    protected long timestamp;
+
+    protected static class BenchmarkAssetStorageService extends AssetStorageService {
+
+        protected BenchmarkAssetStorageService() {
+            timerService = new TimerService() {{
+                clock = Clock.REAL;
+            }};
+        }
+
+        @Override
+        protected void publishAttributeEvent(Asset<?> asset, Attribute<?> attribute) {
+            // There are no subscribers
+        }
+
+        public boolean store(EntityManager em, Asset<?> asset, Attribute<?> attribute) {
+            return updateAttributeValue(em, asset, attribute);
+        }
+
+        public Set<String> store(EntityManager em, Map<String, List<Attribute<?>>> assetAttributes) {
+            return updateAttributeValues(em, assetAttributes);
+        }
+    }
+
+    @Setup
+    public void setup() throws SQLException {
+        Map<String, String> env = System.getenv();
+        connection = DriverManager.getConnection(
+            "jdbc:postgresql://" + env.getOrDefault(OR_DB_HOST, OR_DB_HOST_DEFAULT)
+                + ":" + env.getOrDefault(OR_DB_PORT, Integer.toString(OR_DB_PORT_DEFAULT))
+                + "/" + env.getOrDefault(OR_DB_NAME, OR_DB_NAME_DEFAULT),
+            env.getOrDefault(OR_DB_USER, OR_DB_USER_DEFAULT),
+            env.getOrDefault(OR_DB_PASSWORD, OR_DB_PASSWORD_DEFAULT));
+        connection.setAutoCommit(false);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create temporary table asset (id varchar(22) primary key, attributes jsonb not null)");
+        }
+
+        assets = new ArrayList<>(ASSET_COUNT);
+        try (PreparedStatement statement = connection.prepareStatement("insert into asset (id, attributes) values (?, cast(? as jsonb))")) {
+            for (int i = 0; i < ASSET_COUNT; i++) {
+                Asset<?> asset = new ThingAsset("Asset " + i).setId("BenchmarkAsset" + i);
+                assets.add(asset);
+                statement.setString(1, asset.getId());
+                statement.setString(2, "{\"counter\": {\"name\": \"counter\", \"type\": \"number\", \"value\": 0, \"timestamp\": 0}}");
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        connection.commit();
+
+        Session session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Session.class}, (proxy, method, args) -> {
+            if ("doReturningWork".equals(method.getName())) {
+                return ((ReturningWork<?>) args[0]).execute(connection);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        entityManager = (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{EntityManager.class}, (proxy, method, args) -> switch (method.getName()) {
+            case "unwrap" -> session;
+            case "detach" -> null;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+        assetStorageService = new BenchmarkAssetStorageService();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    protected Attribute<?> nextAttribute(int event) {
+        // Increasing timestamps so every value is newer than the stored one
+        return new Attribute<>("counter", NUMBER, (double) event, ++timestamp);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void singleEventTransactions() throws SQLException {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            assetStorageService.store(entityManager, assets.get(i % ASSET_COUNT), nextAttribute(i));
+            connection.commit();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void batchedTransactions() throws SQLException {
+        for (int i = 0; i < EVENT_COUNT; i += batchSize) {
+            // Only the latest value of each attribute is written
+            Map<String, List<Attribute<?>>> assetAttributes = new LinkedHashMap<>();
+            for (int j = i; j < Math.min(i + batchSize, EVENT_COUNT); j++) {
+                assetAttributes.put(assets.get(j % ASSET_COUNT).getId(), List.of(nextAttribute(j)));
+            }
+            assetStorageService.store(entityManager, assetAttributes);
+            connection.commit();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.MetaItem;
+import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.ValueType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.openremote.model.value.MetaItemType.*;
+
+/**
+ * Updating the value of an attribute with meta by snapshotting it and by cloning it; run with <code>-prof gc</code> to
+ * compare the allocated bytes per update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AttributeSnapshotBenchmark {
+
+    protected Attribute<Double> attribute;
+
+    @Setup
+    public void setup() {
+        attribute = new Attribute<>("test", ValueType.NUMBER, 1d, 1000L);
+        attribute.addMeta(
+            new MetaItem<>(LABEL, "Test"),
+            new MetaItem<>(READ_ONLY, true),
+            new MetaItem<>(UNITS, new String[]{"celsius"})
+        );
+    }
+
+    @Benchmark
+    public Attribute<?> snapshot() {
+        return attribute.snapshot(2d, 2000L);
+    }
+
+    @Benchmark
+    public Attribute<?> cloneAndSetValue() {
+        Attribute<Double> clone = ValueUtil.clone(attribute);
+        clone.setValue(2d, 2000L);
+        return clone;
+    }
+}
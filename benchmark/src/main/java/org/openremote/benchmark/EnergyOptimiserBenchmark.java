@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openremote.manager.energy.EnergyOptimiser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * A 24 hour optimisation of a storage asset that supports import and export with a minimum energy level requirement,
+ * following the same steps as {@link org.openremote.manager.energy.EnergyOptimisationService}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnergyOptimiserBenchmark {
+
+    protected static final double ENERGY_CAPACITY = 50d;
+    protected static final double ENERGY_LEVEL = 15d;
+    protected static final double POWER_IMPORT_MAX = 11d;
+    protected static final double POWER_EXPORT_MAX = -11d;
+
+    @Param({"0.25", "1"})
+    public double intervalSize;
+
+    protected EnergyOptimiser optimiser;
+    protected int intervalCount;
+    protected double[] powerNets;
+    protected double[] importPowerLimits;
+    protected double[] exportPowerLimits;
+    protected double[] tariffImports;
+    protected double[] tariffExports;
+    protected double[] energyLevelMins;
+    protected double[] energyLevelMaxs;
+
+    @Setup
+    public void setup() {
+        optimiser = new EnergyOptimiser(intervalSize, 1d);
+        intervalCount = optimiser.get24HourIntervalCount();
+        powerNets = new double[intervalCount];
+        importPowerLimits = new double[intervalCount];
+        exportPowerLimits = new double[intervalCount];
+        tariffImports = new double[intervalCount];
+        tariffExports = new double[intervalCount];
+        energyLevelMins = new double[intervalCount];
+        energyLevelMaxs = new double[intervalCount];
+
+        for (int i = 0; i < intervalCount; i++) {
+            // Daily consumption and solar production curves with expensive evening imports
+            double hour = i * intervalSize;
+            double solar = Math.max(0d, Math.sin((hour - 6d) / 12d * Math.PI)) * 20d;
+            powerNets[i] = 8d + 4d * Math.sin(hour / 24d * 2 * Math.PI) - solar;
+            importPowerLimits[i] = 30d;
+            exportPowerLimits[i] = -30d;
+            tariffImports[i] = hour >= 17 && hour < 21 ? 0.35d : hour < 7 ? 0.12d : 0.22d;
+            tariffExports[i] = -0.05d - (solar > 0 ? 0d : 0.03d);
+            energyLevelMins[i] = hour >= 7 && hour < 8 ? 40d : 10d;
+            energyLevelMaxs[i] = ENERGY_CAPACITY;
+        }
+
+        Function<Integer, Double> powerImportMaxCalculator = interval -> POWER_IMPORT_MAX;
+        Function<Integer, Double> powerExportMaxCalculator = interval -> POWER_EXPORT_MAX;
+        optimiser.normaliseEnergyMinRequirements(energyLevelMins, powerImportMaxCalculator, powerExportMaxCalculator, ENERGY_LEVEL);
+    }
+
+    @Benchmark
+    public double[] optimiseStorageAsset() {
+        double[] powerSetpoints = new double[intervalCount];
+        Function<Integer, Double> powerImportMaxCalculator = interval -> POWER_IMPORT_MAX;
+        Function<Integer, Double> powerExportMaxCalculator = interval -> POWER_EXPORT_MAX;
+        Function<Integer, Double> energyLevelCalculator = interval ->
+            ENERGY_LEVEL + IntStream.range(0, interval).mapToDouble(j -> powerSetpoints[j] * optimiser.getIntervalSize()).sum();
+
+        BiFunction<Integer, Double, double[]> exportOptimiser = optimiser.getExportOptimiser(powerNets, exportPowerLimits, tariffImports, tariffExports, 0.02d);
+        double[][] exportCostAndPower = IntStream.range(0, intervalCount).mapToObj(it -> exportOptimiser.apply(it, POWER_EXPORT_MAX))
+            .toArray(double[][]::new);
+
+        BiFunction<Integer, double[], double[]> importOptimiser = optimiser.getImportOptimiser(powerNets, importPowerLimits, tariffImports, tariffExports, 0.01d);
+        double[][] importCostAndPower = IntStream.range(0, intervalCount).mapToObj(it -> importOptimiser.apply(it, new double[]{0d, POWER_IMPORT_MAX}))
+            .toArray(double[][]::new);
+
+        // Copied so every invocation starts from the same requirements
+        double[] normalisedEnergyLevelMins = Arrays.copyOf(energyLevelMins, intervalCount);
+        optimiser.applyEnergyMinImports(importCostAndPower, normalisedEnergyLevelMins, powerSetpoints, energyLevelCalculator, importOptimiser, powerImportMaxCalculator);
+        optimiser.applyEarningOpportunities(importCostAndPower, exportCostAndPower, normalisedEnergyLevelMins, energyLevelMaxs, powerSetpoints, energyLevelCalculator, powerImportMaxCalculator, powerExportMaxCalculator);
+        return powerSetpoints;
+    }
+}
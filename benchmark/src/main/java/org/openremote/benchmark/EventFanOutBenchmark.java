@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.event.EventSubscriptions;
+import org.openremote.manager.event.EventTypeConverters;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.EventSubscription;
+import org.openremote.model.util.ValueUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan out of an attribute event to thousands of sessions subscribed to all attribute events, when the event is
+ * serialized once for all sessions (as the client event service does) and when it is serialized for every session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventFanOutBenchmark {
+
+    /**
+     * Exposes the subscription management of the client event service.
+     */
+    public static class BenchmarkEventSubscriptions extends EventSubscriptions {
+
+        public BenchmarkEventSubscriptions(TimerService timerService) {
+            super(timerService);
+        }
+
+        public void subscribe(String sessionKey, EventSubscription<?> subscription) {
+            createOrUpdate(sessionKey, false, false, subscription);
+        }
+    }
+
+    @Param({"5000"})
+    public int sessionCount;
+
+    protected CamelContext context;
+    protected EventTypeConverters converters;
+    protected BenchmarkEventSubscriptions eventSubscriptions;
+    protected AttributeEvent event;
+
+    @Setup
+    public void setup() {
+        TimerService timerService = new TimerService() {{
+            clock = Clock.REAL;
+        }};
+        context = new DefaultCamelContext();
+        converters = new EventTypeConverters();
+        eventSubscriptions = new BenchmarkEventSubscriptions(timerService);
+        for (int i = 0; i < sessionCount; i++) {
+            eventSubscriptions.subscribe("session" + i, new EventSubscription<>(AttributeEvent.class, null, "subscription" + i));
+        }
+        event = new AttributeEvent("asset1", "attribute", Map.of("value", 1, "text", "Some text"), 1000L);
+    }
+
+    protected List<Message> split(Exchange exchange) {
+        exchange.getIn().setBody(event);
+        return eventSubscriptions.splitForSubscribers(exchange);
+    }
+
+    @Benchmark
+    public long serializedOnce() throws Exception {
+        Exchange exchange = new DefaultExchange(context);
+        long length = 0;
+        for (Message message : split(exchange)) {
+            length += converters.writeTriggeredEventSubscription(message.getBody(TriggeredEventSubscription.class), exchange).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public long serializedPerSession() throws Exception {
+        Exchange exchange = new DefaultExchange(context);
+        long length = 0;
+        for (Message message : split(exchange)) {
+            TriggeredEventSubscription<?> triggered = message.getBody(TriggeredEventSubscription.class);
+            length += (TriggeredEventSubscription.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(
+                new TriggeredEventSubscription<>(triggered.getEvents(), triggered.getSubscriptionId()))).length();
+        }
+        return length;
+    }
+}
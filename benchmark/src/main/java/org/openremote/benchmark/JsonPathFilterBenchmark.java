@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.JsonPathFilter;
+import org.openremote.model.value.ValueFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON path value filtering of string and JSON values as received by HTTP, MQTT and websocket agents, including a
+ * chain of JSON path filters that each select part of the output of the previous filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonPathFilterBenchmark {
+
+    protected JsonPathFilter simplePathFilter;
+    protected JsonPathFilter predicatePathFilter;
+    protected JsonPathFilter wildcardLastFilter;
+    protected ValueFilter[] chainedFilters;
+    protected String jsonString;
+    protected ObjectNode jsonNode;
+
+    @Setup
+    public void setup() {
+        simplePathFilter = new JsonPathFilter("$.device.status.temperature", false, false);
+        predicatePathFilter = new JsonPathFilter("$.readings[?(@.type == 'humidity')].value", true, false);
+        wildcardLastFilter = new JsonPathFilter("$.readings[*].timestamp", false, true);
+        chainedFilters = new ValueFilter[] {
+            new JsonPathFilter("$.readings", false, false),
+            new JsonPathFilter("$[?(@.type == 'co2')]", false, true),
+            new JsonPathFilter("$.value", false, false)
+        };
+
+        jsonNode = ValueUtil.JSON.createObjectNode();
+        ObjectNode status = jsonNode.putObject("device").put("id", "livingroom").putObject("status");
+        status.put("temperature", 21.5).put("online", true);
+        String[] types = {"temperature", "humidity", "co2", "pressure"};
+        for (int i = 0; i < 20; i++) {
+            jsonNode.withArray("readings").addObject()
+                .put("type", types[i % types.length])
+                .put("value", i * 1.5)
+                .put("timestamp", 1672531200000L + i * 60000L);
+        }
+        jsonString = jsonNode.toString();
+    }
+
+    @Benchmark
+    public Object simplePathOfString() {
+        return simplePathFilter.filter(jsonString);
+    }
+
+    @Benchmark
+    public Object simplePathOfJsonNode() {
+        return simplePathFilter.filter(jsonNode);
+    }
+
+    @Benchmark
+    public Object predicatePathReturnFirst() {
+        return predicatePathFilter.filter(jsonString);
+    }
+
+    @Benchmark
+    public Object wildcardPathReturnLast() {
+        return wildcardLastFilter.filter(jsonString);
+    }
+
+    @Benchmark
+    public Object chainedPathsOfString() {
+        return ValueUtil.applyValueFilters(jsonString, chainedFilters);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.asset.agent.DefaultAgentLink;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.protocol.AgentLinkPipeline;
+import org.openremote.model.protocol.ProtocolUtil;
+import org.openremote.model.util.Pair;
+import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.JsonPathFilter;
+import org.openremote.model.value.RegexValueFilter;
+import org.openremote.model.value.SubStringValueFilter;
+import org.openremote.model.value.ValueFilter;
+import org.openremote.model.value.ValueType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound value processing of agent links as done for every value received by a protocol, and outbound value
+ * processing as done for every write to a linked attribute; both per call through {@link ProtocolUtil} and with the
+ * {@link AgentLinkPipeline} protocols create when an attribute is linked. Run with the GC profiler to compare the
+ * allocations, e.g. -Pjmh.include=ProtocolUtilBenchmark -Pjmh.args="-f 1 -wi 3 -i 5 -prof gc".
+ */
+@SuppressWarnings("deprecation")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocolUtilBenchmark {
+
+    protected Attribute<Double> numberAttribute;
+    protected Attribute<Boolean> booleanAttribute;
+    protected DefaultAgentLink noProcessingLink;
+    protected DefaultAgentLink regexLink;
+    protected DefaultAgentLink jsonPathLink;
+    protected DefaultAgentLink converterLink;
+    protected DefaultAgentLink writeValueLink;
+    protected AgentLinkPipeline noProcessingPipeline;
+    protected AgentLinkPipeline regexPipeline;
+    protected AgentLinkPipeline jsonPathPipeline;
+    protected AgentLinkPipeline converterPipeline;
+    protected AgentLinkPipeline writeValuePipeline;
+    protected String deviceMessage;
+    protected String jsonMessage;
+
+    @Setup
+    public void setup() {
+        numberAttribute = new Attribute<>("temperature", ValueType.NUMBER);
+        booleanAttribute = new Attribute<>("on", ValueType.BOOLEAN);
+        deviceMessage = "DEVICE=livingroom;TEMP=21.5;HUMIDITY=45";
+        jsonMessage = "{\"device\":\"livingroom\",\"readings\":[{\"type\":\"temperature\",\"value\":21.5},{\"type\":\"humidity\",\"value\":45}]}";
+
+        noProcessingLink = new DefaultAgentLink("agent");
+
+        regexLink = new DefaultAgentLink("agent");
+        regexLink.setValueFilters(new ValueFilter[]{
+            new RegexValueFilter("TEMP=([0-9.]+)", false, false).setMatchGroup(1),
+            new SubStringValueFilter(0, 4)
+        });
+
+        jsonPathLink = new DefaultAgentLink("agent");
+        jsonPathLink.setValueFilters(new ValueFilter[]{
+            new JsonPathFilter("$.readings[?(@.type == 'temperature')].value", true, false)
+        });
+
+        ObjectNode converter = ValueUtil.JSON.createObjectNode();
+        converter.put("ON", true);
+        converter.put("OFF", false);
+        converter.put("UNKNOWN", "@IGNORE");
+        converterLink = new DefaultAgentLink("agent");
+        converterLink.setValueConverter(converter);
+
+        writeValueLink = new DefaultAgentLink("agent");
+        writeValueLink.setWriteValue("{\"device\":\"livingroom\",\"setpoint\":\"{$value}\"}");
+
+        noProcessingPipeline = new AgentLinkPipeline("asset", numberAttribute, noProcessingLink);
+        regexPipeline = new AgentLinkPipeline("asset", numberAttribute, regexLink);
+        jsonPathPipeline = new AgentLinkPipeline("asset", numberAttribute, jsonPathLink);
+        converterPipeline = new AgentLinkPipeline("asset", booleanAttribute, converterLink);
+        writeValuePipeline = new AgentLinkPipeline("asset", numberAttribute, writeValueLink);
+    }
+
+    @Benchmark
+    public Pair<Boolean, Object> coerceNumericString() {
+        return ProtocolUtil.doInboundValueProcessing("asset", numberAttribute, noProcessingLink, "21.5");
+    }
+
+    @Benchmark
+    public Pair<Boolean, Object> regexAndSubStringFilter() {
+        return ProtocolUtil.doInboundValueProcessing("asset", numberAttribute, regexLink, deviceMessage);
+    }
+
+    @Benchmark
+    public Pair<Boolean, Object> jsonPathFilter() {
+        return ProtocolUtil.doInboundValueProcessing("asset", numberAttribute, jsonPathLink, jsonMessage);
+    }
+
+    @Benchmark
+    public Pair<Boolean, Object> valueConverter() {
+        return ProtocolUtil.doInboundValueProcessing("asset", booleanAttribute, converterLink, "on");
+    }
+
+    @Benchmark
+    public Pair<Boolean, Object> dynamicWriteValue() {
+        return ProtocolUtil.doOutboundValueProcessing("asset", numberAttribute, writeValueLink, 21.5d, true);
+    }
+
+    @Benchmark
+    public Object pipelineCoerceNumericString() {
+        return noProcessingPipeline.processInbound("21.5");
+    }
+
+    @Benchmark
+    public Object pipelineRegexAndSubStringFilter() {
+        return regexPipeline.processInbound(deviceMessage);
+    }
+
+    @Benchmark
+    public Object pipelineJsonPathFilter() {
+        return jsonPathPipeline.processInbound(jsonMessage);
+    }
+
+    @Benchmark
+    public Object pipelineValueConverter() {
+        return converterPipeline.processInbound("on");
+    }
+
+    @Benchmark
+    public Object pipelineDynamicWriteValue() {
+        return writeValuePipeline.processOutbound(21.5d);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openremote.manager.agent.ProtocolWriteDispatcher;
+import org.openremote.model.asset.agent.Protocol;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Latency of an attribute write from dispatching it with the {@link ProtocolWriteDispatcher} until the target protocol
+ * instance has processed it, with a few and with many registered protocol instances; the latency should not depend on
+ * the number of instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProtocolWriteDispatcherBenchmark {
+
+    protected static final int BURST_SIZE = 1000;
+
+    @Param({"10", "500"})
+    public int instanceCount;
+
+    protected ProtocolWriteDispatcher dispatcher;
+    protected AtomicReference<CountDownLatch> writeLatch = new AtomicReference<>(new CountDownLatch(0));
+    protected Random random;
+
+    @Setup
+    public void setup() {
+        dispatcher = new ProtocolWriteDispatcher(4, BURST_SIZE);
+        random = new Random(1);
+        for (int i = 0; i < instanceCount; i++) {
+            dispatcher.register("agent" + i, createProtocol("agent" + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    protected Protocol<?> createProtocol(String name) {
+        return (Protocol<?>) Proxy.newProxyInstance(
+            Protocol.class.getClassLoader(),
+            new Class<?>[]{Protocol.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "processLinkedAttributeWrite" -> {
+                    writeLatch.get().countDown();
+                    yield null;
+                }
+                case "toString" -> name;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> null;
+            }
+        );
+    }
+
+    @Benchmark
+    public void singleWrite() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        writeLatch.set(latch);
+        dispatcher.dispatch("agent" + random.nextInt(instanceCount), new AttributeEvent("asset1", "attribute", 1));
+        latch.await(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public void burstOfWrites() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BURST_SIZE);
+        writeLatch.set(latch);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            dispatcher.dispatch("agent" + random.nextInt(instanceCount), new AttributeEvent("asset1", "attribute", i));
+        }
+        latch.await(5, TimeUnit.SECONDS);
+    }
+}
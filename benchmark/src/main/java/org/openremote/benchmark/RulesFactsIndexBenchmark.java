@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.manager.rules.AssetQueryPredicate;
+import org.openremote.manager.rules.RulesEngine;
+import org.openremote.manager.rules.RulesFacts;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.impl.*;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.filter.RealmPredicate;
+import org.openremote.model.rules.AssetState;
+import org.openremote.model.value.ValueType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching the asset state facts of a rules engine with 100k facts (20k assets with 5 attributes each) using the
+ * indexes of the {@link RulesFacts} and by testing every fact, and the cost of maintaining the indexes when an asset
+ * state is updated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RulesFactsIndexBenchmark {
+
+    @SuppressWarnings("unchecked")
+    protected static final Class<? extends Asset<?>>[] ASSET_TYPES = new Class[]{ThingAsset.class, LightAsset.class, RoomAsset.class, ElectricityProducerSolarAsset.class, ElectricityProducerWindAsset.class};
+    protected static final String[] REALMS = {"master", "building", "smartcity"};
+    protected static final int ASSET_COUNT = 20000;
+    protected static final int ATTRIBUTE_COUNT = 5;
+
+    @Param({"idAndAttribute", "ids", "types", "attributeName"})
+    public String queryType;
+
+    protected TimerService timerService;
+    protected AssetStorageService assetStorageService;
+    protected RulesFacts rulesFacts;
+    protected AssetQuery query;
+    protected Random random;
+
+    @Setup
+    public void setup() throws Exception {
+        timerService = new TimerService() {{
+            clock = Clock.REAL;
+        }};
+        assetStorageService = new AssetStorageService();
+        rulesFacts = new RulesFacts(timerService, assetStorageService, null, this, RulesEngine.RULES_LOG);
+        random = new Random(1234);
+
+        for (int i = 0; i < ASSET_COUNT; i++) {
+            for (int j = 0; j < ATTRIBUTE_COUNT; j++) {
+                rulesFacts.putAssetState(createAssetState(i, j, random.nextInt(100)));
+            }
+        }
+
+        query = switch (queryType) {
+            case "idAndAttribute" -> new AssetQuery().ids("asset1234").attributeName("attribute2");
+            case "ids" -> new AssetQuery().ids("asset1", "asset10", "asset100", "asset1000");
+            case "types" -> new AssetQuery().types(LightAsset.class).realm(new RealmPredicate("building"));
+            default -> new AssetQuery().attributeName("attribute3");
+        };
+    }
+
+    protected AssetState<?> createAssetState(int assetIndex, int attributeIndex, double value) throws Exception {
+        Asset<?> asset = ASSET_TYPES[assetIndex % ASSET_TYPES.length].getDeclaredConstructor(String.class).newInstance("Asset " + assetIndex);
+        asset.setId("asset" + assetIndex);
+        asset.setRealm(REALMS[assetIndex % REALMS.length]);
+        Attribute<Double> attribute = new Attribute<>("attribute" + attributeIndex, ValueType.NUMBER, value);
+        attribute.setTimestamp(timerService.getCurrentTimeMillis());
+        return new AssetState<>(asset, attribute, AttributeEvent.Source.SENSOR);
+    }
+
+    @Benchmark
+    public long indexed() {
+        return rulesFacts.matchAssetState(query).count();
+    }
+
+    @Benchmark
+    public long allFacts() {
+        return rulesFacts.matchAssetState(new AssetQueryPredicate(timerService, assetStorageService, query)).count();
+    }
+
+    @Benchmark
+    public RulesFacts putAssetState() throws Exception {
+        return rulesFacts.putAssetState(createAssetState(random.nextInt(ASSET_COUNT), random.nextInt(ATTRIBUTE_COUNT), random.nextInt(100)));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.benchmark;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.asset.impl.ThingAsset;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.MetaItem;
+import org.openremote.model.geo.GeoJSONPoint;
+import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.ValueType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.openremote.model.value.MetaItemType.*;
+
+/**
+ * Value coercion and cloning as done for every attribute update and rules fact.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueUtilBenchmark {
+
+    protected Object doubleValue;
+    protected Object numericStringValue;
+    protected Object booleanStringValue;
+    protected Object integerValue;
+    protected ObjectNode objectValue;
+    protected ThingAsset asset;
+
+    @Setup
+    public void setup() {
+        doubleValue = 12.5d;
+        numericStringValue = "12.5";
+        booleanStringValue = "true";
+        integerValue = 42;
+
+        objectValue = ValueUtil.JSON.createObjectNode();
+        objectValue.put("temperature", 21.5);
+        objectValue.put("name", "Living room");
+        objectValue.putArray("values").add(1).add(2).add(3);
+        objectValue.putObject("nested").put("enabled", true);
+
+        asset = new ThingAsset("Benchmark asset");
+        asset.setId("benchmarkAsset");
+        asset.setRealm("master");
+        asset.setLocation(new GeoJSONPoint(5.46, 51.44));
+        for (int i = 0; i < 20; i++) {
+            asset.getAttributes().addOrReplace(
+                new Attribute<>("attribute" + i, ValueType.NUMBER, (double) i)
+                    .addMeta(new MetaItem<>(STORE_DATA_POINTS, true), new MetaItem<>(RULE_STATE, true), new MetaItem<>(LABEL, "Attribute " + i))
+            );
+        }
+    }
+
+    @Benchmark
+    public Object getValueCoercedNumberToInteger() {
+        return ValueUtil.getValueCoerced(doubleValue, Integer.class);
+    }
+
+    @Benchmark
+    public Object getValueCoercedStringToDouble() {
+        return ValueUtil.getValueCoerced(numericStringValue, Double.class);
+    }
+
+    @Benchmark
+    public Object getValueCoercedStringToBoolean() {
+        return ValueUtil.getValueCoerced(booleanStringValue, Boolean.class);
+    }
+
+    @Benchmark
+    public Object getValueCoercedIntegerToString() {
+        return ValueUtil.getValueCoerced(integerValue, String.class);
+    }
+
+    @Benchmark
+    public Object getValueCoercedObjectToString() {
+        return ValueUtil.getValueCoerced(objectValue, String.class);
+    }
+
+    @Benchmark
+    public Object cloneObjectValue() {
+        return ValueUtil.clone(objectValue);
+    }
+
+    @Benchmark
+    public Object cloneAsset() {
+        return ValueUtil.clone(asset);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openremote.container.timer.TimerService;
+import org.openremote.model.asset.AssetFilter;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.EventSubscription;
+import org.openremote.model.event.shared.SharedEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the subscribed sessions of client events and creating their messages; in this package as subscriptions are
+ * created with the protected {@link EventSubscriptions#createOrUpdate}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventSubscriptionsBenchmark {
+
+    protected static final int ASSET_COUNT = 2000;
+    protected static final String[] REALMS = {"master", "building", "smartcity"};
+
+    @Param({"1000", "10000"})
+    public int sessionCount;
+
+    protected DefaultCamelContext context;
+    protected EventSubscriptions eventSubscriptions;
+    protected EventTypeConverters eventTypeConverters;
+    protected AttributeEvent[] events;
+    protected int eventIndex;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1234);
+        context = new DefaultCamelContext();
+        eventTypeConverters = new EventTypeConverters();
+        eventSubscriptions = new EventSubscriptions(new TimerService() {{
+            clock = Clock.REAL;
+        }});
+
+        for (int i = 0; i < sessionCount; i++) {
+            AssetFilter<AttributeEvent> filter = switch (random.nextInt(4)) {
+                case 0 -> new AssetFilter<AttributeEvent>().setAssetIds("asset" + random.nextInt(ASSET_COUNT));
+                case 1 -> new AssetFilter<AttributeEvent>().setParentIds("asset" + random.nextInt(ASSET_COUNT / 10));
+                case 2 -> new AssetFilter<AttributeEvent>().setRealm(REALMS[random.nextInt(REALMS.length)]);
+                default -> null;
+            };
+            eventSubscriptions.createOrUpdate("session" + i, false, false, new EventSubscription<>(AttributeEvent.class, filter, "subscription" + i));
+        }
+
+        events = new AttributeEvent[1000];
+        for (int i = 0; i < events.length; i++) {
+            int asset = random.nextInt(ASSET_COUNT);
+            events[i] = new AttributeEvent("asset" + asset, "attribute" + random.nextInt(3), random.nextDouble())
+                .setRealm(REALMS[asset % REALMS.length])
+                .setParentId("asset" + (asset / 10))
+                .setPath(new String[]{"asset" + asset, "asset" + (asset / 10)});
+        }
+    }
+
+    @Benchmark
+    public List<Message> splitForSubscribers() {
+        return eventSubscriptions.splitForSubscribers(nextExchange());
+    }
+
+    /**
+     * Includes creating the <code>TRIGGERED:</code> message of each subscriber as sent to websocket clients.
+     */
+    @Benchmark
+    public List<String> splitForSubscribersAndSerialize() throws Exception {
+        Exchange exchange = nextExchange();
+        List<Message> messages = eventSubscriptions.splitForSubscribers(exchange);
+        List<String> serialized = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            serialized.add(eventTypeConverters.writeTriggeredEventSubscription(message.getBody(TriggeredEventSubscription.class), exchange));
+        }
+        return serialized;
+    }
+
+    protected Exchange nextExchange() {
+        SharedEvent event = events[eventIndex++ % events.length];
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setBody(event);
+        return exchange;
+    }
+}
@@ -28,6 +28,8 @@ import static java.util.logging.Level.FINEST;
 
 /**
  * A global reentrant exclusive lock, use convenience methods {@link #withLock} and {@link #withLockReturning}.
+ * <p>
+ * Prefer {@link KeyedLockManager} for state that is owned by a single asset, agent or rules engine.
  */
 public class GlobalLock {
 
@@ -100,6 +102,9 @@ public class GlobalLock {
      * @param supplier The guarded code to execute while holding the lock.
      */
     static public <R> R withLockReturning(String info, Supplier<R> supplier) {
+        if (!lock.isHeldByCurrentThread() && KeyedLockManager.isAnyLockHeldByCurrentThread()) {
+            LOG.warning("Acquiring global lock whilst holding a keyed lock, this can deadlock: " + Thread.currentThread().getName() + " executing " + info);
+        }
         try {
             if (lock.tryLock(info, getLockTimeoutMillis(), TimeUnit.MILLISECONDS)) {
                 LOG.finest("+ Acquired lock (count: " + lock.getHoldCount() + "): " + info);
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.FINEST;
+
+/**
+ * Striped reentrant exclusive locks keyed by an identifier (asset ID, agent ID, rules engine ID etc.) within a
+ * {@link Scope}; use convenience methods {@link #withLock}, {@link #withLockReturning} and {@link #withLocks}.
+ * <p>
+ * Unlike {@link GlobalLock} only code that touches the same key (or a key that hashes to the same stripe) is
+ * serialised, so work on disjoint assets, agents and rules engines can proceed in parallel.
+ * <p>
+ * To prevent deadlocks all locks are totally ordered by {@link Scope} and then by stripe index; a thread can only
+ * acquire a lock that is ordered after every lock it already holds (re-entering a held lock is always allowed).
+ * Violating this order throws an {@link IllegalStateException} immediately rather than risking a deadlock. Several
+ * keys in the same scope must therefore be obtained together through {@link #withLocks}. A thread holding a keyed
+ * lock must not try to obtain the {@link GlobalLock} as the global lock holder may in turn be waiting for a keyed
+ * lock; the reverse (global then keyed) is allowed.
+ */
+public class KeyedLockManager {
+
+    private static final Logger LOG = Logger.getLogger(KeyedLockManager.class.getName());
+
+    /**
+     * The lock scopes in acquisition order.
+     */
+    public enum Scope {
+        ASSET,
+        AGENT,
+        RULES,
+        GEOFENCE
+    }
+
+    /**
+     * Number of stripes per {@link Scope}; a power of two so the stripe can be found by masking.
+     */
+    public static final int STRIPE_COUNT = 1024;
+
+    static class StripeLock extends ReentrantLock {
+
+        final Scope scope;
+        final int index;
+        String info;
+
+        StripeLock(Scope scope, int index) {
+            super(true);
+            this.scope = scope;
+            this.index = index;
+        }
+
+        boolean isOrderedAfter(StripeLock other) {
+            int scopeCompare = scope.compareTo(other.scope);
+            return scopeCompare > 0 || (scopeCompare == 0 && index > other.index);
+        }
+
+        String owner() {
+            Thread lockOwner;
+            if ((lockOwner = super.getOwner()) != null) {
+                return lockOwner.getName() + " executing " + info;
+            }
+            return "Unknown executing " + info;
+        }
+
+        @Override
+        public String toString() {
+            return scope + "[" + index + "]";
+        }
+    }
+
+    static protected final StripeLock[][] stripes = new StripeLock[Scope.values().length][STRIPE_COUNT];
+
+    // The locks held by each thread in acquisition order, used for lock order verification
+    static protected final ThreadLocal<List<StripeLock>> heldLocks = ThreadLocal.withInitial(ArrayList::new);
+
+    static {
+        for (Scope scope : Scope.values()) {
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                stripes[scope.ordinal()][i] = new StripeLock(scope, i);
+            }
+        }
+    }
+
+    protected KeyedLockManager() {
+    }
+
+    /**
+     * @return the stripe index the key is mapped to within its {@link Scope}.
+     */
+    static public int getStripeIndex(String key) {
+        int hash = key == null ? 0 : key.hashCode();
+        // Spread the higher bits as keys are often similar (IDs with a common prefix)
+        hash ^= (hash >>> 16);
+        return hash & (STRIPE_COUNT - 1);
+    }
+
+    /**
+     * @return <code>true</code> if the current thread holds any keyed lock.
+     */
+    static public boolean isAnyLockHeldByCurrentThread() {
+        return !heldLocks.get().isEmpty();
+    }
+
+    /**
+     * @return <code>true</code> if the current thread holds the lock for the specified key.
+     */
+    static public boolean isLockHeldByCurrentThread(Scope scope, String key) {
+        return getLock(scope, key).isHeldByCurrentThread();
+    }
+
+    /**
+     * Obtain the lock for the key within {@link GlobalLock#getLockTimeoutMillis()} or throw
+     * {@link IllegalStateException}.
+     *
+     * @param scope    The scope of the key.
+     * @param key      The key to lock.
+     * @param info     An informal text that is printed in log messages.
+     * @param runnable The guarded code to execute while holding the lock.
+     */
+    static public void withLock(Scope scope, String key, String info, Runnable runnable) {
+        withLockReturning(scope, key, info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the lock for the key within {@link GlobalLock#getLockTimeoutMillis()} or throw
+     * {@link IllegalStateException}.
+     *
+     * @param scope    The scope of the key.
+     * @param key      The key to lock.
+     * @param info     An informal text that is printed in log messages.
+     * @param supplier The guarded code to execute while holding the lock.
+     */
+    static public <R> R withLockReturning(Scope scope, String key, String info, Supplier<R> supplier) {
+        List<StripeLock> locks = new ArrayList<>(1);
+        locks.add(getLock(scope, key));
+        return doWithLocks(locks, info, supplier);
+    }
+
+    /**
+     * Obtain the locks for all the keys, in stripe order, within {@link GlobalLock#getLockTimeoutMillis()} or throw
+     * {@link IllegalStateException}.
+     *
+     * @param scope    The scope of the keys.
+     * @param keys     The keys to lock.
+     * @param info     An informal text that is printed in log messages.
+     * @param runnable The guarded code to execute while holding the locks.
+     */
+    static public void withLocks(Scope scope, Collection<String> keys, String info, Runnable runnable) {
+        withLocksReturning(scope, keys, info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the locks for all the keys, in stripe order, within {@link GlobalLock#getLockTimeoutMillis()} or throw
+     * {@link IllegalStateException}.
+     *
+     * @param scope    The scope of the keys.
+     * @param keys     The keys to lock.
+     * @param info     An informal text that is printed in log messages.
+     * @param supplier The guarded code to execute while holding the locks.
+     */
+    static public <R> R withLocksReturning(Scope scope, Collection<String> keys, String info, Supplier<R> supplier) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        keys.forEach(key -> indexes.add(getStripeIndex(key)));
+        List<StripeLock> locks = new ArrayList<>(indexes.size());
+        indexes.forEach(index -> locks.add(stripes[scope.ordinal()][index]));
+        return doWithLocks(locks, info, supplier);
+    }
+
+    static protected StripeLock getLock(Scope scope, String key) {
+        return stripes[scope.ordinal()][getStripeIndex(key)];
+    }
+
+    /**
+     * Acquires the supplied locks (which must be sorted) in order, runs the supplier and then releases them in
+     * reverse order.
+     */
+    static protected <R> R doWithLocks(List<StripeLock> locks, String info, Supplier<R> supplier) {
+        List<StripeLock> held = heldLocks.get();
+        int acquired = 0;
+
+        try {
+            for (StripeLock lock : locks) {
+                checkLockOrder(held, lock, info);
+
+                if (!lock.tryLock(GlobalLock.getLockTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException(
+                        "Could not acquire lock " + lock + " owned by " + lock.owner() + " after waiting " + GlobalLock.getLockTimeoutMillis() + "ms: " + Thread.currentThread().getName() + " executing " + info
+                    );
+                }
+                if (lock.getHoldCount() == 1) {
+                    lock.info = info;
+                }
+                held.add(lock);
+                acquired++;
+                LOG.finest("+ Acquired lock " + lock + " (count: " + lock.getHoldCount() + "): " + info);
+            }
+
+            return supplier.get();
+
+        } catch (InterruptedException ex) {
+            LOG.log(FINEST, "Interrupted while waiting for lock: " + info);
+            return null;
+        } finally {
+            for (int i = acquired - 1; i >= 0; i--) {
+                StripeLock lock = locks.get(i);
+                LOG.finest("- Releasing lock " + lock + " (count: " + lock.getHoldCount() + "): " + info);
+                held.remove(held.size() - 1);
+                if (lock.getHoldCount() == 1) {
+                    lock.info = null;
+                }
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A lock that isn't already held by the current thread must be ordered after every lock the current thread
+     * holds, otherwise two threads could wait on each other.
+     */
+    static protected void checkLockOrder(List<StripeLock> held, StripeLock lock, String info) {
+        if (held.isEmpty() || lock.isHeldByCurrentThread()) {
+            return;
+        }
+
+        for (StripeLock heldLock : held) {
+            if (!lock.isOrderedAfter(heldLock)) {
+                throw new IllegalStateException(
+                    "Lock order violation, cannot acquire " + lock + " whilst holding " + heldLock + ": " + Thread.currentThread().getName() + " executing " + info
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.message;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.spi.Synchronization;
+import org.openremote.model.attribute.AttributeEvent;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue of a SEDA endpoint that applies a {@link QueueOverloadPolicy} when a producer adds an exchange whilst
+ * the queue is full, and counts what happens to the exchanges.
+ * <p>
+ * The SEDA producer uses {@link #add} unless the endpoint is configured to block when full, so only {@link #add}
+ * applies the overload policy; {@link #offer} and {@link #put} keep the {@link BlockingQueue} semantics. Crossing the
+ * high watermark is logged once and reported by {@link #isOverWatermark} until the depth drops to half of it.
+ */
+public class GovernedQueue extends AbstractQueue<Exchange> implements BlockingQueue<Exchange> {
+
+    /**
+     * Exchanges with this header are coalesced by its value, otherwise the attribute of an {@link AttributeEvent} body
+     * is used.
+     */
+    public static final String HEADER_COALESCE_KEY = GovernedQueue.class.getName() + ".COALESCE_KEY";
+    private static final Logger LOG = Logger.getLogger(GovernedQueue.class.getName());
+
+    protected final String name;
+    protected final int capacity;
+    protected final QueueOverloadPolicy policy;
+    protected final long blockMillis;
+    protected final int highWatermark;
+    protected final int lowWatermark;
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition notEmpty = lock.newCondition();
+    protected final Condition notFull = lock.newCondition();
+    protected final Deque<Exchange> items = new ArrayDeque<>();
+    protected final Map<Object, Exchange> itemsByCoalesceKey = new HashMap<>();
+    protected volatile Function<Exchange, Object> coalesceKeyFunction = GovernedQueue::getDefaultCoalesceKey;
+    // Only written whilst holding the lock
+    protected volatile long enqueuedCount;
+    protected volatile long dequeuedCount;
+    protected volatile long droppedCount;
+    protected volatile long coalescedCount;
+    protected volatile long rejectedCount;
+    protected volatile int maxDepth;
+    protected volatile boolean overWatermark;
+    protected long sampleMillis = System.currentTimeMillis();
+    protected long sampleDequeuedCount;
+
+    /**
+     * @param capacity         Maximum number of waiting exchanges, unbounded when not positive.
+     * @param watermarkPercent Depth as a percentage of the capacity at which the queue is over its watermark.
+     */
+    public GovernedQueue(String name, int capacity, QueueOverloadPolicy policy, long blockMillis, int watermarkPercent) {
+        this.name = name;
+        this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        this.policy = policy;
+        this.blockMillis = blockMillis;
+        this.highWatermark = capacity > 0
+            ? (int) Math.max(1, Math.min(this.capacity, (long) this.capacity * watermarkPercent / 100))
+            : Integer.MAX_VALUE;
+        this.lowWatermark = highWatermark / 2;
+    }
+
+    public static Object getDefaultCoalesceKey(Exchange exchange) {
+        Object key = exchange.getIn().getHeader(HEADER_COALESCE_KEY);
+        if (key == null && exchange.getIn().getBody() instanceof AttributeEvent attributeEvent) {
+            key = attributeEvent.getAttributeRef();
+        }
+        return key;
+    }
+
+    /**
+     * Apply the overload policy when the queue is full.
+     *
+     * @throws IllegalStateException when the exchange is rejected.
+     */
+    @Override
+    public boolean add(Exchange exchange) {
+        Objects.requireNonNull(exchange);
+        Exchange dropped = null;
+        Exchange coalesced = null;
+        boolean rejected = false;
+
+        lock.lock();
+        try {
+            if (policy == QueueOverloadPolicy.BLOCK) {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+                while (items.size() >= capacity && nanos > 0) {
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            }
+
+            if (items.size() < capacity) {
+                enqueue(exchange);
+                return true;
+            }
+
+            switch (policy) {
+                case DROP_NEWEST -> {
+                    dropped = exchange;
+                    droppedCount++;
+                }
+                case DROP_OLDEST -> {
+                    dropped = items.pollFirst();
+                    removed(dropped);
+                    droppedCount++;
+                    enqueue(exchange);
+                }
+                case COALESCE -> {
+                    Exchange waiting = getCoalesceTarget(exchange);
+                    if (waiting != null) {
+                        waiting.setIn(exchange.getIn());
+                        coalesced = exchange;
+                        coalescedCount++;
+                    } else {
+                        rejected = true;
+                    }
+                }
+                default -> rejected = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected = true;
+        } finally {
+            if (rejected) {
+                rejectedCount++;
+            }
+            lock.unlock();
+        }
+
+        if (rejected) {
+            throw new IllegalStateException("Queue full: " + name);
+        }
+        if (dropped != null) {
+            LOG.log(Level.FINE, () -> "Dropping exchange of full queue '" + name + "': " + policy);
+            dropped.setException(new RejectedExecutionException("Exchange dropped by the " + policy + " overload policy of queue: " + name));
+            done(dropped);
+        }
+        if (coalesced != null) {
+            done(coalesced);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean offer(Exchange exchange) {
+        Objects.requireNonNull(exchange);
+        lock.lock();
+        try {
+            if (items.size() >= capacity) {
+                return false;
+            }
+            enqueue(exchange);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Exchange exchange, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(exchange);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(exchange);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Exchange exchange) throws InterruptedException {
+        Objects.requireNonNull(exchange);
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(exchange);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange peek() {
+        lock.lock();
+        try {
+            return items.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Exchange> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Exchange> collection, int maxElements) {
+        Objects.requireNonNull(collection);
+        if (collection == this) {
+            throw new IllegalArgumentException("Can't drain a queue to itself");
+        }
+        lock.lock();
+        try {
+            int count = 0;
+            Exchange exchange;
+            while (count < maxElements && (exchange = dequeue()) != null) {
+                collection.add(exchange);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            if (!items.remove(o)) {
+                return false;
+            }
+            removed((Exchange) o);
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        lock.lock();
+        try {
+            return items.contains(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            items.clear();
+            itemsByCoalesceKey.clear();
+            overWatermark = false;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the waiting exchanges.
+     */
+    @Override
+    public Iterator<Exchange> iterator() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(items)).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setCoalesceKeyFunction(Function<Exchange, Object> coalesceKeyFunction) {
+        this.coalesceKeyFunction = Objects.requireNonNull(coalesceKeyFunction);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public QueueOverloadPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getBlockMillis() {
+        return blockMillis;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount;
+    }
+
+    public long getDequeuedCount() {
+        return dequeuedCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public boolean isOverWatermark() {
+        return overWatermark;
+    }
+
+    /**
+     * @return Exchanges taken from the queue per second since the previous sample.
+     */
+    public synchronized double sampleThroughput() {
+        long now = System.currentTimeMillis();
+        long count = dequeuedCount;
+        double throughput = (count - sampleDequeuedCount) * 1000d / Math.max(1, now - sampleMillis);
+        sampleMillis = now;
+        sampleDequeuedCount = count;
+        return throughput;
+    }
+
+    protected void enqueue(Exchange exchange) {
+        items.addLast(exchange);
+        if (policy == QueueOverloadPolicy.COALESCE && exchange.getPattern() == ExchangePattern.InOnly) {
+            Object key = coalesceKeyFunction.apply(exchange);
+            if (key != null) {
+                itemsByCoalesceKey.put(key, exchange);
+            }
+        }
+        enqueuedCount++;
+        int depth = items.size();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        if (!overWatermark && depth >= highWatermark) {
+            overWatermark = true;
+            LOG.warning("Queue '" + name + "' is over its watermark: depth=" + depth + ", capacity=" + capacity);
+        }
+        notEmpty.signal();
+    }
+
+    protected Exchange dequeue() {
+        Exchange exchange = items.pollFirst();
+        if (exchange != null) {
+            removed(exchange);
+            dequeuedCount++;
+            notFull.signal();
+        }
+        return exchange;
+    }
+
+    protected void removed(Exchange exchange) {
+        if (!itemsByCoalesceKey.isEmpty()) {
+            Object key = coalesceKeyFunction.apply(exchange);
+            if (key != null) {
+                itemsByCoalesceKey.remove(key, exchange);
+            }
+        }
+        if (overWatermark && items.size() <= lowWatermark) {
+            overWatermark = false;
+            LOG.info("Queue '" + name + "' is back under its watermark: depth=" + items.size() + ", capacity=" + capacity);
+        }
+    }
+
+    protected Exchange getCoalesceTarget(Exchange exchange) {
+        if (exchange.getPattern() != ExchangePattern.InOnly) {
+            return null;
+        }
+        Object key = coalesceKeyFunction.apply(exchange);
+        return key != null ? itemsByCoalesceKey.get(key) : null;
+    }
+
+    /**
+     * Run the completions a SEDA producer handed over with the exchange, this releases a producer that waits for the
+     * exchange to complete.
+     */
+    protected void done(Exchange exchange) {
+        List<Synchronization> completions = exchange.handoverCompletions();
+        if (completions == null) {
+            return;
+        }
+        for (Synchronization completion : completions) {
+            try {
+                if (exchange.isFailed()) {
+                    completion.onFailure(exchange);
+                } else {
+                    completion.onComplete(exchange);
+                }
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Completion of exchange failed in queue: " + name, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", capacity=" + capacity +
+            ", policy=" + policy +
+            '}';
+    }
+}
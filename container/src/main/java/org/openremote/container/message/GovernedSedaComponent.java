@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.message;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.seda.BlockingQueueFactory;
+import org.apache.camel.component.seda.QueueReference;
+import org.apache.camel.component.seda.SedaComponent;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.apache.camel.util.StringHelper;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.openremote.container.message.MessageBrokerService.*;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
+
+/**
+ * SEDA component that creates a {@link GovernedQueue} for every endpoint that doesn't bring its own queue factory, so
+ * every queue reports its depth and counters; with the default {@link QueueOverloadPolicy#FAIL} a queue rejects like
+ * the plain SEDA queue.
+ * <p>
+ * The overload policy and block time of a queue are configured with {@link MessageBrokerService#OR_MESSAGE_QUEUE_POLICY}
+ * and {@link MessageBrokerService#OR_MESSAGE_QUEUE_BLOCK_MILLIS}, followed by the queue name in upper snake case to
+ * configure a single queue, e.g. <code>OR_MESSAGE_QUEUE_POLICY_ASSET_QUEUE=BLOCK</code> for
+ * <code>seda://AssetQueue</code>.
+ */
+public class GovernedSedaComponent extends SedaComponent {
+
+    protected final Map<String, String> config;
+    protected final Map<String, GovernedQueue> governedQueues = new ConcurrentHashMap<>();
+
+    public GovernedSedaComponent(Map<String, String> config) {
+        this.config = config;
+    }
+
+    @Override
+    public synchronized QueueReference getOrCreateQueue(SedaEndpoint endpoint, Integer size, Boolean multipleConsumers, BlockingQueueFactory<Exchange> customQueueFactory) {
+        if (customQueueFactory == null || customQueueFactory == getDefaultQueueFactory()) {
+            String name = getQueueName(endpoint.getEndpointUri());
+            customQueueFactory = new BlockingQueueFactory<>() {
+                @Override
+                public BlockingQueue<Exchange> create() {
+                    return createQueue(name, 0);
+                }
+
+                @Override
+                public BlockingQueue<Exchange> create(int capacity) {
+                    return createQueue(name, capacity);
+                }
+            };
+        }
+        return super.getOrCreateQueue(endpoint, size, multipleConsumers, customQueueFactory);
+    }
+
+    /**
+     * @return The governed queues of the endpoints that have been started, ordered by name.
+     */
+    public List<GovernedQueue> getGovernedQueues() {
+        List<GovernedQueue> queues = new ArrayList<>(governedQueues.values());
+        queues.sort(Comparator.comparing(GovernedQueue::getName));
+        return queues;
+    }
+
+    public GovernedQueue getGovernedQueue(String name) {
+        return governedQueues.get(name);
+    }
+
+    protected GovernedQueue createQueue(String name, int capacity) {
+        String configName = getConfigName(name);
+        String policyValue = getString(config, OR_MESSAGE_QUEUE_POLICY + "_" + configName,
+            getString(config, OR_MESSAGE_QUEUE_POLICY, OR_MESSAGE_QUEUE_POLICY_DEFAULT.name()));
+        QueueOverloadPolicy policy;
+        try {
+            policy = QueueOverloadPolicy.valueOf(policyValue.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Invalid overload policy of queue '" + name + "': " + policyValue);
+        }
+        int blockMillis = getInteger(config, OR_MESSAGE_QUEUE_BLOCK_MILLIS + "_" + configName,
+            getInteger(config, OR_MESSAGE_QUEUE_BLOCK_MILLIS, OR_MESSAGE_QUEUE_BLOCK_MILLIS_DEFAULT));
+        int watermarkPercent = getInteger(config, OR_MESSAGE_QUEUE_WATERMARK_PERCENT, OR_MESSAGE_QUEUE_WATERMARK_PERCENT_DEFAULT);
+
+        GovernedQueue queue = new GovernedQueue(name, capacity, policy, blockMillis, watermarkPercent);
+        governedQueues.put(name, queue);
+        return queue;
+    }
+
+    public static String getQueueName(String uri) {
+        String name = uri.contains("://") ? StringHelper.after(uri, "://") : StringHelper.after(uri, ":");
+        name = name == null ? uri : name;
+        return name.contains("?") ? StringHelper.before(name, "?") : name;
+    }
+
+    /**
+     * @return The queue name in upper snake case, e.g. <code>ASSET_QUEUE</code> for <code>AssetQueue</code>.
+     */
+    public static String getConfigName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 8);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && Character.isLowerCase(name.charAt(i - 1))) {
+                sb.append('_');
+            }
+            sb.append(Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : '_');
+        }
+        return sb.toString();
+    }
+}
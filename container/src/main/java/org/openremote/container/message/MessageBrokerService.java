@@ -35,22 +35,47 @@ import org.openremote.container.web.DefaultWebsocketComponent;
 import org.openremote.container.web.WebService;
 import org.openremote.container.web.socket.WebsocketComponent;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 
 public class MessageBrokerService implements ContainerService {
 
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN = "MESSAGE_SESSION_ALLOWED_ORIGIN";
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN_DEFAULT = null;
+    public static final String MESSAGE_SESSION_QUEUE_SIZE = "MESSAGE_SESSION_QUEUE_SIZE";
+    public static final int MESSAGE_SESSION_QUEUE_SIZE_DEFAULT = WebsocketComponent.SESSION_QUEUE_SIZE_DEFAULT;
+    public static final String MESSAGE_SESSION_MAX_LAG_MILLIS = "MESSAGE_SESSION_MAX_LAG_MILLIS";
+    public static final int MESSAGE_SESSION_MAX_LAG_MILLIS_DEFAULT = (int) WebsocketComponent.SESSION_MAX_LAG_MILLIS_DEFAULT;
+    /**
+     * Overload policy of the SEDA queues, append the queue name in upper snake case to configure a single queue (e.g.
+     * <code>OR_MESSAGE_QUEUE_POLICY_ASSET_QUEUE</code>); see {@link QueueOverloadPolicy}.
+     */
+    public static final String OR_MESSAGE_QUEUE_POLICY = "OR_MESSAGE_QUEUE_POLICY";
+    public static final QueueOverloadPolicy OR_MESSAGE_QUEUE_POLICY_DEFAULT = QueueOverloadPolicy.FAIL;
+    /**
+     * How long the {@link QueueOverloadPolicy#BLOCK} policy waits for space, append the queue name to configure a single
+     * queue.
+     */
+    public static final String OR_MESSAGE_QUEUE_BLOCK_MILLIS = "OR_MESSAGE_QUEUE_BLOCK_MILLIS";
+    public static final int OR_MESSAGE_QUEUE_BLOCK_MILLIS_DEFAULT = 1000;
+    /**
+     * Depth as a percentage of the queue size at which a SEDA queue is reported as over its watermark.
+     */
+    public static final String OR_MESSAGE_QUEUE_WATERMARK_PERCENT = "OR_MESSAGE_QUEUE_WATERMARK_PERCENT";
+    public static final int OR_MESSAGE_QUEUE_WATERMARK_PERCENT_DEFAULT = 80;
     private static final Logger LOG = Logger.getLogger(MessageBrokerService.class.getName());
     public static final int PRIORITY = ContainerService.HIGH_PRIORITY;
 
     protected ProducerTemplate producerTemplate;
     protected MessageBrokerContext context;
+    protected GovernedSedaComponent sedaComponent;
 
     @Override
     public int getPriority() {
@@ -135,11 +160,16 @@ public class MessageBrokerService implements ContainerService {
         String allowedOrigin = getString(container.getConfig(), MESSAGE_SESSION_ALLOWED_ORIGIN, MESSAGE_SESSION_ALLOWED_ORIGIN_DEFAULT);
         WebsocketComponent websocketComponent = new DefaultWebsocketComponent(
             container,
-            allowedOrigin
+            allowedOrigin,
+            getInteger(container.getConfig(), MESSAGE_SESSION_QUEUE_SIZE, MESSAGE_SESSION_QUEUE_SIZE_DEFAULT),
+            getInteger(container.getConfig(), MESSAGE_SESSION_MAX_LAG_MILLIS, MESSAGE_SESSION_MAX_LAG_MILLIS_DEFAULT)
         );
 
         context.addComponent(WebsocketComponent.NAME, websocketComponent);
         context.addComponent("snmp", new SnmpComponent());
+
+        sedaComponent = new GovernedSedaComponent(container.getConfig());
+        context.addComponent("seda", sedaComponent);
     }
 
     @Override
@@ -164,6 +194,13 @@ public class MessageBrokerService implements ContainerService {
         return producerTemplate;
     }
 
+    /**
+     * @return The queues of the started SEDA endpoints with their overload policies and counters.
+     */
+    public List<GovernedQueue> getQueues() {
+        return sedaComponent != null ? sedaComponent.getGovernedQueues() : Collections.emptyList();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
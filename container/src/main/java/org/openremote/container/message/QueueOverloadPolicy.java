@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.message;
+
+/**
+ * What a {@link GovernedQueue} does with an exchange that is added whilst the queue is full.
+ */
+public enum QueueOverloadPolicy {
+
+    /**
+     * Reject the new exchange straight away, the producer gets an {@link IllegalStateException}; this is the plain
+     * SEDA behaviour.
+     */
+    FAIL,
+
+    /**
+     * Wait up to the configured block time for space, then reject the new exchange like {@link #FAIL}.
+     */
+    BLOCK,
+
+    /**
+     * Drop the oldest waiting exchange to make space for the new exchange; the dropped exchange fails with a
+     * {@link java.util.concurrent.RejectedExecutionException} so a producer waiting for it is released.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new exchange; it fails with a {@link java.util.concurrent.RejectedExecutionException} so a producer
+     * waiting for it is released.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Replace the message of the waiting exchange that has the same coalesce key as the new exchange, so only the
+     * latest message of each key is processed. Only in-only exchanges are coalesced, when there is nothing to coalesce
+     * with the new exchange is rejected like {@link #FAIL}.
+     */
+    COALESCE
+}
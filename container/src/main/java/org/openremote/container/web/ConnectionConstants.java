@@ -29,5 +29,6 @@ public interface ConnectionConstants {
     String SESSION_OPEN = "connection.sessionOpen";
     String SESSION_CLOSE = "connection.sessionClose";
     String SESSION_CLOSE_ERROR = "connection.sessionCloseError";
+    String MESSAGE_COALESCE_KEY = "connection.messageCoalesceKey";
 
 }
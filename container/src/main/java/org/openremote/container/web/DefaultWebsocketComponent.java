@@ -65,6 +65,11 @@ public class DefaultWebsocketComponent extends WebsocketComponent {
     protected WebService.RequestHandler websocketHttpHandler;
 
     public DefaultWebsocketComponent(Container container, String allowedOrigin) {
+        this(container, allowedOrigin, SESSION_QUEUE_SIZE_DEFAULT, SESSION_MAX_LAG_MILLIS_DEFAULT);
+    }
+
+    public DefaultWebsocketComponent(Container container, String allowedOrigin, int sessionQueueSize, long sessionMaxLagMillis) {
+        super(sessionQueueSize, sessionMaxLagMillis);
         this.container = container;
         this.webService = container.getService(WebService.class);
         this.allowedOrigin = allowedOrigin;
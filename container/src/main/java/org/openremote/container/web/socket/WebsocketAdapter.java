@@ -73,6 +73,7 @@ public class WebsocketAdapter extends Endpoint {
             exchange.getIn().setHeader(ConnectionConstants.SESSION_CLOSE, true);
         });
         consumer.getEndpoint().getWebsocketSessions().remove(session);
+        consumer.getEndpoint().getComponent().removeSessionQueue(session);
     }
 
     @Override
@@ -89,6 +90,7 @@ public class WebsocketAdapter extends Endpoint {
             exchange.getIn().setHeader(ConnectionConstants.SESSION_CLOSE_ERROR, true);
         });
         consumer.getEndpoint().getWebsocketSessions().remove(session);
+        consumer.getEndpoint().getComponent().removeSessionQueue(session);
     }
 
     protected void prepareExchange(Exchange exchange, Session session) {
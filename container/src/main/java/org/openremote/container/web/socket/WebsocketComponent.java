@@ -23,8 +23,10 @@ import org.apache.camel.Endpoint;
 import org.apache.camel.impl.DefaultComponent;
 import org.apache.camel.util.ServiceHelper;
 
+import javax.websocket.Session;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 public abstract class WebsocketComponent extends DefaultComponent {
@@ -32,12 +34,23 @@ public abstract class WebsocketComponent extends DefaultComponent {
     private static final Logger LOG = Logger.getLogger(WebsocketComponent.class.getName());
 
     public static final String NAME = "websocket";
+    public static final int SESSION_QUEUE_SIZE_DEFAULT = 1000;
+    public static final long SESSION_MAX_LAG_MILLIS_DEFAULT = 30000;
 
     final protected Map<String, WebsocketConsumer> consumers = new HashMap<>();
     final protected WebsocketSessions websocketSessions;
+    final protected Map<String, WebsocketSessionQueue> sessionQueues = new ConcurrentHashMap<>();
+    final protected int sessionQueueSize;
+    final protected long sessionMaxLagMillis;
 
     public WebsocketComponent() {
+        this(SESSION_QUEUE_SIZE_DEFAULT, SESSION_MAX_LAG_MILLIS_DEFAULT);
+    }
+
+    public WebsocketComponent(int sessionQueueSize, long sessionMaxLagMillis) {
         this.websocketSessions = new MemoryWebsocketSessions();
+        this.sessionQueueSize = sessionQueueSize;
+        this.sessionMaxLagMillis = sessionMaxLagMillis;
     }
 
     @Override
@@ -57,6 +70,7 @@ public abstract class WebsocketComponent extends DefaultComponent {
     protected void doStop() throws Exception {
         super.doStop();
         ServiceHelper.stopService(getWebsocketSessions());
+        sessionQueues.clear();
         undeploy();
     }
 
@@ -64,6 +78,17 @@ public abstract class WebsocketComponent extends DefaultComponent {
         return websocketSessions;
     }
 
+    /**
+     * Get the outbound message queue of the session, all messages to a session must be sent through its queue.
+     */
+    public WebsocketSessionQueue getSessionQueue(Session session) {
+        return sessionQueues.computeIfAbsent(session.getId(), id -> new WebsocketSessionQueue(session, sessionQueueSize, sessionMaxLagMillis));
+    }
+
+    public void removeSessionQueue(Session session) {
+        sessionQueues.remove(session.getId());
+    }
+
     public Map<String, WebsocketConsumer> getConsumers() {
         return consumers;
     }
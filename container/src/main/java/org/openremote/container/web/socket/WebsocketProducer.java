@@ -26,7 +26,6 @@ import org.apache.camel.impl.DefaultProducer;
 import org.openremote.container.web.ConnectionConstants;
 
 import javax.websocket.Session;
-import java.io.IOException;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,13 +50,14 @@ public class WebsocketProducer extends DefaultProducer {
         if (!(message == null || message instanceof String || message instanceof byte[])) {
             message = in.getMandatoryBody(String.class);
         }
+        String coalesceKey = in.getHeader(ConnectionConstants.MESSAGE_COALESCE_KEY, String.class);
         if (isSendToAllSet(in)) {
-            sendToAll(message, exchange);
+            sendToAll(message, coalesceKey, exchange);
         } else {
             String sessionKey = in.getHeader(ConnectionConstants.SESSION_KEY, String.class);
             if (sessionKey != null) {
                 Session websocket = getEndpoint().getComponent().getWebsocketSessions().get(sessionKey);
-                sendMessage(websocket, message);
+                sendMessage(websocket, message, coalesceKey);
             } else {
                 throw new IllegalArgumentException("Failed to send message to Websocket session; session key not set.");
             }
@@ -73,7 +73,7 @@ public class WebsocketProducer extends DefaultProducer {
         return value == null ? false : value;
     }
 
-    protected void sendToAll(Object message, Exchange exchange) throws Exception {
+    protected void sendToAll(Object message, String coalesceKey, Exchange exchange) throws Exception {
         Collection<Session> sessions = getEndpoint().getComponent().getWebsocketSessions().getAll();
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("Sending to all sessions (" + sessions.size() + "): " + message);
@@ -81,7 +81,7 @@ public class WebsocketProducer extends DefaultProducer {
         Exception exception = null;
         for (Session session : sessions) {
             try {
-                sendMessage(session, message);
+                sendMessage(session, message, coalesceKey);
             } catch (Exception e) {
                 if (exception == null) {
                     exception = new CamelExchangeException("Failed to deliver message to one or more recipients.", exchange, e);
@@ -93,12 +93,15 @@ public class WebsocketProducer extends DefaultProducer {
         }
     }
 
-    protected void sendMessage(Session session, Object message) throws IOException {
+    /**
+     * Messages are queued for the session so a slow client doesn't hold up delivery to other sessions.
+     */
+    protected void sendMessage(Session session, Object message, String coalesceKey) {
         if (session != null && session.isOpen()) {
             if (message instanceof String) {
                 if (LOG.isLoggable(Level.FINE))
-                    LOG.finer("Sending to session " + session.getId() + ": " + message);
-                session.getBasicRemote().sendText((String) message);
+                    LOG.finer("Queueing for session " + session.getId() + ": " + message);
+                getEndpoint().getComponent().getSessionQueue(session).offer((String) message, coalesceKey);
             }
         }
     }
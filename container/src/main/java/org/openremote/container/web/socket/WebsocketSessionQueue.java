@@ -0,0 +1,212 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.web.socket;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded outbound message queue of a websocket session; messages are sent with the async remote one at a time, so
+ * the caller never waits for a slow client.
+ * <p>
+ * Messages with a coalesce key replace the message with the same key that is still waiting to be sent, so while the
+ * client is not keeping up it only receives the latest of them. The session is closed when the queue is full or when
+ * the oldest waiting message has been waiting longer than the maximum lag.
+ */
+public class WebsocketSessionQueue {
+
+    protected static class Entry {
+        final String coalesceKey;
+        final long enqueuedMillis;
+        String message;
+
+        public Entry(String coalesceKey, long enqueuedMillis, String message) {
+            this.coalesceKey = coalesceKey;
+            this.enqueuedMillis = enqueuedMillis;
+            this.message = message;
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(WebsocketSessionQueue.class.getName());
+    protected final Session session;
+    protected final int maxSize;
+    protected final long maxLagMillis;
+    protected final LongSupplier currentMillisSupplier;
+    protected final Deque<Entry> pending = new ArrayDeque<>();
+    protected final Map<String, Entry> pendingByCoalesceKey = new HashMap<>();
+    protected boolean sending;
+    protected boolean closed;
+    protected long sentCount;
+    protected long coalescedCount;
+
+    public WebsocketSessionQueue(Session session, int maxSize, long maxLagMillis) {
+        this(session, maxSize, maxLagMillis, System::currentTimeMillis);
+    }
+
+    public WebsocketSessionQueue(Session session, int maxSize, long maxLagMillis, LongSupplier currentMillisSupplier) {
+        this.session = session;
+        this.maxSize = maxSize;
+        this.maxLagMillis = maxLagMillis;
+        this.currentMillisSupplier = currentMillisSupplier;
+    }
+
+    /**
+     * Queue the message for sending, the coalesce key is optional.
+     */
+    public void offer(String message, String coalesceKey) {
+        String closeReason = null;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            if (coalesceKey != null) {
+                Entry entry = pendingByCoalesceKey.get(coalesceKey);
+                if (entry != null) {
+                    entry.message = message;
+                    coalescedCount++;
+                    return;
+                }
+            }
+
+            long now = currentMillisSupplier.getAsLong();
+            if (pending.size() >= maxSize) {
+                closeReason = "Outbound message queue is full (" + maxSize + ")";
+            } else if (maxLagMillis > 0 && !pending.isEmpty() && now - pending.peekFirst().enqueuedMillis > maxLagMillis) {
+                closeReason = "Outbound messages are lagging more than " + maxLagMillis + "ms";
+            } else {
+                Entry entry = new Entry(coalesceKey, now, message);
+                pending.addLast(entry);
+                if (coalesceKey != null) {
+                    pendingByCoalesceKey.put(coalesceKey, entry);
+                }
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+        }
+
+        if (closeReason != null) {
+            close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, closeReason));
+        } else {
+            sendNext();
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Discard all waiting messages and close the session.
+     */
+    public void close(CloseReason closeReason) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+            pendingByCoalesceKey.clear();
+        }
+
+        LOG.info("Closing websocket session " + session.getId() + ": " + closeReason.getReasonPhrase());
+        try {
+            session.close(closeReason);
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Failed to close websocket session: " + session.getId(), e);
+        }
+    }
+
+    protected void sendNext() {
+        Entry entry;
+
+        synchronized (this) {
+            entry = closed ? null : pending.pollFirst();
+            if (entry == null) {
+                sending = false;
+                return;
+            }
+            if (entry.coalesceKey != null) {
+                pendingByCoalesceKey.remove(entry.coalesceKey);
+            }
+        }
+
+        try {
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Sending to session " + session.getId() + ": " + entry.message);
+            }
+            session.getAsyncRemote().sendText(entry.message, this::onSendResult);
+        } catch (RuntimeException e) {
+            onSendResult(new SendResult(e));
+        }
+    }
+
+    protected void onSendResult(SendResult result) {
+        if (!result.isOK()) {
+            LOG.log(Level.FINE, "Failed to send to websocket session: " + session.getId(), result.getException());
+            synchronized (this) {
+                // The session is broken, its close/error handling will clean up
+                closed = true;
+                sending = false;
+                pending.clear();
+                pendingByCoalesceKey.clear();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            sentCount++;
+        }
+        sendNext();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "session=" + session.getId() +
+            ", maxSize=" + maxSize +
+            ", maxLagMillis=" + maxLagMillis +
+            '}';
+    }
+}
@@ -55,6 +55,7 @@ import org.openremote.model.util.TextUtil;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
@@ -66,10 +67,12 @@ import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.AGENT;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.withLockReturning;
 import static org.openremote.container.persistence.PersistenceService.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceService.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.asset.AssetProcessingService.ASSET_QUEUE;
 import static org.openremote.manager.gateway.GatewayService.isNotForGateway;
 import static org.openremote.model.asset.agent.Protocol.ACTUATOR_TOPIC;
@@ -83,10 +86,18 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * Handles life cycle and communication with {@link Protocol}s.
  * <p>
  * Finds all {@link Agent} assets and manages their {@link Protocol} instances.
+ * <p>
+ * Protocol instance life cycle, attribute linking and attribute writes are guarded by the
+ * {@link org.openremote.container.concurrent.KeyedLockManager.Scope#AGENT} lock of the agent so that agents can be
+ * started, stopped and written to concurrently.
  */
 public class AgentService extends RouteBuilder implements ContainerService, AssetUpdateProcessor, ProtocolAssetService {
 
     private static final Logger LOG = Logger.getLogger(AgentService.class.getName());
+    public static final String OR_AGENT_WRITE_THREADS = "OR_AGENT_WRITE_THREADS";
+    public static final int OR_AGENT_WRITE_THREADS_DEFAULT = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    public static final String OR_AGENT_WRITE_QUEUE_SIZE = "OR_AGENT_WRITE_QUEUE_SIZE";
+    public static final int OR_AGENT_WRITE_QUEUE_SIZE_DEFAULT = 1000;
     public static final int PRIORITY = DEFAULT_PRIORITY + 100; // Start quite late to ensure asset model etc. are initialised
     protected TimerService timerService;
     protected ManagerIdentityService identityService;
@@ -96,10 +107,11 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
     protected ScheduledExecutorService executorService;
-    protected Map<String, Agent<?, ?, ?>> agentMap;
+    protected volatile Map<String, Agent<?, ?, ?>> agentMap;
     protected final Map<String, Future<Void>> agentDiscoveryImportFutureMap = new HashMap<>();
-    protected final Map<String, Protocol<?>> protocolInstanceMap = new HashMap<>();
-    protected final Map<String, List<Consumer<PersistenceEvent<Asset<?>>>>> childAssetSubscriptions = new HashMap<>();
+    protected final Map<String, Protocol<?>> protocolInstanceMap = new ConcurrentHashMap<>();
+    protected ProtocolWriteDispatcher protocolWriteDispatcher;
+    protected final Map<String, List<Consumer<PersistenceEvent<Asset<?>>>>> childAssetSubscriptions = new ConcurrentHashMap<>();
     protected boolean initDone;
     protected Container container;
 
@@ -124,6 +136,11 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return;
         }
 
+        protocolWriteDispatcher = new ProtocolWriteDispatcher(
+            getInteger(container.getConfig(), OR_AGENT_WRITE_THREADS, OR_AGENT_WRITE_THREADS_DEFAULT),
+            getInteger(container.getConfig(), OR_AGENT_WRITE_QUEUE_SIZE, OR_AGENT_WRITE_QUEUE_SIZE_DEFAULT)
+        );
+
         container.getService(ManagerWebService.class).addApiSingleton(
             new AgentResourceImpl(
                 container.getService(TimerService.class),
@@ -154,6 +171,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         agents.forEach(agent -> this.stopAgent(agent.getId()));
         agentMap.clear();
         protocolInstanceMap.clear();
+        protocolWriteDispatcher.stop();
     }
 
     @SuppressWarnings("unchecked")
@@ -174,12 +192,31 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
                 }
             });
 
-        // A protocol wants to write a new sensor value
+        // A protocol wants to write a new sensor value or a batch of them
         from(SENSOR_QUEUE)
             .routeId("FromSensorUpdates")
-            .filter(body().isInstanceOf(AttributeEvent.class))
-            .setHeader(HEADER_SOURCE, () -> SENSOR)
-            .to(ASSET_QUEUE);
+            .choice()
+                .when(body().isInstanceOf(AttributeEvent.class))
+                    .setHeader(HEADER_SOURCE, () -> SENSOR)
+                    .process(exchange -> assetProcessingService.journalAttributeEvent(exchange))
+                    .to(ASSET_QUEUE)
+                .when(body().isInstanceOf(Collection.class))
+                    .process(exchange -> {
+                        Map<String, Object> headers = new HashMap<>(exchange.getIn().getHeaders());
+                        headers.put(HEADER_SOURCE, SENSOR);
+                        List<AttributeEvent> events = ((Collection<?>) exchange.getIn().getBody()).stream()
+                            .filter(AttributeEvent.class::isInstance)
+                            .map(AttributeEvent.class::cast)
+                            .collect(Collectors.toList());
+                        LOG.finest("Sensor update batch: protocol=" + headers.get(Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL) + ", events=" + events.size());
+                        assetProcessingService.sendAttributeEvents(events, headers);
+                    })
+            .end();
+
+        // Writes sent on the actuator topic are dispatched like the writes of linked attributes
+        from(ACTUATOR_TOPIC)
+            .routeId("ActuatorTopicDispatch")
+            .process(protocolWriteDispatcher);
     }
 
     @Override
@@ -393,7 +430,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void startAgent(Agent<?,?,?> agent) {
-        withLock(getClass().getSimpleName() + "::startAgent", () -> {
+        withLock(AGENT, agent.getId(), getClass().getSimpleName() + "::startAgent", () -> {
             Protocol<?> protocol = null;
 
             try {
@@ -402,6 +439,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
                 LOG.fine("Starting protocol instance: " + protocol);
                 protocol.start(container);
+                protocolWriteDispatcher.register(agent.getId(), protocol);
                 LOG.fine("Started protocol instance:" + protocol);
 
                 LOG.finer("Linking attributes to protocol instance: " + protocol);
@@ -436,6 +474,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
                     } catch (Exception ignored) {
                     }
                 }
+                protocolWriteDispatcher.unregister(agent.getId());
                 protocolInstanceMap.remove(agent.getId());
                 LOG.log(Level.SEVERE, "Failed to start protocol instance for agent: " + agent, e);
                 sendAttributeEvent(new AttributeEvent(agent.getId(), Agent.STATUS.getName(), ConnectionStatus.ERROR));
@@ -444,7 +483,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void stopAgent(String agentId) {
-        withLock(getClass().getSimpleName() + "::stopAgent", () -> {
+        withLock(AGENT, agentId, getClass().getSimpleName() + "::stopAgent", () -> {
             Protocol<?> protocol = protocolInstanceMap.get(agentId);
 
             if (protocol == null) {
@@ -457,6 +496,9 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
             groupedAttributes.forEach((assetId, linkedAttributes) -> unlinkAttributes(agentId, assetId, linkedAttributes));
 
+            // Discard the writes that are still waiting
+            protocolWriteDispatcher.unregister(agentId);
+
             // Stop the protocol instance
             try {
                 protocol.stop(container);
@@ -471,7 +513,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void linkAttributes(Agent<?,?,?> agent, String assetId, Collection<Attribute<?>> attributes) {
-        withLock(getClass().getSimpleName() + "::linkAttributes", () -> {
+        withLock(AGENT, agent.getId(), getClass().getSimpleName() + "::linkAttributes", () -> {
             Protocol<?> protocol = getProtocolInstance(agent.getId());
 
             if (protocol == null) {
@@ -495,7 +537,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void unlinkAttributes(String agentId, String assetId, List<Attribute<?>> attributes) {
-        withLock(getClass().getSimpleName() + "::unlinkAttributes", () -> {
+        withLock(AGENT, agentId, getClass().getSimpleName() + "::unlinkAttributes", () -> {
             Protocol<?> protocol = getProtocolInstance(agentId);
 
             if (protocol == null) {
@@ -521,7 +563,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     /**
      * If this is an update from a sensor, or if the changed attribute is not linked to an agent, it's ignored.
      * <p>
-     * Otherwise push the update to the attributes' linked protocol to handle and prevent any further
+     * Otherwise dispatch the update to the attributes' linked protocol instance to handle and prevent any further
      * processing of this event by the processing chain. The protocol should raise sensor updates as
      * required (i.e. the protocol is responsible for synchronising state with the database).
      */
@@ -561,20 +603,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return false;
         }
 
-        Boolean result = withLockReturning(getClass().getSimpleName() + "::processAssetUpdate", () ->
-            attribute.getMetaValue(AGENT_LINK)
-                .map(agentLink -> {
-                    LOG.finer("Attribute write for agent linked attribute: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
-
-                    messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                        ACTUATOR_TOPIC,
-                        attributeEvent,
-                        Protocol.ACTUATOR_TOPIC_TARGET_PROTOCOL,
-                        getProtocolInstance(agentLink.getId())
-                    );
-                    return true; // Processing complete, skip other processors
-                }).orElse(false) // This is a regular attribute so allow the processing to continue
-        );
+        Boolean result = attribute.getMetaValue(AGENT_LINK)
+            .map(agentLink -> withLockReturning(AGENT, agentLink.getId(), getClass().getSimpleName() + "::processAssetUpdate", () -> {
+                LOG.finer("Attribute write for agent linked attribute: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
+
+                protocolWriteDispatcher.dispatch(agentLink.getId(), attributeEvent);
+                return true; // Processing complete, skip other processors
+            })).orElse(false); // This is a regular attribute so allow the processing to continue
         return result != null ? result : false;
     }
 
@@ -621,14 +656,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             agent = loadedAgent;
         }
 
-        Agent<?, ?, ?> finalAgent = agent;
-        withLock(getClass().getSimpleName() + "::addReplaceAgent", () -> getAgents().put(finalAgent.getId(), finalAgent));
+        getAgents().put(agent.getId(), agent);
         return agent;
     }
 
     @SuppressWarnings("ConstantConditions")
     protected boolean removeAgent(String agentId) {
-        return withLockReturning(getClass().getSimpleName() + "::removeAgent", () -> getAgents().remove(agentId) != null);
+        return getAgents().remove(agentId) != null;
     }
 
     public Agent<?, ?, ?> getAgent(String agentId) {
@@ -641,17 +675,17 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return agentMap;
         }
 
-        return withLockReturning(getClass().getSimpleName() + "::getAgents", () -> {
+        synchronized (this) {
             if (agentMap == null) {
                 agentMap = assetStorageService.findAll(
                         new AssetQuery().types(Agent.class)
                     )
                     .stream()
                     .filter(asset -> gatewayService.getLocallyRegisteredGatewayId(asset.getId(), null) == null)
-                    .collect(Collectors.toMap(Asset::getId, agent -> (Agent<?, ?, ?>)agent));
+                    .collect(Collectors.toMap(Asset::getId, agent -> (Agent<?, ?, ?>)agent, (a, b) -> b, ConcurrentHashMap::new));
             }
             return agentMap;
-        });
+        }
     }
 
     public Protocol<?> getProtocolInstance(Agent<?, ?, ?> agent) {
@@ -662,6 +696,10 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         return protocolInstanceMap.get(agentId);
     }
 
+    public ProtocolWriteDispatcher getProtocolWriteDispatcher() {
+        return protocolWriteDispatcher;
+    }
+
     @Override
     public void subscribeChildAssetChange(String agentId, Consumer<PersistenceEvent<Asset<?>>> assetChangeConsumer) {
         if (!getAgents().containsKey(agentId)) {
@@ -669,7 +707,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return;
         }
 
-        withLock(getClass().getSimpleName() + "::subscribeChildAssetChange", () -> {
+        withLock(AGENT, agentId, getClass().getSimpleName() + "::subscribeChildAssetChange", () -> {
             List<Consumer<PersistenceEvent<Asset<?>>>> consumerList = childAssetSubscriptions
                 .computeIfAbsent(agentId, (id) -> new ArrayList<>());
             if (!consumerList.contains(assetChangeConsumer)) {
@@ -680,7 +718,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
     @Override
     public void unsubscribeChildAssetChange(String agentId, Consumer<PersistenceEvent<Asset<?>>> assetChangeConsumer) {
-        withLock(getClass().getSimpleName() + "::unsubscribeChildAssetChange", () ->
+        withLock(AGENT, agentId, getClass().getSimpleName() + "::unsubscribeChildAssetChange", () ->
             childAssetSubscriptions.computeIfPresent(agentId, (id, consumerList) -> {
                 consumerList.remove(assetChangeConsumer);
                 return consumerList.isEmpty() ? null : consumerList;
@@ -688,7 +726,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void notifyChildAssetChange(String agentId, PersistenceEvent<Asset<?>> assetPersistenceEvent) {
-        withLock(getClass().getSimpleName() + "::notifyChildAssetChange", () ->
+        withLock(AGENT, agentId, getClass().getSimpleName() + "::notifyChildAssetChange", () ->
             childAssetSubscriptions.computeIfPresent(agentId, (id, consumerList) -> {
                 LOG.finer("Notifying child asset change consumers of change to agent child asset: Agent ID=" + id + ", Asset<?> ID=" + assetPersistenceEvent.getEntity().getId());
                 try {
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.agent;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.container.concurrent.ContainerThreadFactory;
+import org.openremote.model.asset.agent.Protocol;
+import org.openremote.model.attribute.AttributeEvent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.openremote.model.asset.agent.Protocol.ACTUATOR_TOPIC_TARGET_PROTOCOL;
+
+/**
+ * Registry of the protocol instances by agent ID that hands attribute writes directly to the protocol instance of the
+ * target agent.
+ * <p>
+ * Each protocol instance has a bounded queue of waiting writes that is drained on a shared pool of threads, so writes
+ * of an agent are processed one at a time and in order, whilst a slow protocol instance only holds up its own writes.
+ * As a {@link Processor} it dispatches the {@link AttributeEvent} body of an exchange to the protocol instance in the
+ * {@link Protocol#ACTUATOR_TOPIC_TARGET_PROTOCOL} header, this is how writes sent on the
+ * {@link Protocol#ACTUATOR_TOPIC} are delivered.
+ */
+public class ProtocolWriteDispatcher implements Processor {
+
+    protected class Mailbox implements Runnable {
+        final Protocol<?> protocol;
+        final Deque<AttributeEvent> pending = new ArrayDeque<>();
+        boolean scheduled;
+        boolean closed;
+
+        Mailbox(Protocol<?> protocol) {
+            this.protocol = protocol;
+        }
+
+        boolean offer(AttributeEvent event) {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                if (pending.size() >= queueSize) {
+                    droppedCount++;
+                    LOG.warning("Write queue of protocol is full (" + queueSize + ") so dropping write: protocol=" + protocol + ", event=" + event);
+                    return false;
+                }
+                pending.addLast(event);
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            schedule();
+            return true;
+        }
+
+        void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    scheduled = false;
+                    pending.clear();
+                }
+                LOG.log(Level.FINE, "Protocol write dispatcher is stopped so discarding writes: " + protocol, e);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            pending.clear();
+        }
+
+        @Override
+        public void run() {
+            // Release the thread after a batch, so a busy protocol instance doesn't hold up the others
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                AttributeEvent event;
+                synchronized (this) {
+                    event = closed ? null : pending.pollFirst();
+                    if (event == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    protocol.processLinkedAttributeWrite(event);
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Protocol failed to process attribute write: protocol=" + protocol + ", event=" + event, e);
+                }
+            }
+            schedule();
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(ProtocolWriteDispatcher.class.getName());
+    protected static final int BATCH_SIZE = 100;
+    protected final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    protected final ExecutorService executor;
+    protected final int queueSize;
+    protected volatile long droppedCount;
+
+    public ProtocolWriteDispatcher(int threads, int queueSize) {
+        this.queueSize = queueSize;
+        this.executor = new ContainerExecutor(
+            new ContainerThreadFactory("ProtocolWrites"),
+            new ThreadPoolExecutor.AbortPolicy(),
+            threads,
+            threads,
+            60,
+            new LinkedBlockingQueue<>()
+        );
+    }
+
+    /**
+     * Writes dispatched to the agent are handed to this protocol instance until it is unregistered.
+     */
+    public void register(String agentId, Protocol<?> protocol) {
+        Mailbox previous = mailboxes.put(agentId, new Mailbox(protocol));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Discards the waiting writes of the agent.
+     */
+    public void unregister(String agentId) {
+        Mailbox mailbox = mailboxes.remove(agentId);
+        if (mailbox != null) {
+            mailbox.close();
+        }
+    }
+
+    public Protocol<?> getProtocol(String agentId) {
+        Mailbox mailbox = mailboxes.get(agentId);
+        return mailbox != null ? mailbox.protocol : null;
+    }
+
+    /**
+     * @return <code>false</code> if there is no protocol instance for the agent or its write queue is full.
+     */
+    public boolean dispatch(String agentId, AttributeEvent event) {
+        Mailbox mailbox = mailboxes.get(agentId);
+        if (mailbox == null) {
+            LOG.fine("No protocol instance for agent so discarding write: agent=" + agentId + ", event=" + event);
+            return false;
+        }
+        return mailbox.offer(event);
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        Protocol<?> protocol = exchange.getIn().getHeader(ACTUATOR_TOPIC_TARGET_PROTOCOL, Protocol.class);
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+
+        if (protocol == null || event == null) {
+            LOG.fine("Message without target protocol or attribute event so discarding: " + exchange);
+            return;
+        }
+
+        Mailbox mailbox = mailboxes.get(protocol.getAgent().getId());
+        if (mailbox == null || mailbox.protocol != protocol) {
+            LOG.fine("Target protocol instance is not registered so discarding write: protocol=" + protocol + ", event=" + event);
+            return;
+        }
+        mailbox.offer(event);
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public void stop() {
+        mailboxes.values().forEach(Mailbox::close);
+        mailboxes.clear();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOG.warning("Protocol writes still running after stopping the dispatcher");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
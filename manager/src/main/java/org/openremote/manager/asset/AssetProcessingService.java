@@ -21,7 +21,14 @@ package org.openremote.manager.asset;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.spi.Synchronization;
+import org.apache.camel.util.ExchangeHelper;
+import org.hibernate.Session;
+import org.openremote.container.concurrent.ContainerThreadFactory;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.security.AuthContext;
@@ -33,6 +40,7 @@ import org.openremote.manager.event.EventSubscriptionAuthorizer;
 import org.openremote.manager.gateway.GatewayService;
 import org.openremote.manager.rules.RulesService;
 import org.openremote.manager.security.ManagerIdentityService;
+import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Constants;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
@@ -42,19 +50,35 @@ import org.openremote.model.asset.agent.Protocol;
 import org.openremote.model.attribute.*;
 import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.security.ClientRole;
+import org.openremote.model.util.Pair;
+import org.openremote.model.util.TextUtil;
 import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.MetaItemType;
 import org.openremote.model.value.ValueType;
 
 import javax.persistence.EntityManager;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Savepoint;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.ASSET;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.withLocks;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
+import static org.openremote.manager.asset.AttributeEventJournal.HEADER_SEQUENCE;
 import static org.openremote.model.attribute.AttributeWriteFailure.*;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -93,8 +117,8 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * When the update messages' source is {@link Source#SENSOR}, the agent service ignores the message.
  * The message will also be ignored if the updated attribute is not linked to an agent.
  * <p>
- * If the updated attribute has a valid agent link, an {@link AttributeEvent} is sent on the {@link Protocol#ACTUATOR_TOPIC},
- * for execution on an actual device or service 'things'. The update is then considered complete, and no further processing
+ * If the updated attribute has a valid agent link, the {@link AttributeEvent} is handed to the protocol instance of the
+ * agent with {@link Protocol#processLinkedAttributeWrite}, for execution on an actual device or service 'things'. The update is then considered complete, and no further processing
  * is necessary. The update will not reach the rules engine or the database.
  * <p>
  * This means that a protocol implementation is responsible for producing a new {@link AttributeEvent} to
@@ -118,6 +142,35 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * {@link org.openremote.model.asset.agent.AgentLink} meta, and if so the {@link AttributeEvent}
  * is not stored in a time series DB of historical data, otherwise the value is stored. Then allows the message to
  * continue if the commit was successful.
+ * <h2>Batch processing</h2>
+ * <p>
+ * When {@link #OR_ASSET_QUEUE_BATCH_SIZE} is greater than 1 the consumer of the {@link #ASSET_QUEUE} drains up to that
+ * many events (waiting at most {@link #OR_ASSET_QUEUE_BATCH_MILLIS} for more to arrive) and processes them in a single
+ * database transaction: the touched assets are loaded with one query, each event is validated and passed through the
+ * processor chain in order within its own savepoint (so a failing event only rolls back its own changes) and the
+ * attribute values are then stored with a single multi-row update, see {@link #processBatchFromAssetQueue}.
+ * <h2>Processing lanes</h2>
+ * <p>
+ * When {@link #OR_ASSET_QUEUE_LANES} is greater than 1 the consumer of the {@link #ASSET_QUEUE} only dispatches the
+ * events onto {@link AssetQueueLanes} by the hash of their asset ID; each lane processes its events in order (in
+ * batches as above) on its own thread, so the events of an asset are processed in the order they were queued whilst
+ * the events of different assets are processed concurrently. The processors guard their own state with the keyed locks
+ * of the assets and rules engines involved.
+ * <h2>Journal</h2>
+ * <p>
+ * When {@link #OR_ASSET_EVENT_JOURNAL_DIR} is set the events are appended to an {@link AttributeEventJournal} before
+ * they are sent to the {@link #ASSET_QUEUE} (see {@link #journalAttributeEvent}), events that are still pending when
+ * the service is started are processed before any other. Journaled events are always processed in batches, the
+ * journal sequence of each event is inserted into the database in the processing transaction so an event that is
+ * replayed after its processing was committed is skipped. Journaled events that fail (other than being outdated) are
+ * stored as {@link AttributeEventDeadLetters}, which can be inspected and re-injected through the
+ * {@link org.openremote.model.attribute.AttributeEventDeadLetterResource}.
+ * <h2>Asset state</h2>
+ * <p>
+ * The asset of an event is taken from the {@link AssetStateCache} of the {@link AssetStorageService} rather than
+ * loaded from the database for every event; the cache is updated once the processing transaction has been committed.
+ * When {@link AssetStorageService#OR_ASSET_STATE_FLUSH_MILLIS} is greater than 0 the attribute values are written
+ * behind by the cache instead of by the processing transaction.
  */
 @SuppressWarnings("unchecked")
 public class AssetProcessingService extends RouteBuilder implements ContainerService {
@@ -126,6 +179,19 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     // TODO: Some of these options should be configurable depending on expected load etc.
     // Message topic for communicating individual asset attribute changes
     public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    public static final String OR_ASSET_QUEUE_BATCH_SIZE = "OR_ASSET_QUEUE_BATCH_SIZE";
+    public static final int OR_ASSET_QUEUE_BATCH_SIZE_DEFAULT = 1;
+    public static final String OR_ASSET_QUEUE_BATCH_MILLIS = "OR_ASSET_QUEUE_BATCH_MILLIS";
+    public static final int OR_ASSET_QUEUE_BATCH_MILLIS_DEFAULT = 0;
+    public static final String OR_ASSET_QUEUE_LANES = "OR_ASSET_QUEUE_LANES";
+    public static final int OR_ASSET_QUEUE_LANES_DEFAULT = 1;
+    public static final String OR_ASSET_QUEUE_LANE_SIZE = "OR_ASSET_QUEUE_LANE_SIZE";
+    public static final int OR_ASSET_QUEUE_LANE_SIZE_DEFAULT = 1000;
+    public static final String OR_ASSET_EVENT_JOURNAL_DIR = "OR_ASSET_EVENT_JOURNAL_DIR";
+    public static final String OR_ASSET_EVENT_JOURNAL_SEGMENT_SIZE = "OR_ASSET_EVENT_JOURNAL_SEGMENT_SIZE";
+    public static final int OR_ASSET_EVENT_JOURNAL_SEGMENT_SIZE_DEFAULT = 16 * 1024 * 1024;
+    protected static final long JOURNAL_FORCE_MILLIS = 1000;
+    protected static final long JOURNAL_KEY_PURGE_MILLIS = 60000;
     private static final Logger LOG = Logger.getLogger(AssetProcessingService.class.getName());
     final protected List<AssetUpdateProcessor> processors = new ArrayList<>();
     protected TimerService timerService;
@@ -135,12 +201,22 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected AgentService agentService;
     protected GatewayService gatewayService;
     protected AssetStorageService assetStorageService;
+    protected AssetStateCache assetStateCache;
     protected AssetDatapointService assetDatapointService;
     protected AttributeLinkingService assetAttributeLinkingService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
+    protected int batchSize;
+    protected int batchMillis;
+    protected SedaEndpoint assetQueueEndpoint;
+    protected AssetQueueLanes assetQueueLanes;
+    protected AttributeEventJournal journal;
+    protected AttributeEventDeadLetters deadLetters;
+    protected ScheduledExecutorService executorService;
+    protected ScheduledFuture<?> journalForceFuture;
+    protected ScheduledFuture<?> journalKeyPurgeFuture;
     // Used in testing to detect if initial/startup processing has completed
-    protected long lastProcessedEventTimestamp = System.currentTimeMillis();
+    protected volatile long lastProcessedEventTimestamp = System.currentTimeMillis();
 
     protected static Processor handleAssetProcessingException(Logger logger) {
         return exchange -> {
@@ -159,7 +235,7 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
                 error.append(" (protocol: ").append(protocolName).append(")");
             }
 
-            // TODO Better exception handling - dead letter queue?
+            // Failed events are also stored as dead letters when journaled, see completeJournaledEntries
             if (exception instanceof AssetProcessingException) {
                 AssetProcessingException processingException = (AssetProcessingException) exception;
                 error.append(" - ").append(processingException.getMessage());
@@ -189,9 +265,11 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         agentService = container.getService(AgentService.class);
         gatewayService = container.getService(GatewayService.class);
         assetStorageService = container.getService(AssetStorageService.class);
+        assetStateCache = assetStorageService.getAssetStateCache();
         assetDatapointService = container.getService(AssetDatapointService.class);
         assetAttributeLinkingService = container.getService(AttributeLinkingService.class);
         messageBrokerService = container.getService(MessageBrokerService.class);
+        executorService = container.getExecutorService();
         clientEventService = container.getService(ClientEventService.class);
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, assetStorageService);
 
@@ -208,17 +286,120 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         processors.add(assetDatapointService);
         processors.add(assetAttributeLinkingService);
 
+        batchSize = getInteger(container.getConfig(), OR_ASSET_QUEUE_BATCH_SIZE, OR_ASSET_QUEUE_BATCH_SIZE_DEFAULT);
+        batchMillis = getInteger(container.getConfig(), OR_ASSET_QUEUE_BATCH_MILLIS, OR_ASSET_QUEUE_BATCH_MILLIS_DEFAULT);
+
+        int laneCount = getInteger(container.getConfig(), OR_ASSET_QUEUE_LANES, OR_ASSET_QUEUE_LANES_DEFAULT);
+        if (laneCount > 1) {
+            int laneSize = getInteger(container.getConfig(), OR_ASSET_QUEUE_LANE_SIZE, OR_ASSET_QUEUE_LANE_SIZE_DEFAULT);
+            assetQueueLanes = new AssetQueueLanes(laneCount, laneSize, Math.max(batchSize, 1), exchanges -> processBatchFromAssetQueue(exchanges, false));
+            LOG.info("Processing asset queue with " + laneCount + " lanes");
+        }
+
+        String journalDir = getString(container.getConfig(), OR_ASSET_EVENT_JOURNAL_DIR, null);
+        if (!TextUtil.isNullOrEmpty(journalDir)) {
+            int segmentSize = getInteger(container.getConfig(), OR_ASSET_EVENT_JOURNAL_SEGMENT_SIZE, OR_ASSET_EVENT_JOURNAL_SEGMENT_SIZE_DEFAULT);
+            journal = new AttributeEventJournal(Paths.get(journalDir), segmentSize);
+        }
+        deadLetters = new AttributeEventDeadLetters(persistenceService);
+
+        container.getService(ManagerWebService.class).addApiSingleton(
+            new AttributeEventDeadLetterResourceImpl(timerService, identityService, this)
+        );
+
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
     }
 
     @Override
     public void start(Container container) throws Exception {
+        if (assetQueueLanes != null) {
+            assetQueueLanes.start(new ContainerThreadFactory("AssetQueueLane"));
+        }
 
+        if (journal != null) {
+            openJournal();
+            journalForceFuture = executorService.scheduleWithFixedDelay(journal::force, JOURNAL_FORCE_MILLIS, JOURNAL_FORCE_MILLIS, TimeUnit.MILLISECONDS);
+            journalKeyPurgeFuture = executorService.scheduleWithFixedDelay(this::purgeJournalKeys, JOURNAL_KEY_PURGE_MILLIS, JOURNAL_KEY_PURGE_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void stop(Container container) throws Exception {
+        if (assetQueueLanes != null) {
+            assetQueueLanes.stop();
+        }
+
+        if (journal != null) {
+            if (journalForceFuture != null) {
+                journalForceFuture.cancel(false);
+                journalForceFuture = null;
+            }
+            if (journalKeyPurgeFuture != null) {
+                journalKeyPurgeFuture.cancel(false);
+                journalKeyPurgeFuture = null;
+            }
+            // Events that are still queued remain pending in the journal
+            journal.close();
+        }
+    }
+
+    public AttributeEventJournal getJournal() {
+        return journal;
+    }
+
+    public AttributeEventDeadLetters getDeadLetters() {
+        return deadLetters;
+    }
+
+    /**
+     * Opens the journal and processes the events that were still pending, in the order they were journaled.
+     */
+    protected void openJournal() throws IOException {
+        List<AttributeEventJournal.Entry> pending = journal.open();
+        int replaySize = Math.max(batchSize, 1);
+
+        for (int i = 0; i < pending.size(); i += replaySize) {
+            List<Exchange> exchanges = new ArrayList<>(replaySize);
+            for (AttributeEventJournal.Entry entry : pending.subList(i, Math.min(i + replaySize, pending.size()))) {
+                Exchange exchange = new DefaultExchange(getContext());
+                exchange.getIn().setBody(entry.getEvent());
+                exchange.getIn().setHeader(HEADER_SOURCE, entry.getSource());
+                exchange.getIn().setHeader(HEADER_SEQUENCE, entry.getSequence());
+                exchanges.add(exchange);
+            }
+            processBatchFromAssetQueue(exchanges, false);
+        }
+
+        if (!pending.isEmpty()) {
+            LOG.info("Replayed " + pending.size() + " pending event(s) of the attribute event journal");
+        }
+    }
 
+    /**
+     * Deletes the keys of events that are complete in the journal and of other journals.
+     */
+    protected void purgeJournalKeys() {
+        try {
+            long oldestPendingSequence = journal.getOldestPendingSequence();
+            String journalId = journal.getJournalId();
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(
+                    "delete from ATTRIBUTE_EVENT_JOURNAL_KEY where JOURNAL_ID <> ? or SEQUENCE < ?")) {
+                    statement.setString(1, journalId);
+                    statement.setLong(2, oldestPendingSequence);
+                    statement.executeUpdate();
+                }
+            }));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to purge attribute event journal keys", e);
+        }
+    }
+
+    /**
+     * @return the lanes processing the {@link #ASSET_QUEUE} or <code>null</code> if it is processed by its consumer.
+     */
+    public AssetQueueLanes getAssetQueueLanes() {
+        return assetQueueLanes;
     }
 
     @SuppressWarnings("rawtypes")
@@ -230,6 +411,7 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
             .routeId("FromClientUpdates")
             .filter(body().isInstanceOf(AttributeEvent.class))
             .setHeader(HEADER_SOURCE, () -> CLIENT)
+            .process(exchange -> journalAttributeEvent(exchange))
             .to(ASSET_QUEUE);
 
         // Process attribute events
@@ -252,116 +434,163 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
             .routeId("AssetQueueProcessor")
             .filter(body().isInstanceOf(AttributeEvent.class))
             .doTry()
-            // Lock the global context, we can only process attribute events when the
-            // context isn't locked. Agent- and RulesService lock the context while protocols
-            // or rulesets are modified.
-            .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> {
+            .process(exchange -> {
 
-                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                LOG.finest("Processing: " + event);
-                if (event.getAssetId() == null || event.getAssetId().isEmpty())
+                if (assetQueueLanes != null) {
+                    // The lane completes the copy, the producer waiting for a reply is released once it has
+                    assetQueueLanes.dispatch(ExchangeHelper.createCorrelatedCopy(exchange, true));
                     return;
-                if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+                }
+
+                if (batchSize > 1 || journal != null) {
+                    processBatchFromAssetQueue(drainAssetQueue(exchange));
                     return;
-                Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
-                if (source == null) {
-                    throw new AssetProcessingException(MISSING_SOURCE);
                 }
 
-                // Process the asset update in a database transaction, this ensures that processors
-                // will see consistent database state and we only commit if no processor failed. This
-                // still won't make this procedure consistent with the message queue from which we consume!
-                persistenceService.doTransaction(em -> {
-                    Asset<?> asset = assetStorageService.find(em, event.getAssetId(), true);
+                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+                LOG.finest("Processing: " + event);
+                if (!isProcessable(event))
+                    return;
 
-                    if (asset == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the asset was deleted
-                            return;
-                        }
+                // Lock only this asset, events for other assets and agent/rules processing for unrelated keys
+                // can proceed concurrently
+                withLock(ASSET, event.getAssetId(), getClass().getSimpleName() + "::processFromAssetQueue", () -> processFromAssetQueue(exchange, event));
+            })
+            .endDoTry()
+            .doCatch(AssetProcessingException.class)
+            .process(handleAssetProcessingException(LOG));
+    }
 
-                        throw new AssetProcessingException(ASSET_NOT_FOUND);
+    protected void processFromAssetQueue(Exchange exchange, AttributeEvent event) {
+        Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+        if (source == null) {
+            throw new AssetProcessingException(MISSING_SOURCE);
+        }
+
+        // Process the asset update in a database transaction, this ensures that processors
+        // will see consistent database state and we only commit if no processor failed. This
+        // still won't make this procedure consistent with the message queue from which we consume!
+        AtomicReference<Pair<Asset<?>, Attribute<?>>> stored = new AtomicReference<>();
+        persistenceService.doTransaction(em -> {
+            Asset<?> asset = assetStateCache.get(em, event.getAssetId());
+            Attribute<?> updatedAttribute = prepareAttributeUpdate(exchange, source, asset, event);
+
+            if (updatedAttribute != null) {
+                // Push through all processors, when writing behind the attribute is stored by the cache
+                processAssetUpdate(em, asset, updatedAttribute, source, (storeAsset, storeAttribute) -> {
+                    if (!assetStateCache.isWriteBehind() && !assetStorageService.updateAttributeValue(em, storeAsset, storeAttribute)) {
+                        return false;
                     }
+                    stored.set(new Pair<>(storeAsset, storeAttribute));
+                    return true;
+                });
+            }
+        });
 
-                    Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
-                    if (oldAttribute == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
-                            return;
-                        }
+        // Only update the cached state once the transaction has been committed
+        Pair<Asset<?>, Attribute<?>> storedAttribute = stored.get();
+        if (storedAttribute != null) {
+            assetStateCache.update(storedAttribute.key, storedAttribute.value);
+            if (assetStateCache.isWriteBehind()) {
+                assetStorageService.publishAttributeEvent(storedAttribute.key, storedAttribute.value);
+            }
+        }
+    }
 
-                        throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+    /**
+     * Validates the event against the current state of the asset and returns a copy of the attribute with the new
+     * value and timestamp applied, or <code>null</code> if the event should be silently ignored.
+     */
+    protected Attribute<?> prepareAttributeUpdate(Exchange exchange, Source source, Asset<?> asset, AttributeEvent event) throws AssetProcessingException {
+
+        if (asset == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the asset was deleted
+                return null;
+            }
+
+            throw new AssetProcessingException(ASSET_NOT_FOUND);
+        }
+
+        Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
+        if (oldAttribute == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
+                return null;
+            }
+
+            throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+        }
+
+        switch (source) {
+            case CLIENT -> {
+                AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
+                if (authContext == null) {
+                    // Check attribute has public write flag
+                    if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
+                        throw new AssetProcessingException(NO_AUTH_CONTEXT);
+                    }
+                } else {
+                    // Check realm, must be accessible
+                    if (!identityService.getIdentityProvider().isRealmActiveAndAccessible(authContext,
+                        asset.getRealm())) {
+                        throw new AssetProcessingException(INVALID_REALM);
+                    }
+
+                    // Regular user must have write attributes role
+                    if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
+                        Constants.KEYCLOAK_CLIENT_ID)) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                     }
 
-                    switch (source) {
-                        case CLIENT -> {
-                            AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
-                            if (authContext == null) {
-                                // Check attribute has public write flag
-                                if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
-                                    throw new AssetProcessingException(NO_AUTH_CONTEXT);
-                                }
-                            } else {
-                                // Check realm, must be accessible
-                                if (!identityService.getIdentityProvider().isRealmActiveAndAccessible(authContext,
-                                    asset.getRealm())) {
-                                    throw new AssetProcessingException(INVALID_REALM);
-                                }
-
-                                // Regular user must have write attributes role
-                                if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
-                                    Constants.KEYCLOAK_CLIENT_ID)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check restricted user
-                                if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
-                                    // Must be asset linked to user
-                                    if (!assetStorageService.isUserAsset(authContext.getUserId(),
-                                        event.getAssetId())) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                    // Must be writable by restricted client
-                                    if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                }
-                            }
+                    // Check restricted user
+                    if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
+                        // Must be asset linked to user
+                        if (!assetStorageService.isUserAsset(authContext.getUserId(),
+                            event.getAssetId())) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                         }
-                        case SENSOR -> {
-                            Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
-                                .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
-
-                            // Sensor event must be for an attribute linked to an agent
-                            if (protocol.isEmpty()) {
-                                throw new AssetProcessingException(INVALID_AGENT_LINK);
-                            }
+                        // Must be writable by restricted client
+                        if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                         }
                     }
+                }
+            }
+            case SENSOR -> {
+                Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
+                    .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
 
-                    // For executable attributes, non-sensor sources can set a writable attribute execute status
-                    if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
-                        Optional<AttributeExecuteStatus> status = event.getValue()
-                            .flatMap(ValueUtil::getString)
-                            .flatMap(AttributeExecuteStatus::fromString);
+                // Sensor event must be for an attribute linked to an agent
+                if (protocol.isEmpty()) {
+                    throw new AssetProcessingException(INVALID_AGENT_LINK);
+                }
+            }
+        }
 
-                        if (status.isPresent() && !status.get().isWrite()) {
-                            throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
-                        }
-                    }
+        // For executable attributes, non-sensor sources can set a writable attribute execute status
+        if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
+            Optional<AttributeExecuteStatus> status = event.getValue()
+                .flatMap(ValueUtil::getString)
+                .flatMap(AttributeExecuteStatus::fromString);
 
-                    // Type coercion
-                    Object value = event.getValue().map(eventValue -> {
-                        Class<?> attributeValueType = oldAttribute.getType().getType();
-                        return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
-                            LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
-                            return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
-                        });
+            if (status.isPresent() && !status.get().isWrite()) {
+                throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+            }
+        }
+
+        // Type coercion
+        Object value = event.getValue().map(eventValue -> {
+            Class<?> attributeValueType = oldAttribute.getType().getType();
+            return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
+                LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
+                return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
+            });
 
-                    }).orElse(null);
+        }).orElse(null);
 
-                    // TODO: Use schema validation
-                    // Check if attribute is well known and the value is valid
+        // TODO: Use schema validation
+        // Check if attribute is well known and the value is valid
 //                    AssetModelUtil.getAssetDescriptor(asset.getType()).map(assetDescriptor -> assetDescriptor.get)
 //                    AssetModelUtil.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
 //                        // Check if the value is valid
@@ -374,43 +603,361 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 //                            });
 //                    });
 
-                    // Either use the timestamp of the event or set event time to processing time or (old event time + 1)
-                    // We need a different timestamp for Attribute.equals() check
-                    long oldEventTime = oldAttribute.getTimestamp().orElse(0L);
-                    long eventTime = event.getTimestamp();
-                    long processingTime = timerService.getCurrentTimeMillis();
+        // Either use the timestamp of the event or set event time to processing time or (old event time + 1)
+        // We need a different timestamp for Attribute.equals() check
+        long oldEventTime = oldAttribute.getTimestamp().orElse(0L);
+        long eventTime = event.getTimestamp();
+        long processingTime = timerService.getCurrentTimeMillis();
 
-                    if (eventTime > 0) {
-                        // If it's less than previous event but within 10ms then just bump the time to old+1
-                        if (oldEventTime - eventTime > 0 && oldEventTime - eventTime < 10) {
-                            eventTime = oldEventTime + 1;
-                        }
-                    } else {
-                        eventTime = Math.max(oldEventTime + 1, processingTime);
-                    }
+        if (eventTime > 0) {
+            // If it's less than previous event but within 10ms then just bump the time to old+1
+            if (oldEventTime - eventTime > 0 && oldEventTime - eventTime < 10) {
+                eventTime = oldEventTime + 1;
+            }
+        } else {
+            eventTime = Math.max(oldEventTime + 1, processingTime);
+        }
 
-                    // Check the last update timestamp of the attribute, ignoring any event that is older than last update
-                    long finalEventTime = eventTime;
-                    oldAttribute.getTimestamp().filter(t -> t >= 0 && finalEventTime < t).ifPresent(
-                        lastStateTime -> {
-                            throw new AssetProcessingException(
-                                EVENT_OUTDATED,
-                                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
-                                    + ", event time: " + new Date(finalEventTime) + "/" + finalEventTime);
-                        }
-                    );
+        // Check the last update timestamp of the attribute, ignoring any event that is older than last update
+        long finalEventTime = eventTime;
+        oldAttribute.getTimestamp().filter(t -> t >= 0 && finalEventTime < t).ifPresent(
+            lastStateTime -> {
+                throw new AssetProcessingException(
+                    EVENT_OUTDATED,
+                    "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                        + ", event time: " + new Date(finalEventTime) + "/" + finalEventTime);
+            }
+        );
+
+        // Snapshot the attribute with the new value and timestamp, the meta is shared until either attribute changes it
+        @SuppressWarnings("unchecked")
+        Attribute<Object> updatedAttribute = ((Attribute<Object>) oldAttribute).snapshot(value, eventTime);
+
+        return updatedAttribute;
+    }
+
+    protected static boolean isProcessable(AttributeEvent event) {
+        return event != null
+            && event.getAssetId() != null && !event.getAssetId().isEmpty()
+            && event.getAttributeName() != null && !event.getAttributeName().isEmpty();
+    }
+
+    /**
+     * An event of a batch being processed by {@link #processBatchFromAssetQueue}.
+     */
+    protected static class BatchEntry {
+        final Exchange exchange;
+        final AttributeEvent event;
+        final boolean drained;
+        Long sequence;
+        boolean duplicate;
+        Source source;
+        Asset<?> asset;
+        Attribute<?> storedAttribute;
+        Exception failure;
+
+        protected BatchEntry(Exchange exchange, AttributeEvent event, boolean drained) {
+            this.exchange = exchange;
+            this.event = event;
+            this.drained = drained;
+        }
+    }
+
+    /**
+     * Takes the exchanges that are already waiting in the {@link #ASSET_QUEUE} (up to {@link #batchSize} including the
+     * supplied exchange) and waits up to {@link #batchMillis} for more to arrive. This consumer is the only one
+     * taking from the queue so ordering is preserved.
+     */
+    protected List<Exchange> drainAssetQueue(Exchange exchange) {
+        if (assetQueueEndpoint == null) {
+            assetQueueEndpoint = getContext().getEndpoint(ASSET_QUEUE, SedaEndpoint.class);
+        }
+
+        BlockingQueue<Exchange> queue = assetQueueEndpoint.getQueue();
+        List<Exchange> exchanges = new ArrayList<>(batchSize);
+        exchanges.add(exchange);
+        queue.drainTo(exchanges, batchSize - 1);
+
+        long deadline = System.currentTimeMillis() + batchMillis;
+        long remaining;
+        while (exchanges.size() < batchSize && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                Exchange next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    break;
+                }
+                exchanges.add(next);
+                queue.drainTo(exchanges, batchSize - exchanges.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return exchanges;
+    }
+
+    /**
+     * Processes several exchanges taken from the {@link #ASSET_QUEUE} with one database transaction, the first exchange
+     * is the one delivered to the route and the rest have been drained from the queue. The outcome of each event is the
+     * same as if it had been processed by {@link #processFromAssetQueue}; failures are reported per exchange and only
+     * roll back the savepoint of the failing event. Exchanges drained from the queue never pass through the route so
+     * their on completion callbacks (used by the producer to wait for a reply) are invoked here.
+     */
+    protected void processBatchFromAssetQueue(List<Exchange> exchanges) {
+        processBatchFromAssetQueue(exchanges, true);
+    }
+
+    /**
+     * As {@link #processBatchFromAssetQueue(List)}, when the first exchange hasn't been delivered to the route (i.e.
+     * the exchanges have been taken from one of the {@link AssetQueueLanes}) all exchanges are completed here.
+     */
+    protected void processBatchFromAssetQueue(List<Exchange> exchanges, boolean firstFromRoute) {
+        List<BatchEntry> entries = new ArrayList<>(exchanges.size());
+        Set<String> assetIds = new LinkedHashSet<>();
+
+        for (int i = 0; i < exchanges.size(); i++) {
+            Exchange exchange = exchanges.get(i);
+            Object body = exchange.getIn().getBody();
+            boolean drained = i > 0 || !firstFromRoute;
+            if (!(body instanceof AttributeEvent)) {
+                if (drained) {
+                    // The route filter only applies to the first exchange
+                    completeDrainedExchange(exchange);
+                }
+                continue;
+            }
+
+            AttributeEvent event = (AttributeEvent) body;
+            LOG.finest("Processing: " + event);
+            BatchEntry entry = new BatchEntry(exchange, event, drained);
+            entry.sequence = exchange.getIn().getHeader(HEADER_SEQUENCE, Long.class);
+            entries.add(entry);
+
+            if (!isProcessable(event)) {
+                continue;
+            }
+
+            entry.source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+            if (entry.source == null) {
+                entry.failure = new AssetProcessingException(MISSING_SOURCE);
+                continue;
+            }
+            assetIds.add(event.getAssetId());
+        }
 
-                    // Create a copy of the attribute and set the new value and timestamp
-                    Attribute updatedAttribute = ValueUtil.clone(oldAttribute);
-                    updatedAttribute.setValue(value, eventTime);
+        if (!assetIds.isEmpty()) {
+            try {
+                // Lock all assets of the batch in stripe order
+                withLocks(ASSET, assetIds, getClass().getSimpleName() + "::processBatchFromAssetQueue", () -> {
+                    try {
+                        persistenceService.doTransaction(em -> processBatch(em, assetIds, entries));
+                    } catch (Exception e) {
+                        // The commit failed so nothing of this batch has been stored, the cached assets may
+                        // already contain values of this batch
+                        assetIds.forEach(assetStateCache::invalidate);
+                        entries.stream().filter(entry -> entry.source != null && entry.failure == null).forEach(entry -> {
+                            entry.storedAttribute = null;
+                            entry.failure = e instanceof AssetProcessingException
+                                ? e
+                                : new AssetProcessingException(STATE_STORAGE_FAILED, "batch transaction failed", e);
+                        });
+                    }
 
-                    // Push through all processors
-                    processAssetUpdate(em, asset, updatedAttribute, source);
+                    // Only update the cached state and publish once the values have been committed
+                    entries.stream().filter(entry -> entry.storedAttribute != null && entry.failure == null).forEach(entry -> {
+                        assetStateCache.update(entry.asset, entry.storedAttribute);
+                        assetStorageService.publishAttributeEvent(entry.asset, entry.storedAttribute);
+                    });
                 });
-            }))
-            .endDoTry()
-            .doCatch(AssetProcessingException.class)
-            .process(handleAssetProcessingException(LOG));
+            } catch (Exception e) {
+                entries.stream().filter(entry -> entry.source != null && entry.failure == null).forEach(entry -> entry.failure = e);
+            }
+        }
+
+        if (journal != null) {
+            completeJournaledEntries(entries);
+        }
+
+        for (BatchEntry entry : entries) {
+            if (entry.failure instanceof AssetProcessingException) {
+                try {
+                    entry.exchange.setProperty(Exchange.EXCEPTION_CAUGHT, entry.failure);
+                    handleAssetProcessingException(LOG).process(entry.exchange);
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Failed to handle asset processing exception", e);
+                }
+            } else if (entry.failure != null) {
+                entry.exchange.setException(entry.failure);
+                if (entry.drained) {
+                    // Drained exchanges aren't seen by the route error handler
+                    LOG.log(Level.WARNING, "Error processing: " + entry.event, entry.failure);
+                }
+            }
+
+            if (entry.drained) {
+                completeDrainedExchange(entry.exchange);
+            }
+        }
+    }
+
+    protected void processBatch(EntityManager em, Set<String> assetIds, List<BatchEntry> entries) {
+        // The cached assets are detached so the values of stored attributes can be applied to them for subsequent events
+        Map<String, Asset<?>> assets = assetStateCache.getAll(em, assetIds);
+
+        Session session = em.unwrap(Session.class);
+
+        if (journal != null) {
+            markDuplicateEntries(session, entries);
+        }
+
+        for (BatchEntry entry : entries) {
+            if (entry.source == null || entry.failure != null || entry.duplicate) {
+                continue;
+            }
+
+            Savepoint savepoint = session.doReturningWork(Connection::setSavepoint);
+            try {
+                Asset<?> asset = assets.get(entry.event.getAssetId());
+                Attribute<?> updatedAttribute = prepareAttributeUpdate(entry.exchange, entry.source, asset, entry.event);
+
+                if (updatedAttribute != null) {
+                    entry.asset = asset;
+                    // Push through all processors, the store is deferred until the whole batch has been processed
+                    processAssetUpdate(em, asset, updatedAttribute, entry.source, (storeAsset, storeAttribute) -> {
+                        entry.storedAttribute = storeAttribute;
+                        return true;
+                    });
+                }
+
+                // Make sure any changes made by processors fail here rather than at commit time
+                em.flush();
+                session.doWork(connection -> connection.releaseSavepoint(savepoint));
+
+                if (entry.storedAttribute != null) {
+                    asset.addOrReplaceAttributes(entry.storedAttribute);
+                }
+            } catch (Exception e) {
+                session.doWork(connection -> connection.rollback(savepoint));
+                // Only evict the asset of the failed event, the persistence context is shared with the other events
+                Asset<?> managedAsset = em.find(Asset.class, entry.event.getAssetId());
+                if (managedAsset != null) {
+                    em.detach(managedAsset);
+                }
+                entry.storedAttribute = null;
+                entry.failure = e;
+            }
+        }
+
+        if (assetStateCache.isWriteBehind()) {
+            // The stored attributes are written by the cache once committed
+            return;
+        }
+
+        // Combine the stored attributes, only the latest value of each attribute needs to be written
+        Map<String, Map<String, Attribute<?>>> latestAttributes = new LinkedHashMap<>();
+        entries.stream().filter(entry -> entry.storedAttribute != null).forEach(entry ->
+            latestAttributes.computeIfAbsent(entry.asset.getId(), id -> new LinkedHashMap<>())
+                .put(entry.storedAttribute.getName(), entry.storedAttribute)
+        );
+
+        Map<String, List<Attribute<?>>> assetAttributes = new LinkedHashMap<>(latestAttributes.size());
+        latestAttributes.forEach((id, attributes) -> assetAttributes.put(id, new ArrayList<>(attributes.values())));
+        Set<String> updatedAssetIds = assetStorageService.updateAttributeValues(em, assetAttributes);
+
+        entries.stream().filter(entry -> entry.storedAttribute != null && !updatedAssetIds.contains(entry.asset.getId())).forEach(entry -> {
+            entry.storedAttribute = null;
+            entry.failure = new AssetProcessingException(STATE_STORAGE_FAILED, "database update failed, no rows updated");
+        });
+    }
+
+    /**
+     * Inserts the journal sequences of the entries, entries whose sequence has already been inserted have been
+     * processed before they were replayed from the journal and are marked as duplicate.
+     */
+    protected void markDuplicateEntries(Session session, List<BatchEntry> entries) {
+        List<BatchEntry> journaled = entries.stream()
+            .filter(entry -> entry.sequence != null && entry.source != null && entry.failure == null)
+            .toList();
+
+        if (journaled.isEmpty()) {
+            return;
+        }
+
+        Set<Long> inserted = session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                "insert into ATTRIBUTE_EVENT_JOURNAL_KEY (JOURNAL_ID, SEQUENCE) select ?, unnest(cast(? as bigint[]))" +
+                    " on conflict do nothing returning SEQUENCE")) {
+                statement.setString(1, journal.getJournalId());
+                statement.setArray(2, connection.createArrayOf("bigint", journaled.stream().map(entry -> entry.sequence).toArray()));
+                Set<Long> sequences = new HashSet<>();
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        sequences.add(rs.getLong(1));
+                    }
+                }
+                return sequences;
+            }
+        });
+
+        journaled.stream().filter(entry -> !inserted.contains(entry.sequence)).forEach(entry -> {
+            LOG.fine("Skipping journaled event that has already been processed: " + entry.event);
+            entry.duplicate = true;
+        });
+    }
+
+    /**
+     * Stores the failed journaled entries as dead letters and marks the journaled entries as complete; if the dead
+     * letters can't be stored the failed entries remain pending in the journal.
+     */
+    protected void completeJournaledEntries(List<BatchEntry> entries) {
+        List<BatchEntry> journaled = entries.stream().filter(entry -> entry.sequence != null).toList();
+        List<BatchEntry> failed = journaled.stream()
+            .filter(entry -> entry.failure != null && entry.source != null)
+            .filter(entry -> !(entry.failure instanceof AssetProcessingException processingException) || processingException.getReason() != EVENT_OUTDATED)
+            .toList();
+
+        boolean failedStored = true;
+        if (!failed.isEmpty()) {
+            long now = timerService.getCurrentTimeMillis();
+            try {
+                deadLetters.add(failed.stream().map(entry -> new AttributeEventDeadLetter(
+                    0,
+                    now,
+                    entry.event,
+                    entry.source,
+                    entry.failure instanceof AssetProcessingException processingException ? processingException.getReason() : UNKNOWN,
+                    entry.failure.getMessage()
+                )).toList());
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to store dead letters, the events remain pending in the journal", e);
+                failedStored = false;
+            }
+        }
+
+        for (BatchEntry entry : journaled) {
+            if (failedStored || !failed.contains(entry)) {
+                journal.complete(entry.sequence);
+            }
+        }
+    }
+
+    protected static void completeDrainedExchange(Exchange exchange) {
+        List<Synchronization> synchronizations = exchange.handoverCompletions();
+        if (synchronizations == null) {
+            return;
+        }
+        for (Synchronization synchronization : synchronizations) {
+            try {
+                if (exchange.isFailed()) {
+                    synchronization.onFailure(exchange);
+                } else {
+                    synchronization.onComplete(exchange);
+                }
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Exception occurred during on completion of exchange: " + exchange, e);
+            }
+        }
     }
 
     /**
@@ -425,7 +972,102 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         if (attributeEvent.getTimestamp() <= 0) {
             attributeEvent.setTimestamp(timerService.getCurrentTimeMillis());
         }
-        messageBrokerService.getProducerTemplate().sendBodyAndHeader(ASSET_QUEUE, attributeEvent, HEADER_SOURCE, source);
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(HEADER_SOURCE, source);
+        journalAttributeEvent(attributeEvent, headers);
+        try {
+            messageBrokerService.getProducerTemplate().sendBodyAndHeaders(ASSET_QUEUE, attributeEvent, headers);
+        } catch (RuntimeException e) {
+            discardJournaledEvent(headers);
+            throw e;
+        }
+    }
+
+    /**
+     * Send a batch of events into the {@link #ASSET_QUEUE}, each with a copy of the headers. The events are grouped by
+     * asset, keeping the order of the events of each asset, so the events of an asset follow each other in the queue
+     * and end up in the same processing batch.
+     */
+    public void sendAttributeEvents(Collection<AttributeEvent> attributeEvents, Map<String, Object> headers) {
+        Map<String, List<AttributeEvent>> assetEvents = new LinkedHashMap<>();
+        for (AttributeEvent attributeEvent : attributeEvents) {
+            assetEvents.computeIfAbsent(attributeEvent.getAssetId(), assetId -> new ArrayList<>()).add(attributeEvent);
+        }
+
+        ProducerTemplate producerTemplate = messageBrokerService.getProducerTemplate();
+        for (List<AttributeEvent> events : assetEvents.values()) {
+            for (AttributeEvent attributeEvent : events) {
+                Map<String, Object> eventHeaders = new HashMap<>(headers);
+                journalAttributeEvent(attributeEvent, eventHeaders);
+                try {
+                    producerTemplate.sendBodyAndHeaders(ASSET_QUEUE, attributeEvent, eventHeaders);
+                } catch (RuntimeException e) {
+                    discardJournaledEvent(eventHeaders);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send an event into the {@link #ASSET_QUEUE} and wait for it to be processed, the result is the
+     * {@link AssetProcessingException} if processing failed.
+     */
+    public Object requestAttributeEvent(AttributeEvent attributeEvent, Map<String, Object> headers) {
+        headers = new HashMap<>(headers);
+        journalAttributeEvent(attributeEvent, headers);
+        try {
+            return messageBrokerService.getProducerTemplate().requestBodyAndHeaders(ASSET_QUEUE, attributeEvent, headers);
+        } catch (RuntimeException e) {
+            discardJournaledEvent(headers);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the {@link AttributeEvent} of the exchange to the journal if it is enabled, producers must do this
+     * before sending the exchange to the {@link #ASSET_QUEUE}. Events without a {@link Source} are not journaled as
+     * they fail anyway.
+     */
+    public void journalAttributeEvent(Exchange exchange) {
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+        if (event != null) {
+            Long sequence = journalAttributeEvent(event, exchange.getIn().getHeader(HEADER_SOURCE, Source.class));
+            if (sequence != null) {
+                exchange.getIn().setHeader(HEADER_SEQUENCE, sequence);
+            }
+        }
+    }
+
+    /**
+     * As {@link #journalAttributeEvent(Exchange)} for the headers of an exchange that is yet to be created.
+     */
+    public void journalAttributeEvent(AttributeEvent event, Map<String, Object> headers) {
+        Object source = headers.get(HEADER_SOURCE);
+        Long sequence = journalAttributeEvent(event, source instanceof Source ? (Source) source : null);
+        if (sequence != null) {
+            headers.put(HEADER_SEQUENCE, sequence);
+        }
+    }
+
+    protected Long journalAttributeEvent(AttributeEvent event, Source source) {
+        if (journal == null || source == null || !journal.isOpen()) {
+            return null;
+        }
+        try {
+            return journal.append(event, source);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to append attribute event to the journal: " + event, e);
+        }
+    }
+
+    /**
+     * Marks a journaled event as complete when it couldn't be sent to the {@link #ASSET_QUEUE}.
+     */
+    protected void discardJournaledEvent(Map<String, Object> headers) {
+        if (journal != null && headers.get(HEADER_SEQUENCE) instanceof Long sequence) {
+            journal.complete(sequence);
+        }
     }
 
     /**
@@ -438,6 +1080,18 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
                                          Asset<?> asset,
                                          Attribute<?> attribute,
                                          Source source) throws AssetProcessingException {
+        return processAssetUpdate(em, asset, attribute, source, (storeAsset, storeAttribute) -> assetStorageService.updateAttributeValue(em, storeAsset, storeAttribute));
+    }
+
+    /**
+     * As {@link #processAssetUpdate(EntityManager, Asset, Attribute, Source)} but the attribute is handed to the
+     * supplied store when no processor consumed the update; the store returns <code>false</code> if storing failed.
+     */
+    protected boolean processAssetUpdate(EntityManager em,
+                                         Asset<?> asset,
+                                         Attribute<?> attribute,
+                                         Source source,
+                                         BiPredicate<Asset<?>, Attribute<?>> attributeStore) throws AssetProcessingException {
 
         String attributeStr = "Asset ID=" + asset.getId() + ", Asset name=" + asset.getName() + ", " + attribute;
 
@@ -471,7 +1125,7 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
         if (!complete) {
             LOG.fine("No processor consumed the update completely, storing: " + attributeStr);
-            if (!assetStorageService.updateAttributeValue(em, asset, attribute)) {
+            if (!attributeStore.test(asset, attribute)) {
                 throw new AssetProcessingException(
                     STATE_STORAGE_FAILED, "database update failed, no rows updated"
                 );
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.manager.asset.AssetStorageService.PreparedAssetQuery;
+import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.LogicGroup;
+import org.openremote.model.query.filter.*;
+import org.openremote.model.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the SQL and parameter binders generated by {@link AssetStorageService#buildQuery} for each query shape, so the
+ * SQL isn't rebuilt for the same kind of query issued repeatedly by rules, clients and protocols. The SQL of a shape is
+ * always the same, so the JDBC driver also reuses its server-side prepared statements for it.
+ * <p>
+ * The shape of a query is everything that is written into the SQL; values that are only bound as parameters (IDs,
+ * realm and user IDs, names, attribute values etc.) are not part of the shape. The binders read the values from the
+ * query being executed, so the cached SQL can be used for any query with the same shape. The names of attribute
+ * predicates in an AND group are part of the shape as predicates with the same name are grouped together.
+ */
+public class AssetQuerySqlCache {
+
+    protected final int maxSize;
+    protected final Map<String, Pair<PreparedAssetQuery, Boolean>> entries;
+    protected final AtomicLong hitCount = new AtomicLong();
+    protected final AtomicLong missCount = new AtomicLong();
+
+    public AssetQuerySqlCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<String, Pair<PreparedAssetQuery, Boolean>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pair<PreparedAssetQuery, Boolean>> eldest) {
+                return size() > AssetQuerySqlCache.this.maxSize;
+            }
+        });
+    }
+
+    /**
+     * Get the SQL and binders of the shape of the query, building and caching them if this is a new shape.
+     */
+    public Pair<PreparedAssetQuery, Boolean> get(AssetQuery query, Function<AssetQuery, Pair<PreparedAssetQuery, Boolean>> builder) {
+        String key = getShapeKey(query);
+        Pair<PreparedAssetQuery, Boolean> queryAndContainsCalendarPredicate = entries.get(key);
+
+        if (queryAndContainsCalendarPredicate != null) {
+            hitCount.incrementAndGet();
+            return queryAndContainsCalendarPredicate;
+        }
+
+        missCount.incrementAndGet();
+        queryAndContainsCalendarPredicate = builder.apply(query);
+        entries.put(key, queryAndContainsCalendarPredicate);
+        return queryAndContainsCalendarPredicate;
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the ratio of queries that used cached SQL, 0 if there were no queries.
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0d : (double) hits / total;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Must write everything that {@link AssetStorageService#buildQuery} writes into the SQL rather than binds as a
+     * parameter; when in doubt a value should be written as it only costs cache hits.
+     */
+    public static String getShapeKey(AssetQuery query) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(query.recursive ? 'R' : 'r');
+        sb.append(query.access);
+        if (query.select != null) {
+            sb.append("|s").append(query.select.attributes == null ? "*" : query.select.attributes.length > 0 ? "?" : "0");
+        }
+        appendPresence(sb, "|i", query.ids);
+        appendPresence(sb, "|u", query.userIds);
+        appendPresence(sb, "|t", query.types);
+        if (query.names != null) {
+            sb.append("|n");
+            for (StringPredicate name : query.names) {
+                appendStringPredicate(sb, name, false);
+            }
+        }
+        if (query.parents != null) {
+            sb.append("|p");
+            for (ParentPredicate parent : query.parents) {
+                sb.append(parent.id != null ? '?' : '0');
+            }
+        }
+        if (query.paths != null) {
+            sb.append("|P").append(query.paths.length);
+        }
+        if (query.realm != null && query.realm.name != null && !query.realm.name.isEmpty()) {
+            sb.append("|m");
+        }
+        if (query.attributes != null) {
+            sb.append("|a");
+            appendAttributeGroup(sb, query.attributes);
+        }
+        if (query.orderBy != null) {
+            sb.append("|o").append(query.orderBy.property).append(query.orderBy.descending ? 'd' : 'a');
+        }
+        if (query.limit > 0) {
+            sb.append("|l").append(query.limit);
+        }
+        if (query.after != null) {
+            sb.append("|c");
+        }
+        return sb.toString();
+    }
+
+    protected static void appendPresence(StringBuilder sb, String name, Object[] values) {
+        if (values != null) {
+            sb.append(name);
+        }
+    }
+
+    protected static void appendAttributeGroup(StringBuilder sb, LogicGroup<AttributePredicate> group) {
+        LogicGroup.Operator operator = group.operator != null ? group.operator : LogicGroup.Operator.AND;
+        sb.append('(').append(operator);
+        for (AttributePredicate predicate : group.getItems()) {
+            sb.append('[');
+            appendNameValuePredicate(sb, predicate, operator == LogicGroup.Operator.AND);
+            if (predicate.meta != null && predicate.meta.length > 0) {
+                sb.append("meta");
+                for (NameValuePredicate metaPredicate : predicate.meta) {
+                    sb.append('[');
+                    appendNameValuePredicate(sb, metaPredicate, false);
+                    sb.append(']');
+                }
+            }
+            sb.append(']');
+        }
+        if (group.groups != null) {
+            for (LogicGroup<AttributePredicate> childGroup : group.groups) {
+                appendAttributeGroup(sb, childGroup);
+            }
+        }
+        sb.append(')');
+    }
+
+    protected static void appendNameValuePredicate(StringBuilder sb, NameValuePredicate predicate, boolean includeName) {
+        sb.append(predicate.getClass().getSimpleName()).append(predicate.negated ? '!' : ' ');
+
+        if (predicate.name != null) {
+            sb.append('n');
+            appendStringPredicate(sb, predicate.name, includeName);
+        }
+        if (predicate.path != null) {
+            sb.append(predicate.path.getPaths().length > 0 ? "p?" : "p0");
+        }
+        if (predicate.value == null) {
+            return;
+        }
+
+        ValuePredicate value = predicate.value;
+        sb.append('v').append(value.getClass().getSimpleName());
+
+        if (value instanceof StringPredicate) {
+            appendStringPredicate(sb, (StringPredicate) value, false);
+        } else if (value instanceof BooleanPredicate) {
+            sb.append(((BooleanPredicate) value).value);
+        } else if (value instanceof DateTimePredicate) {
+            sb.append(((DateTimePredicate) value).operator).append(((DateTimePredicate) value).negate ? '!' : ' ');
+        } else if (value instanceof NumberPredicate) {
+            sb.append(((NumberPredicate) value).operator).append(((NumberPredicate) value).negate ? '!' : ' ');
+        } else if (value instanceof ArrayPredicate) {
+            ArrayPredicate arrayPredicate = (ArrayPredicate) value;
+            sb.append(arrayPredicate.negated ? '!' : ' ')
+                .append(arrayPredicate.value != null ? '?' : '0')
+                .append(',').append(arrayPredicate.index)
+                .append(',').append(arrayPredicate.lengthEquals)
+                .append(',').append(arrayPredicate.lengthGreaterThan)
+                .append(',').append(arrayPredicate.lengthLessThan);
+        } else if (value instanceof GeofencePredicate) {
+            sb.append(((GeofencePredicate) value).negated ? '!' : ' ');
+        } else if (value instanceof ValueEmptyPredicate) {
+            sb.append(((ValueEmptyPredicate) value).negate ? '!' : ' ');
+        } else if (!(value instanceof CalendarEventPredicate)) {
+            // Unknown predicates are distinguished by their value
+            sb.append(value);
+        }
+    }
+
+    protected static void appendStringPredicate(StringBuilder sb, StringPredicate predicate, boolean includeValue) {
+        sb.append(predicate.match)
+            .append(predicate.caseSensitive ? 'c' : 'i')
+            .append(predicate.negate ? '!' : ' ');
+        if (includeValue) {
+            // Escape the separators so values can't be mistaken for structure
+            sb.append('"').append(predicate.value != null ? predicate.value.replace("\\", "\\\\").replace("\"", "\\\"") : "\\0").append('"');
+        }
+    }
+}
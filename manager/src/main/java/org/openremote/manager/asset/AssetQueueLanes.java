@@ -0,0 +1,211 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.apache.camel.Exchange;
+import org.openremote.model.attribute.AttributeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ordered worker lanes of the {@link AssetProcessingService#ASSET_QUEUE}; exchanges are assigned to a lane by the hash
+ * of the asset ID of their {@link AttributeEvent}, so the events of an asset are processed in order by one lane whilst
+ * the events of other assets are processed concurrently by the other lanes.
+ * <p>
+ * Each lane has a bounded queue; dispatching to a full lane blocks until the lane has taken an exchange, so a slow
+ * lane holds up the {@link AssetProcessingService#ASSET_QUEUE} consumer rather than growing without limit. A lane takes
+ * up to the batch size of exchanges that are waiting in its queue and hands them to the batch processor, which must
+ * complete the exchanges.
+ */
+public class AssetQueueLanes {
+
+    protected static class Lane implements Runnable {
+        final int index;
+        final BlockingQueue<Exchange> queue;
+        final AtomicLong processedCount = new AtomicLong();
+        final AtomicLong maxQueueDepth = new AtomicLong();
+        final AssetQueueLanes lanes;
+        Thread thread;
+
+        protected Lane(AssetQueueLanes lanes, int index, int size) {
+            this.lanes = lanes;
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(size);
+        }
+
+        @Override
+        public void run() {
+            List<Exchange> exchanges = new ArrayList<>(lanes.batchSize);
+
+            while (lanes.running) {
+                try {
+                    Exchange exchange = queue.poll(500, TimeUnit.MILLISECONDS);
+                    if (exchange == null) {
+                        continue;
+                    }
+                    exchanges.add(exchange);
+                    queue.drainTo(exchanges, lanes.batchSize - 1);
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                try {
+                    lanes.batchProcessor.accept(exchanges);
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Asset queue lane " + index + " failed to process " + exchanges.size() + " exchange(s)", e);
+                }
+                processedCount.addAndGet(exchanges.size());
+                exchanges = new ArrayList<>(lanes.batchSize);
+            }
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(AssetQueueLanes.class.getName());
+    protected final Lane[] lanes;
+    protected final int batchSize;
+    protected final Consumer<List<Exchange>> batchProcessor;
+    protected volatile boolean running;
+
+    public AssetQueueLanes(int laneCount, int laneSize, int batchSize, Consumer<List<Exchange>> batchProcessor) {
+        if (laneCount < 1 || laneSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Lane count, lane size and batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        this.batchProcessor = batchProcessor;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(this, i, laneSize);
+        }
+    }
+
+    /**
+     * @return the lane of the asset, exchanges without an asset ID all go to the first lane.
+     */
+    public static int getLaneIndex(String assetId, int laneCount) {
+        return assetId == null ? 0 : Math.floorMod(assetId.hashCode(), laneCount);
+    }
+
+    public synchronized void start(ThreadFactory threadFactory) {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Lane lane : lanes) {
+            lane.thread = threadFactory.newThread(lane);
+            lane.thread.start();
+        }
+    }
+
+    /**
+     * Stops the lanes once they've finished the exchanges they are processing, exchanges still waiting in a lane are
+     * failed.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        // Lanes aren't interrupted as that would break the database connection of a batch being processed
+        running = false;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lane.thread = null;
+
+            List<Exchange> exchanges = new ArrayList<>();
+            lane.queue.drainTo(exchanges);
+            exchanges.forEach(exchange -> {
+                exchange.setException(new RejectedExecutionException("Asset queue lane has been stopped"));
+                AssetProcessingService.completeDrainedExchange(exchange);
+            });
+        }
+    }
+
+    /**
+     * Puts the exchange on the lane of the asset of its {@link AttributeEvent}, waiting for space if the lane is full.
+     */
+    public void dispatch(Exchange exchange) throws InterruptedException {
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+        Lane lane = lanes[getLaneIndex(event != null ? event.getAssetId() : null, lanes.length)];
+        lane.queue.put(exchange);
+        lane.maxQueueDepth.accumulateAndGet(lane.queue.size(), Math::max);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return the number of exchanges waiting in each lane.
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].queue.size();
+        }
+        return depths;
+    }
+
+    /**
+     * @return the highest number of exchanges that have been waiting in each lane.
+     */
+    public long[] getMaxQueueDepths() {
+        long[] depths = new long[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].maxQueueDepth.get();
+        }
+        return depths;
+    }
+
+    /**
+     * @return the number of exchanges processed by each lane.
+     */
+    public long[] getProcessedCounts() {
+        long[] counts = new long[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            counts[i] = lanes[i].processedCount.get();
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "laneCount=" + lanes.length +
+            ", batchSize=" + batchSize +
+            '}';
+    }
+}
@@ -19,6 +19,9 @@
  */
 package org.openremote.manager.asset;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.NullNode;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.timer.TimerService;
@@ -44,6 +47,9 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -59,14 +65,17 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     private static final Logger LOG = Logger.getLogger(AssetResourceImpl.class.getName());
     protected final AssetStorageService assetStorageService;
     protected final MessageBrokerService messageBrokerService;
+    protected final AssetProcessingService assetProcessingService;
 
     public AssetResourceImpl(TimerService timerService,
                              ManagerIdentityService identityService,
                              AssetStorageService assetStorageService,
-                             MessageBrokerService messageBrokerService) {
+                             MessageBrokerService messageBrokerService,
+                             AssetProcessingService assetProcessingService) {
         super(timerService, identityService);
         this.assetStorageService = assetStorageService;
         this.messageBrokerService = messageBrokerService;
+        this.assetProcessingService = assetProcessingService;
     }
 
     @Override
@@ -575,6 +584,39 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
         }
     }
 
+    @Override
+    public Response queryAssetsStream(RequestParams requestParams, AssetQuery query) {
+        AssetQuery preparedQuery;
+
+        try {
+            preparedQuery = assetStorageService.prepareAssetQuery(query, getAuthContext(), getRequestRealmName());
+        } catch (IllegalStateException ex) {
+            throw new BadRequestException(ex);
+        }
+
+        // Each asset is written as it is read, the writer doesn't flush so the response is still buffered
+        ObjectWriter assetWriter = ValueUtil.JSON.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingOutput output = outputStream -> {
+            try (JsonGenerator generator = ValueUtil.JSON.getFactory().createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+                assetStorageService.streamAll(preparedQuery, asset -> {
+                    try {
+                        assetWriter.writeValue(generator, asset);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+
+        // Compress response (the request attribute enables the interceptor)
+        request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
+
+        return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
     protected AttributeWriteResult doAttributeWrite(AttributeRef ref, Object value, Map<String, Object> headers) {
         AttributeWriteFailure failure = null;
 
@@ -586,9 +628,7 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
             LOG.info("Write attribute value request: " + event);
 
             // Process synchronously
-            Object result = messageBrokerService.getProducerTemplate().requestBodyAndHeaders(
-                AssetProcessingService.ASSET_QUEUE, event, headers
-            );
+            Object result = assetProcessingService.requestAttributeEvent(event, headers);
 
             if (result instanceof AssetProcessingException) {
                 AssetProcessingException processingException = (AssetProcessingException) result;
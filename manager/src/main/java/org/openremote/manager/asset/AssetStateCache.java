@@ -0,0 +1,398 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.PersistenceEvent;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.query.AssetQuery;
+import org.openremote.model.util.ValueUtil;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory state of the assets processed by the {@link AssetProcessingService}, so the asset and its attributes don't
+ * have to be loaded from the database for every attribute event. The cached assets are detached and must only be
+ * used and modified by the thread holding the {@link org.openremote.container.concurrent.KeyedLockManager.Scope#ASSET}
+ * lock of the asset.
+ * <p>
+ * With a flush interval of 0 attribute values are stored by the processing transaction as before and the cache is
+ * only updated once it has been committed. Otherwise attribute values are written behind: stored attributes are
+ * pending with a version stamp and every flush interval the pending attributes of all assets are written with
+ * {@link AssetStorageService#updateAttributeValues}, which never overwrites an attribute with an older timestamp. A
+ * crash can lose at most the attribute values of the last flush interval. Pending attributes are applied to assets
+ * loaded through {@link AssetStorageService#findAll} so reads are consistent with the cache, but database queries
+ * with attribute value predicates only see the flushed values.
+ * <p>
+ * Out-of-band changes (asset merges and deletes) are signalled through the
+ * {@link PersistenceService#PERSISTENCE_TOPIC} and directly by {@link AssetStorageService}; a changed asset is marked
+ * stale and reloaded on next use with any newer pending attributes applied, a deleted asset is removed along with
+ * its pending attributes. Clean assets are evicted when the cache holds more than the maximum number of assets.
+ */
+public class AssetStateCache {
+
+    protected static class Entry {
+        final String assetId;
+        // Only accessed by the thread holding the asset lock
+        Asset<?> asset;
+        volatile boolean stale;
+        // Guarded by the entry
+        final Map<String, PendingAttribute> pending = new HashMap<>();
+        long version;
+        boolean removed;
+
+        protected Entry(String assetId, Asset<?> asset) {
+            this.assetId = assetId;
+            this.asset = asset;
+        }
+    }
+
+    protected static class PendingAttribute {
+        final Attribute<?> attribute;
+        final long version;
+
+        protected PendingAttribute(Attribute<?> attribute, long version) {
+            this.attribute = attribute;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Maximum number of assets written by a single update statement.
+     */
+    public static final int FLUSH_BATCH_SIZE = 1000;
+    private static final Logger LOG = Logger.getLogger(AssetStateCache.class.getName());
+    protected final AssetStorageService assetStorageService;
+    protected final PersistenceService persistenceService;
+    protected final long flushIntervalMillis;
+    protected final int maxSize;
+    protected final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Incremented by every invalidation so a concurrent load can't mark the asset as current
+    protected final AtomicLong invalidationCount = new AtomicLong();
+    protected ScheduledFuture<?> flushFuture;
+
+    public AssetStateCache(AssetStorageService assetStorageService, PersistenceService persistenceService, long flushIntervalMillis, int maxSize) {
+        this.assetStorageService = assetStorageService;
+        this.persistenceService = persistenceService;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxSize = maxSize;
+    }
+
+    public boolean isWriteBehind() {
+        return flushIntervalMillis > 0;
+    }
+
+    public synchronized void start(ScheduledExecutorService executorService) {
+        if (!isWriteBehind() || flushFuture != null) {
+            return;
+        }
+        LOG.fine("Starting asset state write behind with flush interval: " + flushIntervalMillis + "ms");
+        flushFuture = executorService.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to flush asset state", e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flush and synchronously writes any pending attributes.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (flushFuture != null) {
+                flushFuture.cancel(false);
+                flushFuture = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Get the current state of the asset, see {@link #getAll}.
+     */
+    public Asset<?> get(EntityManager em, String assetId) {
+        return getAll(em, Collections.singletonList(assetId)).get(assetId);
+    }
+
+    /**
+     * Get the current state of the assets, those that aren't cached or are stale are loaded with a single query;
+     * assets that don't exist are omitted. The caller must hold the asset locks.
+     */
+    public Map<String, Asset<?>> getAll(EntityManager em, Collection<String> assetIds) {
+        Map<String, Asset<?>> assets = new HashMap<>(assetIds.size());
+        List<String> loadIds = new ArrayList<>();
+
+        for (String assetId : assetIds) {
+            Entry entry = entries.get(assetId);
+            if (entry != null && !entry.stale && entry.asset != null) {
+                assets.put(assetId, entry.asset);
+            } else {
+                loadIds.add(assetId);
+            }
+        }
+
+        if (loadIds.isEmpty()) {
+            return assets;
+        }
+
+        long invalidations = invalidationCount.get();
+        // Pending attributes are applied by the storage service
+        List<Asset<?>> loadedAssets = assetStorageService.findAll(em, new AssetQuery().ids(loadIds.toArray(new String[0])));
+
+        for (Asset<?> asset : loadedAssets) {
+            if (em.contains(asset)) {
+                em.detach(asset);
+            }
+            assets.put(asset.getId(), asset);
+            boolean current = invalidationCount.get() == invalidations;
+            entries.compute(asset.getId(), (id, entry) -> {
+                if (entry == null) {
+                    entry = new Entry(id, asset);
+                    entry.stale = !current;
+                    return entry;
+                }
+                entry.asset = asset;
+                entry.stale = !current;
+                return entry;
+            });
+        }
+
+        loadIds.stream().filter(id -> !assets.containsKey(id)).forEach(this::remove);
+        evict();
+        return assets;
+    }
+
+    /**
+     * Apply the attribute that has been stored by the processing of an attribute event to the cached asset and, when
+     * writing behind, make it pending. The caller must hold the asset lock and when not writing behind the attribute
+     * must already have been committed.
+     */
+    public void update(Asset<?> asset, Attribute<?> attribute) {
+        asset.addOrReplaceAttributes(attribute);
+
+        if (!isWriteBehind()) {
+            return;
+        }
+
+        while (true) {
+            Entry entry = entries.computeIfAbsent(asset.getId(), id -> new Entry(id, asset));
+            synchronized (entry) {
+                if (entry.removed) {
+                    // Evicted or removed concurrently, a new entry will be created
+                    continue;
+                }
+                entry.pending.put(attribute.getName(), new PendingAttribute(attribute, ++entry.version));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Mark the asset as stale so it is reloaded on next use.
+     */
+    public void invalidate(String assetId) {
+        Entry entry = entries.get(assetId);
+        if (entry != null) {
+            entry.stale = true;
+        }
+        invalidationCount.incrementAndGet();
+    }
+
+    /**
+     * Remove the asset and discard its pending attributes.
+     */
+    public void remove(String assetId) {
+        Entry entry = entries.remove(assetId);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.removed = true;
+                if (!entry.pending.isEmpty()) {
+                    LOG.fine("Discarding " + entry.pending.size() + " pending attribute(s) of removed asset: " + assetId);
+                    entry.pending.clear();
+                }
+            }
+        }
+        invalidationCount.incrementAndGet();
+    }
+
+    public void onPersistenceEvent(PersistenceEvent<? extends Asset<?>> persistenceEvent) {
+        switch (persistenceEvent.getCause()) {
+            case UPDATE -> invalidate(persistenceEvent.getEntity().getId());
+            case DELETE -> remove(persistenceEvent.getEntity().getId());
+        }
+    }
+
+    /**
+     * Apply the pending attributes of the assets that are newer than the loaded attributes, assets that are changed
+     * are detached from the entity manager first. Only attributes that have been loaded are applied.
+     */
+    @SuppressWarnings("unchecked")
+    public void applyPending(EntityManager em, Collection<Asset<?>> assets) {
+        if (!isWriteBehind() || entries.isEmpty()) {
+            return;
+        }
+
+        for (Asset<?> asset : assets) {
+            Entry entry = entries.get(asset.getId());
+            if (entry == null) {
+                continue;
+            }
+
+            List<Attribute<?>> pendingAttributes;
+            synchronized (entry) {
+                if (entry.pending.isEmpty()) {
+                    continue;
+                }
+                pendingAttributes = new ArrayList<>(entry.pending.size());
+                entry.pending.values().forEach(pendingAttribute -> pendingAttributes.add(pendingAttribute.attribute));
+            }
+
+            if (em.contains(asset)) {
+                em.detach(asset);
+            }
+
+            for (Attribute<?> pendingAttribute : pendingAttributes) {
+                asset.getAttribute(pendingAttribute.getName()).ifPresent(attribute -> {
+                    long timestamp = pendingAttribute.getTimestamp().orElse(0L);
+                    if (timestamp >= attribute.getTimestamp().orElse(0L)) {
+                        ((Attribute<Object>) attribute).setValue(ValueUtil.copy(pendingAttribute.getValue().orElse(null)), timestamp);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes the pending attributes of all assets; attributes that are updated again whilst being written remain
+     * pending and attributes that can't be written are retried on the next flush.
+     */
+    public synchronized void flush() {
+        Map<Entry, Map<String, PendingAttribute>> snapshot = new LinkedHashMap<>();
+
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                if (!entry.pending.isEmpty()) {
+                    snapshot.put(entry, new HashMap<>(entry.pending));
+                }
+            }
+            if (snapshot.size() == FLUSH_BATCH_SIZE) {
+                write(snapshot);
+                snapshot.clear();
+            }
+        }
+
+        if (!snapshot.isEmpty()) {
+            write(snapshot);
+        }
+
+        evict();
+    }
+
+    public int getPendingCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                count += entry.pending.size();
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    protected void write(Map<Entry, Map<String, PendingAttribute>> snapshot) {
+        Map<String, List<Attribute<?>>> assetAttributes = new LinkedHashMap<>(snapshot.size());
+        snapshot.forEach((entry, pending) -> {
+            List<Attribute<?>> attributes = new ArrayList<>(pending.size());
+            pending.values().forEach(pendingAttribute -> attributes.add(pendingAttribute.attribute));
+            assetAttributes.put(entry.assetId, attributes);
+        });
+
+        Set<String> updatedIds;
+        try {
+            updatedIds = persistenceService.doReturningTransaction(em -> assetStorageService.updateAttributeValues(em, assetAttributes));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to store pending attributes of " + snapshot.size() + " asset(s), will retry on next flush", e);
+            return;
+        }
+
+        snapshot.forEach((entry, pending) -> {
+            boolean deleted = !updatedIds.contains(entry.assetId);
+            synchronized (entry) {
+                // Attributes updated since the snapshot are still pending
+                pending.forEach((name, pendingAttribute) -> {
+                    PendingAttribute current = entry.pending.get(name);
+                    if (deleted || (current != null && current.version == pendingAttribute.version)) {
+                        entry.pending.remove(name);
+                    }
+                });
+            }
+            if (deleted) {
+                LOG.fine("Asset no longer exists so discarded its pending attributes: " + entry.assetId);
+            }
+        });
+
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Stored pending attributes of " + updatedIds.size() + "/" + snapshot.size() + " asset(s)");
+        }
+    }
+
+    /**
+     * Removes clean assets until there are no more than the maximum number of cached assets.
+     */
+    protected void evict() {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            synchronized (entry) {
+                if (entry.pending.isEmpty()) {
+                    entry.removed = true;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "size=" + entries.size() +
+            ", flushIntervalMillis=" + flushIntervalMillis +
+            ", maxSize=" + maxSize +
+            '}';
+    }
+}
@@ -19,8 +19,11 @@
  */
 package org.openremote.manager.asset;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.vladmihalcea.hibernate.type.array.StringArrayType;
 import org.apache.camel.builder.RouteBuilder;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.jdbc.AbstractReturningWork;
 import org.openremote.container.message.MessageBrokerService;
@@ -31,6 +34,7 @@ import org.openremote.manager.asset.console.ConsoleResourceImpl;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.event.EventSubscriptionAuthorizer;
 import org.openremote.manager.gateway.GatewayService;
+import org.openremote.manager.security.AuthorizationCache;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Constants;
@@ -50,6 +54,7 @@ import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.LogicGroup;
 import org.openremote.model.query.filter.*;
 import org.openremote.model.security.ClientRole;
+import org.openremote.model.security.Realm;
 import org.openremote.model.security.User;
 import org.openremote.model.util.Pair;
 import org.openremote.model.util.TextUtil;
@@ -66,8 +71,10 @@ import javax.validation.ConstraintViolationException;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -79,6 +86,7 @@ import static java.util.stream.Collectors.groupingBy;
 import static org.apache.camel.builder.PredicateBuilder.or;
 import static org.openremote.container.persistence.PersistenceService.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceService.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
 import static org.openremote.model.query.AssetQuery.*;
@@ -100,29 +108,40 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             this.binders = binders;
         }
 
-        protected void apply(EntityManager em, org.hibernate.query.Query<Object[]> query) {
+        protected void apply(org.hibernate.query.Query<Object[]> st, AssetQuery query, long currentMillis) {
             for (ParameterBinder binder : binders) {
-                binder.accept(em, query);
+                binder.accept(st, query, currentMillis);
             }
         }
     }
 
-    public interface ParameterBinder extends BiConsumer<EntityManager, org.hibernate.query.Query<Object[]>> {
+    /**
+     * Binds a parameter value of the supplied query; binders must read the value from the supplied query and not from
+     * the query the SQL was built for, so the SQL and binders can be reused for all queries with the same
+     * {@link AssetQuerySqlCache#getShapeKey shape}.
+     */
+    public interface ParameterBinder {
 
-        @Override
-        default void accept(EntityManager em, org.hibernate.query.Query<Object[]> st) {
+        default void accept(org.hibernate.query.Query<Object[]> st, AssetQuery query, long currentMillis) {
             try {
-                acceptStatement(em, st);
+                acceptStatement(st, query, currentMillis);
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
         }
 
-        void acceptStatement(EntityManager em, org.hibernate.query.Query<Object[]> st) throws SQLException;
+        void acceptStatement(org.hibernate.query.Query<Object[]> st, AssetQuery query, long currentMillis) throws SQLException;
     }
 
     private static final Logger LOG = Logger.getLogger(AssetStorageService.class.getName());
     public static final int PRIORITY = MED_PRIORITY;
+    public static final String OR_ASSET_STATE_FLUSH_MILLIS = "OR_ASSET_STATE_FLUSH_MILLIS";
+    public static final int OR_ASSET_STATE_FLUSH_MILLIS_DEFAULT = 0;
+    public static final String OR_ASSET_STATE_CACHE_SIZE = "OR_ASSET_STATE_CACHE_SIZE";
+    public static final int OR_ASSET_STATE_CACHE_SIZE_DEFAULT = 10000;
+    public static final String OR_ASSET_QUERY_CACHE_SIZE = "OR_ASSET_QUERY_CACHE_SIZE";
+    public static final int OR_ASSET_QUERY_CACHE_SIZE_DEFAULT = 1000;
+    public static final int ASSET_STREAM_FETCH_SIZE = 100;
 //    protected static final Field assetParentNameField;
 //    protected static final Field assetParentTypeField;
 //
@@ -202,12 +221,16 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                  skipAssetIdCheck = true;
              }
 
-             if (!skipAssetIdCheck && filter.getAssetIds() != null) {
-                 // Client can subscribe to several assets
+             if (!skipAssetIdCheck && filter.getAssetIds() != null && filter.getAssetIds().length > 0) {
+                 // Client can subscribe to several assets so get the realms of all of them at once
+                 Map<String, String> assetRealms = assetStorageService.findAll(
+                     new AssetQuery().select(new Select().excludeAttributes()).ids(filter.getAssetIds())
+                 ).stream().collect(Collectors.toMap(Asset::getId, Asset::getRealm));
+
                  for (String assetId : filter.getAssetIds()) {
-                     Asset<?> asset = assetStorageService.find(assetId, false);
+                     String assetRealm = assetRealms.get(assetId);
                      // If the asset doesn't exist, subscription must fail
-                     if (asset == null)
+                     if (assetRealm == null)
                          return false;
                      if (isRestricted) {
                          // Restricted users can only get events for their linked assets
@@ -215,7 +238,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                              return false;
                      } else {
                          // Regular users can only get events for assets in their realm
-                         if (!asset.getRealm().equals(realm))
+                         if (!assetRealm.equals(realm))
                              return false;
                      }
                  }
@@ -230,6 +253,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected ManagerIdentityService identityService;
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
+    protected AssetStateCache assetStateCache;
+    protected AssetQuerySqlCache assetQuerySqlCache;
 
     /**
      * Will evaluate each {@link CalendarEventPredicate} and apply it depending on the {@link LogicGroup} type
@@ -315,6 +340,16 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         identityService = container.getService(ManagerIdentityService.class);
         clientEventService = container.getService(ClientEventService.class);
         gatewayService = container.getService(GatewayService.class);
+        assetStateCache = new AssetStateCache(
+            this,
+            persistenceService,
+            getInteger(container.getConfig(), OR_ASSET_STATE_FLUSH_MILLIS, OR_ASSET_STATE_FLUSH_MILLIS_DEFAULT),
+            getInteger(container.getConfig(), OR_ASSET_STATE_CACHE_SIZE, OR_ASSET_STATE_CACHE_SIZE_DEFAULT)
+        );
+        int assetQueryCacheSize = getInteger(container.getConfig(), OR_ASSET_QUERY_CACHE_SIZE, OR_ASSET_QUERY_CACHE_SIZE_DEFAULT);
+        if (assetQueryCacheSize > 0) {
+            assetQuerySqlCache = new AssetQuerySqlCache(assetQueryCacheSize);
+        }
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, this);
 
         clientEventService.addSubscriptionAuthorizer((realm, auth, subscription) -> {
@@ -330,7 +365,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 container.getService(TimerService.class),
                 identityService,
                 this,
-                container.getService(MessageBrokerService.class)
+                container.getService(MessageBrokerService.class),
+                container.getService(AssetProcessingService.class)
             )
         );
 
@@ -346,22 +382,41 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     @Override
     public void start(Container container) throws Exception {
-
+        assetStateCache.start(container.getExecutorService());
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        assetStateCache.stop();
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void configure() throws Exception {
-        // If any asset was modified in the database, publish events
+        // If any asset was modified in the database, invalidate its cached state and publish events
         from(PERSISTENCE_TOPIC)
             .routeId("AssetPersistenceChanges")
             .filter(isPersistenceEventForEntityType(Asset.class))
-            .process(exchange -> publishModificationEvents(exchange.getIn().getBody(PersistenceEvent.class)));
+            .process(exchange -> {
+                PersistenceEvent<Asset<?>> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                assetStateCache.onPersistenceEvent(persistenceEvent);
+                publishModificationEvents(persistenceEvent);
+            });
+
+        // Invalidate the authorization state cached for changed realms, users and user asset links and deleted assets
+        from(PERSISTENCE_TOPIC)
+            .routeId("AuthorizationCacheInvalidation")
+            .filter(or(
+                isPersistenceEventForEntityType(Realm.class),
+                isPersistenceEventForEntityType(User.class),
+                isPersistenceEventForEntityType(UserAssetLink.class),
+                isPersistenceEventForEntityType(Asset.class)))
+            .process(exchange -> {
+                AuthorizationCache authorizationCache = identityService.getAuthorizationCache();
+                if (authorizationCache != null) {
+                    authorizationCache.onPersistenceEvent(exchange.getIn().getBody(PersistenceEvent.class));
+                }
+            });
 
         // React if a client wants to read assets and attributes
         from(CLIENT_EVENT_TOPIC)
@@ -459,6 +514,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             .end();
     }
 
+    /**
+     * @return the cache of the latest attribute values of processed assets.
+     */
+    public AssetStateCache getAssetStateCache() {
+        return assetStateCache;
+    }
+
+    /**
+     * @return the cache of generated asset query SQL or <code>null</code> if disabled.
+     */
+    public AssetQuerySqlCache getAssetQuerySqlCache() {
+        return assetQuerySqlCache;
+    }
+
     /**
      * Prepares an {@link AssetQuery} by validating it against security constraints and/or applying default options to the query
      * based on security constraints.
@@ -469,6 +538,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             query = new AssetQuery();
         }
 
+        checkCursor(query);
+
         boolean isAnonymous = authContext == null;
         boolean isSuperUser = authContext != null && authContext.isSuperUser();
         boolean isRestricted = identityService.getIdentityProvider().isRestrictedUser(authContext);
@@ -529,6 +600,12 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return query;
     }
 
+    protected static void checkCursor(AssetQuery query) throws IllegalStateException {
+        if (query.after != null && query.orderBy != null && query.orderBy.property != OrderBy.Property.CREATED_ON) {
+            throw new IllegalStateException("Asset query cursor requires the results to be ordered by " + OrderBy.Property.CREATED_ON);
+        }
+    }
+
     public Asset<?> find(String assetId) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
@@ -602,6 +679,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(em -> findAll(em, query));
     }
 
+    /**
+     * Passes the assets of the query to the consumer as they are read from a database cursor, the assets aren't kept
+     * in the persistence context so memory use doesn't grow with the number of results. The consumer is called whilst
+     * the transaction is open.
+     */
+    public void streamAll(AssetQuery query, Consumer<Asset<?>> consumer) {
+        persistenceService.doTransaction(em -> streamAll(em, query, consumer));
+    }
+
     public List<String> findNames(String... ids) {
         if (ids == null || ids.length == 0)
             return new ArrayList<>();
@@ -665,7 +751,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
      */
     @SuppressWarnings("unchecked")
     public <T extends Asset<?>> T merge(T asset, boolean overrideVersion, boolean skipGatewayCheck, String userName) throws IllegalStateException, ConstraintViolationException {
-        return persistenceService.doReturningTransaction(em -> {
+        AtomicReference<String> linkedUserId = new AtomicReference<>();
+        T mergedAsset = persistenceService.doReturningTransaction(em -> {
 
             String gatewayId = gatewayService.getLocallyRegisteredGatewayId(asset.getId(), asset.getParentId());
 
@@ -842,10 +929,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             if (user != null) {
                 storeUserAssetLinks(em, Collections.singletonList(new UserAssetLink(user.getRealm(), user.getId(), updatedAsset.getId())));
+                linkedUserId.set(user.getId());
             }
 
             return updatedAsset;
         });
+
+        // Don't wait for the persistence event, the next attribute event should see the merged state
+        if (mergedAsset != null && mergedAsset.getId() != null) {
+            assetStateCache.invalidate(mergedAsset.getId());
+        }
+        if (linkedUserId.get() != null && identityService.getAuthorizationCache() != null) {
+            identityService.getAuthorizationCache().invalidateUserAssets(linkedUserId.get());
+        }
+        return mergedAsset;
     }
 
     /**
@@ -945,6 +1042,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             return false;
         }
 
+        ids.forEach(assetStateCache::remove);
         return true;
     }
 
@@ -956,6 +1054,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (TextUtil.isNullOrEmpty(userId) || TextUtil.isNullOrEmpty(assetId)) {
             return false;
         }
+        if (identityService.getAuthorizationCache() != null) {
+            return getUserAssetIds(userId).contains(assetId);
+        }
         return persistenceService.doReturningTransaction(entityManager -> {
             try {
                 String queryStr = TextUtil.isNullOrEmpty(userId) ?
@@ -981,6 +1082,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (userIds == null || userIds.isEmpty() || TextUtil.isNullOrEmpty(assetId)) {
             return false;
         }
+        if (identityService.getAuthorizationCache() != null) {
+            return userIds.stream().anyMatch(userId -> getUserAssetIds(userId).contains(assetId));
+        }
         return persistenceService.doReturningTransaction(entityManager -> {
             try {
                 return entityManager.createQuery(
@@ -999,6 +1103,11 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (TextUtil.isNullOrEmpty(userId) || assetIds == null || assetIds.isEmpty()) {
             return false;
         }
+        if (identityService.getAuthorizationCache() != null) {
+            // Duplicate IDs never match the link count of the query
+            Set<String> userAssetIds = getUserAssetIds(userId);
+            return assetIds.stream().distinct().count() == assetIds.size() && userAssetIds.containsAll(assetIds);
+        }
         return persistenceService.doReturningTransaction(entityManager -> {
             try {
                 return entityManager.createQuery(
@@ -1013,6 +1122,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         });
     }
 
+    /**
+     * @return the IDs of all the assets linked to the user, read through the {@link AuthorizationCache} which must be
+     * enabled.
+     */
+    protected Set<String> getUserAssetIds(String userId) {
+        return identityService.getAuthorizationCache().getUserAssetIds(userId, id ->
+            persistenceService.doReturningTransaction(entityManager ->
+                entityManager.createQuery("select ual.id.assetId from UserAssetLink ual where ual.id.userId = :userId", String.class)
+                    .setParameter("userId", id)
+                    .getResultList()
+            ).stream().collect(Collectors.toSet()));
+    }
+
     /**
      * Indicates if the specified asset belongs to the specified realm
      */
@@ -1134,6 +1256,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 throw new IllegalArgumentException("Cannot delete one or more requested user asset link as they don't exist");
             }
         });
+
+        publishUserAssetLinkEvents(PersistenceEvent.Cause.DELETE, userAssetLinks);
     }
 
     /**
@@ -1146,6 +1270,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             int deleteCount = query.executeUpdate();
             LOG.fine("Deleted all user asset links for realm: realm=" + realm + ", count=" + deleteCount);
         });
+
+        if (identityService.getAuthorizationCache() != null) {
+            identityService.getAuthorizationCache().invalidateRealm(realm, true);
+        }
     }
 
     /**
@@ -1158,6 +1286,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             int deleteCount = query.executeUpdate();
             LOG.fine("Deleted all user asset links for user: user ID=" + userId + ", count=" + deleteCount);
         });
+
+        if (identityService.getAuthorizationCache() != null) {
+            identityService.getAuthorizationCache().invalidateUserAssets(userId);
+        }
     }
 
     /**
@@ -1170,6 +1302,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             int deleteCount = query.executeUpdate();
             LOG.fine("Deleted all user asset links for asset: asset ID=" + assetId + ", count=" + deleteCount);
         });
+
+        if (identityService.getAuthorizationCache() != null) {
+            identityService.getAuthorizationCache().invalidateAsset(assetId);
+        }
     }
 
     /**
@@ -1182,6 +1318,22 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
 
         persistenceService.doTransaction(em -> storeUserAssetLinks(em, userAssetLinks));
+        publishUserAssetLinkEvents(PersistenceEvent.Cause.CREATE, userAssetLinks);
+    }
+
+    /**
+     * User asset links are written with SQL so no {@link PersistenceEvent}s are generated by JPA; the
+     * {@link AuthorizationCache} is also invalidated directly so the change is visible to the next authorization.
+     */
+    protected void publishUserAssetLinkEvents(PersistenceEvent.Cause cause, List<UserAssetLink> userAssetLinks) {
+        AuthorizationCache authorizationCache = identityService.getAuthorizationCache();
+
+        userAssetLinks.forEach(userAssetLink -> {
+            if (authorizationCache != null) {
+                authorizationCache.invalidateUserAssets(userAssetLink.getId().getUserId());
+            }
+            persistenceService.publishPersistenceEvent(cause, userAssetLink, null, null, null);
+        });
     }
     protected void storeUserAssetLinks(EntityManager em, List<UserAssetLink> userAssets) {
 
@@ -1225,34 +1377,87 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     @SuppressWarnings("unchecked")
     protected List<Asset<?>> findAll(EntityManager em, AssetQuery query) {
 
+        Pair<org.hibernate.query.Query<Object[]>, Boolean> jpqlAndContainsCalendarPredicate = createQuery(em, query);
+        if (jpqlAndContainsCalendarPredicate == null) {
+            return Collections.emptyList();
+        }
+
+        List<Asset<?>> assets = (List<Asset<?>>)(Object)jpqlAndContainsCalendarPredicate.key.getResultList();
+
+        // Attribute values that are still being written behind are newer than the stored ones
+        assetStateCache.applyPending(em, assets);
+
+        if (jpqlAndContainsCalendarPredicate.value) {
+            return assets.stream().filter(asset -> calendarEventPredicateMatches(timerService::getCurrentTimeMillis, query, asset)).toList();
+        }
+
+        return assets;
+    }
+
+    protected void streamAll(EntityManager em, AssetQuery query, Consumer<Asset<?>> consumer) {
+
+        Pair<org.hibernate.query.Query<Object[]>, Boolean> jpqlAndContainsCalendarPredicate = createQuery(em, query);
+        if (jpqlAndContainsCalendarPredicate == null) {
+            return;
+        }
+
+        Session session = em.unwrap(Session.class);
+
+        try (ScrollableResults results = jpqlAndContainsCalendarPredicate.key
+            .setFetchSize(ASSET_STREAM_FETCH_SIZE)
+            .scroll(ScrollMode.FORWARD_ONLY)) {
+
+            while (results.next()) {
+                Asset<?> asset = (Asset<?>) results.get(0);
+                session.evict(asset);
+                assetStateCache.applyPending(em, Collections.singletonList(asset));
+
+                if (!jpqlAndContainsCalendarPredicate.value || calendarEventPredicateMatches(timerService::getCurrentTimeMillis, query, asset)) {
+                    consumer.accept(asset);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the native query of the asset query and whether it contains a calendar predicate that must be applied to
+     * the results, or <code>null</code> if the query can't return any results.
+     */
+    @SuppressWarnings("unchecked")
+    protected Pair<org.hibernate.query.Query<Object[]>, Boolean> createQuery(EntityManager em, AssetQuery query) {
+
         if (query.access == null)
             query.access = PRIVATE;
 
         // Do some sanity checks on query values and return empty result set if empty query parameters
         if (query.ids != null && query.ids.length == 0) {
-            return Collections.emptyList();
+            return null;
         }
         if (query.paths != null && query.paths.length == 0) {
-            return Collections.emptyList();
+            return null;
         }
         if (query.types != null && query.types.length == 0) {
-            return Collections.emptyList();
+            return null;
         }
         if (query.names != null && query.names.length == 0) {
-            return Collections.emptyList();
+            return null;
         }
         if (query.userIds != null && query.userIds.length == 0) {
-            return Collections.emptyList();
+            return null;
         }
         if (query.parents != null && query.parents.length == 0) {
-            return Collections.emptyList();
+            return null;
         }
 
-        // Default to order by creation date if the query may return multiple results
-        if (query.orderBy == null && query.ids == null)
+        // Default to order by creation date if the query may return multiple results or is paginated
+        if (query.orderBy == null && (query.ids == null || query.after != null))
             query.orderBy = new OrderBy(OrderBy.Property.CREATED_ON);
 
-        Pair<PreparedAssetQuery, Boolean> queryAndContainsCalendarPredicate = buildQuery(query, timerService::getCurrentTimeMillis);
+        checkCursor(query);
+
+        Pair<PreparedAssetQuery, Boolean> queryAndContainsCalendarPredicate = assetQuerySqlCache != null
+            ? assetQuerySqlCache.get(query, AssetStorageService::buildQuery)
+            : buildQuery(query);
         PreparedAssetQuery querySql = queryAndContainsCalendarPredicate.key;
         boolean containsCalendarPredicate = queryAndContainsCalendarPredicate.value;
 
@@ -1285,14 +1490,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 //        });
 
         org.hibernate.query.Query<Object[]> jpql = em.createNativeQuery(querySql.querySql, Asset.class).unwrap(org.hibernate.query.Query.class);
-        querySql.apply(em, jpql);
-        List<Asset<?>> assets = (List<Asset<?>>)(Object)jpql.getResultList();
-
-        if (containsCalendarPredicate) {
-            return assets.stream().filter(asset -> calendarEventPredicateMatches(timerService::getCurrentTimeMillis, query, asset)).toList();
-        }
-
-        return assets;
+        querySql.apply(jpql, query, timerService.getCurrentTimeMillis());
+        return new Pair<>(jpql, containsCalendarPredicate);
     }
 
     /**
@@ -1365,6 +1564,67 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
     }
 
+    /**
+     * Batch version of {@link #updateAttributeValue} that stores the value and timestamp of several attributes of
+     * several assets with a single multi-row JDBC update; the assets must already be detached from the em. Attributes
+     * that no longer exist in the database or that have a newer timestamp in the database (e.g. after a concurrent
+     * merge) are ignored and no {@link AttributeEvent}s are published, this is left to the caller so they can be
+     * published once the transaction has been committed.
+     *
+     * @return the IDs of the assets that were updated.
+     */
+    protected Set<String> updateAttributeValues(EntityManager em, Map<String, List<Attribute<?>>> assetAttributes) {
+        if (assetAttributes.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            // Merge each patch object ({"value": ..., "timestamp": ...}) into the existing attribute object, a row can
+            // only be updated once per statement so all attributes of an asset are combined into a single patch
+            String sql = "update Asset a" +
+                " set attributes = coalesce((" +
+                "  select jsonb_object_agg(e.key, case" +
+                "   when (v.patch -> e.key) is not null and coalesce((e.value ->> 'timestamp')::bigint, 0) <= ((v.patch -> e.key) ->> 'timestamp')::bigint" +
+                "   then e.value || (v.patch -> e.key) else e.value end)" +
+                "  from jsonb_each(a.attributes) e" +
+                " ), a.attributes)" +
+                " from (values " + String.join(", ", Collections.nCopies(assetAttributes.size(), "(?, cast(? as jsonb))")) + ") as v(id, patch)" +
+                " where a.id = v.id" +
+                " returning a.id";
+
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                int parameterIndex = 1;
+                for (Map.Entry<String, List<Attribute<?>>> entry : assetAttributes.entrySet()) {
+                    ObjectNode patch = ValueUtil.JSON.createObjectNode();
+                    entry.getValue().forEach(attribute -> {
+                        // Careful, the value must be a JSON null literal when empty and not omitted
+                        ObjectNode attributePatch = patch.putObject(attribute.getName());
+                        attributePatch.set("value", ValueUtil.JSON.valueToTree(attribute.getValue().orElse(null)));
+                        attributePatch.put("timestamp", attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis));
+                    });
+
+                    PGobject pgJsonPatch = new PGobject();
+                    pgJsonPatch.setType("jsonb");
+                    pgJsonPatch.setValue(patch.toString());
+                    statement.setString(parameterIndex++, entry.getKey());
+                    statement.setObject(parameterIndex++, pgJsonPatch);
+                }
+
+                Set<String> updatedIds = new HashSet<>(assetAttributes.size());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        updatedIds.add(resultSet.getString(1));
+                    }
+                }
+
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("Stored attribute values of " + updatedIds.size() + "/" + assetAttributes.size() + " asset(s)");
+                }
+                return updatedIds;
+            }
+        });
+    }
+
     protected void publishAttributeEvent(Asset<?> asset, Attribute<?> attribute) {
         clientEventService.publishEvent(
             new AttributeEvent(
@@ -1491,25 +1751,25 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     /* SQL BUILDER METHODS */
 
 
-    protected static Pair<PreparedAssetQuery, Boolean> buildQuery(AssetQuery query, Supplier<Long> timeProvider) {
+    protected static Pair<PreparedAssetQuery, Boolean> buildQuery(AssetQuery query) {
         LOG.finest("Building: " + query);
         StringBuilder sb = new StringBuilder();
         boolean recursive = query.recursive;
         List<ParameterBinder> binders = new ArrayList<>();
-        sb.append(buildSelectString(query, 1, binders, timeProvider));
+        sb.append(buildSelectString(query, 1, binders));
         sb.append(buildFromString(query, 1));
-        boolean containsCalendarPredicate = appendWhereClause(sb, query, 1, binders, timeProvider);
+        boolean containsCalendarPredicate = appendWhereClause(sb, query, 1, binders);
 
         if (recursive) {
             sb.insert(0, "WITH RECURSIVE top_level_assets AS ((");
             sb.append(") UNION (");
-            sb.append(buildSelectString(query, 2, binders, timeProvider));
+            sb.append(buildSelectString(query, 2, binders));
             sb.append(buildFromString(query, 2));
-            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 2, binders, timeProvider);
+            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 2, binders);
             sb.append("))");
-            sb.append(buildSelectString(query, 3, binders, timeProvider));
+            sb.append(buildSelectString(query, 3, binders));
             sb.append(buildFromString(query, 3));
-            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 3, binders, timeProvider);
+            containsCalendarPredicate = !containsCalendarPredicate && appendWhereClause(sb, query, 3, binders);
         }
 
         sb.append(buildOrderByString(query));
@@ -1517,7 +1777,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return new Pair<>(new PreparedAssetQuery(sb.toString(), binders), containsCalendarPredicate);
     }
 
-    protected static String buildSelectString(AssetQuery query, int level, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    protected static String buildSelectString(AssetQuery query, int level, List<ParameterBinder> binders) {
         // level = 1 is main query select
         // level = 2 is union select
         // level = 3 is CTE select
@@ -1538,7 +1798,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             if (query.recursive && level != 3) {
                 sb.append(", A.ATTRIBUTES as ATTRIBUTES");
             } else {
-                sb.append(buildAttributeSelect(query, binders, timeProvider));
+                sb.append(buildAttributeSelect(query, binders));
             }
         } else {
             sb.append(", NULL as ATTRIBUTES");
@@ -1547,7 +1807,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return sb.toString();
     }
 
-    protected static String buildAttributeSelect(AssetQuery query, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    protected static String buildAttributeSelect(AssetQuery query, List<ParameterBinder> binders) {
 
         Select select = query.select;
         boolean hasAttributeFilter = select != null && select.attributes != null && select.attributes.length > 0;
@@ -1568,7 +1828,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 .append("?")
                 .append(pos)
                 .append(")");
-            binders.add((em, st) -> st.setParameter(pos, select.attributes, StringArrayType.INSTANCE));
+            binders.add((st, q, now) -> st.setParameter(pos, q.select.attributes, StringArrayType.INSTANCE));
         }
 
         if (query.access != PRIVATE) {
@@ -1606,7 +1866,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected static String buildOrderByString(AssetQuery query) {
         StringBuilder sb = new StringBuilder();
 
-        if (query.ids != null && !query.recursive) {
+        if (query.ids != null && !query.recursive && query.after == null) {
             return sb.toString();
         }
 
@@ -1631,6 +1891,11 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     break;
             }
             sb.append(query.orderBy.descending ? "desc " : "asc ");
+
+            if (query.orderBy.property == OrderBy.Property.CREATED_ON) {
+                // Make the order of assets created at the same time stable for pagination
+                sb.append(", A.ID ").append(query.orderBy.descending ? "desc " : "asc ");
+            }
         }
 
         return sb.toString();
@@ -1644,7 +1909,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
     @SuppressWarnings("unchecked")
-    protected static boolean appendWhereClause(StringBuilder sb, AssetQuery query, int level, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    protected static boolean appendWhereClause(StringBuilder sb, AssetQuery query, int level, List<ParameterBinder> binders) {
         // level = 1 is main query
         // level = 2 is union
         // level = 3 is CTE
@@ -1661,23 +1926,23 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             sb.append(" and A.ID = ANY(?")
                 .append(pos)
                 .append(")");
-            binders.add((em, st) -> st.setParameter(pos, query.ids, StringArrayType.INSTANCE));
+            binders.add((st, q, now) -> st.setParameter(pos, q.ids, StringArrayType.INSTANCE));
         }
 
         if (level == 1 && query.names != null) {
 
             sb.append(" and (");
-            boolean isFirst = true;
 
-            for (StringPredicate pred : query.names) {
-                if (!isFirst) {
+            for (int i = 0; i < query.names.length; i++) {
+                if (i > 0) {
                     sb.append(" or ");
                 }
-                isFirst = false;
+                StringPredicate pred = query.names[i];
                 final int pos = binders.size() + 1;
+                final int index = i;
                 sb.append(pred.caseSensitive ? "A.NAME " : "upper(A.NAME)");
                 sb.append(buildMatchFilter(pred, pos));
-                binders.add((em, st) -> st.setParameter(pos, pred.prepareValue()));
+                binders.add((st, q, now) -> st.setParameter(pos, q.names[index].prepareValue()));
             }
             sb.append(")");
         }
@@ -1685,20 +1950,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (query.parents != null) {
 
             sb.append(" and (");
-            boolean isFirst = true;
 
-            for (ParentPredicate pred : query.parents) {
-                if (!isFirst) {
+            for (int i = 0; i < query.parents.length; i++) {
+                if (i > 0) {
                     sb.append(" or (");
                 } else {
                     sb.append("(");
                 }
-                isFirst = false;
+                ParentPredicate pred = query.parents[i];
 
                 if (level == 1 && pred.id != null) {
                     final int pos = binders.size() + 1;
+                    final int index = i;
                     sb.append("A.PARENT_ID = ?").append(pos);
-                    binders.add((em, st) -> st.setParameter(pos, pred.id));
+                    binders.add((st, q, now) -> st.setParameter(pos, q.parents[index].id));
                 } else if (level == 1) {
                     sb.append("A.PARENT_ID is null");
                 } else {
@@ -1713,13 +1978,13 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
         if (level == 1 && query.paths != null) {
             sb.append(" and (");
-            Arrays.stream(query.paths)
-                .map(p -> String.join(".", p.path))
-                .forEach(lqueryStr -> {
-                    int pos = binders.size() + 1;
-                    sb.append("A.PATH ~ lquery(?").append(pos).append(") or ");
-                    binders.add((em, st) -> st.setParameter(pos, "*." + lqueryStr + ".*"));
-                });
+
+            for (int i = 0; i < query.paths.length; i++) {
+                final int pos = binders.size() + 1;
+                final int index = i;
+                sb.append("A.PATH ~ lquery(?").append(pos).append(") or ");
+                binders.add((st, q, now) -> st.setParameter(pos, "*." + String.join(".", q.paths[index].path) + ".*"));
+            }
 
             sb.append("false)");
         }
@@ -1728,7 +1993,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             if (query.realm != null && !TextUtil.isNullOrEmpty(query.realm.name)) {
                 final int pos = binders.size() + 1;
                 sb.append(" and A.REALM = ?").append(pos);
-                binders.add((em, st) -> st.setParameter(pos, query.realm.name));
+                binders.add((st, q, now) -> st.setParameter(pos, q.realm.name));
             }
 
             if (query.userIds != null) {
@@ -1736,20 +2001,32 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 sb.append(" and UA.USER_ID = ANY(?")
                     .append(pos)
                     .append(")");
-                binders.add((em, st) -> st.setParameter(pos, query.userIds, StringArrayType.INSTANCE));
+                binders.add((st, q, now) -> st.setParameter(pos, q.userIds, StringArrayType.INSTANCE));
             }
 
             if (level == 1 && query.access == Access.PUBLIC) {
                 sb.append(" and A.ACCESS_PUBLIC_READ is true");
             }
 
+            if (query.after != null) {
+                // Keyset pagination, matches the order by of the query
+                final int pos = binders.size() + 1;
+                boolean descending = query.orderBy != null && query.orderBy.descending;
+                sb.append(" and (A.CREATED_ON, A.ID) ")
+                    .append(descending ? "<" : ">")
+                    .append(" (?").append(pos)
+                    .append(", ?").append(pos + 1)
+                    .append(")");
+                binders.add((st, q, now) -> st.setParameter(pos, new Timestamp(q.after.createdOn)));
+                binders.add((st, q, now) -> st.setParameter(pos + 1, q.after.id));
+            }
+
             if (query.types != null) {
-                String[] resolvedTypes = getResolvedAssetTypes(query.types);
                 final int pos = binders.size() + 1;
                 sb.append(" and A.TYPE = ANY(?")
                     .append(pos)
                     .append(")");
-                binders.add((em, st) -> st.setParameter(pos, resolvedTypes, StringArrayType.INSTANCE));
+                binders.add((st, q, now) -> st.setParameter(pos, getResolvedAssetTypes(q.types), StringArrayType.INSTANCE));
             }
 
             if (query.attributes != null) {
@@ -1757,7 +2034,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 AtomicInteger offset = new AtomicInteger(sb.length());
                 Consumer<String> selectInserter = (str) -> sb.insert(offset.getAndAdd(str.length()), str);
                 sb.append(" where true AND ");
-                containsCalendarPredicate = addAttributePredicateGroupQuery(sb, binders, 0, selectInserter, query.attributes, timeProvider);
+                containsCalendarPredicate = addAttributePredicateGroupQuery(sb, binders, 0, selectInserter, query.attributes, q -> q.attributes);
                 sb.append(")");
             }
         }
@@ -1776,7 +2053,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             .toArray(String[]::new);
     }
 
-    protected static boolean addAttributePredicateGroupQuery(StringBuilder sb, List<ParameterBinder> binders, int groupIndex, Consumer<String> selectInserter, LogicGroup<AttributePredicate> attributePredicateGroup, Supplier<Long> timeProvider) {
+    /**
+     * The locator returns the group of the query being bound, that is at the same position as the supplied group.
+     */
+    protected static boolean addAttributePredicateGroupQuery(StringBuilder sb, List<ParameterBinder> binders, int groupIndex, Consumer<String> selectInserter, LogicGroup<AttributePredicate> attributePredicateGroup, Function<AssetQuery, LogicGroup<AttributePredicate>> groupLocator) {
 
         boolean containsCalendarPredicate = false;
         LogicGroup.Operator operator = attributePredicateGroup.operator;
@@ -1787,36 +2067,44 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
         sb.append("(");
 
-        if (!attributePredicateGroup.getItems().isEmpty()) {
+        List<AttributePredicate> items = attributePredicateGroup.getItems();
+
+        if (!items.isEmpty()) {
 
-            Collection<List<AttributePredicate>> grouped;
+            Collection<List<Integer>> grouped;
 
             if (operator == LogicGroup.Operator.AND) {
                 // Group predicates by their attribute name predicate
-                grouped = attributePredicateGroup.getItems().stream().collect(groupingBy(predicate -> predicate.name != null ? predicate.name : "")).values();
+                grouped = IntStream.range(0, items.size()).boxed().collect(groupingBy(i -> items.get(i).name != null ? items.get(i).name : "")).values();
             } else {
                 grouped = new ArrayList<>();
-                grouped.add(attributePredicateGroup.getItems());
+                grouped.add(IntStream.range(0, items.size()).boxed().collect(Collectors.toList()));
             }
 
             boolean isFirst = true;
 
-            for (List<AttributePredicate> group : grouped) {
+            for (List<Integer> group : grouped) {
                 if (!isFirst) {
                     sb.append(operator == LogicGroup.Operator.OR ? " or " : " and ");
                 }
                 isFirst = false;
 
+                List<AttributePredicate> predicates = group.stream().map(items::get).collect(Collectors.toList());
+                List<Function<AssetQuery, NameValuePredicate>> locators = group.stream()
+                    .map(i -> (Function<AssetQuery, NameValuePredicate>) q -> groupLocator.apply(q).getItems().get(i))
+                    .collect(Collectors.toList());
                 selectInserter.accept((groupIndex > 0 ? ", " : "") + "jsonb_each(A.attributes) as AX" + groupIndex);
-                containsCalendarPredicate = !containsCalendarPredicate && addNameValuePredicates(group, sb, binders, "AX" + groupIndex, selectInserter, operator == LogicGroup.Operator.OR, timeProvider);
+                containsCalendarPredicate = !containsCalendarPredicate && addNameValuePredicates(predicates, locators, sb, binders, "AX" + groupIndex, selectInserter, operator == LogicGroup.Operator.OR);
                 groupIndex++;
             }
         }
 
         if (attributePredicateGroup.groups != null && attributePredicateGroup.groups.size() > 0) {
-            for (LogicGroup<AttributePredicate> group : attributePredicateGroup.groups) {
+            for (int i = 0; i < attributePredicateGroup.groups.size(); i++) {
+                LogicGroup<AttributePredicate> group = attributePredicateGroup.groups.get(i);
+                final int index = i;
                 sb.append(operator == LogicGroup.Operator.OR ? " or " : " and ");
-                boolean containsCalPred = addAttributePredicateGroupQuery(sb, binders, groupIndex, selectInserter, group, timeProvider);
+                boolean containsCalPred = addAttributePredicateGroupQuery(sb, binders, groupIndex, selectInserter, group, q -> groupLocator.apply(q).groups.get(index));
                 if (!containsCalendarPredicate && containsCalPred) {
                     containsCalendarPredicate = true;
                 }
@@ -1827,12 +2115,18 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return containsCalendarPredicate;
     }
 
-    protected static boolean addNameValuePredicates(List<? extends NameValuePredicate> nameValuePredicates, StringBuilder sb, List<ParameterBinder> binders, String jsonObjName, Consumer<String> selectInserter, boolean useOr, Supplier<Long> timeProvider) {
+    /**
+     * The locators return the predicate of the query being bound, that is at the same position as the predicate with
+     * the same index.
+     */
+    protected static boolean addNameValuePredicates(List<? extends NameValuePredicate> nameValuePredicates, List<Function<AssetQuery, NameValuePredicate>> locators, StringBuilder sb, List<ParameterBinder> binders, String jsonObjName, Consumer<String> selectInserter, boolean useOr) {
         boolean containsCalendarPredicate = false;
 
         boolean isFirst = true;
         int metaIndex = 0;
-        for (NameValuePredicate nameValuePredicate : nameValuePredicates) {
+        for (int i = 0; i < nameValuePredicates.size(); i++) {
+            NameValuePredicate nameValuePredicate = nameValuePredicates.get(i);
+            Function<AssetQuery, NameValuePredicate> locator = locators.get(i);
             if (!containsCalendarPredicate && nameValuePredicate.value instanceof CalendarEventPredicate) {
                 containsCalendarPredicate = true;
             }
@@ -1843,7 +2137,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             sb.append("(");
 
-            sb.append(buildNameValuePredicateFilter(nameValuePredicate, jsonObjName, binders, timeProvider));
+            sb.append(buildNameValuePredicateFilter(nameValuePredicate, locator, jsonObjName, binders));
 
             if (nameValuePredicate instanceof AttributePredicate) {
                 AttributePredicate attributePredicate = (AttributePredicate)nameValuePredicate;
@@ -1852,7 +2146,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     String metaJsonObjName = jsonObjName + "_AM" + metaIndex++;
                     selectInserter.accept(" LEFT JOIN jsonb_each(" + jsonObjName + ".VALUE #> '{meta}') as " + metaJsonObjName + " ON true");
                     sb.append(" and (");
-                    addNameValuePredicates(Arrays.asList(attributePredicate.meta.clone()), sb, binders, metaJsonObjName, selectInserter, true, timeProvider);
+                    List<Function<AssetQuery, NameValuePredicate>> metaLocators = IntStream.range(0, attributePredicate.meta.length)
+                        .mapToObj(j -> (Function<AssetQuery, NameValuePredicate>) q -> ((AttributePredicate) locator.apply(q)).meta[j])
+                        .collect(Collectors.toList());
+                    addNameValuePredicates(Arrays.asList(attributePredicate.meta.clone()), metaLocators, sb, binders, metaJsonObjName, selectInserter, true);
                     sb.append(")");
                 }
             }
@@ -1862,7 +2159,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return containsCalendarPredicate;
     }
 
-    protected static String buildNameValuePredicateFilter(NameValuePredicate nameValuePredicate, String jsonObjName, List<ParameterBinder> binders, Supplier<Long> timeProvider) {
+    /**
+     * The locator returns the predicate of the query being bound, that is at the same position as the supplied predicate.
+     */
+    protected static String buildNameValuePredicateFilter(NameValuePredicate nameValuePredicate, Function<AssetQuery, NameValuePredicate> locator, String jsonObjName, List<ParameterBinder> binders) {
         if (nameValuePredicate.name == null && nameValuePredicate.value == null) {
             return "TRUE";
         }
@@ -1883,7 +2183,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             final int pos = binders.size() + 1;
             attributeBuilder.append(buildMatchFilter(nameValuePredicate.name, pos));
-            binders.add((em, st) -> st.setParameter(pos, nameValuePredicate.name.prepareValue()));
+            binders.add((st, q, now) -> st.setParameter(pos, locator.apply(q).name.prepareValue()));
 
         }
 
@@ -1905,16 +2205,17 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 valuePathInserter = (sb, b) ->
                     sb.append(isAttributePredicate ? "(" + jsonObjName + ".VALUE #> '{value}')" : jsonObjName + ".VALUE");
             } else {
-                List<String> paths = new ArrayList<>();
-                if (isAttributePredicate) {
-                    paths.add("value");
-                }
-                paths.addAll(Arrays.stream(nameValuePredicate.path.getPaths()).map(Object::toString).collect(Collectors.toList()));
-
                 valuePathInserter = (sb, b) -> {
                     final int pos = binders.size() + 1;
                     sb.append("(").append(jsonObjName).append(".VALUE #> ?").append(pos).append(")");
-                    binders.add((em, st) -> st.setParameter(pos, paths.toArray(new String[0]), StringArrayType.INSTANCE));
+                    binders.add((st, q, now) -> {
+                        List<String> paths = new ArrayList<>();
+                        if (isAttributePredicate) {
+                            paths.add("value");
+                        }
+                        paths.addAll(Arrays.stream(locator.apply(q).path.getPaths()).map(Object::toString).collect(Collectors.toList()));
+                        st.setParameter(pos, paths.toArray(new String[0]), StringArrayType.INSTANCE);
+                    });
                 };
             }
 
@@ -1930,7 +2231,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 }
                 final int pos = binders.size() + 1;
                 attributeBuilder.append(buildMatchFilter(stringPredicate, pos));
-                binders.add((em, st) -> st.setParameter(pos, stringPredicate.prepareValue()));
+                binders.add((st, q, now) -> st.setParameter(pos, ((StringPredicate) locator.apply(q).value).prepareValue()));
             } else if (nameValuePredicate.value instanceof BooleanPredicate) {
                 BooleanPredicate booleanPredicate = (BooleanPredicate) nameValuePredicate.value;
                 valuePathInserter.accept(attributeBuilder, binders);
@@ -1945,15 +2246,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 attributeBuilder
                     .append(" #>> '{}')\\:\\:timestamp");
 
-                Pair<Long, Long> fromAndTo = dateTimePredicate.asFromAndTo(timeProvider.get());
-
                 final int pos = binders.size() + 1;
-                binders.add((em, st) -> st.setParameter(pos, new java.sql.Timestamp(fromAndTo.key != null ? fromAndTo.key : 0L)));
+                binders.add((st, q, now) -> {
+                    Pair<Long, Long> fromAndTo = ((DateTimePredicate) locator.apply(q).value).asFromAndTo(now);
+                    st.setParameter(pos, new java.sql.Timestamp(fromAndTo.key != null ? fromAndTo.key : 0L));
+                });
                 attributeBuilder.append(buildOperatorFilter(dateTimePredicate.operator, dateTimePredicate.negate, pos));
 
                 if (dateTimePredicate.operator == Operator.BETWEEN) {
                     final int pos2 = binders.size() + 1;
-                    binders.add((em, st) -> st.setParameter(pos2, new java.sql.Timestamp(fromAndTo.value != null ? fromAndTo.value : Long.MAX_VALUE)));
+                    binders.add((st, q, now) -> {
+                        Pair<Long, Long> fromAndTo = ((DateTimePredicate) locator.apply(q).value).asFromAndTo(now);
+                        st.setParameter(pos2, new java.sql.Timestamp(fromAndTo.value != null ? fromAndTo.value : Long.MAX_VALUE));
+                    });
                 }
             } else if (nameValuePredicate.value instanceof NumberPredicate) {
                 NumberPredicate numberPredicate = (NumberPredicate) nameValuePredicate.value;
@@ -1963,10 +2268,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     .append(" #>> '{}')\\:\\:numeric");
                 final int pos = binders.size() + 1;
                 attributeBuilder.append(buildOperatorFilter(numberPredicate.operator, numberPredicate.negate, pos));
-                binders.add((em, st) -> st.setParameter(pos, numberPredicate.value));
+                binders.add((st, q, now) -> st.setParameter(pos, ((NumberPredicate) locator.apply(q).value).value));
                 if (numberPredicate.operator == Operator.BETWEEN) {
                     final int pos2 = binders.size() + 1;
-                    binders.add((em, st) -> st.setParameter(pos2, numberPredicate.rangeValue));
+                    binders.add((st, q, now) -> st.setParameter(pos2, ((NumberPredicate) locator.apply(q).value).rangeValue));
                 }
             } else if (nameValuePredicate.value instanceof ArrayPredicate) {
                 ArrayPredicate arrayPredicate = (ArrayPredicate) nameValuePredicate.value;
@@ -1983,7 +2288,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     }
                     final int pos = binders.size() + 1;
                     attributeBuilder.append(" @> ?").append(pos).append(" \\:\\:jsonb");
-                    binders.add((em, st) -> st.setParameter(pos, ValueUtil.asJSON(arrayPredicate.value).orElse(ValueUtil.NULL_LITERAL)));
+                    binders.add((st, q, now) -> st.setParameter(pos, ValueUtil.asJSON(((ArrayPredicate) locator.apply(q).value).value).orElse(ValueUtil.NULL_LITERAL)));
                 } else {
                     attributeBuilder.append("true");
                 }
@@ -2021,14 +2326,16 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         .append(" #>> '{coordinates,0}')\\:\\:numeric")
                         .append(", (");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
                         .append(" #>> '{coordinates,1}')\\:\\:numeric")
-                        .append("), ST_MakePoint(")
-                        .append(location.lng)
-                        .append(",")
-                        .append(location.lat)
-                        .append(location.negated ? ")) > " : ")) <= ")
-                        .append(location.radius);
+                        .append("), ST_MakePoint(?").append(pos)
+                        .append(", ?").append(pos + 1)
+                        .append(location.negated ? ")) > ?" : ")) <= ?").append(pos + 2);
+                    // Bound rather than inlined so the SQL is the same for any location
+                    binders.add((st, q, now) -> st.setParameter(pos, ((RadialGeofencePredicate) locator.apply(q).value).lng));
+                    binders.add((st, q, now) -> st.setParameter(pos + 1, ((RadialGeofencePredicate) locator.apply(q).value).lat));
+                    binders.add((st, q, now) -> st.setParameter(pos + 2, ((RadialGeofencePredicate) locator.apply(q).value).radius));
                 } else if (nameValuePredicate.value instanceof RectangularGeofencePredicate) {
                     RectangularGeofencePredicate location = (RectangularGeofencePredicate) nameValuePredicate.value;
                     if (location.negated) {
@@ -2040,25 +2347,25 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         .append(" #>> '{coordinates,0}')\\:\\:numeric")
                         .append(", (");
                     valuePathInserter.accept(attributeBuilder, binders);
+                    final int pos = binders.size() + 1;
                     attributeBuilder
                         .append(" #>> '{coordinates,1}')\\:\\:numeric")
                         .append(")")
-                        .append(", ST_MakeEnvelope(")
-                        .append(location.lngMin)
-                        .append(",")
-                        .append(location.latMin)
-                        .append(",")
-                        .append(location.lngMax)
-                        .append(",")
-                        .append(location.latMax)
+                        .append(", ST_MakeEnvelope(?").append(pos)
+                        .append(", ?").append(pos + 1)
+                        .append(", ?").append(pos + 2)
+                        .append(", ?").append(pos + 3)
                         .append("))");
+                    binders.add((st, q, now) -> st.setParameter(pos, ((RectangularGeofencePredicate) locator.apply(q).value).lngMin));
+                    binders.add((st, q, now) -> st.setParameter(pos + 1, ((RectangularGeofencePredicate) locator.apply(q).value).latMin));
+                    binders.add((st, q, now) -> st.setParameter(pos + 2, ((RectangularGeofencePredicate) locator.apply(q).value).lngMax));
+                    binders.add((st, q, now) -> st.setParameter(pos + 3, ((RectangularGeofencePredicate) locator.apply(q).value).latMax));
                 }
             } else if (nameValuePredicate.value instanceof ValueEmptyPredicate) {
                 valuePathInserter.accept(attributeBuilder, binders);
                 attributeBuilder.append(((ValueEmptyPredicate) nameValuePredicate.value).negate ? "\\:\\:text IS NOT NULL" : "\\:\\:text IS NULL");
             } else if (nameValuePredicate.value instanceof CalendarEventPredicate) {
                 final int pos = binders.size() + 1;
-                java.sql.Timestamp when = new java.sql.Timestamp(((CalendarEventPredicate)nameValuePredicate.value).timestamp.getTime());
 
                 // The recurrence logic is applied post DB query just check start key is present and in the past and also
                 // that the end key is numeric and in the future if no recurrence value
@@ -2078,8 +2385,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 valuePathInserter.accept(attributeBuilder, binders);
                 attributeBuilder
                     .append(" #> '{recurrence}') = 'string'))");
-                binders.add((em, st) -> st.setParameter(pos, when));
-                binders.add((em, st) -> st.setParameter(pos+1, when));
+                binders.add((st, q, now) -> st.setParameter(pos, new java.sql.Timestamp(((CalendarEventPredicate) locator.apply(q).value).timestamp.getTime())));
+                binders.add((st, q, now) -> st.setParameter(pos+1, new java.sql.Timestamp(((CalendarEventPredicate) locator.apply(q).value).timestamp.getTime())));
             } else {
                 throw new UnsupportedOperationException("Attribute value predicate is not supported: " + nameValuePredicate.value);
             }
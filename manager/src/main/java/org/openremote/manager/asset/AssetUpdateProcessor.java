@@ -19,7 +19,7 @@
  */
 package org.openremote.manager.asset;
 
-import org.openremote.container.concurrent.GlobalLock;
+import org.openremote.container.concurrent.KeyedLockManager;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeEvent.Source;
@@ -29,10 +29,11 @@ import javax.persistence.EntityManager;
 /**
  * Process update of an asset attribute (value), from a {@link Source}.
  *
- * Implementations don't have to lock the whole context through {@link GlobalLock}, the
- * caller of this has already obtained the lock. Internal synchronization and thread-safety
+ * The caller of this has already obtained the {@link KeyedLockManager.Scope#ASSET} lock for the asset, but
+ * updates of other assets may be processed concurrently. Internal synchronization and thread-safety
  * must still be maintained if shared state of a processor can be modified by concurrent tasks
- * maintained by that processor.
+ * maintained by that processor; implementations must not obtain the
+ * {@link org.openremote.container.concurrent.GlobalLock} whilst processing.
  */
 public interface AssetUpdateProcessor {
 
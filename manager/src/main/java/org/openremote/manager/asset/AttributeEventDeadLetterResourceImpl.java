@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.security.ManagerIdentityService;
+import org.openremote.manager.web.ManagerWebResource;
+import org.openremote.model.Constants;
+import org.openremote.model.attribute.*;
+import org.openremote.model.http.RequestParams;
+
+import javax.ws.rs.WebApplicationException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
+
+public class AttributeEventDeadLetterResourceImpl extends ManagerWebResource implements AttributeEventDeadLetterResource {
+
+    public static final int DEFAULT_LIMIT = 100;
+    protected final AssetProcessingService assetProcessingService;
+
+    public AttributeEventDeadLetterResourceImpl(TimerService timerService,
+                                                ManagerIdentityService identityService,
+                                                AssetProcessingService assetProcessingService) {
+        super(timerService, identityService);
+        this.assetProcessingService = assetProcessingService;
+    }
+
+    @Override
+    public AttributeEventDeadLetter[] getDeadLetters(RequestParams requestParams, Integer limit) {
+        if (!isSuperUser()) {
+            throw new WebApplicationException(FORBIDDEN);
+        }
+
+        return assetProcessingService.getDeadLetters()
+            .get(limit != null && limit > 0 ? limit : DEFAULT_LIMIT)
+            .toArray(new AttributeEventDeadLetter[0]);
+    }
+
+    @Override
+    public AttributeWriteResult reinjectDeadLetter(RequestParams requestParams, Long id) {
+        if (!isSuperUser()) {
+            throw new WebApplicationException(FORBIDDEN);
+        }
+
+        AttributeEventDeadLetter deadLetter = assetProcessingService.getDeadLetters().remove(id);
+        if (deadLetter == null) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+
+        AttributeEvent event = deadLetter.getEvent();
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(HEADER_SOURCE, deadLetter.getSource());
+        if (deadLetter.getSource() == AttributeEvent.Source.CLIENT) {
+            headers.put(Constants.AUTH_CONTEXT, getAuthContext());
+        }
+
+        AttributeWriteFailure failure = null;
+        try {
+            Object result = assetProcessingService.requestAttributeEvent(event, headers);
+            if (result instanceof AssetProcessingException processingException) {
+                failure = processingException.getReason();
+            }
+        } catch (AssetProcessingException e) {
+            failure = e.getReason();
+        } catch (IllegalStateException e) {
+            failure = AttributeWriteFailure.UNKNOWN;
+        }
+
+        return new AttributeWriteResult(event.getAttributeRef(), failure);
+    }
+
+    @Override
+    public void deleteDeadLetter(RequestParams requestParams, Long id) {
+        if (!isSuperUser()) {
+            throw new WebApplicationException(FORBIDDEN);
+        }
+
+        if (assetProcessingService.getDeadLetters().remove(id) == null) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+    }
+}
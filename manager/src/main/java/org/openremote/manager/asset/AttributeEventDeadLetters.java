@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeEventDeadLetter;
+import org.openremote.model.attribute.AttributeWriteFailure;
+import org.openremote.model.util.ValueUtil;
+import org.postgresql.util.PGobject;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the {@link AttributeEventDeadLetter}s of {@link AttributeEvent}s that failed processing.
+ */
+public class AttributeEventDeadLetters {
+
+    protected static final int MAX_MESSAGE_LENGTH = 4096;
+    protected static final String SELECT_COLUMNS = "ID, TIMESTAMP, SOURCE, FAILURE, MESSAGE, EVENT";
+    protected final PersistenceService persistenceService;
+
+    public AttributeEventDeadLetters(PersistenceService persistenceService) {
+        this.persistenceService = persistenceService;
+    }
+
+    /**
+     * Stores the dead letters in one transaction, their IDs are assigned by the database.
+     */
+    public void add(List<AttributeEventDeadLetter> deadLetters) {
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                "insert into ATTRIBUTE_EVENT_DEAD_LETTER (TIMESTAMP, SOURCE, FAILURE, MESSAGE, EVENT) values (?, ?, ?, ?, ?)")) {
+                for (AttributeEventDeadLetter deadLetter : deadLetters) {
+                    String message = deadLetter.getMessage();
+                    PGobject event = new PGobject();
+                    event.setType("jsonb");
+                    event.setValue(ValueUtil.asJSON(deadLetter.getEvent()).orElseThrow());
+                    statement.setTimestamp(1, new Timestamp(deadLetter.getTimestamp()));
+                    statement.setString(2, deadLetter.getSource().name());
+                    statement.setString(3, deadLetter.getFailure().name());
+                    statement.setString(4, message != null && message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message);
+                    statement.setObject(5, event);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }));
+    }
+
+    /**
+     * @return the oldest dead letters, at most the limit.
+     */
+    public List<AttributeEventDeadLetter> get(int limit) {
+        return persistenceService.doReturningTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                "select " + SELECT_COLUMNS + " from ATTRIBUTE_EVENT_DEAD_LETTER order by ID limit ?")) {
+                statement.setInt(1, limit);
+                return read(statement);
+            }
+        }));
+    }
+
+    /**
+     * Removes the dead letter and returns it or <code>null</code> if it doesn't exist.
+     */
+    public AttributeEventDeadLetter remove(long id) {
+        return persistenceService.doReturningTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                "delete from ATTRIBUTE_EVENT_DEAD_LETTER where ID = ? returning " + SELECT_COLUMNS)) {
+                statement.setLong(1, id);
+                List<AttributeEventDeadLetter> deadLetters = read(statement);
+                return deadLetters.isEmpty() ? null : deadLetters.get(0);
+            }
+        }));
+    }
+
+    protected static List<AttributeEventDeadLetter> read(PreparedStatement statement) throws SQLException {
+        List<AttributeEventDeadLetter> deadLetters = new ArrayList<>();
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                deadLetters.add(new AttributeEventDeadLetter(
+                    rs.getLong(1),
+                    rs.getTimestamp(2).getTime(),
+                    ValueUtil.parse(rs.getString(6), AttributeEvent.class).orElse(null),
+                    AttributeEvent.Source.valueOf(rs.getString(3)),
+                    AttributeWriteFailure.valueOf(rs.getString(4)),
+                    rs.getString(5)
+                ));
+            }
+        }
+        return deadLetters;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeEvent.Source;
+import org.openremote.model.util.ValueUtil;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append only journal of the {@link AttributeEvent}s sent to the {@link AssetProcessingService#ASSET_QUEUE}, so
+ * events that are still queued or being processed when the manager stops or crashes are processed when it is started
+ * again.
+ * <p>
+ * The journal consists of memory mapped segment files, an event is appended to the last segment before it is queued
+ * and gets a sequence number that is unique for the journal; once the event has been processed (or stored as a dead
+ * letter) it is marked as complete in place. Segments without pending events are deleted. The segment files are
+ * forced to the storage device by {@link #force}, until then the events survive a crash of the manager but not of the
+ * operating system.
+ * <p>
+ * A record is the payload length (int), the status (byte), the sequence (long) and the payload: the ordinal of the
+ * {@link Source} followed by the JSON of the event. The length is written last so a partially written record is
+ * ignored.
+ */
+public class AttributeEventJournal {
+
+    /**
+     * A pending event read when opening the journal.
+     */
+    public static class Entry {
+        protected final long sequence;
+        protected final AttributeEvent event;
+        protected final Source source;
+
+        public Entry(long sequence, AttributeEvent event, Source source) {
+            this.sequence = sequence;
+            this.event = event;
+            this.source = source;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public AttributeEvent getEvent() {
+            return event;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+    }
+
+    protected static class Segment {
+        final Path path;
+        final long firstSequence;
+        final List<Integer> positions = new ArrayList<>();
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int position;
+        int pendingCount;
+
+        protected Segment(Path path, long firstSequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Header of the exchanges of journaled events containing the sequence of the event.
+     */
+    public static final String HEADER_SEQUENCE = AttributeEventJournal.class.getName() + ".SEQUENCE";
+    protected static final String ID_FILE = "journal.id";
+    protected static final String SEGMENT_SUFFIX = ".segment";
+    protected static final int RECORD_HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+    protected static final byte PENDING = 1;
+    protected static final byte COMPLETE = 2;
+    private static final Logger LOG = Logger.getLogger(AttributeEventJournal.class.getName());
+    protected final Path directory;
+    protected final int segmentSize;
+    protected final TreeMap<Long, Segment> segments = new TreeMap<>();
+    protected String journalId;
+    protected Segment activeSegment;
+    protected long nextSequence = 1;
+    protected boolean open;
+
+    public AttributeEventJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the journal and returns the events that were pending when it was last closed, in the order they were
+     * appended.
+     */
+    public synchronized List<Entry> open() throws IOException {
+        if (open) {
+            throw new IllegalStateException("Journal is already open: " + directory);
+        }
+
+        Files.createDirectories(directory);
+        Path idFile = directory.resolve(ID_FILE);
+        if (Files.exists(idFile)) {
+            journalId = Files.readString(idFile).trim();
+        } else {
+            journalId = UUID.randomUUID().toString();
+            Files.writeString(idFile, journalId);
+        }
+
+        List<Path> segmentPaths;
+        try (Stream<Path> paths = Files.list(directory)) {
+            segmentPaths = paths
+                .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        List<Entry> pending = new ArrayList<>();
+        for (Path path : segmentPaths) {
+            Segment segment = readSegment(path, pending);
+            nextSequence = Math.max(nextSequence, segment.firstSequence + segment.positions.size());
+            if (segment.pendingCount == 0) {
+                deleteSegment(segment);
+            } else {
+                segments.put(segment.firstSequence, segment);
+            }
+        }
+
+        activeSegment = createSegment(segmentSize);
+        open = true;
+        LOG.info("Opened attribute event journal '" + directory + "' with " + pending.size() + " pending event(s)");
+        return pending;
+    }
+
+    /**
+     * Appends the event and returns its sequence.
+     */
+    public synchronized long append(AttributeEvent event, Source source) throws IOException {
+        if (!open) {
+            throw new IllegalStateException("Journal is not open: " + directory);
+        }
+
+        byte[] json = ValueUtil.JSON.writeValueAsBytes(event);
+        int length = 1 + json.length;
+        int recordSize = RECORD_HEADER_SIZE + length;
+
+        if (activeSegment.position + recordSize > activeSegment.buffer.capacity()) {
+            Segment previous = activeSegment;
+            previous.buffer.force();
+            activeSegment = createSegment(Math.max(segmentSize, recordSize));
+            if (previous.pendingCount == 0) {
+                deleteSegment(previous);
+            }
+        }
+
+        long sequence = nextSequence++;
+        Segment segment = activeSegment;
+        int position = segment.position;
+        segment.buffer.put(position + RECORD_HEADER_SIZE, (byte) source.ordinal());
+        segment.buffer.put(position + RECORD_HEADER_SIZE + 1, json);
+        segment.buffer.putLong(position + Integer.BYTES + 1, sequence);
+        segment.buffer.put(position + Integer.BYTES, PENDING);
+        segment.buffer.putInt(position, length);
+        segment.positions.add(position);
+        segment.position += recordSize;
+        segment.pendingCount++;
+        return sequence;
+    }
+
+    /**
+     * Marks the event as complete so it isn't returned when the journal is opened again.
+     */
+    public synchronized void complete(long sequence) {
+        Map.Entry<Long, Segment> segmentEntry = segments.floorEntry(sequence);
+        if (segmentEntry == null) {
+            return;
+        }
+
+        Segment segment = segmentEntry.getValue();
+        long index = sequence - segment.firstSequence;
+        if (index >= segment.positions.size()) {
+            return;
+        }
+
+        int statusPosition = segment.positions.get((int) index) + Integer.BYTES;
+        if (segment.buffer.get(statusPosition) != PENDING) {
+            return;
+        }
+        segment.buffer.put(statusPosition, COMPLETE);
+        segment.pendingCount--;
+
+        if (segment.pendingCount == 0 && segment != activeSegment) {
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Writes the changes of the segments to the storage device.
+     */
+    public synchronized void force() {
+        segments.values().forEach(segment -> segment.buffer.force());
+    }
+
+    /**
+     * Forces and closes the segments, pending events are returned when the journal is opened again.
+     */
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to close attribute event journal segment: " + segment.path, e);
+            }
+        }
+        segments.clear();
+        activeSegment = null;
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return the ID of this journal, the sequences of events are only unique within a journal.
+     */
+    public synchronized String getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * @return the lowest sequence of the pending events or the next sequence if no events are pending; events with a
+     * lower sequence are complete.
+     */
+    public synchronized long getOldestPendingSequence() {
+        for (Segment segment : segments.values()) {
+            if (segment.pendingCount == 0) {
+                continue;
+            }
+            for (int i = 0; i < segment.positions.size(); i++) {
+                if (segment.buffer.get(segment.positions.get(i) + Integer.BYTES) == PENDING) {
+                    return segment.firstSequence + i;
+                }
+            }
+        }
+        return nextSequence;
+    }
+
+    public synchronized int getPendingCount() {
+        return segments.values().stream().mapToInt(segment -> segment.pendingCount).sum();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    protected Segment createSegment(int size) throws IOException {
+        Path path = directory.resolve(String.format("%020d", nextSequence) + SEGMENT_SUFFIX);
+        FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+        Segment segment = new Segment(path, nextSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        segments.put(segment.firstSequence, segment);
+        return segment;
+    }
+
+    protected Segment readSegment(Path path, List<Entry> pending) throws IOException {
+        String fileName = path.getFileName().toString();
+        long firstSequence = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+        FileChannel channel = FileChannel.open(path, READ, WRITE);
+        Segment segment = new Segment(path, firstSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        MappedByteBuffer buffer = segment.buffer;
+
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+
+            long sequence = buffer.getLong(position + Integer.BYTES + 1);
+            if (sequence != firstSequence + segment.positions.size()) {
+                LOG.warning("Attribute event journal segment is corrupt, ignoring records from position " + position + ": " + path);
+                break;
+            }
+
+            segment.positions.add(position);
+            if (buffer.get(position + Integer.BYTES) == PENDING) {
+                try {
+                    byte[] json = new byte[length - 1];
+                    buffer.get(position + RECORD_HEADER_SIZE + 1, json);
+                    Source source = Source.values()[buffer.get(position + RECORD_HEADER_SIZE)];
+                    pending.add(new Entry(sequence, ValueUtil.JSON.readValue(json, AttributeEvent.class), source));
+                    segment.pendingCount++;
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Discarding unreadable attribute event journal record " + sequence + ": " + path, e);
+                    buffer.put(position + Integer.BYTES, COMPLETE);
+                }
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        segment.position = position;
+        return segment;
+    }
+
+    protected void deleteSegment(Segment segment) {
+        segments.remove(segment.firstSequence);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to delete attribute event journal segment: " + segment.path, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "directory=" + directory +
+            ", segmentSize=" + segmentSize +
+            '}';
+    }
+}
@@ -12,6 +12,7 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointDecimation;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
@@ -25,6 +26,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
@@ -44,11 +46,13 @@ import static java.time.temporal.ChronoUnit.DAYS;
 public abstract class AbstractDatapointService<T extends Datapoint> implements ContainerService {
 
     public static final int PRIORITY = AssetStorageService.PRIORITY + 100;
+    protected static final int DECIMATION_FETCH_SIZE = 10000;
     protected PersistenceService persistenceService;
     protected AssetStorageService assetStorageService;
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
     protected ScheduledFuture<?> dataPointsPurgeScheduledFuture;
+    protected DatapointRollupManager rollupManager;
 
     @Override
     public int getPriority() {
@@ -87,6 +91,7 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                         throw new IllegalStateException(msg, e);
                     }
                 }));
+        onDatapointStored(assetId, attributeName, timestamp);
     }
 
     public void upsertValues(String assetId, String attributeName, List<Pair<?, LocalDateTime>> valuesAndTimestamps) throws IllegalStateException {
@@ -110,6 +115,20 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                         throw new IllegalStateException(msg, e);
                     }
                 }));
+        valuesAndTimestamps.forEach(valueAndTimestamp -> onDatapointStored(assetId, attributeName, valueAndTimestamp.value));
+    }
+
+    /**
+     * Called once a datapoint has been committed.
+     */
+    protected void onDatapointStored(String assetId, String attributeName, LocalDateTime timestamp) {
+        if (rollupManager != null) {
+            rollupManager.markDirty(assetId, attributeName, timestamp);
+        }
+    }
+
+    public DatapointRollupManager getRollupManager() {
+        return rollupManager;
     }
 
     public List<T> getDatapoints(AttributeRef attributeRef) {
@@ -178,24 +197,35 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
 
         getLogger().finer("Getting datapoints for: " + attributeRef);
 
+        Class<?> attributeType = attribute.getType().getType();
+        boolean isNumber = Number.class.isAssignableFrom(attributeType);
+        boolean isBoolean = Boolean.class.isAssignableFrom(attributeType);
+        boolean downsample = isNumber || isBoolean;
+
+        // Answer from the coarsest rollup whose buckets fit in the interval, once it has caught up with the datapoints
+        DatapointRollupManager.Resolution rollupResolution = downsample && rollupManager != null
+                ? DatapointRollupManager.getResolution(datapointInterval)
+                : null;
+        if (rollupResolution != null) {
+            rollupManager.refresh(assetId, attribute.getName());
+        }
+        String tableName = rollupResolution != null ? rollupManager.getTableName(rollupResolution) : getDatapointTableName();
+        String timestampColumn = rollupResolution != null ? "BUCKET" : "TIMESTAMP";
+
         return persistenceService.doReturningTransaction(entityManager ->
 
                 entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<ValueDatapoint<?>[]>() {
                     @Override
                     public ValueDatapoint<?>[] execute(Connection connection) throws SQLException {
 
-                        Class<?> attributeType = attribute.getType().getType();
-                        boolean isNumber = Number.class.isAssignableFrom(attributeType);
-                        boolean isBoolean = Boolean.class.isAssignableFrom(attributeType);
                         StringBuilder query = new StringBuilder();
-                        boolean downsample = isNumber || isBoolean;
 
                         String truncate = null;
                         String part = null;
                         String interval = null;
                         String stepStr = null;
                         String partQuery = "date_part(?, ?)::int";
-                        String partQuery2 = "date_part(?, TIMESTAMP)::int";
+                        String partQuery2 = "date_part(?, " + timestampColumn + ")::int";
                         int step = 1;
 
                         if (downsample) {
@@ -209,7 +239,7 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                                     part = "min";
                                     interval = "min";
                                     partQuery = "(date_part('hour', ?)::int * 60 + date_part(?, ?)::int)";
-                                    partQuery2 = "(date_part('hour', TIMESTAMP)::int * 60 + date_part(?, TIMESTAMP)::int)";
+                                    partQuery2 = "(date_part('hour', " + timestampColumn + ")::int * 60 + date_part(?, " + timestampColumn + ")::int)";
                                     break;
                                 case HOUR:
                                     step = stepSize == null ? 1 : Math.max(1, Math.min(24, stepSize));
@@ -246,19 +276,21 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                             }
                             stepStr = step + " " + interval;
 
-                            // TODO: Change this to use something like this max min decimation algorithm https://knowledge.ni.com/KnowledgeArticleDetails?id=kA00Z0000019YLKSA2&l=en-GB)
                             query.append("select PERIOD as X, AVG_VALUE as Y " +
                                     "from generate_series(date_trunc(?, ?) + " + partQuery + " / ? * ?, date_trunc(?, ?) + " + partQuery + " / ? * ?, ?) PERIOD left join ( " +
-                                    "select (date_trunc(?, TIMESTAMP) + " + partQuery2 + " / ? * ?)::timestamp as TS, ");
+                                    "select (date_trunc(?, " + timestampColumn + ") + " + partQuery2 + " / ? * ?)::timestamp as TS, ");
 
-                            if (isNumber) {
+                            if (rollupResolution != null) {
+                                // Weighted by the number of datapoints in each bucket so it's the same as the raw average
+                                query.append(" SUM(SUM_VALUE) / NULLIF(SUM(NUMBER_COUNT), 0) as AVG_VALUE ");
+                            } else if (isNumber) {
                                 query.append(" AVG(VALUE::text::numeric) as AVG_VALUE ");
                             } else {
                                 query.append(" AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
                             }
 
-                            query.append("from " + getDatapointTableName() +
-                                    " where TIMESTAMP >= date_trunc(?, ?) and TIMESTAMP < (date_trunc(?, ?) + ?) and ENTITY_ID = ? and ATTRIBUTE_NAME = ? group by TS) DP on DP.TS = PERIOD order by PERIOD asc");
+                            query.append("from " + tableName +
+                                    " where " + timestampColumn + " >= date_trunc(?, ?) and " + timestampColumn + " < (date_trunc(?, ?) + ?) and ENTITY_ID = ? and ATTRIBUTE_NAME = ? group by TS) DP on DP.TS = PERIOD order by PERIOD asc");
 
                         } else {
                             query.append("select distinct TIMESTAMP AS X, value AS Y from " + getDatapointTableName() +
@@ -339,6 +371,85 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
         );
     }
 
+    /**
+     * Get the datapoints reduced with the decimation to at most the max points; if max points is not set then the
+     * point budget is derived from the number of intervals. The datapoints are streamed through a
+     * {@link DatapointDecimator} in timestamp order. Datapoints of attributes that aren't a number or boolean, or with
+     * {@link DatapointDecimation#AVERAGE}, are queried as without decimation.
+     */
+    public ValueDatapoint<?>[] getValueDatapoints(String assetId,
+                                                  Attribute<?> attribute,
+                                                  DatapointInterval datapointInterval,
+                                                  Integer stepSize,
+                                                  DatapointDecimation decimation,
+                                                  Integer maxPoints,
+                                                  LocalDateTime fromTimestamp,
+                                                  LocalDateTime toTimestamp) throws IllegalStateException {
+
+        Class<?> attributeType = attribute.getType().getType();
+        boolean downsample = Number.class.isAssignableFrom(attributeType) || Boolean.class.isAssignableFrom(attributeType);
+
+        if (decimation == null || decimation == DatapointDecimation.AVERAGE || !downsample) {
+            return getValueDatapoints(assetId, attribute, datapointInterval, stepSize, fromTimestamp, toTimestamp);
+        }
+
+        long fromMillis = Timestamp.valueOf(fromTimestamp).getTime();
+        long toMillis = Timestamp.valueOf(toTimestamp).getTime();
+
+        if (maxPoints == null) {
+            if (datapointInterval == null) {
+                throw new IllegalStateException("An interval or max points is required for decimation: " + decimation);
+            }
+            long intervalMillis = getIntervalMillis(datapointInterval) * (stepSize == null ? 1 : Math.max(1, stepSize));
+            int bucketCount = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(1, (toMillis - fromMillis + intervalMillis - 1) / intervalMillis));
+            maxPoints = DatapointDecimator.getMaxPoints(decimation, bucketCount);
+        }
+
+        DatapointDecimator decimator = DatapointDecimator.create(decimation, fromMillis, toMillis, maxPoints);
+
+        getLogger().finer("Getting datapoints for: " + new AttributeRef(assetId, attribute.getName()) + " with " + decimator);
+
+        return persistenceService.doReturningTransaction(entityManager ->
+                entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<ValueDatapoint<?>[]>() {
+                    @Override
+                    public ValueDatapoint<?>[] execute(Connection connection) throws SQLException {
+                        try (PreparedStatement st = connection.prepareStatement(
+                                "select TIMESTAMP, DATAPOINT_NUMBER_VALUE(VALUE) from " + getDatapointTableName() +
+                                        " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP <= ? order by TIMESTAMP")) {
+
+                            // Stream the datapoints with a cursor rather than loading them all
+                            st.setFetchSize(DECIMATION_FETCH_SIZE);
+                            st.setString(1, assetId);
+                            st.setString(2, attribute.getName());
+                            st.setObject(3, fromTimestamp);
+                            st.setObject(4, toTimestamp);
+
+                            try (ResultSet rs = st.executeQuery()) {
+                                while (rs.next()) {
+                                    double value = rs.getDouble(2);
+                                    if (!rs.wasNull()) {
+                                        decimator.accept(rs.getTimestamp(1).getTime(), value);
+                                    }
+                                }
+                            }
+                        }
+                        return decimator.finish().toArray(new ValueDatapoint<?>[0]);
+                    }
+                })
+        );
+    }
+
+    protected static long getIntervalMillis(DatapointInterval datapointInterval) {
+        return switch (datapointInterval) {
+            case MINUTE -> ChronoUnit.MINUTES.getDuration().toMillis();
+            case HOUR -> ChronoUnit.HOURS.getDuration().toMillis();
+            case DAY -> ChronoUnit.DAYS.getDuration().toMillis();
+            case WEEK -> ChronoUnit.WEEKS.getDuration().toMillis();
+            case MONTH -> ChronoUnit.MONTHS.getDuration().toMillis();
+            case YEAR -> ChronoUnit.YEARS.getDuration().toMillis();
+        };
+    }
+
     public DatapointPeriod getDatapointPeriod(String assetId, String attributeName) {
         return persistenceService.doReturningTransaction(em ->
                 em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<DatapointPeriod>() {
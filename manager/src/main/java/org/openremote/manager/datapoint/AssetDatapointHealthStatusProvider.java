@@ -65,6 +65,9 @@ public class AssetDatapointHealthStatusProvider implements HealthStatusProvider,
     public Object getHealthStatus() {
         ObjectNode value = ValueUtil.JSON.createObjectNode();
         value.put("totalDatapoints", assetDatapointService.getDatapointsCount());
+        if (assetDatapointService.getRollupManager() != null) {
+            value.put("rollupDirtyBuckets", assetDatapointService.getRollupManager().getDirtyCount());
+        }
         return value;
     }
 }
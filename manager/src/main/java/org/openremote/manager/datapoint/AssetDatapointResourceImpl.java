@@ -29,6 +29,7 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.AssetDatapointResource;
+import org.openremote.model.datapoint.DatapointDecimation;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
@@ -79,6 +80,8 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                                              String attributeName,
                                              DatapointInterval interval,
                                              Integer stepSize,
+                                             DatapointDecimation decimation,
+                                             Integer maxPoints,
                                              long fromTimestamp,
                                              long toTimestamp) {
         try {
@@ -106,9 +109,11 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                     attribute,
                     interval,
                     stepSize,
+                    decimation,
+                    maxPoints,
                     LocalDateTime.ofInstant(Instant.ofEpochMilli(fromTimestamp), ZoneId.systemDefault()),
                     LocalDateTime.ofInstant(Instant.ofEpochMilli(toTimestamp), ZoneId.systemDefault()));
-        } catch (IllegalStateException ex) {
+        } catch (IllegalStateException | IllegalArgumentException ex) {
             throw new BadRequestException(ex);
         } catch (UnsupportedOperationException ex) {
             throw new NotSupportedException(ex);
@@ -51,6 +51,20 @@ import static org.openremote.model.value.MetaItemType.STORE_DATA_POINTS;
  * {@link MetaItemType#DATA_POINTS_MAX_AGE_DAYS} {@link org.openremote.model.attribute.MetaItem}
  * and {@link #OR_DATA_POINTS_MAX_AGE_DAYS} setting; storage duration defaults to {@value #OR_DATA_POINTS_MAX_AGE_DAYS_DEFAULT}
  * days.
+ * <p>
+ * Datapoints of processed attribute events are written immediately unless {@link #OR_DATA_POINTS_FLUSH_INTERVAL_MILLIS}
+ * is set, then they are written behind by a {@link DatapointWriter} at that interval; the writer is configured
+ * with {@link #OR_DATA_POINTS_QUEUE_SIZE}, {@link #OR_DATA_POINTS_BATCH_SIZE} and {@link #OR_DATA_POINTS_OVERFLOW_POLICY}.
+ * <p>
+ * The datapoint table is partitioned by time, a {@link DatapointPartitionManager} creates the partitions of the next
+ * {@link #OR_DATA_POINTS_PARTITIONS_AHEAD} {@link #OR_DATA_POINTS_PARTITION_INTERVAL}s daily and the purge drops
+ * partitions that are older than the max age of all attributes; datapoints of attributes with a shorter max age are
+ * still deleted individually.
+ * <p>
+ * Hourly and daily rollups of the datapoints are maintained by a {@link DatapointRollupManager}, which recomputes the
+ * buckets of stored datapoints every {@link #OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS} (set to 0 to disable the rollups)
+ * and catches up with the buckets of the last {@link #OR_DATA_POINTS_ROLLUP_CATCH_UP_HOURS} hourly. Interval queries
+ * of a whole number of hours or days are answered from the rollups; they are purged with the partitions.
  */
 public class AssetDatapointService extends AbstractDatapointService<AssetDatapoint> implements AssetUpdateProcessor, ProtocolDatapointService {
 
@@ -58,9 +72,30 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
     public static final int OR_DATA_POINTS_MAX_AGE_DAYS_DEFAULT = 31;
     public static final String OR_DATA_POINTS_EXPORT_DIR = "OR_DATA_POINTS_EXPORT_DIR";
     public static final String OR_DATA_POINTS_EXPORT_DIR_DEFAULT = "/tmp";
+    public static final String OR_DATA_POINTS_FLUSH_INTERVAL_MILLIS = "OR_DATA_POINTS_FLUSH_INTERVAL_MILLIS";
+    public static final int OR_DATA_POINTS_FLUSH_INTERVAL_MILLIS_DEFAULT = 0;
+    public static final String OR_DATA_POINTS_QUEUE_SIZE = "OR_DATA_POINTS_QUEUE_SIZE";
+    public static final int OR_DATA_POINTS_QUEUE_SIZE_DEFAULT = 100000;
+    public static final String OR_DATA_POINTS_BATCH_SIZE = "OR_DATA_POINTS_BATCH_SIZE";
+    public static final int OR_DATA_POINTS_BATCH_SIZE_DEFAULT = 5000;
+    public static final String OR_DATA_POINTS_OVERFLOW_POLICY = "OR_DATA_POINTS_OVERFLOW_POLICY";
+    public static final String OR_DATA_POINTS_OVERFLOW_POLICY_DEFAULT = DatapointWriter.OverflowPolicy.FLUSH.name();
+    public static final String OR_DATA_POINTS_PARTITION_INTERVAL = "OR_DATA_POINTS_PARTITION_INTERVAL";
+    public static final String OR_DATA_POINTS_PARTITION_INTERVAL_DEFAULT = DatapointPartitionManager.Interval.MONTH.name();
+    public static final String OR_DATA_POINTS_PARTITIONS_AHEAD = "OR_DATA_POINTS_PARTITIONS_AHEAD";
+    public static final int OR_DATA_POINTS_PARTITIONS_AHEAD_DEFAULT = 2;
+    public static final String OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS = "OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS";
+    public static final int OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS_DEFAULT = 10000;
+    public static final String OR_DATA_POINTS_ROLLUP_CATCH_UP_HOURS = "OR_DATA_POINTS_ROLLUP_CATCH_UP_HOURS";
+    public static final int OR_DATA_POINTS_ROLLUP_CATCH_UP_HOURS_DEFAULT = 3;
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
     protected int maxDatapointAgeDays;
     protected Path exportPath;
+    protected DatapointWriter datapointWriter;
+    protected DatapointPartitionManager partitionManager;
+    protected ScheduledFuture<?> partitionScheduledFuture;
+    protected int rollupIntervalMillis;
+    protected int rollupCatchUpHours;
 
     @Override
     public void init(Container container) throws Exception {
@@ -82,10 +117,52 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         }
 
         exportPath = Paths.get(getString(container.getConfig(), OR_DATA_POINTS_EXPORT_DIR, OR_DATA_POINTS_EXPORT_DIR_DEFAULT));
+
+        int flushIntervalMillis = getInteger(container.getConfig(), OR_DATA_POINTS_FLUSH_INTERVAL_MILLIS, OR_DATA_POINTS_FLUSH_INTERVAL_MILLIS_DEFAULT);
+        if (flushIntervalMillis > 0) {
+            datapointWriter = new DatapointWriter(
+                this,
+                persistenceService,
+                Math.max(1, getInteger(container.getConfig(), OR_DATA_POINTS_QUEUE_SIZE, OR_DATA_POINTS_QUEUE_SIZE_DEFAULT)),
+                Math.max(1, getInteger(container.getConfig(), OR_DATA_POINTS_BATCH_SIZE, OR_DATA_POINTS_BATCH_SIZE_DEFAULT)),
+                flushIntervalMillis,
+                DatapointWriter.OverflowPolicy.valueOf(getString(container.getConfig(), OR_DATA_POINTS_OVERFLOW_POLICY, OR_DATA_POINTS_OVERFLOW_POLICY_DEFAULT))
+            );
+        }
+
+        partitionManager = new DatapointPartitionManager(
+            persistenceService,
+            getDatapointTableName(),
+            DatapointPartitionManager.Interval.valueOf(getString(container.getConfig(), OR_DATA_POINTS_PARTITION_INTERVAL, OR_DATA_POINTS_PARTITION_INTERVAL_DEFAULT)),
+            Math.max(1, getInteger(container.getConfig(), OR_DATA_POINTS_PARTITIONS_AHEAD, OR_DATA_POINTS_PARTITIONS_AHEAD_DEFAULT))
+        );
+
+        rollupIntervalMillis = getInteger(container.getConfig(), OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS, OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS_DEFAULT);
+        rollupCatchUpHours = getInteger(container.getConfig(), OR_DATA_POINTS_ROLLUP_CATCH_UP_HOURS, OR_DATA_POINTS_ROLLUP_CATCH_UP_HOURS_DEFAULT);
+        if (rollupIntervalMillis > 0) {
+            rollupManager = new DatapointRollupManager(
+                persistenceService,
+                getDatapointTableName(),
+                Math.max(1, getInteger(container.getConfig(), OR_DATA_POINTS_BATCH_SIZE, OR_DATA_POINTS_BATCH_SIZE_DEFAULT))
+            );
+        }
     }
 
     @Override
     public void start(Container container) throws Exception {
+        if (partitionManager.isPartitioned()) {
+            // Create the partitions now so they exist before any datapoint is written, then check daily
+            createPartitions();
+            partitionScheduledFuture = executorService.scheduleAtFixedRate(
+                this::createPartitions,
+                getFirstPurgeMillis(timerService.getNow()),
+                Duration.ofDays(1).toMillis(), TimeUnit.MILLISECONDS
+            );
+        } else {
+            LOG.warning("Datapoint table '" + getDatapointTableName() + "' is not partitioned so partitions won't be managed");
+            partitionManager = null;
+        }
+
         if (maxDatapointAgeDays > 0) {
             dataPointsPurgeScheduledFuture = executorService.scheduleAtFixedRate(
                 this::purgeDataPoints,
@@ -93,6 +170,32 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
                 Duration.ofDays(1).toMillis(), TimeUnit.MILLISECONDS
             );
         }
+
+        if (datapointWriter != null) {
+            datapointWriter.start(executorService);
+        }
+
+        if (rollupManager != null) {
+            rollupManager.start(executorService, rollupIntervalMillis, rollupCatchUpHours);
+        }
+    }
+
+    @Override
+    public void stop(Container container) throws Exception {
+        super.stop(container);
+
+        if (partitionScheduledFuture != null) {
+            partitionScheduledFuture.cancel(true);
+        }
+
+        if (datapointWriter != null) {
+            datapointWriter.stop();
+        }
+
+        // After the writer so the buckets of the last datapoints are also recomputed
+        if (rollupManager != null) {
+            rollupManager.stop();
+        }
     }
 
     public static boolean attributeIsStoreDatapoint(Attribute<?> attribute) {
@@ -107,7 +210,12 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
 
         if (attributeIsStoreDatapoint(attribute) && attribute.getValue().isPresent()) { // Don't store datapoints with null value
             try {
-                upsertValue(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), LocalDateTime.ofInstant(Instant.ofEpochMilli(attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis)), ZoneId.systemDefault()));
+                LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis)), ZoneId.systemDefault());
+                if (datapointWriter != null) {
+                    datapointWriter.add(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), timestamp);
+                } else {
+                    upsertValue(asset.getId(), attribute.getName(), attribute.getValue().orElse(null), timestamp);
+                }
             } catch (Exception e) {
                 throw new AssetProcessingException(AttributeWriteFailure.STATE_STORAGE_FAILED, "Failed to insert or update asset data point for attribute: " + attribute, e);
             }
@@ -130,6 +238,14 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         return LOG;
     }
 
+    protected void createPartitions() {
+        try {
+            partitionManager.createPartitions(LocalDateTime.ofInstant(timerService.getNow(), ZoneId.systemDefault()));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to create datapoint partitions", e);
+        }
+    }
+
     protected void purgeDataPoints() {
         LOG.info("Starting data points purge daily task");
 
@@ -151,6 +267,23 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
                 .flatMap(List::stream)
                 .collect(toList());
 
+            // Whole partitions and rollup buckets can only be dropped once they are older than the max age of every attribute
+            int maxAgeDays = attributes.stream()
+                .mapToInt(attributeRef -> attributeRef.value.getMetaValue(MetaItemType.DATA_POINTS_MAX_AGE_DAYS).orElse(maxDatapointAgeDays))
+                .reduce(maxDatapointAgeDays, Math::max);
+            LocalDateTime cutoff = LocalDateTime.ofInstant(timerService.getNow().truncatedTo(DAYS).minus(maxAgeDays, DAYS), ZoneId.systemDefault());
+
+            if (rollupManager != null) {
+                rollupManager.purgeBefore(cutoff);
+            }
+
+            if (partitionManager != null) {
+                int dropped = partitionManager.dropPartitionsBefore(cutoff);
+                if (dropped > 0) {
+                    LOG.fine("Dropped " + dropped + " data point partition(s) older than " + cutoff);
+                }
+            }
+
             // Purge data points not in the above list using default duration
             LOG.fine("Purging data points of attributes that use default max age days of " + maxDatapointAgeDays);
 
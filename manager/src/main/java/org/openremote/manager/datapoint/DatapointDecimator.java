@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.DatapointDecimation;
+import org.openremote.model.datapoint.ValueDatapoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces a stream of numeric datapoints in timestamp order to at most a point budget, without holding on to more
+ * than a couple of buckets of datapoints. The time range of the query is divided into equal buckets and each
+ * implementation picks the datapoints it keeps of each bucket.
+ */
+public abstract class DatapointDecimator {
+
+    protected final long fromMillis;
+    protected final long bucketMillis;
+    protected final int bucketCount;
+    protected final List<ValueDatapoint<?>> result = new ArrayList<>();
+
+    protected DatapointDecimator(long fromMillis, long toMillis, int bucketCount) {
+        this.fromMillis = fromMillis;
+        this.bucketCount = Math.max(1, bucketCount);
+        this.bucketMillis = Math.max(1, (toMillis - fromMillis + this.bucketCount) / this.bucketCount);
+    }
+
+    /**
+     * Create a decimator that returns at most the max points for the time range; {@link DatapointDecimation#AVERAGE} is
+     * calculated by the database so can't be used here.
+     */
+    public static DatapointDecimator create(DatapointDecimation decimation, long fromMillis, long toMillis, int maxPoints) throws IllegalArgumentException, IllegalStateException {
+        if (maxPoints < getMinPoints(decimation)) {
+            throw new IllegalStateException("Max points must be at least " + getMinPoints(decimation) + " for decimation: " + decimation);
+        }
+
+        return switch (decimation) {
+            case MIN_MAX -> new MinMaxDatapointDecimator(fromMillis, toMillis, maxPoints / 2);
+            case FIRST_LAST -> new FirstLastDatapointDecimator(fromMillis, toMillis, maxPoints / 2);
+            case LTTB -> new LttbDatapointDecimator(fromMillis, toMillis, maxPoints - 2);
+            case AVERAGE -> throw new IllegalArgumentException("Can't decimate datapoints with: " + decimation);
+        };
+    }
+
+    /**
+     * Get the point budget for the number of buckets, so each bucket gets the points of the decimation.
+     */
+    public static int getMaxPoints(DatapointDecimation decimation, int bucketCount) {
+        return switch (decimation) {
+            case AVERAGE -> bucketCount;
+            case MIN_MAX, FIRST_LAST -> bucketCount * 2;
+            case LTTB -> bucketCount + 2;
+        };
+    }
+
+    protected static int getMinPoints(DatapointDecimation decimation) {
+        return decimation == DatapointDecimation.LTTB ? 3 : 2;
+    }
+
+    /**
+     * Called for each datapoint, in timestamp order.
+     */
+    public abstract void accept(long timestamp, double value);
+
+    /**
+     * Called after the last datapoint; returns the datapoints that are kept in timestamp order.
+     */
+    public List<ValueDatapoint<?>> finish() {
+        return result;
+    }
+
+    protected int getBucket(long timestamp) {
+        return (int) Math.max(0, Math.min(bucketCount - 1, (timestamp - fromMillis) / bucketMillis));
+    }
+
+    protected void add(long timestamp, double value) {
+        result.add(new ValueDatapoint<>(timestamp, value));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "bucketCount=" + bucketCount +
+            ", bucketMillis=" + bucketMillis +
+            '}';
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Manages the range partitions of a datapoint table that is partitioned by <code>timestamp</code> (see the
+ * <code>V20230601_01__PartitionAssetDatapoint</code> migration). Partitions are named
+ * <code>&lt;table&gt;_p&lt;yyyyMMdd&gt;</code> after their lower bound and cover one {@link Interval}; datapoints
+ * outside of all partitions are stored in the default partition.
+ * <p>
+ * Future partitions are created ahead of time by {@link #createPartitions} so inserts don't end up in the default
+ * partition; if they did then those rows are moved into the partition when it is created. Old datapoints are purged
+ * by dropping whole partitions with {@link #dropPartitionsBefore}, which is much cheaper than deleting rows.
+ */
+public class DatapointPartitionManager {
+
+    public enum Interval {
+        DAY,
+        WEEK,
+        MONTH,
+        YEAR;
+
+        public LocalDateTime truncate(LocalDateTime dateTime) {
+            LocalDateTime day = dateTime.truncatedTo(ChronoUnit.DAYS);
+            return switch (this) {
+                case DAY -> day;
+                case WEEK -> day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> day.withDayOfMonth(1);
+                case YEAR -> day.withDayOfYear(1);
+            };
+        }
+
+        public LocalDateTime next(LocalDateTime dateTime) {
+            return switch (this) {
+                case DAY -> dateTime.plusDays(1);
+                case WEEK -> dateTime.plusWeeks(1);
+                case MONTH -> dateTime.plusMonths(1);
+                case YEAR -> dateTime.plusYears(1);
+            };
+        }
+    }
+
+    public static class Partition {
+        protected final String name;
+        protected final LocalDateTime from;
+        protected final LocalDateTime to;
+
+        public Partition(String name, LocalDateTime from, LocalDateTime to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LocalDateTime getFrom() {
+            return from;
+        }
+
+        public LocalDateTime getTo() {
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "name='" + name + '\'' +
+                ", from=" + from +
+                ", to=" + to +
+                '}';
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(DatapointPartitionManager.class.getName());
+    protected static final Pattern BOUND_PATTERN = Pattern.compile("FROM \\('([^']+)'\\) TO \\('([^']+)'\\)");
+    protected static final DateTimeFormatter NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    protected final PersistenceService persistenceService;
+    protected final String tableName;
+    protected final Interval interval;
+    protected final int partitionsAhead;
+
+    public DatapointPartitionManager(PersistenceService persistenceService, String tableName, Interval interval, int partitionsAhead) {
+        this.persistenceService = persistenceService;
+        this.tableName = tableName;
+        this.interval = interval;
+        this.partitionsAhead = partitionsAhead;
+    }
+
+    public boolean isPartitioned() {
+        return persistenceService.doReturningTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement st = connection.prepareStatement("select c.relkind = 'p' from pg_class c where c.oid = to_regclass(?)")) {
+                st.setString(1, tableName);
+                try (ResultSet rs = st.executeQuery()) {
+                    return rs.next() && rs.getBoolean(1);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Get the range partitions of the table ordered by their lower bound; the default partition is not included.
+     */
+    public List<Partition> getPartitions() {
+        return persistenceService.doReturningTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+            List<Partition> partitions = new ArrayList<>();
+
+            try (PreparedStatement st = connection.prepareStatement(
+                "select c.relname, pg_get_expr(c.relpartbound, c.oid) from pg_inherits i " +
+                    "join pg_class c on c.oid = i.inhrelid " +
+                    "where i.inhparent = to_regclass(?)")) {
+                st.setString(1, tableName);
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        Matcher matcher = BOUND_PATTERN.matcher(rs.getString(2));
+                        if (matcher.find()) {
+                            partitions.add(new Partition(rs.getString(1), parseBound(matcher.group(1)), parseBound(matcher.group(2))));
+                        }
+                    }
+                }
+            }
+
+            partitions.sort(Comparator.comparing(Partition::getFrom));
+            return partitions;
+        }));
+    }
+
+    /**
+     * Create the partition of the current interval and the configured number of intervals ahead of it.
+     */
+    public void createPartitions(LocalDateTime now) {
+        LocalDateTime from = interval.truncate(now);
+        LocalDateTime to = from;
+        for (int i = 0; i <= partitionsAhead; i++) {
+            to = interval.next(to);
+        }
+        ensurePartitions(from, to);
+    }
+
+    /**
+     * Make sure the range from (inclusive) to (exclusive) is covered by partitions; a partition is created for each
+     * interval that isn't already (partially) covered by an existing partition.
+     */
+    public void ensurePartitions(LocalDateTime from, LocalDateTime to) {
+        List<Partition> partitions = getPartitions();
+        LocalDateTime partitionFrom = interval.truncate(from);
+
+        while (partitionFrom.isBefore(to)) {
+            LocalDateTime partitionTo = interval.next(partitionFrom);
+            LocalDateTime start = partitionFrom;
+            LocalDateTime end = partitionTo;
+
+            // Fill any gap before, between or after existing partitions without overlapping them
+            for (Partition partition : partitions) {
+                if (!partition.getFrom().isAfter(start) && partition.getTo().isAfter(start)) {
+                    start = partition.getTo();
+                } else if (partition.getFrom().isAfter(start) && partition.getFrom().isBefore(end)) {
+                    end = partition.getFrom();
+                }
+            }
+
+            if (start.isBefore(end)) {
+                partitions.add(createPartition(start, end));
+                partitions.sort(Comparator.comparing(Partition::getFrom));
+            } else {
+                partitionFrom = partitionTo;
+            }
+        }
+    }
+
+    /**
+     * Drop all partitions that only contain datapoints older than the cutoff, returns the number of dropped partitions.
+     */
+    public int dropPartitionsBefore(LocalDateTime cutoff) {
+        int count = 0;
+
+        for (Partition partition : getPartitions()) {
+            if (partition.getTo().isAfter(cutoff)) {
+                continue;
+            }
+
+            LOG.fine("Dropping datapoint partition: " + partition);
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                try (Statement st = connection.createStatement()) {
+                    st.execute("alter table " + tableName + " detach partition " + partition.getName());
+                    st.execute("drop table " + partition.getName());
+                }
+            }));
+            count++;
+        }
+
+        return count;
+    }
+
+    protected Partition createPartition(LocalDateTime from, LocalDateTime to) {
+        String name = tableName + "_p" + NAME_FORMATTER.format(from);
+        Partition partition = new Partition(name, from, to);
+        LOG.fine("Creating datapoint partition: " + partition);
+
+        // Rows of this range in the default partition would prevent attaching the partition so they are moved into it
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            String bounds = "'" + from + "' and timestamp < '" + to + "'";
+            try (Statement st = connection.createStatement()) {
+                st.execute("create table " + name + " (like " + tableName + " including defaults)");
+                st.execute("insert into " + name + " select * from " + tableName + "_default where timestamp >= " + bounds);
+                st.execute("delete from " + tableName + "_default where timestamp >= " + bounds);
+                st.execute("alter table " + tableName + " attach partition " + name + " for values from ('" + from + "') to ('" + to + "')");
+            }
+        }));
+
+        return partition;
+    }
+
+    protected static LocalDateTime parseBound(String bound) {
+        return LocalDateTime.parse(bound.replace(' ', 'T'));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "table=" + tableName +
+            ", interval=" + interval +
+            ", partitionsAhead=" + partitionsAhead +
+            '}';
+    }
+}
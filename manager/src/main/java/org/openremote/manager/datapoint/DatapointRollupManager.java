@@ -0,0 +1,362 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.datapoint.DatapointInterval;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maintains the hourly and daily rollups of a datapoint table (see the <code>V20230701_01__AssetDatapointRollup</code>
+ * migration); each rollup row holds the min, max, sum and count of the numeric values and the first and last value of
+ * the datapoints of an attribute in one bucket. The daily rollup is computed from the hourly rollup.
+ * <p>
+ * Stored datapoints mark their hour as dirty with {@link #markDirty}, dirty buckets are recomputed from the datapoints
+ * periodically (so many datapoints in the same hour only cost one recompute) and before the rollup of an attribute is
+ * queried with {@link #refresh(String, String)}. Buckets are recomputed rather than merged so overwritten and deleted
+ * datapoints are handled correctly. A catch-up job recomputes the buckets of the last hours, this covers datapoints
+ * that were stored outside of the manager or whose dirty buckets were lost when the manager stopped.
+ */
+public class DatapointRollupManager {
+
+    public enum Resolution {
+        HOUR("hourly", "hour"),
+        DAY("daily", "day");
+
+        protected final String tableSuffix;
+        protected final String unit;
+
+        Resolution(String tableSuffix, String unit) {
+            this.tableSuffix = tableSuffix;
+            this.unit = unit;
+        }
+
+        public LocalDateTime truncate(LocalDateTime dateTime) {
+            return dateTime.truncatedTo(this == HOUR ? ChronoUnit.HOURS : ChronoUnit.DAYS);
+        }
+    }
+
+    protected static class Bucket implements Comparable<Bucket> {
+        final String assetId;
+        final String attributeName;
+        final LocalDateTime timestamp;
+
+        protected Bucket(String assetId, String attributeName, LocalDateTime timestamp) {
+            this.assetId = assetId;
+            this.attributeName = attributeName;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Bucket that = (Bucket) o;
+            return assetId.equals(that.assetId) && attributeName.equals(that.attributeName) && timestamp.equals(that.timestamp);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(assetId, attributeName, timestamp);
+        }
+
+        @Override
+        public int compareTo(Bucket o) {
+            int result = assetId.compareTo(o.assetId);
+            if (result == 0) {
+                result = attributeName.compareTo(o.attributeName);
+            }
+            return result != 0 ? result : timestamp.compareTo(o.timestamp);
+        }
+    }
+
+    protected static final String COLUMNS = "ENTITY_ID, ATTRIBUTE_NAME, BUCKET, MIN_VALUE, MAX_VALUE, SUM_VALUE, NUMBER_COUNT, VALUE_COUNT, FIRST_VALUE, FIRST_TIMESTAMP, LAST_VALUE, LAST_TIMESTAMP";
+    protected static final String VALUE_COLUMNS = "MIN_VALUE, MAX_VALUE, SUM_VALUE, NUMBER_COUNT, VALUE_COUNT, FIRST_VALUE, FIRST_TIMESTAMP, LAST_VALUE, LAST_TIMESTAMP";
+    protected static final String BUCKETS = "unnest(?::text[], ?::text[], ?::timestamp[]) as K(ENTITY_ID, ATTRIBUTE_NAME, BUCKET)";
+    private static final Logger LOG = Logger.getLogger(DatapointRollupManager.class.getName());
+    protected final PersistenceService persistenceService;
+    protected final String tableName;
+    protected final int batchSize;
+    protected final Set<Bucket> dirtyBuckets = ConcurrentHashMap.newKeySet();
+    protected ScheduledFuture<?> refreshFuture;
+    protected ScheduledFuture<?> catchUpFuture;
+
+    public DatapointRollupManager(PersistenceService persistenceService, String tableName, int batchSize) {
+        this.persistenceService = persistenceService;
+        this.tableName = tableName;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get the coarsest rollup that can answer queries of the interval, the buckets of the interval are made up of
+     * whole rollup buckets; returns <code>null</code> if the interval is too fine for any rollup.
+     */
+    public static Resolution getResolution(DatapointInterval interval) {
+        return switch (interval) {
+            case MINUTE -> null;
+            case HOUR -> Resolution.HOUR;
+            case DAY, WEEK, MONTH, YEAR -> Resolution.DAY;
+        };
+    }
+
+    public String getTableName(Resolution resolution) {
+        return tableName + "_" + resolution.tableSuffix;
+    }
+
+    /**
+     * Periodically recompute the dirty buckets and catch up with the buckets of the last catch up hours; the catch
+     * up also runs straight away so buckets missed whilst the manager was stopped are recomputed.
+     */
+    public synchronized void start(ScheduledExecutorService executorService, long refreshIntervalMillis, int catchUpHours) {
+        if (refreshFuture != null) {
+            return;
+        }
+        LOG.fine("Starting datapoint rollups for '" + tableName + "' with refresh interval: " + refreshIntervalMillis + "ms");
+        refreshFuture = executorService.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to refresh datapoint rollups", e);
+            }
+        }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+
+        if (catchUpHours > 0) {
+            catchUpFuture = executorService.scheduleWithFixedDelay(() -> {
+                try {
+                    catchUp(LocalDateTime.now().minusHours(catchUpHours));
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Failed to catch up datapoint rollups", e);
+                }
+            }, 0, 1, TimeUnit.HOURS);
+        }
+    }
+
+    /**
+     * Stops the periodic jobs and synchronously recomputes any dirty buckets.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (refreshFuture != null) {
+                refreshFuture.cancel(false);
+                refreshFuture = null;
+            }
+            if (catchUpFuture != null) {
+                catchUpFuture.cancel(false);
+                catchUpFuture = null;
+            }
+        }
+        refresh();
+    }
+
+    /**
+     * Marks the hour of a datapoint that has been stored as dirty, must only be called once the datapoint has been
+     * committed.
+     */
+    public void markDirty(String assetId, String attributeName, LocalDateTime timestamp) {
+        dirtyBuckets.add(new Bucket(assetId, attributeName, Resolution.HOUR.truncate(timestamp)));
+    }
+
+    public int getDirtyCount() {
+        return dirtyBuckets.size();
+    }
+
+    /**
+     * Recompute all dirty buckets.
+     */
+    public void refresh() {
+        List<Bucket> buckets = new ArrayList<>(dirtyBuckets);
+        buckets.forEach(dirtyBuckets::remove);
+        refresh(buckets);
+    }
+
+    /**
+     * Recompute the dirty buckets of the attribute, so its rollups are up to date with its stored datapoints.
+     */
+    public void refresh(String assetId, String attributeName) {
+        List<Bucket> buckets = new ArrayList<>();
+        dirtyBuckets.removeIf(bucket -> {
+            if (bucket.assetId.equals(assetId) && bucket.attributeName.equals(attributeName)) {
+                buckets.add(bucket);
+                return true;
+            }
+            return false;
+        });
+        refresh(buckets);
+    }
+
+    /**
+     * Recompute all buckets from the hour of the timestamp onwards.
+     */
+    public synchronized void catchUp(LocalDateTime from) {
+        LOG.fine("Catching up datapoint rollups for '" + tableName + "' from: " + from);
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            for (Resolution resolution : Resolution.values()) {
+                LocalDateTime resolutionFrom = resolution.truncate(from);
+                try (PreparedStatement st = connection.prepareStatement(
+                    "insert into " + getTableName(resolution) + " as R (" + COLUMNS + ") " +
+                        "select D.ENTITY_ID, D.ATTRIBUTE_NAME, date_trunc('" + resolution.unit + "', D." + getSourceTimestampColumn(resolution) + "), " + getAggregates(resolution) + " " +
+                        "from " + getSourceTableName(resolution) + " D " +
+                        "where D." + getSourceTimestampColumn(resolution) + " >= ? " +
+                        "group by D.ENTITY_ID, D.ATTRIBUTE_NAME, date_trunc('" + resolution.unit + "', D." + getSourceTimestampColumn(resolution) + ") " +
+                        getOnConflict() + " where (" + prefixColumns("R.", VALUE_COLUMNS) + ") is distinct from (" + prefixColumns("excluded.", VALUE_COLUMNS) + ")")) {
+                    st.setObject(1, resolutionFrom);
+                    int count = st.executeUpdate();
+                    LOG.finest("Caught up " + count + " bucket(s) in '" + getTableName(resolution) + "'");
+                }
+                try (PreparedStatement st = connection.prepareStatement(
+                    "delete from " + getTableName(resolution) + " R where R.BUCKET >= ? and " + getNoSourceRows(resolution))) {
+                    st.setObject(1, resolutionFrom);
+                    st.executeUpdate();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Delete the buckets that start before the timestamp.
+     */
+    public void purgeBefore(LocalDateTime timestamp) {
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            for (Resolution resolution : Resolution.values()) {
+                try (PreparedStatement st = connection.prepareStatement("delete from " + getTableName(resolution) + " where BUCKET < ?")) {
+                    st.setObject(1, timestamp);
+                    int count = st.executeUpdate();
+                    LOG.fine("Purged " + count + " bucket(s) older than " + timestamp + " from '" + getTableName(resolution) + "'");
+                }
+            }
+        }));
+    }
+
+    protected synchronized void refresh(List<Bucket> buckets) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+
+        // Always update in the same order to avoid deadlocks with concurrent catch ups
+        Collections.sort(buckets);
+
+        for (int i = 0; i < buckets.size(); i += batchSize) {
+            List<Bucket> hourBuckets = buckets.subList(i, Math.min(buckets.size(), i + batchSize));
+            List<Bucket> dayBuckets = hourBuckets.stream()
+                .map(bucket -> new Bucket(bucket.assetId, bucket.attributeName, Resolution.DAY.truncate(bucket.timestamp)))
+                .distinct()
+                .toList();
+
+            try {
+                persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                    refresh(connection, Resolution.HOUR, hourBuckets);
+                    refresh(connection, Resolution.DAY, dayBuckets);
+                }));
+                LOG.finest("Refreshed " + hourBuckets.size() + " dirty bucket(s) of '" + tableName + "'");
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to refresh " + hourBuckets.size() + " dirty bucket(s) of '" + tableName + "', they will be retried", e);
+                dirtyBuckets.addAll(hourBuckets);
+            }
+        }
+    }
+
+    protected void refresh(Connection connection, Resolution resolution, List<Bucket> buckets) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(
+            "insert into " + getTableName(resolution) + " as R (" + COLUMNS + ") " +
+                "select K.ENTITY_ID, K.ATTRIBUTE_NAME, K.BUCKET, " + getAggregates(resolution) + " " +
+                "from " + BUCKETS + " join " + getSourceTableName(resolution) + " D on " + getSourceRowsCondition(resolution, "K") + " " +
+                "group by K.ENTITY_ID, K.ATTRIBUTE_NAME, K.BUCKET " +
+                getOnConflict())) {
+            setBuckets(connection, st, buckets);
+            st.executeUpdate();
+        }
+
+        // Buckets whose datapoints have all been deleted
+        try (PreparedStatement st = connection.prepareStatement(
+            "delete from " + getTableName(resolution) + " R using " + BUCKETS + " " +
+                "where R.ENTITY_ID = K.ENTITY_ID and R.ATTRIBUTE_NAME = K.ATTRIBUTE_NAME and R.BUCKET = K.BUCKET and " + getNoSourceRows(resolution))) {
+            setBuckets(connection, st, buckets);
+            st.executeUpdate();
+        }
+    }
+
+    protected void setBuckets(Connection connection, PreparedStatement st, List<Bucket> buckets) throws SQLException {
+        st.setArray(1, connection.createArrayOf("text", buckets.stream().map(bucket -> bucket.assetId).toArray()));
+        st.setArray(2, connection.createArrayOf("text", buckets.stream().map(bucket -> bucket.attributeName).toArray()));
+        st.setArray(3, connection.createArrayOf("text", buckets.stream().map(bucket -> bucket.timestamp.toString()).toArray()));
+    }
+
+    protected String getSourceTableName(Resolution resolution) {
+        return resolution == Resolution.HOUR ? tableName : getTableName(Resolution.HOUR);
+    }
+
+    protected String getSourceTimestampColumn(Resolution resolution) {
+        return resolution == Resolution.HOUR ? "TIMESTAMP" : "BUCKET";
+    }
+
+    protected String getAggregates(Resolution resolution) {
+        if (resolution == Resolution.HOUR) {
+            return "min(DATAPOINT_NUMBER_VALUE(D.VALUE)), max(DATAPOINT_NUMBER_VALUE(D.VALUE)), sum(DATAPOINT_NUMBER_VALUE(D.VALUE)), " +
+                "count(DATAPOINT_NUMBER_VALUE(D.VALUE)), count(*), " +
+                "(array_agg(D.VALUE order by D.TIMESTAMP))[1], min(D.TIMESTAMP), " +
+                "(array_agg(D.VALUE order by D.TIMESTAMP desc))[1], max(D.TIMESTAMP)";
+        }
+        return "min(D.MIN_VALUE), max(D.MAX_VALUE), sum(D.SUM_VALUE), sum(D.NUMBER_COUNT), sum(D.VALUE_COUNT), " +
+            "(array_agg(D.FIRST_VALUE order by D.FIRST_TIMESTAMP))[1], min(D.FIRST_TIMESTAMP), " +
+            "(array_agg(D.LAST_VALUE order by D.LAST_TIMESTAMP desc))[1], max(D.LAST_TIMESTAMP)";
+    }
+
+    /**
+     * The condition for the source rows of the bucket with the alias.
+     */
+    protected String getSourceRowsCondition(Resolution resolution, String alias) {
+        String timestampColumn = "D." + getSourceTimestampColumn(resolution);
+        return "D.ENTITY_ID = " + alias + ".ENTITY_ID and D.ATTRIBUTE_NAME = " + alias + ".ATTRIBUTE_NAME and " +
+            timestampColumn + " >= " + alias + ".BUCKET and " + timestampColumn + " < " + alias + ".BUCKET + interval '1 " + resolution.unit + "'";
+    }
+
+    protected String getNoSourceRows(Resolution resolution) {
+        return "not exists (select 1 from " + getSourceTableName(resolution) + " D where " + getSourceRowsCondition(resolution, "R") + ")";
+    }
+
+    protected String getOnConflict() {
+        return "on conflict (ENTITY_ID, ATTRIBUTE_NAME, BUCKET) do update set (" + VALUE_COLUMNS + ") = (" + prefixColumns("excluded.", VALUE_COLUMNS) + ")";
+    }
+
+    protected static String prefixColumns(String prefix, String columns) {
+        return prefix + columns.replace(", ", ", " + prefix);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "table=" + tableName +
+            ", dirty=" + dirtyBuckets.size() +
+            '}';
+    }
+}
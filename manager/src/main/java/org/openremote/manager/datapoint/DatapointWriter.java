@@ -0,0 +1,242 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.util.ValueUtil;
+import org.postgresql.PGConnection;
+
+import java.io.StringReader;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for datapoints; rows are queued in memory and periodically written with a PostgreSQL
+ * <code>COPY</code> into a temporary staging table followed by a single <code>INSERT ... SELECT ... ON CONFLICT</code>
+ * into the datapoint table. When the same datapoint (asset, attribute and timestamp) is written more than once before
+ * a flush only the last value is stored, which is the same result as consecutive upserts.
+ * <p>
+ * Datapoints of assets that have been deleted in the meantime are skipped. If the batch merge fails the rows are
+ * written individually so a single bad row doesn't lose the whole batch.
+ */
+public class DatapointWriter {
+
+    /**
+     * What to do when a datapoint is added whilst the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Flush the queue on the calling thread, this slows down the producer.
+         */
+        FLUSH,
+        /**
+         * Discard the datapoint being added.
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest queued datapoint.
+         */
+        DROP_OLDEST
+    }
+
+    protected static class Row {
+        final String assetId;
+        final String attributeName;
+        final Object value;
+        final LocalDateTime timestamp;
+
+        protected Row(String assetId, String attributeName, Object value, LocalDateTime timestamp) {
+            this.assetId = assetId;
+            this.attributeName = attributeName;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        protected List<Object> getKey() {
+            return Arrays.asList(assetId, attributeName, timestamp);
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(DatapointWriter.class.getName());
+    protected final AbstractDatapointService<?> datapointService;
+    protected final PersistenceService persistenceService;
+    protected final BlockingQueue<Row> queue;
+    protected final int batchSize;
+    protected final long flushIntervalMillis;
+    protected final OverflowPolicy overflowPolicy;
+    protected final AtomicLong droppedCount = new AtomicLong();
+    protected ScheduledFuture<?> flushFuture;
+
+    public DatapointWriter(AbstractDatapointService<?> datapointService, PersistenceService persistenceService, int queueSize, int batchSize, long flushIntervalMillis, OverflowPolicy overflowPolicy) {
+        this.datapointService = datapointService;
+        this.persistenceService = persistenceService;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public synchronized void start(ScheduledExecutorService executorService) {
+        if (flushFuture != null) {
+            return;
+        }
+        LOG.fine("Starting datapoint writer for '" + datapointService.getDatapointTableName() + "' with flush interval: " + flushIntervalMillis + "ms");
+        flushFuture = executorService.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to flush datapoints", e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flush and synchronously writes any queued datapoints.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (flushFuture != null) {
+                flushFuture.cancel(false);
+                flushFuture = null;
+            }
+        }
+        flush();
+    }
+
+    public void add(String assetId, String attributeName, Object value, LocalDateTime timestamp) {
+        Row row = new Row(assetId, attributeName, value, timestamp);
+
+        while (!queue.offer(row)) {
+            switch (overflowPolicy) {
+                case FLUSH -> flush();
+                case DROP_NEWEST -> {
+                    onDropped();
+                    return;
+                }
+                case DROP_OLDEST -> {
+                    if (queue.poll() != null) {
+                        onDropped();
+                    }
+                }
+            }
+        }
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    protected void onDropped() {
+        // Only log occasionally as this will happen a lot once the queue is full
+        if (droppedCount.incrementAndGet() % 1000 == 1) {
+            LOG.warning("Datapoint queue for '" + datapointService.getDatapointTableName() + "' is full, datapoints have been dropped (total: " + droppedCount.get() + ")");
+        }
+    }
+
+    /**
+     * Writes all currently queued datapoints in batches of at most the batch size.
+     */
+    public synchronized void flush() {
+        List<Row> rows = new ArrayList<>(Math.min(batchSize, queue.size()));
+        while (queue.drainTo(rows, batchSize) > 0) {
+            write(rows);
+            rows.clear();
+        }
+    }
+
+    protected void write(List<Row> rows) {
+        // Only the last value of each datapoint is written, as an upsert of each row would do
+        Map<List<Object>, Row> latestRows = new LinkedHashMap<>(rows.size());
+        rows.forEach(row -> latestRows.put(row.getKey(), row));
+
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                String tableName = datapointService.getDatapointTableName();
+                String stagingTableName = tableName + "_staging";
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("create temp table if not exists " + stagingTableName + " (like " + tableName + " including defaults) on commit delete rows");
+                }
+
+                StringBuilder csv = new StringBuilder(latestRows.size() * 64);
+                latestRows.values().forEach(row -> {
+                    appendCsvField(csv, row.assetId).append(',');
+                    appendCsvField(csv, row.attributeName).append(',');
+                    appendCsvField(csv, ValueUtil.asJSON(row.value).orElse(ValueUtil.NULL_LITERAL)).append(',');
+                    appendCsvField(csv, row.timestamp.toString()).append('\n');
+                });
+
+                try {
+                    connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                        "copy " + stagingTableName + " (entity_id, attribute_name, value, timestamp) from stdin with (format csv)",
+                        new StringReader(csv.toString())
+                    );
+                } catch (java.io.IOException e) {
+                    throw new IllegalStateException("Failed to copy datapoints into staging table", e);
+                }
+
+                try (Statement statement = connection.createStatement()) {
+                    int count = statement.executeUpdate("insert into " + tableName + " (entity_id, attribute_name, value, timestamp) " +
+                        "select s.entity_id, s.attribute_name, s.value, s.timestamp from " + stagingTableName + " s " +
+                        "join asset a on a.id = s.entity_id " +
+                        "on conflict (entity_id, attribute_name, timestamp) do update set value = excluded.value");
+                    LOG.finest("Stored " + count + " datapoint(s) in '" + tableName + "'");
+                }
+            }));
+            latestRows.values().forEach(row -> datapointService.onDatapointStored(row.assetId, row.attributeName, row.timestamp));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to store batch of " + latestRows.size() + " datapoint(s), storing individually", e);
+            latestRows.values().forEach(row -> {
+                try {
+                    datapointService.upsertValue(row.assetId, row.attributeName, row.value, row.timestamp);
+                } catch (Exception ex) {
+                    LOG.log(Level.FINE, "Failed to store datapoint: id=" + row.assetId + ", name=" + row.attributeName + ", timestamp=" + row.timestamp, ex);
+                }
+            });
+        }
+    }
+
+    protected static StringBuilder appendCsvField(StringBuilder csv, String value) {
+        return csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "table=" + datapointService.getDatapointTableName() +
+            ", queued=" + queue.size() +
+            ", dropped=" + droppedCount.get() +
+            '}';
+    }
+}
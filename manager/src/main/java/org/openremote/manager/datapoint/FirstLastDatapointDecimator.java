@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.ValueDatapoint;
+
+import java.util.List;
+
+/**
+ * Keeps the first and last datapoint of each bucket.
+ */
+public class FirstLastDatapointDecimator extends DatapointDecimator {
+
+    protected int bucket = -1;
+    protected long firstTimestamp;
+    protected double first;
+    protected long lastTimestamp;
+    protected double last;
+
+    public FirstLastDatapointDecimator(long fromMillis, long toMillis, int bucketCount) {
+        super(fromMillis, toMillis, bucketCount);
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        int valueBucket = getBucket(timestamp);
+        if (valueBucket != bucket) {
+            flush();
+            bucket = valueBucket;
+            firstTimestamp = timestamp;
+            first = value;
+        }
+        lastTimestamp = timestamp;
+        last = value;
+    }
+
+    @Override
+    public List<ValueDatapoint<?>> finish() {
+        flush();
+        bucket = -1;
+        return super.finish();
+    }
+
+    protected void flush() {
+        if (bucket < 0) {
+            return;
+        }
+        add(firstTimestamp, first);
+        if (lastTimestamp != firstTimestamp) {
+            add(lastTimestamp, last);
+        }
+    }
+}
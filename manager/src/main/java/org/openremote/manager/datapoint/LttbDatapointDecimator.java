@@ -0,0 +1,135 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.ValueDatapoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Largest-Triangle-Three-Buckets (Steinarsson, 2013) over buckets of equal time: the first and last datapoints are
+ * always kept and of each bucket the datapoint that forms the largest triangle with the previously kept datapoint and
+ * the average of the next bucket is kept. Only the bucket being chosen from and the next bucket are held in memory.
+ */
+public class LttbDatapointDecimator extends DatapointDecimator {
+
+    protected static class Point {
+        final long timestamp;
+        final double value;
+
+        protected Point(long timestamp, double value) {
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    protected Point previous;
+    protected List<Point> current = new ArrayList<>();
+    protected List<Point> next = new ArrayList<>();
+    protected int nextBucket = -1;
+
+    public LttbDatapointDecimator(long fromMillis, long toMillis, int bucketCount) {
+        super(fromMillis, toMillis, bucketCount);
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        Point point = new Point(timestamp, value);
+
+        if (previous == null) {
+            keep(point);
+            return;
+        }
+
+        int bucket = getBucket(timestamp);
+        if (bucket != nextBucket && !next.isEmpty()) {
+            nextBucketComplete();
+        }
+        next.add(point);
+        nextBucket = bucket;
+    }
+
+    @Override
+    public List<ValueDatapoint<?>> finish() {
+        if (previous == null) {
+            return super.finish();
+        }
+
+        // The last datapoint is kept as is so it isn't part of a bucket
+        List<Point> lastBucket = next.isEmpty() ? current : next;
+        if (lastBucket.isEmpty()) {
+            return super.finish();
+        }
+        Point last = lastBucket.remove(lastBucket.size() - 1);
+
+        if (!next.isEmpty()) {
+            nextBucketComplete();
+        }
+        if (!current.isEmpty()) {
+            keep(getLargestTriangle(current, last.timestamp, last.value));
+        }
+        keep(last);
+        current.clear();
+        next.clear();
+        return super.finish();
+    }
+
+    /**
+     * Choose from the current bucket now that the average of the next bucket is known.
+     */
+    protected void nextBucketComplete() {
+        if (!current.isEmpty()) {
+            double averageTimestamp = 0;
+            double averageValue = 0;
+            for (Point point : next) {
+                averageTimestamp += point.timestamp - fromMillis;
+                averageValue += point.value;
+            }
+            keep(getLargestTriangle(current, averageTimestamp / next.size() + fromMillis, averageValue / next.size()));
+        }
+        List<Point> chosen = current;
+        current = next;
+        next = chosen;
+        next.clear();
+    }
+
+    protected Point getLargestTriangle(List<Point> bucket, double nextTimestamp, double nextValue) {
+        // Relative to the start so the timestamps don't lose precision as doubles
+        double previousX = previous.timestamp - fromMillis;
+        double nextX = nextTimestamp - fromMillis;
+        Point largest = null;
+        double largestArea = -1;
+
+        for (Point point : bucket) {
+            double area = Math.abs((previousX - nextX) * (point.value - previous.value) - (previousX - (point.timestamp - fromMillis)) * (nextValue - previous.value));
+            if (area > largestArea) {
+                largestArea = area;
+                largest = point;
+            }
+        }
+        return largest;
+    }
+
+    protected void keep(Point point) {
+        previous = point;
+        add(point.timestamp, point.value);
+    }
+}
@@ -32,6 +32,8 @@ import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Constants;
 import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.TriggeredEventSubscription;
 import org.openremote.model.event.shared.*;
 import org.openremote.model.syslog.SyslogEvent;
 
@@ -372,10 +374,16 @@ public class ClientEventService implements ContainerService {
                 return;
             }
             if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_WEBSOCKET)) {
-                messageBrokerService.getProducerTemplate().sendBodyAndHeader(
+                Map<String, Object> headers = new HashMap<>();
+                headers.put(ConnectionConstants.SESSION_KEY, sessionKey);
+                String coalesceKey = getCoalesceKey(data);
+                if (coalesceKey != null) {
+                    headers.put(ConnectionConstants.MESSAGE_COALESCE_KEY, coalesceKey);
+                }
+                messageBrokerService.getProducerTemplate().sendBodyAndHeaders(
                         "websocket://" + WEBSOCKET_EVENTS,
                         data,
-                        ConnectionConstants.SESSION_KEY, sessionKey
+                        headers
                 );
             } else if (sessionInfo.connectionType.equals(HEADER_CONNECTION_TYPE_MQTT)) {
                 messageBrokerService.getProducerTemplate().sendBodyAndHeader(
@@ -387,6 +395,20 @@ public class ClientEventService implements ContainerService {
         }
     }
 
+    /**
+     * Attribute events of a subscription that are waiting to be sent to a slow session are replaced by newer events of
+     * the same attribute, so the session only receives the latest value.
+     */
+    protected static String getCoalesceKey(Object data) {
+        if (data instanceof TriggeredEventSubscription<?> triggeredEventSubscription
+            && triggeredEventSubscription.getEvents() != null
+            && triggeredEventSubscription.getEvents().size() == 1
+            && triggeredEventSubscription.getEvents().get(0) instanceof AttributeEvent attributeEvent) {
+            return triggeredEventSubscription.getSubscriptionId() + ":" + attributeEvent.getAssetId() + ":" + attributeEvent.getAttributeName();
+        }
+        return null;
+    }
+
     public void closeSession(String sessionKey) {
         SessionInfo sessionInfo = sessionKeyInfoMap.get(sessionKey);
 
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import org.openremote.manager.event.EventSubscriptions.SessionSubscription;
+import org.openremote.model.asset.AssetFilter;
+import org.openremote.model.event.shared.*;
+import org.openremote.model.util.TextUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Inverted index of {@link SessionSubscription}s so the candidate subscriptions for an event can be found without
+ * scanning every session. Subscriptions are grouped by event type and then stored under the most selective key their
+ * filter allows:
+ * <ol>
+ * <li>{@link AssetFilter} with asset IDs: under each asset ID</li>
+ * <li>{@link AssetFilter} with parent IDs: under each parent ID</li>
+ * <li>{@link AssetFilter} with a path: under each path element (the event matches if its path contains the element)</li>
+ * <li>{@link AssetFilter} with a realm or a {@link RealmFilter}: under the realm</li>
+ * <li>Anything else (no filter, other filter types): in a residual set that is always a candidate</li>
+ * </ol>
+ * The candidates returned by {@link #forEachCandidate} must still be checked with the subscription's filter, the index
+ * only excludes subscriptions that can't possibly match. Modifications must be externally synchronised, lookups can
+ * run concurrently with modifications.
+ */
+public class EventSubscriptionIndex {
+
+    protected static class TypeIndex {
+        final Map<String, Set<SessionSubscription<?>>> byAssetId = new ConcurrentHashMap<>();
+        final Map<String, Set<SessionSubscription<?>>> byParentId = new ConcurrentHashMap<>();
+        final Map<String, Set<SessionSubscription<?>>> byPathElement = new ConcurrentHashMap<>();
+        final Map<String, Set<SessionSubscription<?>>> byRealm = new ConcurrentHashMap<>();
+        final Set<SessionSubscription<?>> residual = ConcurrentHashMap.newKeySet();
+
+        boolean isEmpty() {
+            return byAssetId.isEmpty() && byParentId.isEmpty() && byPathElement.isEmpty() && byRealm.isEmpty() && residual.isEmpty();
+        }
+    }
+
+    protected final Map<String, TypeIndex> typeIndexes = new ConcurrentHashMap<>();
+
+    public void add(SessionSubscription<?> sessionSubscription) {
+        TypeIndex typeIndex = typeIndexes.computeIfAbsent(sessionSubscription.subscription.getEventType(), type -> new TypeIndex());
+        update(typeIndex, sessionSubscription, true);
+    }
+
+    public void remove(SessionSubscription<?> sessionSubscription) {
+        String eventType = sessionSubscription.subscription.getEventType();
+        TypeIndex typeIndex = typeIndexes.get(eventType);
+        if (typeIndex == null) {
+            return;
+        }
+        update(typeIndex, sessionSubscription, false);
+        if (typeIndex.isEmpty()) {
+            typeIndexes.remove(eventType);
+        }
+    }
+
+    /**
+     * Calls the consumer once for every subscription that could match the event.
+     */
+    public void forEachCandidate(SharedEvent event, Consumer<SessionSubscription<?>> consumer) {
+        TypeIndex typeIndex = typeIndexes.get(event.getEventType());
+        if (typeIndex == null) {
+            return;
+        }
+
+        typeIndex.residual.forEach(consumer);
+
+        String realm = null;
+
+        if (event instanceof AssetInfo) {
+            AssetInfo assetInfo = (AssetInfo) event;
+            realm = assetInfo.getRealm();
+            forEachIn(typeIndex.byAssetId, assetInfo.getAssetId(), consumer);
+            forEachIn(typeIndex.byParentId, assetInfo.getParentId(), consumer);
+
+            String[] path = assetInfo.getPath();
+            if (path != null && path.length > 0 && !typeIndex.byPathElement.isEmpty()) {
+                if (path.length == 1) {
+                    forEachIn(typeIndex.byPathElement, path[0], consumer);
+                } else {
+                    // A subscription can be stored under several elements of the same path, only report it once
+                    Set<SessionSubscription<?>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                    for (String pathElement : path) {
+                        forEachIn(typeIndex.byPathElement, pathElement, sessionSubscription -> {
+                            if (seen.add(sessionSubscription)) {
+                                consumer.accept(sessionSubscription);
+                            }
+                        });
+                    }
+                }
+            }
+        } else if (event instanceof RealmScopedEvent) {
+            realm = ((RealmScopedEvent) event).getRealm();
+        }
+
+        forEachIn(typeIndex.byRealm, realm, consumer);
+    }
+
+    protected static void forEachIn(Map<String, Set<SessionSubscription<?>>> map, String key, Consumer<SessionSubscription<?>> consumer) {
+        if (key == null) {
+            return;
+        }
+        Set<SessionSubscription<?>> sessionSubscriptions = map.get(key);
+        if (sessionSubscriptions != null) {
+            sessionSubscriptions.forEach(consumer);
+        }
+    }
+
+    protected static void update(TypeIndex typeIndex, SessionSubscription<?> sessionSubscription, boolean add) {
+        EventFilter<?> filter = sessionSubscription.subscription.getFilter();
+
+        if (filter instanceof AssetFilter) {
+            AssetFilter<?> assetFilter = (AssetFilter<?>) filter;
+            if (isIndexable(assetFilter.getAssetIds())) {
+                update(typeIndex.byAssetId, assetFilter.getAssetIds(), sessionSubscription, add);
+                return;
+            }
+            if (isIndexable(assetFilter.getParentIds())) {
+                update(typeIndex.byParentId, assetFilter.getParentIds(), sessionSubscription, add);
+                return;
+            }
+            if (isIndexable(assetFilter.getPath())) {
+                update(typeIndex.byPathElement, assetFilter.getPath(), sessionSubscription, add);
+                return;
+            }
+            if (!TextUtil.isNullOrEmpty(assetFilter.getRealm())) {
+                update(typeIndex.byRealm, new String[]{assetFilter.getRealm()}, sessionSubscription, add);
+                return;
+            }
+        } else if (filter instanceof RealmFilter && ((RealmFilter<?>) filter).getName() != null) {
+            update(typeIndex.byRealm, new String[]{((RealmFilter<?>) filter).getName()}, sessionSubscription, add);
+            return;
+        }
+
+        if (add) {
+            typeIndex.residual.add(sessionSubscription);
+        } else {
+            typeIndex.residual.remove(sessionSubscription);
+        }
+    }
+
+    protected static void update(Map<String, Set<SessionSubscription<?>>> map, String[] keys, SessionSubscription<?> sessionSubscription, boolean add) {
+        for (String key : keys) {
+            if (add) {
+                map.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(sessionSubscription);
+            } else {
+                map.computeIfPresent(key, (k, sessionSubscriptions) -> {
+                    sessionSubscriptions.remove(sessionSubscription);
+                    return sessionSubscriptions.isEmpty() ? null : sessionSubscriptions;
+                });
+            }
+        }
+    }
+
+    /**
+     * Null elements are allowed by the filter (and match events with a null value) so they can't be used as keys.
+     */
+    protected static boolean isIndexable(String[] values) {
+        return values != null && values.length > 0 && Arrays.stream(values).allMatch(Objects::nonNull);
+    }
+}
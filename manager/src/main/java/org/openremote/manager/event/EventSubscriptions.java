@@ -35,6 +35,9 @@ import java.util.logging.Logger;
 
 /**
  * Manages subscriptions to events for WebSocket sessions.
+ * <p>
+ * Subscriptions are also kept in an {@link EventSubscriptionIndex} so that {@link #splitForSubscribers} only has to
+ * check the subscriptions that could match an event rather than every subscription of every session.
  */
 public class EventSubscriptions {
 
@@ -42,8 +45,15 @@ public class EventSubscriptions {
 
     final protected TimerService timerService;
     final protected Map<String, SessionSubscriptions> sessionSubscriptionIdMap = new HashMap<>();
+    final protected EventSubscriptionIndex subscriptionIndex = new EventSubscriptionIndex();
 
     class SessionSubscriptions extends HashSet<SessionSubscription<?>> {
+        final protected String sessionKey;
+
+        SessionSubscriptions(String sessionKey) {
+            this.sessionKey = sessionKey;
+        }
+
         protected void createOrUpdate(boolean restrictedUser, boolean anonymousUser, EventSubscription<?> eventSubscription) {
 
             if (TextUtil.isNullOrEmpty(eventSubscription.getSubscriptionId())) {
@@ -52,26 +62,47 @@ public class EventSubscriptions {
                 cancelById(eventSubscription.getSubscriptionId());
             }
 
-            add(new SessionSubscription<>(restrictedUser, anonymousUser, timerService.getCurrentTimeMillis(), eventSubscription));
+            SessionSubscription<?> sessionSubscription = new SessionSubscription<>(sessionKey, restrictedUser, anonymousUser, timerService.getCurrentTimeMillis(), eventSubscription);
+            add(sessionSubscription);
+            subscriptionIndex.add(sessionSubscription);
         }
 
         protected void cancelByType(String eventType) {
-            removeIf(sessionSubscription -> sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType));
+            removeIf(sessionSubscription -> {
+                if (sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType)) {
+                    subscriptionIndex.remove(sessionSubscription);
+                    return true;
+                }
+                return false;
+            });
         }
 
         protected void cancelById(String subscriptionId) {
-            removeIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+            removeIf(sessionSubscription -> {
+                if (sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId)) {
+                    subscriptionIndex.remove(sessionSubscription);
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        protected void cancelAll() {
+            forEach(subscriptionIndex::remove);
+            clear();
         }
     }
 
     static class SessionSubscription<T extends SharedEvent> {
+        final String sessionKey;
         boolean restrictedUser;
         boolean anonymousUser;
         long timestamp;
         final EventSubscription<T> subscription;
         final String subscriptionId;
 
-        public SessionSubscription(boolean restrictedUser, boolean anonymousUser, long timestamp, EventSubscription<T> subscription) {
+        public SessionSubscription(String sessionKey, boolean restrictedUser, boolean anonymousUser, long timestamp, EventSubscription<T> subscription) {
+            this.sessionKey = sessionKey;
             this.restrictedUser = restrictedUser;
             this.anonymousUser = anonymousUser;
             this.timestamp = timestamp;
@@ -93,7 +124,7 @@ public class EventSubscriptions {
         synchronized (this.sessionSubscriptionIdMap) {
             LOG.finer("For session '" + sessionKey + "', creating/updating: " + subscription);
             SessionSubscriptions sessionSubscriptions =
-                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, k -> new SessionSubscriptions());
+                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, SessionSubscriptions::new);
             sessionSubscriptions.createOrUpdate(restrictedUser, anonymousUser, subscription);
         }
     }
@@ -123,7 +154,7 @@ public class EventSubscriptions {
         synchronized (this.sessionSubscriptionIdMap) {
             if (this.sessionSubscriptionIdMap.containsKey(sessionKey)) {
                 LOG.finer("Cancelling all subscriptions for session: " + sessionKey);
-                this.sessionSubscriptionIdMap.remove(sessionKey);
+                this.sessionSubscriptionIdMap.remove(sessionKey).cancelAll();
             }
         }
     }
@@ -136,44 +167,37 @@ public class EventSubscriptions {
         if (event == null)
             return messageList;
 
-        Set<Map.Entry<String, SessionSubscriptions>> sessionSubscriptionsSet;
+        // The event is serialized at most once for all subscribers
+        SharedEventPayload<T> payload = new SharedEventPayload<>(Collections.singletonList(event));
 
-        synchronized (this.sessionSubscriptionIdMap) {
-            sessionSubscriptionsSet = new HashSet<>(sessionSubscriptionIdMap.entrySet());
-        }
+        // The index is safe to read whilst subscriptions are being modified
+        payload.deliver(() -> subscriptionIndex.forEachCandidate(event, sessionSubscription -> {
 
-        for (Map.Entry<String, SessionSubscriptions> entry : sessionSubscriptionsSet) {
-            String sessionKey = entry.getKey();
-            SessionSubscriptions subscriptions = entry.getValue();
-
-            for (SessionSubscription<?> sessionSubscription : subscriptions) {
-
-                if (!sessionSubscription.matches(event))
-                    continue;
-
-                SessionSubscription<T> sessionSub = (SessionSubscription<T>) sessionSubscription;
-
-                if (sessionSub.subscription.getFilter() == null
-                    || sessionSub.subscription.getFilter().apply(event)) {
-                    LOG.finer("Creating message for subscribed session '" + sessionKey + "': " + event);
-                    List<T> events = Collections.singletonList(event);
-                    TriggeredEventSubscription<T> triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSub.subscriptionId);
-
-                    if (sessionSub.subscription.getInternalConsumer() == null) {
-                        Message msg = new DefaultMessage(exchange.getContext());
-                        msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
-                        msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
-                        msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
-                        messageList.add(msg);
-                    } else {
-                        if (triggeredEventSubscription.getEvents() != null) {
-                            triggeredEventSubscription.getEvents().forEach(e ->
-                                sessionSub.subscription.getInternalConsumer().accept(e));
-                        }
+            if (!sessionSubscription.matches(event))
+                return;
+
+            SessionSubscription<T> sessionSub = (SessionSubscription<T>) sessionSubscription;
+            String sessionKey = sessionSub.sessionKey;
+
+            if (sessionSub.subscription.getFilter() == null
+                || sessionSub.subscription.getFilter().apply(event)) {
+                LOG.finer("Creating message for subscribed session '" + sessionKey + "': " + event);
+                TriggeredEventSubscription<T> triggeredEventSubscription = new SharedTriggeredEventSubscription<>(payload, sessionSub.subscriptionId);
+
+                if (sessionSub.subscription.getInternalConsumer() == null) {
+                    Message msg = new DefaultMessage(exchange.getContext());
+                    msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
+                    msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
+                    msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
+                    messageList.add(msg);
+                } else {
+                    if (triggeredEventSubscription.getEvents() != null) {
+                        triggeredEventSubscription.getEvents().forEach(e ->
+                            sessionSub.subscription.getInternalConsumer().accept(e));
                     }
                 }
             }
-        }
+        }));
         return messageList;
     }
 }
@@ -67,9 +67,17 @@ public class EventTypeConverters implements TypeConverters {
 
     @Converter
     public String writeTriggeredEventSubscription(TriggeredEventSubscription triggeredEventSubscription, Exchange exchange) throws Exception {
+        if (triggeredEventSubscription instanceof SharedTriggeredEventSubscription<?> sharedTriggeredEventSubscription) {
+            return writeSharedTriggeredEventSubscription(sharedTriggeredEventSubscription, exchange);
+        }
         return TriggeredEventSubscription.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(triggeredEventSubscription);
     }
 
+    @Converter
+    public String writeSharedTriggeredEventSubscription(SharedTriggeredEventSubscription<?> triggeredEventSubscription, Exchange exchange) throws Exception {
+        return triggeredEventSubscription.getPayload().getMessage(triggeredEventSubscription.getSubscriptionId());
+    }
+
     @Converter
     public SharedEvent readEvent(String string, Exchange exchange) throws Exception {
         if (!string.startsWith(SharedEvent.MESSAGE_PREFIX))
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.SharedEvent;
+import org.openremote.model.util.ValueUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The events delivered to any number of subscribers, serialized only once. The <code>TRIGGERED:</code> message of a
+ * {@link TriggeredEventSubscription} only differs by subscription ID between subscribers so it is spliced together
+ * from the pre-encoded parts around the subscription ID; the result is the same as serializing each
+ * {@link TriggeredEventSubscription}. The serialized event is also available as bytes for delivery of the event itself
+ * (e.g. to MQTT clients).
+ * <p>
+ * {@link EventSubscriptions#splitForSubscribers} makes the payload of the event being delivered available to the
+ * delivering thread through {@link #getCurrentEventBytes} so internal subscribers can reuse it. Events must not be
+ * modified once they are published.
+ */
+public class SharedEventPayload<T extends SharedEvent> {
+
+    protected static final String SUBSCRIPTION_ID_PLACEHOLDER = "SUBSCRIPTION_ID_" + UUID.randomUUID();
+    protected static final ThreadLocal<SharedEventPayload<?>> CURRENT = new ThreadLocal<>();
+    protected final List<T> events;
+    protected volatile String messagePrefix;
+    protected volatile String messageSuffix;
+    protected volatile String messageWithoutSubscriptionId;
+    protected volatile byte[] eventBytes;
+
+    public SharedEventPayload(List<T> events) {
+        this.events = events;
+    }
+
+    public List<T> getEvents() {
+        return events;
+    }
+
+    /**
+     * Get the <code>TRIGGERED:</code> message of a {@link TriggeredEventSubscription} of these events.
+     */
+    public String getMessage(String subscriptionId) throws JsonProcessingException {
+        if (subscriptionId == null) {
+            // The subscription ID is omitted when null, so there's nothing to splice in
+            if (messageWithoutSubscriptionId == null) {
+                messageWithoutSubscriptionId = TriggeredEventSubscription.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(new TriggeredEventSubscription<>(events, null));
+            }
+            return messageWithoutSubscriptionId;
+        }
+
+        if (messagePrefix == null) {
+            encodeMessage();
+        }
+        return messagePrefix + ValueUtil.JSON.writeValueAsString(subscriptionId) + messageSuffix;
+    }
+
+    /**
+     * Get the UTF-8 encoded JSON of the event, only available when there is a single event.
+     */
+    public byte[] getEventBytes() throws JsonProcessingException {
+        if (events.size() != 1) {
+            throw new IllegalStateException("Event bytes are only available for a single event: " + events.size());
+        }
+        if (eventBytes == null) {
+            eventBytes = ValueUtil.asJSONOrThrow(events.get(0)).getBytes(StandardCharsets.UTF_8);
+        }
+        return eventBytes;
+    }
+
+    protected synchronized void encodeMessage() throws JsonProcessingException {
+        if (messagePrefix != null) {
+            return;
+        }
+        String message = TriggeredEventSubscription.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(new TriggeredEventSubscription<>(events, SUBSCRIPTION_ID_PLACEHOLDER));
+        String placeholder = ValueUtil.JSON.writeValueAsString(SUBSCRIPTION_ID_PLACEHOLDER);
+        int index = message.lastIndexOf(placeholder);
+        messageSuffix = message.substring(index + placeholder.length());
+        messagePrefix = message.substring(0, index);
+    }
+
+    /**
+     * Run the delivery with this as the current payload of the calling thread.
+     */
+    public void deliver(Runnable delivery) {
+        SharedEventPayload<?> previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            delivery.run();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the encoded JSON of the event if it is the event of the payload currently being delivered by the calling
+     * thread, otherwise returns <code>null</code>.
+     */
+    public static byte[] getCurrentEventBytes(Object event) throws JsonProcessingException {
+        SharedEventPayload<?> payload = CURRENT.get();
+        if (payload == null || payload.events.size() != 1 || payload.events.get(0) != event) {
+            return null;
+        }
+        return payload.getEventBytes();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "events=" + events +
+            '}';
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.SharedEvent;
+
+/**
+ * A {@link TriggeredEventSubscription} whose events are serialized once in a {@link SharedEventPayload} that is shared
+ * by all subscriptions triggered by the same events.
+ */
+public class SharedTriggeredEventSubscription<T extends SharedEvent> extends TriggeredEventSubscription<T> {
+
+    @JsonIgnore
+    protected final SharedEventPayload<T> payload;
+
+    public SharedTriggeredEventSubscription(SharedEventPayload<T> payload, String subscriptionId) {
+        super(payload.getEvents(), subscriptionId);
+        this.payload = payload;
+    }
+
+    public SharedEventPayload<T> getPayload() {
+        return payload;
+    }
+}
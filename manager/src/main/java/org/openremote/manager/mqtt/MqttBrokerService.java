@@ -36,6 +36,7 @@ import org.openremote.model.PersistenceEvent;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.event.ClientEventService;
+import org.openremote.manager.event.SharedEventPayload;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.security.ManagerKeycloakIdentityProvider;
 import org.openremote.model.Container;
@@ -48,7 +49,6 @@ import org.openremote.model.util.ValueUtil;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
@@ -378,7 +378,11 @@ public class MqttBrokerService extends RouteBuilder implements ContainerService,
 
     public void publishMessage(String topic, Object data, MqttQoS qoS) {
         try {
-            ByteBuf payload = Unpooled.copiedBuffer(ValueUtil.asJSON(data).orElseThrow(() -> new IllegalStateException("Failed to convert payload to JSON string: " + data)), Charset.defaultCharset());
+            // Events delivered to many subscribers are only serialized once
+            byte[] eventBytes = SharedEventPayload.getCurrentEventBytes(data);
+            ByteBuf payload = eventBytes != null
+                ? Unpooled.wrappedBuffer(eventBytes)
+                : Unpooled.copiedBuffer(ValueUtil.asJSON(data).orElseThrow(() -> new IllegalStateException("Failed to convert payload to JSON string: " + data)), StandardCharsets.UTF_8);
 
             MqttPublishMessage publishMessage = MqttMessageBuilders.publish()
                 .qos(qoS)
@@ -33,6 +33,7 @@ import org.openremote.model.value.MetaHolder;
 import org.openremote.model.value.NameValueHolder;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -40,7 +41,8 @@ import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
- * Test an {@link AssetState} with a {@link AssetQuery}.
+ * Test an {@link AssetState} with a {@link AssetQuery}; this interprets the query on every test, use {@link #compile}
+ * to get a predicate that can be reused for many asset states.
  */
 public class AssetQueryPredicate implements Predicate<AssetState<?>> {
 
@@ -118,6 +120,82 @@ public class AssetQueryPredicate implements Predicate<AssetState<?>> {
         return true;
     }
 
+    /**
+     * Compile the query into a single predicate that is equivalent to an {@link AssetQueryPredicate}; all the
+     * predicates of the query are created once and the assets linked to {@link AssetQuery#userIds} are resolved
+     * immediately. The query must not be modified afterwards; changes to user asset links are not reflected, so the
+     * predicate should be compiled again when they may have changed.
+     */
+    public static Predicate<AssetState<?>> compile(TimerService timerService, AssetStorageService assetStorageService, AssetQuery query) {
+        Supplier<Long> currentMillisSupplier = timerService::getCurrentTimeMillis;
+        List<Predicate<AssetState<?>>> predicates = new ArrayList<>();
+
+        if (query.ids != null && query.ids.length > 0) {
+            Set<String> ids = new HashSet<>(Arrays.asList(query.ids));
+            predicates.add(assetState -> ids.contains(assetState.getId()));
+        }
+
+        if (query.names != null && query.names.length > 0) {
+            List<Predicate<Object>> namePredicates = Arrays.stream(query.names)
+                .map(stringPredicate -> stringPredicate.asPredicate(currentMillisSupplier))
+                .collect(Collectors.toList());
+            predicates.add(assetState -> namePredicates.stream().anyMatch(np -> np.test(assetState.getAssetName())));
+        }
+
+        if (query.parents != null && query.parents.length > 0) {
+            Set<String> parentIds = Arrays.stream(query.parents).map(parentPredicate -> parentPredicate.id).collect(Collectors.toCollection(HashSet::new));
+            predicates.add(assetState -> parentIds.contains(assetState.getParentId()));
+        }
+
+        if (query.types != null && query.types.length > 0) {
+            Class<?>[] types = query.types.clone();
+            // The asset type to class lookup is the expensive part and there are few asset types so cache the result
+            Map<String, Boolean> assetTypeMatches = new ConcurrentHashMap<>();
+            Function<String, Boolean> typeMatcher = assetType -> {
+                Class<?> assetClass = ValueUtil.getAssetDescriptor(assetType).orElse(ThingAsset.DESCRIPTOR).getType();
+                return Arrays.stream(types).anyMatch(type -> type.isAssignableFrom(assetClass));
+            };
+            predicates.add(assetState -> assetState.getAssetType() == null
+                ? typeMatcher.apply(null)
+                : assetTypeMatches.computeIfAbsent(assetState.getAssetType(), typeMatcher));
+        }
+
+        if (query.paths != null && query.paths.length > 0) {
+            List<String[]> paths = Arrays.stream(query.paths)
+                .map(pathPredicate -> pathPredicate.path != null ? pathPredicate.path.clone() : null)
+                .collect(Collectors.toList());
+            predicates.add(assetState -> paths.stream().anyMatch(path -> Arrays.equals(path, assetState.getPath())));
+        }
+
+        if (query.realm != null) {
+            String realm = query.realm.name;
+            predicates.add(assetState -> realm != null && realm.equals(assetState.getRealm()));
+        }
+
+        if (query.attributes != null) {
+            predicates.add(asPredicate(currentMillisSupplier, query.attributes));
+        }
+
+        if (query.userIds != null && query.userIds.length > 0) {
+            Set<String> userAssetIds = assetStorageService.findUserAssetLinks(null, Arrays.asList(query.userIds), null)
+                .stream()
+                .map(userAssetLink -> userAssetLink.getId().getAssetId())
+                .collect(Collectors.toSet());
+            predicates.add(assetState -> userAssetIds.contains(assetState.getId()));
+        }
+
+        @SuppressWarnings("unchecked")
+        Predicate<AssetState<?>>[] predicateArray = predicates.toArray(new Predicate[0]);
+        return assetState -> {
+            for (Predicate<AssetState<?>> predicate : predicateArray) {
+                if (!predicate.test(assetState)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
     public static Predicate<AssetState<?>> asPredicate(ParentPredicate predicate) {
         return assetState ->
             Objects.equals(predicate.id, assetState.getParentId());
@@ -147,6 +225,7 @@ public class AssetQueryPredicate implements Predicate<AssetState<?>> {
         AtomicReference<Function<NameValueHolder<?>, Object>> valueExtractor = new AtomicReference<>(nameValueHolder -> nameValueHolder.getValue().orElse(null));
 
         if (predicate.path != null && predicate.path.getPaths().length > 0) {
+            Object[] paths = predicate.path.getPaths();
             valueExtractor.set(nameValueHolder -> {
                 if (!nameValueHolder.getValue().isPresent()) {
                     return null;
@@ -157,21 +236,7 @@ public class AssetQueryPredicate implements Predicate<AssetState<?>> {
                     return null;
                 }
 
-                JsonNode jsonNode = ValueUtil.convert(nameValueHolder.getValue(), JsonNode.class);
-                for (Object path : predicate.path.getPaths()) {
-                    if (path == null) {
-                        return null;
-                    }
-                    if (path instanceof Integer) {
-                        jsonNode = jsonNode.get((int)path);
-                    } else if (path instanceof String) {
-                        jsonNode = jsonNode.get((String)path);
-                    }
-                    if (jsonNode == null) {
-                        break;
-                    }
-                }
-                return jsonNode;
+                return getPathValue(rawValue, paths);
             });
         }
 
@@ -179,6 +244,52 @@ public class AssetQueryPredicate implements Predicate<AssetState<?>> {
             && valuePredicate.test(valueExtractor.get().apply(nameValueHolder));
     }
 
+    /**
+     * Get the {@link JsonNode} at the path within the value; maps, lists and arrays are navigated directly so only the
+     * resulting value is converted, anything else is converted to a {@link JsonNode} first.
+     */
+    public static JsonNode getPathValue(Object value, Object[] paths) {
+        Object current = value;
+
+        for (Object path : paths) {
+            if (path == null) {
+                return null;
+            }
+            if (!(path instanceof Integer) && !(path instanceof String)) {
+                continue;
+            }
+
+            Object next = null;
+
+            if (current instanceof Map && path instanceof String) {
+                next = ((Map<?, ?>) current).get(path);
+            } else if ((current instanceof List || current instanceof Object[]) && path instanceof Integer) {
+                List<?> list = current instanceof List ? (List<?>) current : Arrays.asList((Object[]) current);
+                int index = (int) path;
+                if (index < 0 || index >= list.size()) {
+                    return null;
+                }
+                next = list.get(index);
+            }
+
+            if (next == null) {
+                // Not a map/list, a missing item or a null item, let the JSON conversion decide
+                JsonNode jsonNode = current instanceof JsonNode ? (JsonNode) current : ValueUtil.convert(current, JsonNode.class);
+                if (jsonNode == null) {
+                    return null;
+                }
+                next = path instanceof Integer ? jsonNode.get((int) path) : jsonNode.get((String) path);
+                if (next == null) {
+                    return null;
+                }
+            }
+
+            current = next;
+        }
+
+        return current instanceof JsonNode ? (JsonNode) current : ValueUtil.convert(current, JsonNode.class);
+    }
+
     @SuppressWarnings("unchecked")
     public static Predicate<AssetState<?>> asPredicate(Supplier<Long> currentMillisProducer, LogicGroup<AttributePredicate> condition) {
         if (groupIsEmpty(condition)) {
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import org.openremote.model.asset.impl.ThingAsset;
+import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.LogicGroup;
+import org.openremote.model.query.filter.AttributePredicate;
+import org.openremote.model.query.filter.StringPredicate;
+import org.openremote.model.rules.AssetState;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Secondary indexes of {@link AssetState} facts (or facts wrapping an {@link AssetState}) by asset ID, asset type,
+ * attribute name and realm. {@link #getCandidates} uses these to narrow down the facts that can match an
+ * {@link AssetQuery} so the {@link AssetQueryPredicate} doesn't have to be applied to every fact; the candidates must
+ * still be tested with the predicate.
+ * <p>
+ * Items are compared with {@link Object#equals}, each bucket retains insertion order. This is not thread-safe, facts
+ * are only modified whilst holding the rules engine lock.
+ */
+public class AssetStateIndex<T> {
+
+    protected final Function<T, AssetState<?>> assetStateExtractor;
+    protected final Map<String, Set<T>> assetIdIndex = new HashMap<>();
+    protected final Map<String, Set<T>> assetTypeIndex = new HashMap<>();
+    protected final Map<String, Set<T>> attributeNameIndex = new HashMap<>();
+    protected final Map<String, Set<T>> realmIndex = new HashMap<>();
+
+    public AssetStateIndex(Function<T, AssetState<?>> assetStateExtractor) {
+        this.assetStateExtractor = assetStateExtractor;
+    }
+
+    public void add(T item) {
+        AssetState<?> assetState = assetStateExtractor.apply(item);
+        add(assetIdIndex, assetState.getId(), item);
+        add(assetTypeIndex, assetState.getAssetType(), item);
+        add(attributeNameIndex, assetState.getName(), item);
+        add(realmIndex, assetState.getRealm(), item);
+    }
+
+    public void remove(T item) {
+        AssetState<?> assetState = assetStateExtractor.apply(item);
+        remove(assetIdIndex, assetState.getId(), item);
+        remove(assetTypeIndex, assetState.getAssetType(), item);
+        remove(attributeNameIndex, assetState.getName(), item);
+        remove(realmIndex, assetState.getRealm(), item);
+    }
+
+    public Collection<T> getByAssetId(String assetId) {
+        return assetIdIndex.getOrDefault(assetId, Collections.emptySet());
+    }
+
+    /**
+     * Get the items that could match the query, based on the most selective of the query's asset IDs, types, realm and
+     * required attribute names; returns <code>null</code> if the query can't be narrowed down so every item is a
+     * candidate. If ordered is set then only a single bucket is ever returned, so candidates are in insertion order.
+     */
+    public List<T> getCandidates(AssetQuery query, boolean ordered) {
+        List<Collection<Set<T>>> dimensions = new ArrayList<>(4);
+
+        if (query.ids != null && query.ids.length > 0) {
+            dimensions.add(getBuckets(assetIdIndex, new LinkedHashSet<>(Arrays.asList(query.ids))));
+        }
+
+        if (query.types != null && query.types.length > 0) {
+            List<Set<T>> buckets = new ArrayList<>();
+            assetTypeIndex.forEach((assetType, bucket) -> {
+                Class<?> type = ValueUtil.getAssetDescriptor(assetType).orElse(ThingAsset.DESCRIPTOR).getType();
+                if (Arrays.stream(query.types).anyMatch(queryType -> queryType.isAssignableFrom(type))) {
+                    buckets.add(bucket);
+                }
+            });
+            dimensions.add(buckets);
+        }
+
+        if (query.realm != null) {
+            dimensions.add(getBuckets(realmIndex, query.realm.name != null ? Collections.singleton(query.realm.name) : Collections.emptySet()));
+        }
+
+        Set<String> attributeNames = query.attributes != null ? getRequiredAttributeNames(query.attributes) : null;
+        if (attributeNames != null) {
+            dimensions.add(getBuckets(attributeNameIndex, attributeNames));
+        }
+
+        Collection<Set<T>> selected = null;
+        int selectedSize = Integer.MAX_VALUE;
+
+        for (Collection<Set<T>> buckets : dimensions) {
+            if (buckets.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (ordered && buckets.size() > 1) {
+                continue;
+            }
+            int size = buckets.stream().mapToInt(Set::size).sum();
+            if (size < selectedSize) {
+                selected = buckets;
+                selectedSize = size;
+            }
+        }
+
+        if (selected == null) {
+            return null;
+        }
+
+        List<T> candidates = new ArrayList<>(selectedSize);
+        selected.forEach(candidates::addAll);
+        return candidates;
+    }
+
+    /**
+     * The attribute names an asset state must have to match the attribute predicates, or <code>null</code> if any
+     * name could match. Only exact, case-sensitive name predicates are considered, mirroring how
+     * {@link AssetQueryPredicate#asPredicate(java.util.function.Supplier, LogicGroup)} evaluates the group.
+     */
+    protected static Set<String> getRequiredAttributeNames(LogicGroup<AttributePredicate> group) {
+        if (AssetQueryPredicate.groupIsEmpty(group)) {
+            return null;
+        }
+
+        if (group.operator == null || group.operator == LogicGroup.Operator.AND) {
+            // Every item has to match so any item with an exact name is enough
+            for (AttributePredicate attributePredicate : group.getItems()) {
+                String name = getExactName(attributePredicate.name);
+                if (name != null) {
+                    return Collections.singleton(name);
+                }
+            }
+            if (group.groups != null) {
+                for (LogicGroup<AttributePredicate> childGroup : group.groups) {
+                    Set<String> names = getRequiredAttributeNames(childGroup);
+                    if (names != null) {
+                        return names;
+                    }
+                }
+            }
+            return null;
+        }
+
+        // Any item can match so all of them need an exact name
+        Set<String> names = new HashSet<>();
+        for (AttributePredicate attributePredicate : group.getItems()) {
+            String name = getExactName(attributePredicate.name);
+            if (name == null) {
+                return null;
+            }
+            names.add(name);
+        }
+        if (group.groups != null) {
+            for (LogicGroup<AttributePredicate> childGroup : group.groups) {
+                Set<String> childNames = getRequiredAttributeNames(childGroup);
+                if (childNames == null) {
+                    return null;
+                }
+                names.addAll(childNames);
+            }
+        }
+        return names;
+    }
+
+    protected static String getExactName(StringPredicate predicate) {
+        if (predicate == null || predicate.value == null || predicate.negate || !predicate.caseSensitive || predicate.match != AssetQuery.Match.EXACT) {
+            return null;
+        }
+        return predicate.value;
+    }
+
+    protected static <T> Collection<Set<T>> getBuckets(Map<String, Set<T>> index, Set<String> keys) {
+        List<Set<T>> buckets = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Set<T> bucket = index.get(key);
+            if (bucket != null) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    protected static <T> void add(Map<String, Set<T>> index, String key, T item) {
+        index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(item);
+    }
+
+    protected static <T> void remove(Map<String, Set<T>> index, String key, T item) {
+        Set<T> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(item);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -196,6 +196,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                 }
                 ruleCondition.assets.orderBy = null;
                 ruleCondition.assets.limit = 0;
+                ruleCondition.assets.after = null;
                 ruleCondition.assets.attributes = null;
             } else {
                 throw new IllegalStateException("Invalid rule condition either timer or asset query must be set");
@@ -925,10 +926,8 @@ public class JsonRulesBuilder extends RulesBuilder {
             List<AssetState<?>> matchingAssetStates = matchingAssetIds
                 .stream()
                 .map(assetId ->
-                        facts.getAssetStates()
-                                .stream()
-                                .filter(state -> state.getId().equals(assetId) && state.getName().equals(attributeUpdateAction.attributeName))
-                                .findFirst().orElseGet(() -> {
+                        facts.getAssetState(assetId, attributeUpdateAction.attributeName)
+                                .orElseGet(() -> {
                                     log(Level.WARNING, "Failed to find attribute in rule states for attribute update: " + new AttributeRef(assetId, attributeUpdateAction.attributeName));
                                     return null;
                         }))
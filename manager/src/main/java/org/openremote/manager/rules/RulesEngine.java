@@ -51,9 +51,16 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.RULES;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.withLockReturning;
 import static org.openremote.model.rules.RulesetStatus.*;
 
+/**
+ * Holds the {@link RulesetDeployment}s and {@link RulesFacts} of a {@link RulesEngineId} scope; all state changes and
+ * firing are guarded by the {@link org.openremote.container.concurrent.KeyedLockManager.Scope#RULES} lock of this
+ * engine (see {@link #getLockKey}) so that independent engines can fire concurrently.
+ */
 public class RulesEngine<T extends Ruleset> {
 
     /**
@@ -196,6 +203,13 @@ public class RulesEngine<T extends Ruleset> {
         return id;
     }
 
+    /**
+     * @return the key of this engine's {@link org.openremote.container.concurrent.KeyedLockManager.Scope#RULES} lock.
+     */
+    public String getLockKey() {
+        return String.valueOf(id);
+    }
+
     /**
      * @return a shallow copy of the asset state facts.
      */
@@ -254,6 +268,10 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void addRuleset(T ruleset) {
+        withLock(RULES, getLockKey(), toString() + "::addRuleset", () -> doAddRuleset(ruleset));
+    }
+
+    protected void doAddRuleset(T ruleset) {
 
         // Check for previous version of this ruleset
         RulesetDeployment deployment = deployments.get(ruleset.getId());
@@ -265,7 +283,7 @@ public class RulesEngine<T extends Ruleset> {
             removeRuleset(deployment.ruleset);
         }
 
-        deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
+        deployment = new RulesetDeployment(ruleset, getLockKey(), timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
         boolean compiled;
 
         if (TextUtil.isNullOrEmpty(ruleset.getRules())) {
@@ -308,6 +326,11 @@ public class RulesEngine<T extends Ruleset> {
      * @return <code>true</code> if this rules engine has no deployments.
      */
     public boolean removeRuleset(Ruleset ruleset) {
+        Boolean result = withLockReturning(RULES, getLockKey(), toString() + "::removeRuleset", () -> doRemoveRuleset(ruleset));
+        return result != null && result;
+    }
+
+    protected boolean doRemoveRuleset(Ruleset ruleset) {
         RulesetDeployment deployment = deployments.get(ruleset.getId());
 
         if (deployment == null) {
@@ -333,6 +356,10 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void start() {
+        withLock(RULES, getLockKey(), toString() + "::start", this::doStart);
+    }
+
+    protected void doStart() {
         if (running) {
             return;
         }
@@ -388,6 +415,10 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void stop(boolean systemShutdownInProgress) {
+        withLock(RULES, getLockKey(), toString() + "::stop", () -> doStop(systemShutdownInProgress));
+    }
+
+    protected void doStop(boolean systemShutdownInProgress) {
         if (!running) {
             return;
         }
@@ -460,14 +491,14 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void scheduleFire() {
-        withLock(toString() + "::scheduleFire", () -> {
+        withLock(RULES, getLockKey(), toString() + "::scheduleFire", () -> {
             // Schedule a firing within the guaranteed expiration time (so not immediately), and
             // only if the last firing is done. This effectively limits how often the rules engine
             // will fire, only once within the guaranteed minimum expiration time.
             if (fireTimer == null || fireTimer.isDone()) {
                 LOG.fine("Scheduling rules firing on: " + this);
                 fireTimer = executorService.schedule(
-                    () -> withLock(RulesEngine.this.toString() + "::fire", () -> {
+                    () -> withLock(RULES, getLockKey(), RulesEngine.this.toString() + "::fire", () -> {
 
                         fireTimer = null;
 
@@ -566,30 +597,36 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void updateOrInsertAssetState(AssetState<?> assetState, boolean insert) {
-        facts.putAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        withLock(RULES, getLockKey(), toString() + "::updateOrInsertAssetState", () -> {
+            facts.putAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void removeAssetState(AssetState<?> assetState) {
-        facts.removeAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        withLock(RULES, getLockKey(), toString() + "::removeAssetState", () -> {
+            facts.removeAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void insertAssetEvent(long expiresMillis, AssetState<?> assetState) {
-        facts.insertAssetEvent(expiresMillis, assetState);
-        if (running) {
-            scheduleFire();
-        }
+        withLock(RULES, getLockKey(), toString() + "::insertAssetEvent", () -> {
+            facts.insertAssetEvent(expiresMillis, assetState);
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     protected void updateDeploymentInfo() {
@@ -601,7 +638,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void printSessionStats() {
-        withLock(toString() + "::printSessionStats", () -> {
+        withLock(RULES, getLockKey(), toString() + "::printSessionStats", () -> {
             Collection<AssetState<?>> assetStateFacts = facts.getAssetStates();
             Collection<TemporaryFact<AssetState<?>>> assetEventFacts = facts.getAssetEvents();
             Map<String, Object> namedFacts = facts.getNamedFacts();
@@ -638,7 +675,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesEngineStatus() {
-        withLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
+        withLock(RULES, getLockKey(), getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
 
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
             int compilationErrors = getCompilationErrorDeploymentCount();
@@ -662,7 +699,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesetStatus(RulesetDeployment deployment) {
-        withLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
+        withLock(RULES, getLockKey(), getClass().getSimpleName() + "::publishRulesetStatus", () -> {
 
             Ruleset ruleset = deployment.ruleset;
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
@@ -696,7 +733,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + ":pauseRuleset", () -> {
+        withLock(RULES, getLockKey(), getClass().getSimpleName() + ":pauseRuleset", () -> {
             LOG.info("Pausing ruleset: " + deployment.getRuleset().getName());
             stopRuleset(deployment);
             deployment.updateValidity();
@@ -726,7 +763,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + "::unpauseRuleset", () -> {
+        withLock(RULES, getLockKey(), getClass().getSimpleName() + "::unpauseRuleset", () -> {
             LOG.info("Un-pausing ruleset: " + deployment.getRuleset().getName());
             startRuleset(deployment);
         });
@@ -26,8 +26,8 @@ import org.jeasy.rules.api.RuleListener;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.model.asset.Asset;
-import org.openremote.model.asset.AssetEvent;
 import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.filter.GeofencePredicate;
 import org.openremote.model.rules.AssetState;
@@ -66,8 +66,13 @@ public class RulesFacts extends Facts implements RuleListener {
     final protected Assets assetsFacade;
     final protected Object loggingContext;
     final protected Logger LOG;
-    final protected Map<String, Collection<AssetState<?>>> assetIdIndex = new HashMap<>();
-    final protected Map<String, Collection<AssetState<?>>> assetTypeIndex = new HashMap<>();
+    // Asset states keyed by asset ID and attribute name, with secondary indexes used to narrow down asset queries
+    final protected Map<AttributeRef, AssetState<?>> assetStates = new LinkedHashMap<>(INITIAL_CAPACITY);
+    final protected AssetStateIndex<AssetState<?>> assetStateIndex = new AssetStateIndex<>(Function.identity());
+    final protected Deque<TemporaryFact<AssetState<?>>> assetEvents = new ArrayDeque<>(INITIAL_CAPACITY);
+    final protected AssetStateIndex<TemporaryFact<AssetState<?>>> assetEventIndex = new AssetStateIndex<>(TemporaryFact::getFact);
+    // Compiled predicates of asset queries, queries don't implement equals so these are per query instance
+    final protected Map<AssetQuery, Predicate<AssetState<?>>> assetQueryPredicates = Collections.synchronizedMap(new WeakHashMap<>());
     protected int triggerCount;
     protected boolean trackLocationRules;
     protected Map<String, Set<GeofencePredicate>> assetStateLocationPredicateMap = null;
@@ -79,8 +84,9 @@ public class RulesFacts extends Facts implements RuleListener {
         this.loggingContext = loggingContext;
         this.LOG = logger;
 
-        super.put(ASSET_STATES, new ArrayDeque<AssetState<?>>(INITIAL_CAPACITY));
-        super.put(ASSET_EVENTS, new ArrayDeque<AssetEvent>(INITIAL_CAPACITY));
+        // Asset states and events must be modified through this class so the indexes are maintained
+        super.put(ASSET_STATES, Collections.unmodifiableCollection(assetStates.values()));
+        super.put(ASSET_EVENTS, Collections.unmodifiableCollection(assetEvents));
         super.put(EXECUTION_VARS, new HashMap<>());
         super.put(ANONYMOUS_FACTS, new ArrayDeque<>(INITIAL_CAPACITY));
     }
@@ -198,19 +204,10 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (UPDATE): " + assetState + " - on: " + loggingContext);
         }
-        getAssetStates().remove(assetState);
-        getAssetStates().add(assetState);
-
-        // Maintain index of all asset states for this asset by ID
-        assetIdIndex.putIfAbsent(assetState.getId(), new ArrayDeque<>());
-        assetIdIndex.get(assetState.getId()).remove(assetState);
-        assetIdIndex.get(assetState.getId()).add(assetState);
-
-        // Maintain index of all asset states for this asset by type
-        assetTypeIndex.putIfAbsent(assetState.getAssetType(), new ArrayDeque<>());
-        assetTypeIndex.get(assetState.getAssetType()).remove(assetState);
-        assetTypeIndex.get(assetState.getAssetType()).add(assetState);
-
+        // Remove any existing state first so the updated state moves to the end like it is newly added
+        removeAssetStateInternal(assetState.getId(), assetState.getName());
+        assetStates.put(new AttributeRef(assetState.getId(), assetState.getName()), assetState);
+        assetStateIndex.add(assetState);
         return this;
     }
 
@@ -218,21 +215,23 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (DELETE): " + assetState + " - on: " + loggingContext);
         }
-        getAssetStates().remove(assetState);
-
-        // Maintain index of all asset states for this asset by ID
-        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-        if (assetIdIndexCollection != null) {
-            assetIdIndexCollection.remove(assetState);
-        }
+        removeAssetStateInternal(assetState.getId(), assetState.getName());
+        return this;
+    }
 
-        // Maintain index of all asset states for this asset by type
-        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-        if (assetTypeIndexCollection != null) {
-            assetTypeIndexCollection.remove(assetState);
+    protected AssetState<?> removeAssetStateInternal(String assetId, String attributeName) {
+        AssetState<?> assetState = assetStates.remove(new AttributeRef(assetId, attributeName));
+        if (assetState != null) {
+            assetStateIndex.remove(assetState);
         }
+        return assetState;
+    }
 
-        return this;
+    /**
+     * Get the asset state of the specified asset attribute.
+     */
+    public Optional<AssetState<?>> getAssetState(String assetId, String attributeName) {
+        return Optional.ofNullable(assetStates.get(new AttributeRef(assetId, attributeName)));
     }
 
     public RulesFacts insertAssetEvent(long expiresMilliSeconds, AssetState<?> assetState) {
@@ -240,7 +239,8 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (INSERT): " + fact + " - on: " + loggingContext);
         }
-        getAssetEvents().add(fact);
+        assetEvents.add(fact);
+        assetEventIndex.add(fact);
         return this;
     }
 
@@ -308,6 +308,17 @@ public class RulesFacts extends Facts implements RuleListener {
      */
     public void reset() {
         triggerCount = 0;
+        // User asset links may have changed so these queries are compiled again
+        synchronized (assetQueryPredicates) {
+            assetQueryPredicates.keySet().removeIf(assetQuery -> assetQuery.userIds != null && assetQuery.userIds.length > 0);
+        }
+    }
+
+    /**
+     * Get the compiled predicate of the query, an asset query must not be modified once it has been used for matching.
+     */
+    protected Predicate<AssetState<?>> getAssetQueryPredicate(AssetQuery assetQuery) {
+        return assetQueryPredicates.computeIfAbsent(assetQuery, query -> AssetQueryPredicate.compile(timerService, assetStorageService, query));
     }
 
     @Override
@@ -416,8 +427,12 @@ public class RulesFacts extends Facts implements RuleListener {
             storeLocationPredicates(getLocationPredicates(assetQuery.attributes));
         }
 
-        Predicate<AssetState<?>> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return matchAssetState(p);
+        Predicate<AssetState<?>> p = getAssetQueryPredicate(assetQuery);
+        List<AssetState<?>> candidates = assetStateIndex.getCandidates(assetQuery, false);
+        if (candidates == null) {
+            return matchAssetState(p);
+        }
+        return candidates.stream().filter(p);
     }
 
     public Stream<AssetState<?>> matchAssetState(Predicate<AssetState<?>> p) {
@@ -436,8 +451,11 @@ public class RulesFacts extends Facts implements RuleListener {
 
     @SuppressWarnings("unchecked")
     public Stream<TemporaryFact<AssetState<?>>> matchAssetEvent(AssetQuery assetQuery) {
-        Predicate<AssetState<?>> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return getAssetEvents().stream().parallel()
+        Predicate<AssetState<?>> p = getAssetQueryPredicate(assetQuery);
+        // Candidates must be in insertion order so the last matching event can be found
+        List<TemporaryFact<AssetState<?>>> candidates = assetEventIndex.getCandidates(assetQuery, true);
+        Stream<TemporaryFact<AssetState<?>>> assetEvents = candidates != null ? candidates.stream() : this.assetEvents.stream().parallel();
+        return assetEvents
                 .filter(fact -> this.matchFact(fact, (Class<AssetState<?>>)(Class)AssetState.class, p).isPresent());
     }
 
@@ -451,10 +469,13 @@ public class RulesFacts extends Facts implements RuleListener {
 
     public void removeExpiredTemporaryFacts() {
         long currentTimestamp = timerService.getCurrentTimeMillis();
-        getAssetEvents().removeIf(fact -> {
+        assetEvents.removeIf(fact -> {
             boolean result = fact.isExpired(currentTimestamp);
-            if (result && LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Fact change (DELETE EXPIRED): " + fact + " - on: " + loggingContext);
+            if (result) {
+                assetEventIndex.remove(fact);
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("Fact change (DELETE EXPIRED): " + fact + " - on: " + loggingContext);
+                }
             }
             return result;
         });
@@ -591,26 +612,10 @@ public class RulesFacts extends Facts implements RuleListener {
 
     protected RulesFacts invalidateAssetStateAndDispatch(String assetId, String attributeName, Object value) {
         // Remove the asset state from the facts, it is invalid now
-        getAssetStates()
-                .removeIf(assetState -> {
-                    boolean invalid = assetState.getId().equals(assetId) && assetState.getName().equals(attributeName);
-                    if (invalid) {
-                        if (LOG.isLoggable(Level.FINEST)) {
-                            LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
-                        }
-                        // Maintain index of all asset states for this asset by ID
-                        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-                        if (assetIdIndexCollection != null) {
-                            assetIdIndexCollection.remove(assetState);
-                        }
-                        // Maintain index of all asset states for this asset by type
-                        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-                        if (assetTypeIndexCollection != null) {
-                            assetTypeIndexCollection.remove(assetState);
-                        }
-                    }
-                    return invalid;
-                });
+        AssetState<?> assetState = removeAssetStateInternal(assetId, attributeName);
+        if (assetState != null && LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
+        }
 
         // Dispatch the update to the asset processing service
         AttributeEvent attributeEvent = new AttributeEvent(assetId, attributeName, value);
@@ -20,6 +20,7 @@
 package org.openremote.manager.rules;
 
 import org.apache.camel.builder.RouteBuilder;
+import org.openremote.container.concurrent.KeyedLockManager;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.model.Constants;
 import org.openremote.model.PersistenceEvent;
@@ -59,6 +60,7 @@ import org.openremote.model.value.MetaItemType;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.BiFunction;
 import java.util.logging.Level;
@@ -70,6 +72,8 @@ import static java.util.logging.Level.*;
 import static java.util.stream.Collectors.toList;
 import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.ASSET;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.GEOFENCE;
 import static org.openremote.container.persistence.PersistenceService.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceService.isPersistenceEventForEntityType;
 import static org.openremote.container.util.MapAccess.getString;
@@ -97,6 +101,11 @@ import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttribu
  * <li>Asset Rulesets (in hierarchical order from oldest ancestor down)</li>
  * </ol>
  * Processing order of rulesets with the same scope or same parent is not guaranteed.
+ * <p>
+ * Deployment and removal of rulesets and engines is guarded by the {@link org.openremote.container.concurrent.GlobalLock},
+ * asset state updates only take the {@link org.openremote.container.concurrent.KeyedLockManager.Scope#ASSET} lock of
+ * the asset and the lock of each {@link RulesEngine} in scope in turn; so facts for different assets can be updated
+ * and different engines can fire concurrently.
  */
 public class RulesService extends RouteBuilder implements ContainerService, AssetUpdateProcessor {
 
@@ -104,8 +113,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     public static final String OR_RULE_EVENT_EXPIRES = "OR_RULE_EVENT_EXPIRES";
     public static final String OR_RULE_EVENT_EXPIRES_DEFAULT = "PT1H";
     private static final Logger LOG = Logger.getLogger(RulesService.class.getName());
-    protected final Map<String, RulesEngine<RealmRuleset>> realmEngines = new HashMap<>();
-    protected final Map<String, RulesEngine<AssetRuleset>> assetEngines = new HashMap<>();
+    protected final Map<String, RulesEngine<RealmRuleset>> realmEngines = new ConcurrentHashMap<>();
+    protected final Map<String, RulesEngine<AssetRuleset>> assetEngines = new ConcurrentHashMap<>();
     protected List<GeofenceAssetAdapter> geofenceAssetAdapters = new ArrayList<>();
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
@@ -119,7 +128,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     protected AssetPredictedDatapointService assetPredictedDatapointService;
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
-    protected RulesEngine<GlobalRuleset> globalEngine;
+    protected volatile RulesEngine<GlobalRuleset> globalEngine;
     protected Realm[] realms;
     protected AssetLocationPredicateProcessor locationPredicateRulesConsumer;
     protected Map<RulesEngine<?>, List<RulesEngine.AssetStateLocationPredicates>> engineAssetLocationPredicateMap = new HashMap<>();
@@ -127,8 +136,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     // Keep global list of asset states that have been pushed to any engines
     // The objects are already in memory inside the rule engines but keeping them
     // here means we can quickly insert facts into newly started engines
-    protected Set<AssetState<?>> assetStates = new HashSet<>();
-    protected Set<AssetState<?>> preInitAssetStates = new HashSet<>();
+    protected Set<AssetState<?>> assetStates = ConcurrentHashMap.newKeySet();
+    protected Set<AssetState<?>> preInitAssetStates = ConcurrentHashMap.newKeySet();
     protected long defaultEventExpiresMillis = 1000*60*60;
     protected boolean initDone;
     protected boolean startDone;
@@ -415,7 +424,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     public GeofenceDefinition[] getAssetGeofences(String assetId) {
-        return withLockReturning(getClass().getSimpleName() + "::getAssetGeofences", () -> {
+        return KeyedLockManager.withLockReturning(GEOFENCE, GeofenceAssetAdapter.LOCK_KEY, getClass().getSimpleName() + "::getAssetGeofences", () -> {
 
             LOG.finest("Requesting geofences for asset: " + assetId);
 
@@ -793,7 +802,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void insertAssetEvent(AssetState<?> assetState, long expiresMillis) {
-        withLock(getClass().getSimpleName() + "::insertAssetEvent", () -> {
+        KeyedLockManager.withLock(ASSET, assetState.getId(), getClass().getSimpleName() + "::insertAssetEvent", () -> {
             // Get the chain of rule engines that we need to pass through
             List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
 
@@ -818,7 +827,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void updateAssetState(AssetState<?> assetState) {
-        withLock(getClass().getSimpleName() + "::updateAssetState", () -> {
+        KeyedLockManager.withLock(ASSET, assetState.getId(), getClass().getSimpleName() + "::updateAssetState", () -> {
             // TODO: implement rules processing error state handling
 
             LOG.finer("Updating asset state: " + assetState);
@@ -838,36 +847,38 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void retractAssetState(AssetState<?> assetState) {
-        // Get the chain of rule engines that we need to pass through
-        List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
+        KeyedLockManager.withLock(ASSET, assetState.getId(), getClass().getSimpleName() + "::retractAssetState", () -> {
+            // Get the chain of rule engines that we need to pass through
+            List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
 
-        // Remove asset state with same attribute ref
-        assetStates.remove(assetState);
+            // Remove asset state with same attribute ref
+            assetStates.remove(assetState);
 
-        if (rulesEngines.size() == 0) {
-            LOG.finer("Ignoring as there are no matching rules engines: " + assetState);
-        }
+            if (rulesEngines.size() == 0) {
+                LOG.finer("Ignoring as there are no matching rules engines: " + assetState);
+            }
 
-        // Pass through each rules engine
-        for (RulesEngine<?> rulesEngine : rulesEngines) {
-            rulesEngine.removeAssetState(assetState);
-        }
+            // Pass through each rules engine
+            for (RulesEngine<?> rulesEngine : rulesEngines) {
+                rulesEngine.removeAssetState(assetState);
+            }
+        });
     }
 
     protected List<AssetState<?>> getAssetStatesInScope(String assetId) {
-        return withLockReturning(getClass().getSimpleName() + "::getAssetStatesInScope", () ->
-                assetStates
-                .stream()
-                .filter(assetState -> Arrays.asList(assetState.getPath()).contains(assetId))
-                .collect(Collectors.toList()));
+        return assetStates
+            .stream()
+            .filter(assetState -> Arrays.asList(assetState.getPath()).contains(assetId))
+            .collect(Collectors.toList());
     }
 
     protected List<RulesEngine<?>> getEnginesInScope(String realm, String[] assetPath) {
         List<RulesEngine<?>> rulesEngines = new ArrayList<>();
 
         // Add global engine (if it exists)
-        if (globalEngine != null) {
-            rulesEngines.add(globalEngine);
+        RulesEngine<?> globalRulesEngine = globalEngine;
+        if (globalRulesEngine != null) {
+            rulesEngines.add(globalRulesEngine);
         }
 
         // Add realm engine (if it exists)
@@ -905,7 +916,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
      * have modified {@link LocationAttributePredicate}s and to notify the {@link GeofenceAssetAdapter}s.
      */
     protected void onEngineLocationRulesChanged(RulesEngine<?> rulesEngine, List<RulesEngine.AssetStateLocationPredicates> newEngineAssetStateLocationPredicates) {
-        withLock(getClass().getSimpleName() + "::onEngineLocationRulesChanged", () -> {
+        KeyedLockManager.withLock(GEOFENCE, GeofenceAssetAdapter.LOCK_KEY, getClass().getSimpleName() + "::onEngineLocationRulesChanged", () -> {
             int initialModifiedCount = assetsWithModifiedLocationPredicates.size();
 
             if (newEngineAssetStateLocationPredicates == null) {
@@ -981,7 +992,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void processModifiedGeofences() {
-        withLock(getClass().getSimpleName() + "::processModifiedGeofences", () -> {
+        KeyedLockManager.withLock(GEOFENCE, GeofenceAssetAdapter.LOCK_KEY, getClass().getSimpleName() + "::processModifiedGeofences", () -> {
             LOG.finest("Processing geofence modifications: modified asset geofence count=" + assetsWithModifiedLocationPredicates.size());
 
             try {
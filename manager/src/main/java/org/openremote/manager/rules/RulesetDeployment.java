@@ -51,7 +51,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.RULES;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
 
 public class RulesetDeployment {
 
@@ -122,6 +123,7 @@ public class RulesetDeployment {
 
     final protected Ruleset ruleset;
     final protected Rules rules = new Rules();
+    final protected String engineLockKey;
     final protected AssetStorageService assetStorageService;
     final protected TimerService timerService;
     final protected ScheduledExecutorService executorService;
@@ -138,11 +140,12 @@ public class RulesetDeployment {
     protected CalendarEvent validity;
     protected Pair<Long, Long> nextValidity;
 
-    public RulesetDeployment(Ruleset ruleset, TimerService timerService,
+    public RulesetDeployment(Ruleset ruleset, String engineLockKey, TimerService timerService,
                              AssetStorageService assetStorageService, ScheduledExecutorService executorService,
                              Assets assetsFacade, Users usersFacade, Notifications notificationsFacade,
                              HistoricDatapoints historicDatapointsFacade, PredictedDatapoints predictedDatapointsFacade) {
         this.ruleset = ruleset;
+        this.engineLockKey = engineLockKey;
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
         this.executorService = executorService;
@@ -254,9 +257,9 @@ public class RulesetDeployment {
     }
 
     protected void scheduleRuleAction(Runnable action, long delayMillis) {
-        withLock(toString() + "::scheduleRuleAction", () -> {
+        withLock(RULES, engineLockKey, toString() + "::scheduleRuleAction", () -> {
             ScheduledFuture<?> future = executorService.schedule(() ->
-                    withLock(toString() + "::scheduledRuleActionFire", () -> {
+                    withLock(RULES, engineLockKey, toString() + "::scheduledRuleActionFire", () -> {
                         scheduledRuleActions.removeIf(Future::isDone);
                         action.run();
                     }), delayMillis, TimeUnit.MILLISECONDS);
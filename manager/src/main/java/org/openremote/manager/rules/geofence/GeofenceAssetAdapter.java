@@ -50,6 +50,12 @@ import java.util.List;
  */
 public interface GeofenceAssetAdapter extends ContainerService {
 
+    /**
+     * Key of the {@link org.openremote.container.concurrent.KeyedLockManager.Scope#GEOFENCE} lock that guards
+     * location predicate processing in the rules service and the adapters.
+     */
+    String LOCK_KEY = "GeofenceAssetAdapter";
+
     /**
      * Get the name of this adapter
      */
@@ -50,7 +50,8 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.GEOFENCE;
+import static org.openremote.container.concurrent.KeyedLockManager.withLock;
 import static org.openremote.container.persistence.PersistenceService.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceService.isPersistenceEventForEntityType;
 import static org.openremote.manager.gateway.GatewayService.isNotForGateway;
@@ -142,7 +143,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
     @Override
     public void processLocationPredicates(List<RulesEngine.AssetStateLocationPredicates> modifiedAssetLocationPredicates) {
 
-        withLock(getClass().getSimpleName() + "::processLocationPredicates", () -> {
+        withLock(GEOFENCE, LOCK_KEY, getClass().getSimpleName() + "::processLocationPredicates", () -> {
 
             AtomicBoolean notifierDebounce = new AtomicBoolean(false);
 
@@ -198,7 +199,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
             if (notifierDebounce.get()) {
                 if (notifyAssetsScheduledFuture == null || notifyAssetsScheduledFuture.cancel(false)) {
                     notifyAssetsScheduledFuture = executorService.schedule(() ->
-                            withLock(getClass().getSimpleName() + "::notifyAssets",
+                            withLock(GEOFENCE, LOCK_KEY, getClass().getSimpleName() + "::notifyAssets",
                                 () -> {
                                     notifyAssetGeofencesChanged(notifyAssets);
                                     notifyAssets = null;
@@ -283,7 +284,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
     protected void processConsoleAssetChange(PersistenceEvent<ConsoleAsset> persistenceEvent) {
         ConsoleAsset asset = persistenceEvent.getEntity();
 
-        withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
+        withLock(GEOFENCE, LOCK_KEY, getClass().getSimpleName() + "::processAssetChange", () -> {
             switch (persistenceEvent.getCause()) {
 
                 case CREATE:
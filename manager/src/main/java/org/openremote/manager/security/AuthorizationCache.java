@@ -0,0 +1,216 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.security;
+
+import org.openremote.model.PersistenceEvent;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.UserAssetLink;
+import org.openremote.model.security.Realm;
+import org.openremote.model.security.User;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Caches the state that is read from the database to authorize requests and events: {@link Realm}s by name, the realm
+ * of each {@link User} and the IDs of the assets linked to each user by {@link UserAssetLink}s.
+ * <p>
+ * Entries are invalidated by the {@link PersistenceEvent}s of these entities (see {@link #onPersistenceEvent}), which
+ * are published by the manager for every change it makes. Changes made directly in Keycloak don't generate events so
+ * every entry also expires after the configured time to live; for the same reason missing realms and users are not
+ * cached.
+ */
+public class AuthorizationCache {
+
+    protected static class Entry<T> {
+        protected final T value;
+        protected final long expiresMillis;
+
+        protected Entry(T value, long expiresMillis) {
+            this.value = value;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(AuthorizationCache.class.getName());
+    protected final long ttlMillis;
+    protected final LongSupplier clock;
+    protected final Map<String, Entry<Realm>> realms = new ConcurrentHashMap<>();
+    protected final Map<String, Entry<String>> userRealms = new ConcurrentHashMap<>();
+    protected final Map<String, Entry<Set<String>>> userAssetIds = new ConcurrentHashMap<>();
+    // Incremented by every invalidation so a value loaded concurrently with an invalidation is never cached
+    protected final AtomicLong generation = new AtomicLong();
+    protected final AtomicLong hitCount = new AtomicLong();
+    protected final AtomicLong missCount = new AtomicLong();
+
+    public AuthorizationCache(long ttlMillis) {
+        this(ttlMillis, System::currentTimeMillis);
+    }
+
+    public AuthorizationCache(long ttlMillis, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the realm with the specified name; the returned realm is shared and must not be modified.
+     */
+    public Realm getRealm(String realm, Function<String, Realm> loader) {
+        return get(realms, realm, loader);
+    }
+
+    /**
+     * @return the name of the realm of the specified user or <code>null</code> if the user doesn't exist.
+     */
+    public String getUserRealm(String userId, Function<String, String> loader) {
+        return get(userRealms, userId, loader);
+    }
+
+    /**
+     * @return the IDs of all assets linked to the specified user.
+     */
+    public Set<String> getUserAssetIds(String userId, Function<String, Set<String>> loader) {
+        return get(userAssetIds, userId, id -> Collections.unmodifiableSet(new HashSet<>(loader.apply(id))));
+    }
+
+    protected <T> T get(Map<String, Entry<T>> entries, String key, Function<String, T> loader) {
+        if (key == null) {
+            return loader.apply(null);
+        }
+
+        long now = clock.getAsLong();
+        Entry<T> entry = entries.get(key);
+
+        if (entry != null && entry.expiresMillis > now) {
+            hitCount.incrementAndGet();
+            return entry.value;
+        }
+
+        missCount.incrementAndGet();
+        long loadGeneration = generation.get();
+        T value = loader.apply(key);
+
+        if (value == null) {
+            entries.remove(key);
+            return null;
+        }
+
+        entry = new Entry<>(value, now + ttlMillis);
+        entries.put(key, entry);
+
+        // An invalidation may have happened whilst loading so the value could already be outdated
+        if (generation.get() != loadGeneration) {
+            entries.remove(key, entry);
+        }
+
+        return value;
+    }
+
+    /**
+     * Invalidates the entries affected by the change of a {@link Realm}, {@link User}, {@link UserAssetLink} or the
+     * deletion of an {@link Asset}; other events are ignored.
+     */
+    public void onPersistenceEvent(PersistenceEvent<?> persistenceEvent) {
+        Object entity = persistenceEvent.getEntity();
+
+        if (entity instanceof Realm realm) {
+            invalidateRealm(realm.getName(), persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE);
+        } else if (entity instanceof User user) {
+            invalidateUser(user.getId());
+        } else if (entity instanceof UserAssetLink userAssetLink) {
+            invalidateUserAssets(userAssetLink.getId().getUserId());
+        } else if (entity instanceof Asset<?> asset && persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE) {
+            invalidateAsset(asset.getId());
+        }
+    }
+
+    /**
+     * @param deleted when <code>true</code> the users and user asset links of the realm are also invalidated.
+     */
+    public void invalidateRealm(String realm, boolean deleted) {
+        LOG.finest("Invalidating realm: " + realm);
+        generation.incrementAndGet();
+        realms.remove(realm);
+
+        if (deleted) {
+            userRealms.values().removeIf(entry -> entry.value.equals(realm));
+            userAssetIds.clear();
+        }
+    }
+
+    public void invalidateUser(String userId) {
+        LOG.finest("Invalidating user: " + userId);
+        generation.incrementAndGet();
+        userRealms.remove(userId);
+        userAssetIds.remove(userId);
+    }
+
+    public void invalidateUserAssets(String userId) {
+        LOG.finest("Invalidating user asset links of user: " + userId);
+        generation.incrementAndGet();
+        userAssetIds.remove(userId);
+    }
+
+    public void invalidateAsset(String assetId) {
+        LOG.finest("Invalidating user asset links of asset: " + assetId);
+        generation.incrementAndGet();
+        userAssetIds.values().removeIf(entry -> entry.value.contains(assetId));
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        realms.clear();
+        userRealms.clear();
+        userAssetIds.clear();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public int getSize() {
+        return realms.size() + userRealms.size() + userAssetIds.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "ttlMillis=" + ttlMillis +
+            ", size=" + getSize() +
+            ", hitCount=" + getHitCount() +
+            ", missCount=" + getMissCount() +
+            '}';
+    }
+}
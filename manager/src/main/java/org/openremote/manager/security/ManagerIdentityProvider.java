@@ -301,6 +301,13 @@ public interface ManagerIdentityProvider extends IdentityProvider {
         });
     }
 
+    static String getUserRealmFromDb(PersistenceService persistenceService, String userId) {
+        return persistenceService.doReturningTransaction(em -> {
+            User user = em.find(User.class, userId);
+            return user != null ? user.getRealm() : null;
+        });
+    }
+
     static boolean userInRealmFromDb(PersistenceService persistenceService, String userId, String realm) {
         return persistenceService.doReturningTransaction(em -> {
             User user = em.find(User.class, userId);
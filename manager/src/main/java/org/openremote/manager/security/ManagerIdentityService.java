@@ -28,15 +28,31 @@ import org.openremote.model.Container;
 import java.util.Locale;
 import java.util.logging.Logger;
 
+import static org.openremote.container.util.MapAccess.getInteger;
+
 public class ManagerIdentityService extends IdentityService {
 
     private static final Logger LOG = Logger.getLogger(ManagerIdentityService.class.getName());
+    /**
+     * The time to live of the realms, user realms and user asset links cached for authorization; changes made by the
+     * manager invalidate these immediately so this only limits how long changes made directly in Keycloak can go
+     * unnoticed. Set to 0 to disable the cache.
+     */
+    public static final String OR_AUTHORIZATION_CACHE_TTL_MILLIS = "OR_AUTHORIZATION_CACHE_TTL_MILLIS";
+    public static final int OR_AUTHORIZATION_CACHE_TTL_MILLIS_DEFAULT = 60000;
 
     protected ManagerIdentityProvider identityProvider;
     protected PersistenceService persistenceService;
+    protected AuthorizationCache authorizationCache;
 
     @Override
     public void init(Container container) throws Exception {
+        // The identity provider uses the cache during initialisation
+        int authorizationCacheTtlMillis = getInteger(container.getConfig(), OR_AUTHORIZATION_CACHE_TTL_MILLIS, OR_AUTHORIZATION_CACHE_TTL_MILLIS_DEFAULT);
+        if (authorizationCacheTtlMillis > 0) {
+            authorizationCache = new AuthorizationCache(authorizationCacheTtlMillis);
+        }
+
         super.init(container);
         persistenceService = container.getService(PersistenceService.class);
 
@@ -52,6 +68,13 @@ public class ManagerIdentityService extends IdentityService {
         return identityProvider;
     }
 
+    /**
+     * @return the cache of authorization state or <code>null</code> if it is disabled.
+     */
+    public AuthorizationCache getAuthorizationCache() {
+        return authorizationCache;
+    }
+
     @Override
     public ManagerIdentityProvider createIdentityProvider(Container container, String identityProviderType) {
         if (identityProvider == null) {
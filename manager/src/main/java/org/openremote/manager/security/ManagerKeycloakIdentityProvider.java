@@ -105,6 +105,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
     protected ConsoleAppService consoleAppService;
+    protected AuthorizationCache authorizationCache;
     protected String keycloakAdminPassword;
     protected Container container;
     protected String frontendUrl;
@@ -146,6 +147,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         clientEventService = container.getService(ClientEventService.class);
         consoleAppService = container.getService(ConsoleAppService.class);
         assetStorageService = container.getService(AssetStorageService.class);
+        authorizationCache = container.getService(ManagerIdentityService.class).getAuthorizationCache();
 
         // Allow all external hostnames with wildcard and same host with wildcard
         validRedirectUris = new ArrayList<>();
@@ -387,6 +389,11 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         });
 
         persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.DELETE, null, user, User.getPropertyFields());
+
+        // Don't wait for the persistence event so the deletion is visible to the next authorization
+        if (authorizationCache != null) {
+            authorizationCache.invalidateUser(userId);
+        }
     }
 
     @Override
@@ -772,9 +779,25 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         return ManagerIdentityProvider.getRealmsFromDb(persistenceService);
     }
 
+    /**
+     * Realms are read through the {@link AuthorizationCache} when it is enabled; a copy of the cached realm is returned
+     * so callers can modify it without changing the cached authorization state.
+     */
     @Override
     public Realm getRealm(String realm) {
+        Realm cachedRealm = getCachedRealm(realm);
+        return authorizationCache != null ? ValueUtil.clone(cachedRealm) : cachedRealm;
+    }
+
+    /**
+     * @return The realm read through the {@link AuthorizationCache} when it is enabled, which is shared so must only be
+     * read.
+     */
+    protected Realm getCachedRealm(String realm) {
         try {
+            if (authorizationCache != null) {
+                return authorizationCache.getRealm(realm, name -> ManagerIdentityProvider.getRealmFromDb(persistenceService, name));
+            }
             return ManagerIdentityProvider.getRealmFromDb(persistenceService, realm);
         } catch (Exception ex) {
             LOG.log(Level.INFO, "Failed to get realm by name: " + realm, ex);
@@ -803,7 +826,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
 
             String realmName = realmRepresentation.getRealm();
             RealmResource realmResource = realmsResource.realm(realmName);
-            Realm existingRealm = getRealm(realmName);
+            Realm existingRealm = ManagerIdentityProvider.getRealmFromDb(persistenceService, realmName);
 
             // Realm only has a subset of realm representation so overlay on actual realm representation
             realmRepresentation.setDisplayName(realm.getDisplayName());
@@ -848,6 +871,11 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
             updatedRealm.setName(realmRepresentation.getRealm());
             updatedRealm.setRealmRoles((realm.getRealmRoles() == null) ? existingRealmRoles : realm.getNormalisedRealmRoles());
             persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.UPDATE, updatedRealm, existingRealm, Realm.getPropertyFields());
+
+            // Don't wait for the persistence event so a disabled realm is visible to the next authorization
+            if (authorizationCache != null) {
+                authorizationCache.invalidateRealm(realmName, false);
+            }
             return null;
         });
     }
@@ -941,6 +969,10 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
                 return null;
             });
             persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.DELETE, null, realm, Realm.getPropertyFields());
+
+            if (authorizationCache != null) {
+                authorizationCache.invalidateRealm(realmName, true);
+            }
         });
     }
 
@@ -1099,7 +1131,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
      */
     @Override
     public boolean isRealmActiveAndAccessible(AuthContext authContext, String realm) {
-        return isRealmActiveAndAccessible(authContext, getRealm(realm));
+        return isRealmActiveAndAccessible(authContext, getCachedRealm(realm));
     }
 
     @Override
@@ -1114,6 +1146,9 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
 
     @Override
     public boolean isUserInRealm(String userId, String realm) {
+        if (authorizationCache != null) {
+            return realm != null && realm.equals(authorizationCache.getUserRealm(userId, id -> ManagerIdentityProvider.getUserRealmFromDb(persistenceService, id)));
+        }
         return ManagerIdentityProvider.userInRealmFromDb(persistenceService, userId, realm);
     }
 
@@ -40,7 +40,8 @@ import java.util.List;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.AGENT;
+import static org.openremote.container.concurrent.KeyedLockManager.withLockReturning;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.manager.event.ClientEventService.getSessionKey;
 
@@ -144,7 +145,7 @@ public class SimulatorService extends RouteBuilder implements ContainerService {
      * Get info about all attributes linked to this instance (for frontend usage)
      */
     protected SimulatorState getSimulatorState(SimulatorProtocol protocolInstance) {
-        return withLockReturning(protocolInstance.getProtocolInstanceUri() + "::getSimulatorInfo", () -> {
+        return withLockReturning(AGENT, protocolInstance.getAgent().getId(), protocolInstance.getProtocolInstanceUri() + "::getSimulatorInfo", () -> {
             LOG.info("Getting simulator info for protocol instance: " + protocolInstance);
 
             // We need asset names instead of identifiers for user-friendly display
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.system;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.container.message.GovernedQueue;
+import org.openremote.container.message.MessageBrokerService;
+import org.openremote.model.Container;
+import org.openremote.model.ContainerService;
+import org.openremote.model.system.HealthStatusProvider;
+import org.openremote.model.util.ValueUtil;
+
+public class MessageQueueHealthStatusProvider implements HealthStatusProvider, ContainerService {
+
+    public static final String NAME = "messageQueues";
+    public static final String VERSION = "1.0";
+    protected MessageBrokerService messageBrokerService;
+
+    @Override
+    public int getPriority() {
+        return ContainerService.DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public void init(Container container) throws Exception {
+        messageBrokerService = container.getService(MessageBrokerService.class);
+    }
+
+    @Override
+    public void start(Container container) throws Exception {
+
+    }
+
+    @Override
+    public void stop(Container container) throws Exception {
+
+    }
+
+    @Override
+    public String getHealthStatusName() {
+        return NAME;
+    }
+
+    @Override
+    public String getHealthStatusVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getHealthStatus() {
+        ObjectNode value = ValueUtil.JSON.createObjectNode();
+        ArrayNode overWatermark = value.putArray("overWatermark");
+        ObjectNode queues = value.putObject("queues");
+
+        for (GovernedQueue queue : messageBrokerService.getQueues()) {
+            if (queue.isOverWatermark()) {
+                overWatermark.add(queue.getName());
+            }
+            queues.putObject(queue.getName())
+                .put("policy", queue.getPolicy().name())
+                .put("depth", queue.size())
+                .put("maxDepth", queue.getMaxDepth())
+                .put("capacity", queue.getCapacity())
+                .put("highWatermark", queue.getHighWatermark())
+                .put("overWatermark", queue.isOverWatermark())
+                .put("enqueued", queue.getEnqueuedCount())
+                .put("dequeued", queue.getDequeuedCount())
+                .put("throughputPerSecond", queue.sampleThroughput())
+                .put("dropped", queue.getDroppedCount())
+                .put("coalesced", queue.getCoalescedCount())
+                .put("rejected", queue.getRejectedCount());
+        }
+
+        value.put("status", overWatermark.isEmpty() ? "OK" : "WARNING");
+        return value;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+  ############################# PARTITION ASSET_DATAPOINT #############################
+
+  Converts ASSET_DATAPOINT to a table that is range partitioned by TIMESTAMP, with monthly partitions covering the
+  existing data (at most the last 3 years) and the next few months; further partitions are created by the
+  DatapointPartitionManager. Rows that fall outside of any partition are stored in the default partition.
+ */
+alter table ASSET_DATAPOINT rename to ASSET_DATAPOINT_OLD;
+alter table ASSET_DATAPOINT_OLD rename constraint ASSET_DATAPOINT_PKEY to ASSET_DATAPOINT_OLD_PKEY;
+
+create table ASSET_DATAPOINT (
+  TIMESTAMP      timestamp                  not null,
+  ENTITY_ID      varchar(22)                not null,
+  ATTRIBUTE_NAME varchar(255)               not null,
+  VALUE          jsonb                      not null,
+  primary key (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME)
+) partition by range (TIMESTAMP);
+
+alter table ASSET_DATAPOINT
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+create index ASSET_DATAPOINT_ENTITY_ID_ATTRIBUTE_NAME_TIMESTAMP_IDX on ASSET_DATAPOINT (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP);
+
+create table ASSET_DATAPOINT_DEFAULT partition of ASSET_DATAPOINT default;
+
+do $$
+declare
+  PARTITION_START timestamp;
+begin
+  PARTITION_START := date_trunc('month', greatest(
+    coalesce((select min(TIMESTAMP) from ASSET_DATAPOINT_OLD), now()::timestamp),
+    now()::timestamp - interval '3 year'
+  ));
+  while PARTITION_START < date_trunc('month', now()::timestamp) + interval '3 month' loop
+    execute format(
+      'create table %I partition of ASSET_DATAPOINT for values from (%L) to (%L)',
+      'asset_datapoint_p' || to_char(PARTITION_START, 'YYYYMMDD'),
+      PARTITION_START,
+      PARTITION_START + interval '1 month'
+    );
+    PARTITION_START := PARTITION_START + interval '1 month';
+  end loop;
+end $$;
+
+insert into ASSET_DATAPOINT (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE)
+  select TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE from ASSET_DATAPOINT_OLD;
+
+drop table ASSET_DATAPOINT_OLD;
@@ -0,0 +1,25 @@
+/*
+  ############################# ATTRIBUTE EVENT JOURNAL #############################
+
+  The keys of the journaled attribute events that have been processed, written in the processing transaction so an
+  event that is replayed from the journal after its processing was committed is not processed again. Keys of events
+  that are complete in the journal are deleted by the AssetProcessingService.
+ */
+create table ATTRIBUTE_EVENT_JOURNAL_KEY (
+  JOURNAL_ID varchar(36) not null,
+  SEQUENCE   int8        not null,
+  primary key (JOURNAL_ID, SEQUENCE)
+);
+
+/*
+  Attribute events that failed processing whilst the journal is enabled, they can be re-injected through the REST API.
+ */
+create table ATTRIBUTE_EVENT_DEAD_LETTER (
+  ID        bigserial                not null,
+  TIMESTAMP timestamp with time zone not null,
+  SOURCE    varchar(20)              not null,
+  FAILURE   varchar(64)              not null,
+  MESSAGE   varchar(4096),
+  EVENT     jsonb                    not null,
+  primary key (ID)
+);
@@ -0,0 +1,73 @@
+/*
+  ############################# ASSET_DATAPOINT ROLLUPS #############################
+
+  Hourly and daily aggregates of ASSET_DATAPOINT that are maintained by the DatapointRollupManager, so interval
+  queries over long periods don't have to scan the raw datapoints. Numeric aggregates are of the numeric value of a
+  datapoint (see DATAPOINT_NUMBER_VALUE); the average of a bucket is SUM_VALUE / NUMBER_COUNT. The daily rollup is
+  computed from the hourly rollup.
+ */
+create or replace function DATAPOINT_NUMBER_VALUE(VALUE jsonb)
+  returns numeric as
+$$
+select case jsonb_typeof(VALUE)
+         when 'number' then VALUE::text::numeric
+         when 'boolean' then case when VALUE::text::boolean then 1 else 0 end
+         end
+$$
+language sql immutable;
+
+create table ASSET_DATAPOINT_HOURLY (
+  ENTITY_ID       varchar(22)  not null,
+  ATTRIBUTE_NAME  varchar(255) not null,
+  BUCKET          timestamp    not null,
+  MIN_VALUE       numeric,
+  MAX_VALUE       numeric,
+  SUM_VALUE       numeric,
+  NUMBER_COUNT    bigint       not null,
+  VALUE_COUNT     bigint       not null,
+  FIRST_VALUE     jsonb        not null,
+  FIRST_TIMESTAMP timestamp    not null,
+  LAST_VALUE      jsonb        not null,
+  LAST_TIMESTAMP  timestamp    not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, BUCKET)
+);
+
+alter table ASSET_DATAPOINT_HOURLY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+create table ASSET_DATAPOINT_DAILY (like ASSET_DATAPOINT_HOURLY including all);
+
+alter table ASSET_DATAPOINT_DAILY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+insert into ASSET_DATAPOINT_HOURLY
+  select ENTITY_ID,
+         ATTRIBUTE_NAME,
+         date_trunc('hour', TIMESTAMP),
+         min(DATAPOINT_NUMBER_VALUE(VALUE)),
+         max(DATAPOINT_NUMBER_VALUE(VALUE)),
+         sum(DATAPOINT_NUMBER_VALUE(VALUE)),
+         count(DATAPOINT_NUMBER_VALUE(VALUE)),
+         count(*),
+         (array_agg(VALUE order by TIMESTAMP))[1],
+         min(TIMESTAMP),
+         (array_agg(VALUE order by TIMESTAMP desc))[1],
+         max(TIMESTAMP)
+  from ASSET_DATAPOINT
+  group by ENTITY_ID, ATTRIBUTE_NAME, date_trunc('hour', TIMESTAMP);
+
+insert into ASSET_DATAPOINT_DAILY
+  select ENTITY_ID,
+         ATTRIBUTE_NAME,
+         date_trunc('day', BUCKET),
+         min(MIN_VALUE),
+         max(MAX_VALUE),
+         sum(SUM_VALUE),
+         sum(NUMBER_COUNT),
+         sum(VALUE_COUNT),
+         (array_agg(FIRST_VALUE order by FIRST_TIMESTAMP))[1],
+         min(FIRST_TIMESTAMP),
+         (array_agg(LAST_VALUE order by LAST_TIMESTAMP desc))[1],
+         max(LAST_TIMESTAMP)
+  from ASSET_DATAPOINT_HOURLY
+  group by ENTITY_ID, ATTRIBUTE_NAME, date_trunc('day', BUCKET);
@@ -0,0 +1,4 @@
+/*
+  Supports keyset pagination of asset queries, which are ordered by CREATED_ON and ID.
+ */
+create index ASSET_CREATED_ON_ID_IDX on ASSET (CREATED_ON, ID);
@@ -20,6 +20,7 @@
 package org.openremote.model.asset;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -280,6 +281,21 @@ public interface AssetResource {
     @Produces(APPLICATION_JSON)
     Asset<?>[] queryAssets(@BeanParam RequestParams requestParams, AssetQuery query);
 
+    /**
+     * Retrieve assets using an {@link AssetQuery} like {@link #queryAssets}, the JSON array of assets is written as the
+     * assets are read from the database so large results don't have to be held in memory. Use {@link AssetQuery#limit}
+     * and {@link AssetQuery#after} to retrieve the results in pages.
+     */
+    @POST
+    @Path("query/stream")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @Operation(description = "Retrieve assets using an asset query as a stream", responses = {
+        @ApiResponse(
+            content = @Content(mediaType = "application/json",
+                array = @ArraySchema(schema = @Schema(implementation = Asset.class))))})
+    Response queryAssetsStream(@BeanParam RequestParams requestParams, AssetQuery query);
+
     /**
      * Change parent for a set of asset
      */
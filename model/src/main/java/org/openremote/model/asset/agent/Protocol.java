@@ -76,9 +76,10 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * #SENSOR_QUEUE_SOURCE_PROTOCOL}.
  * <p>
  * If the user writes a new value into the linked attribute, the protocol translates this value change into a device (or
- * service) action. Write operations on attributes linked to an {@link Agent} can be consumed by the agent's protocol on
- * the {@link #ACTUATOR_TOPIC} where the message body will be an {@link AttributeEvent}. Each message also contains the
- * target protocol name in header {@link #ACTUATOR_TOPIC_TARGET_PROTOCOL}.
+ * service) action. Write operations on attributes linked to an {@link Agent} are handed to the agent's protocol
+ * instance with {@link #processLinkedAttributeWrite}, one at a time and in order. Messages sent on the
+ * {@link #ACTUATOR_TOPIC}, with an {@link AttributeEvent} body and the target protocol instance in header
+ * {@link #ACTUATOR_TOPIC_TARGET_PROTOCOL}, are handed to the protocol instance in the same way.
  * <p>
  * To simplify protocol development some common protocol behaviour is recommended for generic protocols:
  * <h1>Inbound value conversion (Protocol -> Linked Attribute)</h1>
@@ -209,6 +210,12 @@ public interface Protocol<T extends Agent<T, ?, ?>> {
      */
     void unlinkAttribute(String assetId, Attribute<?> attribute) throws Exception;
 
+    /**
+     * Writes the value of the {@link AttributeEvent} of an attribute linked to this protocol instance to the device (or
+     * service). Writes are not called concurrently for the same protocol instance.
+     */
+    void processLinkedAttributeWrite(AttributeEvent event);
+
     /**
      * Called before any calls to {@link #linkAttribute} to allow the protocol to perform required tasks with {@link
      * ContainerService}s (e.g. register Camel routes). The protocol instance should validate the settings defined in
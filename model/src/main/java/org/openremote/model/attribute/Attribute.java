@@ -225,6 +225,28 @@ public class Attribute<T> extends AbstractNameValueHolder<T> implements MetaHold
             );
     }
 
+    /**
+     * @return a copy of this attribute that can be changed independently; the value is copied with
+     * {@link ValueUtil#copy} and the meta items are only copied when the meta of either attribute is changed.
+     */
+    public Attribute<T> snapshot() {
+        return snapshot(ValueUtil.copy(value), timestamp);
+    }
+
+    /**
+     * @return a copy of this attribute with the supplied value and timestamp, the current value is not copied and the
+     * meta items are only copied when the meta of either attribute is changed.
+     */
+    public Attribute<T> snapshot(T value, long timestamp) {
+        Attribute<T> snapshot = new Attribute<>();
+        snapshot.name = name;
+        snapshot.type = type;
+        snapshot.value = value;
+        snapshot.timestamp = timestamp;
+        snapshot.meta = meta != null ? meta.snapshot() : null;
+        return snapshot;
+    }
+
     // For JPA/Hydrators
     void setNameInternal(String name) {
         this.name = name;
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.attribute;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * An {@link AttributeEvent} that failed processing, kept so it can be inspected and re-injected.
+ */
+public class AttributeEventDeadLetter {
+
+    protected long id;
+    protected long timestamp;
+    protected AttributeEvent event;
+    protected AttributeEvent.Source source;
+    protected AttributeWriteFailure failure;
+    protected String message;
+
+    @JsonCreator
+    public AttributeEventDeadLetter(@JsonProperty("id") long id,
+                                    @JsonProperty("timestamp") long timestamp,
+                                    @JsonProperty("event") AttributeEvent event,
+                                    @JsonProperty("source") AttributeEvent.Source source,
+                                    @JsonProperty("failure") AttributeWriteFailure failure,
+                                    @JsonProperty("message") String message) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.event = event;
+        this.source = source;
+        this.failure = failure;
+        this.message = message;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the time the event failed.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public AttributeEvent getEvent() {
+        return event;
+    }
+
+    public AttributeEvent.Source getSource() {
+        return source;
+    }
+
+    public AttributeWriteFailure getFailure() {
+        return failure;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "id=" + id +
+            ", timestamp=" + timestamp +
+            ", event=" + event +
+            ", source=" + source +
+            ", failure=" + failure +
+            ", message='" + message + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.attribute;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.openremote.model.Constants;
+import org.openremote.model.http.RequestParams;
+
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.*;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+/**
+ * Attribute events that failed processing whilst the attribute event journal is enabled; only available to the super
+ * user.
+ */
+@Tag(name = "Dead letter")
+@Path("deadletter")
+public interface AttributeEventDeadLetterResource {
+
+    /**
+     * Get the oldest dead letters, at most the limit (default 100).
+     */
+    @GET
+    @Produces(APPLICATION_JSON)
+    @RolesAllowed({Constants.READ_ADMIN_ROLE})
+    AttributeEventDeadLetter[] getDeadLetters(@BeanParam RequestParams requestParams, @QueryParam("limit") Integer limit);
+
+    /**
+     * Remove the dead letter and process its event again with the original source and timestamp, if processing fails
+     * again a new dead letter is created. A {@link AttributeEvent.Source#CLIENT} event is processed with the
+     * authorization of the caller.
+     */
+    @POST
+    @Path("{id}/reinject")
+    @Produces(APPLICATION_JSON)
+    @RolesAllowed({Constants.WRITE_ADMIN_ROLE})
+    AttributeWriteResult reinjectDeadLetter(@BeanParam RequestParams requestParams, @PathParam("id") Long id);
+
+    @DELETE
+    @Path("{id}")
+    @RolesAllowed({Constants.WRITE_ADMIN_ROLE})
+    void deleteDeadLetter(@BeanParam RequestParams requestParams, @PathParam("id") Long id);
+}
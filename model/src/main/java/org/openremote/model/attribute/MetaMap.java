@@ -109,16 +109,36 @@ public class MetaMap extends NamedMap<MetaItem<?>> {
     }
 
     public <S> MetaItem<S> getOrCreate(MetaItemDescriptor<S> metaDescriptor) {
+        // The returned item can be changed by the caller so it mustn't be shared
+        mutableDelegate();
         MetaItem<S> metaItem = get(metaDescriptor).orElse(new MetaItem<>(metaDescriptor));
         addOrReplace(metaItem);
         return metaItem;
     }
 
     public <T> void set(MetaItemDescriptor<T> descriptor, T value) {
+        mutableDelegate();
         MetaItem<T> metaItem = get(descriptor).orElse(new MetaItem<>(descriptor, null));
         metaItem.setValue(value);
     }
 
+    /**
+     * @return a map with the same items as this map, the items are only copied when either map is changed.
+     */
+    public MetaMap snapshot() {
+        return snapshotInto(new MetaMap());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    protected MetaItem<?> copyItem(MetaItem<?> item) {
+        MetaItem copy = new MetaItem<>();
+        copy.setNameInternal(item.getName());
+        copy.setTypeInternal(item.getType());
+        copy.setValue(ValueUtil.copy(item.getValue().orElse(null)));
+        return copy;
+    }
+
     /**
      * Need to declare equals here as {@link com.vladmihalcea.hibernate.type.json.internal.JsonTypeDescriptor} uses
      * {@link Class#getDeclaredMethod} to find it...
@@ -21,6 +21,7 @@ package org.openremote.model.attribute;
 
 import com.google.common.collect.ForwardingMap;
 import org.openremote.model.value.AbstractNameValueDescriptorHolder;
+import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.AbstractNameValueHolder;
 import org.openremote.model.value.NameHolder;
 import org.openremote.model.value.ValueHolder;
@@ -28,16 +29,22 @@ import org.openremote.model.value.ValueHolder;
 import javax.validation.constraints.NotNull;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 /**
  * Special map for {@link NameHolder} items where item names are used as map keys.
+ * <p>
+ * A map can share its items with a snapshot (see {@link MetaMap#snapshot}) until either of them is changed, the map
+ * that is changed first copies the items before the change is made. Whilst items are shared the collection views are
+ * read only and items must only be changed through the map (e.g. {@link #addOrReplace}) and not directly.
  */
 public class NamedMap<T extends AbstractNameValueHolder<?>> extends ForwardingMap<String, T> implements Serializable {
 
     protected Map<String, T> delegate = new HashMap<>();
+    protected transient boolean shared;
 
     public NamedMap() {
     }
@@ -57,6 +64,37 @@ public class NamedMap<T extends AbstractNameValueHolder<?>> extends ForwardingMa
         return delegate;
     }
 
+    /**
+     * Makes the supplied empty map share the items of this map.
+     */
+    protected <M extends NamedMap<T>> M snapshotInto(M snapshot) {
+        shared = true;
+        snapshot.delegate = delegate;
+        snapshot.shared = true;
+        return snapshot;
+    }
+
+    /**
+     * @return the delegate to be changed, copying the items first if they are shared with a snapshot.
+     */
+    protected Map<String, T> mutableDelegate() {
+        if (shared) {
+            Map<String, T> copy = new HashMap<>();
+            delegate.forEach((name, item) -> copy.put(name, copyItem(item)));
+            delegate = copy;
+            shared = false;
+        }
+        return delegate;
+    }
+
+    protected T copyItem(T item) {
+        return ValueUtil.clone(item);
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
     public T put(T value) {
         return this.put(value.getName(), value);
     }
@@ -66,11 +104,41 @@ public class NamedMap<T extends AbstractNameValueHolder<?>> extends ForwardingMa
         if (!Objects.equals(key, value.getName())) {
             throw new IllegalStateException("Item key and value name must match: key=" + key + ", name=" + value.getName());
         }
-        return super.put(key, value);
+        return mutableDelegate().put(key, value);
     }
 
     protected T putSilent(T value) {
-        return super.put(value.getName(), value);
+        return mutableDelegate().put(value.getName(), value);
+    }
+
+    @Override
+    public T remove(Object key) {
+        return mutableDelegate().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mutableDelegate().clear();
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super T, ? extends T> function) {
+        mutableDelegate().replaceAll(function);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return shared ? Collections.unmodifiableSet(delegate.keySet()) : delegate.keySet();
+    }
+
+    @Override
+    public Collection<T> values() {
+        return shared ? Collections.unmodifiableCollection(delegate.values()) : delegate.values();
+    }
+
+    @Override
+    public Set<Entry<String, T>> entrySet() {
+        return shared ? Collections.unmodifiableSet(delegate.entrySet()) : delegate.entrySet();
     }
 
     @Override
@@ -172,6 +240,6 @@ public class NamedMap<T extends AbstractNameValueHolder<?>> extends ForwardingMa
     }
 
     public void removeIf(Predicate<? super T> filter) {
-        values().removeIf(filter);
+        mutableDelegate().values().removeIf(filter);
     }
 }
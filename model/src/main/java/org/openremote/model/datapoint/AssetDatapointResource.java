@@ -39,6 +39,9 @@ public interface AssetDatapointResource {
      * regular user tries to access an asset in a realm different than its authenticated realm, or if the user is
      * restricted and the asset is not linked to the user. A 400 status is returned if the asset attribute does
      * not have datapoint storage enabled.
+     * <p>
+     * Datapoints of number and boolean attributes are averaged per interval unless another {@link DatapointDecimation}
+     * is requested; the point budget of the decimation is the max points or else derived from the interval.
      */
     @GET
     @Path("{assetId}/attribute/{attributeName}")
@@ -49,6 +52,8 @@ public interface AssetDatapointResource {
                                    @PathParam("attributeName") String attributeName,
                                    @QueryParam("interval") DatapointInterval datapointInterval,
                                    @QueryParam("step") Integer stepSize,
+                                   @QueryParam("decimation") DatapointDecimation decimation,
+                                   @QueryParam("maxPoints") Integer maxPoints,
                                    @QueryParam("fromTimestamp") long fromTimestamp,
                                    @QueryParam("toTimestamp") long toTimestamp);
 
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+/**
+ * How the datapoints of a number or boolean attribute are reduced when querying them with an interval or a point
+ * budget.
+ */
+public enum DatapointDecimation {
+
+    /**
+     * The average of each interval.
+     */
+    AVERAGE,
+
+    /**
+     * The datapoints with the minimum and maximum value of each bucket, so spikes are kept.
+     */
+    MIN_MAX,
+
+    /**
+     * The first and last datapoint of each bucket.
+     */
+    FIRST_LAST,
+
+    /**
+     * Largest-Triangle-Three-Buckets; one datapoint of each bucket chosen to best keep the visual shape of the data.
+     */
+    LTTB
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.protocol;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.asset.agent.AgentLink;
+import org.openremote.model.asset.agent.Protocol;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.AttributeExecuteStatus;
+import org.openremote.model.attribute.AttributeLink;
+import org.openremote.model.util.TextUtil;
+import org.openremote.model.util.TsIgnore;
+import org.openremote.model.util.ValueUtil;
+import org.openremote.model.value.ValueFilter;
+import org.openremote.model.value.ValueType;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.openremote.model.asset.agent.Protocol.DYNAMIC_VALUE_PLACEHOLDER_REGEXP;
+import static org.openremote.model.util.ValueUtil.NULL_LITERAL;
+
+/**
+ * The standard inbound and outbound value processing of a linked {@link Attribute} (see
+ * {@link ProtocolUtil#doInboundValueProcessing} and {@link ProtocolUtil#doOutboundValueProcessing}) prepared once when
+ * the attribute is linked: the value converters are turned into lookup tables, the attribute value type is resolved and
+ * the write value is split around the {@link Protocol#DYNAMIC_VALUE_PLACEHOLDER}, so processing a value is a straight
+ * sequence of calls. {@link #IGNORE} is returned when the value should be ignored.
+ */
+@TsIgnore
+public class AgentLinkPipeline {
+
+    /**
+     * Returned by {@link #processInbound} and {@link #processOutbound} when the value should be ignored
+     */
+    public static final Object IGNORE = new Object();
+    protected static final Pattern DYNAMIC_VALUE_PATTERN = Pattern.compile(DYNAMIC_VALUE_PLACEHOLDER_REGEXP);
+    protected final String assetId;
+    protected final String attributeName;
+    protected final Class<?> attributeType;
+    protected final boolean executable;
+    protected final ValueFilter[] valueFilters;
+    protected final ValueConverter valueConverter;
+    protected final ValueConverter writeValueConverter;
+    protected final String writeValue;
+    protected final String[] writeValueParts;
+
+    /**
+     * A value converter {@link ObjectNode} as a lookup table of converted values.
+     */
+    protected static class ValueConverter {
+
+        protected static final Object NULL = new Object();
+        protected final Map<String, Object> convertedValues = new HashMap<>();
+        protected final JsonNode defaultValue;
+        protected final boolean negate;
+
+        protected ValueConverter(ObjectNode converter) {
+            converter.fields().forEachRemaining(field -> convertedValues.put(field.getKey(), toConvertedValue(field.getValue())));
+            defaultValue = converter.get("*");
+            negate = defaultValue != null
+                && defaultValue.getNodeType() == JsonNodeType.STRING
+                && AttributeLink.ConverterType.NEGATE.getValue().equals(defaultValue.textValue());
+        }
+
+        protected static Object toConvertedValue(JsonNode node) {
+            if (node.getNodeType() == JsonNodeType.STRING) {
+                if ("@IGNORE".equalsIgnoreCase(node.textValue())) {
+                    return IGNORE;
+                }
+
+                if ("@NULL".equalsIgnoreCase(node.textValue())) {
+                    return NULL;
+                }
+            }
+            return node;
+        }
+
+        protected Object convert(Object value) {
+            String valueStr = value instanceof String str ? str : ValueUtil.getValueCoerced(value, String.class).orElse(null);
+            Object convertedValue = convertedValues.get(valueStr != null ? valueStr.toUpperCase(Locale.ROOT) : "NULL");
+
+            if (convertedValue != null) {
+                return convertedValue == NULL ? null : convertedValue;
+            }
+
+            if (defaultValue == null) {
+                return IGNORE;
+            }
+
+            if (negate && value != null) {
+                if (ValueUtil.isNumber(value.getClass())) {
+                    return ValueUtil.getValueCoerced(value, Double.class).orElse(0D) * -1;
+                }
+                if (ValueUtil.isBoolean(value.getClass())) {
+                    return !(ValueUtil.getValueCoerced(value, Boolean.class).orElse(false));
+                }
+            }
+            return defaultValue;
+        }
+    }
+
+    public AgentLinkPipeline(String assetId, Attribute<?> attribute, AgentLink<?> agentLink) {
+        this(assetId, attribute, agentLink, ProtocolUtil.hasDynamicWriteValue(agentLink));
+    }
+
+    /**
+     * @param containsDynamicPlaceholder whether the write value of the agent link contains the
+     *                                   {@link Protocol#DYNAMIC_VALUE_PLACEHOLDER}.
+     */
+    public AgentLinkPipeline(String assetId, Attribute<?> attribute, AgentLink<?> agentLink, boolean containsDynamicPlaceholder) {
+        this.assetId = assetId;
+        this.attributeName = attribute.getName();
+        this.attributeType = attribute.getType().getType();
+        this.executable = attribute.getType().equals(ValueType.EXECUTION_STATUS);
+        this.valueFilters = agentLink.getValueFilters().orElse(null);
+        this.valueConverter = agentLink.getValueConverter().map(ValueConverter::new).orElse(null);
+        this.writeValueConverter = agentLink.getWriteValueConverter().map(ValueConverter::new).orElse(null);
+        this.writeValue = agentLink.getWriteValue().orElse(null);
+        this.writeValueParts = !TextUtil.isNullOrEmpty(writeValue) && containsDynamicPlaceholder
+            ? DYNAMIC_VALUE_PATTERN.split(writeValue, -1)
+            : null;
+    }
+
+    /**
+     * Processes a value received by the protocol (Protocol -> Linked Attribute); returns the value for the linked
+     * attribute or {@link #IGNORE} if the value should be ignored (i.e. drop the inbound message).
+     */
+    public Object processInbound(Object value) {
+
+        // value filtering
+        if (valueFilters != null) {
+            value = ValueUtil.applyValueFilters(value, valueFilters);
+            if (value == null) {
+                Protocol.LOG.info("Value filters generated a null value for attribute: assetId=" + assetId + ", attribute=" + attributeName);
+            }
+        }
+
+        // value conversion
+        if (valueConverter != null) {
+            value = valueConverter.convert(value);
+            if (value == IGNORE) {
+                return IGNORE;
+            }
+        }
+
+        if (value == null) {
+            return null;
+        }
+
+        // built in value conversion
+        if (attributeType != value.getClass()) {
+            Object convertedValue = ValueUtil.getValueCoerced(value, attributeType).orElse(null);
+
+            if (convertedValue == null) {
+                Protocol.LOG.warning("Failed to convert value: " + value.getClass() + " -> " + attributeType);
+                Protocol.LOG.warning("Cannot send linked attribute update");
+            }
+            value = convertedValue;
+        }
+
+        return value;
+    }
+
+    /**
+     * Processes a value written to the linked attribute (Linked Attribute -> Protocol); returns the value to write to
+     * the protocol or {@link #IGNORE} if the value should not be written.
+     */
+    public Object processOutbound(Object value) {
+
+        // Check if attribute type is executable
+        if (executable && writeValue != null) {
+            AttributeExecuteStatus status = ValueUtil.getValueCoerced(value, AttributeExecuteStatus.class).orElse(null);
+
+            if (status == AttributeExecuteStatus.REQUEST_START) {
+                return writeValue;
+            }
+        }
+
+        // value conversion
+        if (writeValueConverter != null) {
+            value = writeValueConverter.convert(value);
+            if (value == IGNORE) {
+                return IGNORE;
+            }
+        }
+
+        if (TextUtil.isNullOrEmpty(writeValue)) {
+            return value;
+        }
+
+        if (writeValueParts == null) {
+            return writeValue;
+        }
+
+        // dynamic value insertion
+        String valueStr = value == null ? null : ValueUtil.convert(value, String.class);
+        if (valueStr == null) {
+            valueStr = NULL_LITERAL;
+        }
+        StringBuilder sb = new StringBuilder(writeValue.length() + (writeValueParts.length - 1) * valueStr.length());
+        sb.append(writeValueParts[0]);
+        for (int i = 1; i < writeValueParts.length; i++) {
+            sb.append(valueStr).append(writeValueParts[i]);
+        }
+        return sb.toString();
+    }
+}
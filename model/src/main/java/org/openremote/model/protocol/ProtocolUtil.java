@@ -27,7 +27,6 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.openremote.model.asset.agent.AgentLink;
 import org.openremote.model.asset.agent.Protocol;
 import org.openremote.model.attribute.Attribute;
-import org.openremote.model.attribute.AttributeExecuteStatus;
 import org.openremote.model.attribute.AttributeLink;
 import org.openremote.model.attribute.AttributeState;
 import org.openremote.model.query.filter.ValuePredicate;
@@ -36,12 +35,11 @@ import org.openremote.model.util.TextUtil;
 import org.openremote.model.util.TsIgnore;
 import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.ValueFilter;
-import org.openremote.model.value.ValueType;
 
 import java.util.Locale;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 
@@ -88,50 +86,13 @@ public final class ProtocolUtil {
      * containsDynamicPlaceholder flag is required so that the entire write value string is not
      * searched on every single write request (for performance reasons), instead this should be recorded when the
      * attribute is first linked.
+     *
+     * @deprecated Prepares the processing again for every value; create an {@link AgentLinkPipeline} when the
+     * attribute is linked and use {@link AgentLinkPipeline#processOutbound} instead.
      */
+    @Deprecated
     public static Pair<Boolean, Object> doOutboundValueProcessing(String assetId, Attribute<?> attribute, AgentLink<?> agentLink, Object value, boolean containsDynamicPlaceholder) {
-
-        String writeValue = agentLink.getWriteValue().orElse(null);
-
-        Pair<Boolean, Object> ignoreAndConvertedValue;
-
-        // Check if attribute type is executable
-        if (attribute.getType().equals(ValueType.EXECUTION_STATUS)) {
-            AttributeExecuteStatus status = ValueUtil.getValueCoerced(value, AttributeExecuteStatus.class).orElse(null);
-
-            if (status == AttributeExecuteStatus.REQUEST_START && writeValue != null) {
-                value = writeValue;
-                return new Pair<>(false, value);
-            }
-        }
-
-        // value conversion
-        Object finalValue = value;
-        ignoreAndConvertedValue = agentLink.getWriteValueConverter().map(converter -> {
-            Protocol.LOG.finer("Applying attribute write value converter to attribute: assetId=" + assetId + ", attribute=" + attribute.getName());
-            return applyValueConverter(finalValue, converter);
-        }).orElse(new Pair<>(false, finalValue));
-
-        if (ignoreAndConvertedValue.key) {
-            return ignoreAndConvertedValue;
-        }
-
-        value = ignoreAndConvertedValue.value;
-
-        // dynamic value insertion
-
-        boolean hasWriteValue = !TextUtil.isNullOrEmpty(writeValue);
-
-        if (hasWriteValue) {
-            if (containsDynamicPlaceholder) {
-                String valueStr = value == null ? NULL_LITERAL : ValueUtil.convert(value, String.class);
-                writeValue = writeValue.replaceAll(Protocol.DYNAMIC_VALUE_PLACEHOLDER_REGEXP, valueStr);
-            }
-
-            value = writeValue;
-        }
-
-        return new Pair<>(false, value);
+        return toIgnoreAndValue(new AgentLinkPipeline(assetId, attribute, agentLink, containsDynamicPlaceholder).processOutbound(value));
     }
 
     public static boolean hasDynamicWriteValue(AgentLink<?> agentLink) {
@@ -141,53 +102,17 @@ public final class ProtocolUtil {
     /**
      * Will perform standard value processing for inbound values (Protocol -> Linked Attribute); returning the processed
      * value and a flag indicating whether the inbound value should be ignored (i.e. drop the inbound message).
+     *
+     * @deprecated Prepares the processing again for every value; create an {@link AgentLinkPipeline} when the
+     * attribute is linked and use {@link AgentLinkPipeline#processInbound} instead.
      */
+    @Deprecated
     public static Pair<Boolean, Object> doInboundValueProcessing(String assetId, Attribute<?> attribute, AgentLink<?> agentLink, Object value) {
+        return toIgnoreAndValue(new AgentLinkPipeline(assetId, attribute, agentLink).processInbound(value));
+    }
 
-        Pair<Boolean, Object> ignoreAndConvertedValue;
-        final AtomicReference<Object> valRef = new AtomicReference<>(value);
-
-        // value filtering
-        agentLink.getValueFilters().ifPresent(valueFilters -> {
-            Protocol.LOG.finer("Applying attribute value filters to attribute: assetId=" + assetId + ", attribute=" + attribute.getName());
-            Object o = ValueUtil.applyValueFilters(value, valueFilters);
-            if (o == null) {
-                Protocol.LOG.info("Value filters generated a null value for attribute: assetId=" + assetId + ", attribute=" + attribute.getName());
-            }
-            valRef.set(o);
-        });
-
-        // value conversion
-        ignoreAndConvertedValue = agentLink.getValueConverter().map(converter -> {
-            Protocol.LOG.finer("Applying attribute value converter to attribute: assetId=" + assetId + ", attribute=" + attribute.getName());
-            return applyValueConverter(valRef.get(), converter);
-        }).orElse(new Pair<>(false, valRef.get()));
-
-        if (ignoreAndConvertedValue.key) {
-            return ignoreAndConvertedValue;
-        }
-
-        valRef.set(ignoreAndConvertedValue.value);
-
-        if (valRef.get() == null) {
-            return new Pair<>(false, null);
-        }
-
-        // built in value conversion
-        Class<?> toType = attribute.getType().getType();
-        Class<?> fromType = valRef.get().getClass();
-
-        if (toType != fromType) {
-            Protocol.LOG.finer("Applying built in attribute value conversion: " + fromType + " -> " + toType);
-            valRef.set(ValueUtil.getValueCoerced(valRef.get(), toType).orElse(null));
-
-            if (valRef.get() == null) {
-                Protocol.LOG.warning("Failed to convert value: " + fromType + " -> " + toType);
-                Protocol.LOG.warning("Cannot send linked attribute update");
-            }
-        }
-
-        return new Pair<>(false, valRef.get());
+    protected static Pair<Boolean, Object> toIgnoreAndValue(Object processedValue) {
+        return processedValue == AgentLinkPipeline.IGNORE ? new Pair<>(true, null) : new Pair<>(false, processedValue);
     }
 
     @SuppressWarnings("unchecked")
@@ -239,11 +164,13 @@ public final class ProtocolUtil {
             return null;
         }
 
+        Predicate<Object> messagePredicate = matchPredicate.asPredicate(currentMillisSupplier);
+
         return message -> {
             if (!TextUtil.isNullOrEmpty(message)) {
                 Object messageFiltered = applyValueFilters(message, matchFilters);
                 if (messageFiltered != null) {
-                    if (matchPredicate.asPredicate(currentMillisSupplier).test(messageFiltered)) {
+                    if (messagePredicate.test(messageFiltered)) {
                         Protocol.LOG.finest("Inbound message meets attribute matching meta so writing state to state consumer for attribute: asssetId=" + assetId + ", attribute=" + attribute.getName());
                         stateConsumer.accept(new AttributeState(assetId, attribute.getName(), message));
                     }
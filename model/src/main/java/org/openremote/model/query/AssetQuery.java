@@ -105,6 +105,37 @@ public class AssetQuery implements Serializable {
         }
     }
 
+    /**
+     * A keyset pagination cursor; the results start after the asset with this creation time and ID. Requires the
+     * results to be ordered by {@link OrderBy.Property#CREATED_ON}, assets with the same creation time are ordered by
+     * ID so pages are stable when assets are added or removed between queries.
+     */
+    public static class Cursor {
+
+        public long createdOn;
+        public String id;
+
+        public Cursor() {
+        }
+
+        public Cursor(long createdOn, String id) {
+            this.createdOn = createdOn;
+            this.id = id;
+        }
+
+        public static Cursor after(Asset<?> asset) {
+            return new Cursor(asset.getCreatedOn().getTime(), asset.getId());
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                    "createdOn=" + createdOn +
+                    ", id='" + id + '\'' +
+                    '}';
+        }
+    }
+
     public enum Access {
         PRIVATE,
         PROTECTED,
@@ -192,6 +223,8 @@ public class AssetQuery implements Serializable {
     // Ordering
     public OrderBy orderBy;
     public int limit;
+    // Pagination
+    public Cursor after;
 
     public static class AssetClassToStringConverter extends StdConverter<Class<? extends Asset<?>>, String> {
 
@@ -380,6 +413,23 @@ public class AssetQuery implements Serializable {
         return this;
     }
 
+    public AssetQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public AssetQuery after(Cursor after) {
+        this.after = after;
+        return this;
+    }
+
+    /**
+     * Get the next page of results after the last asset of the previous page.
+     */
+    public AssetQuery after(Asset<?> asset) {
+        return after(Cursor.after(asset));
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -393,6 +443,8 @@ public class AssetQuery implements Serializable {
                 ", type=" + Arrays.toString(types) +
                 ", attribute=" + (attributes != null ? attributes.toString() : "null") +
                 ", orderBy=" + orderBy +
+                ", limit=" + limit +
+                ", after=" + after +
                 ", recursive=" + recursive +
                 '}';
     }
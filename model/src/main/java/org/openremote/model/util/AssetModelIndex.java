@@ -0,0 +1,188 @@
+/*
+ * Copyright 2023, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.util;
+
+import org.openremote.model.AssetModelProvider;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.syslog.SyslogCategory;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static org.openremote.model.syslog.SyslogCategory.MODEL_AND_VALUES;
+
+/**
+ * An index of the {@link Asset} classes in a JAR (or classes directory) that is generated at build time so the asset
+ * model can be initialised without scanning the classpath; the build runs {@link #main} on the compiled classes of
+ * each module that contains an {@link AssetModelProvider}.
+ * <p>
+ * The index is a text file at {@link #INDEX_RESOURCE} with the name of each class on a separate line; it must be in
+ * the same JAR as the {@link AssetModelProvider} that uses auto scan. If there is no index then the JAR is scanned
+ * (e.g. for custom JARs built without the index).
+ */
+public class AssetModelIndex {
+
+    public static final String INDEX_RESOURCE = "META-INF/openremote/asset-model.index";
+    protected static final Logger LOG = SyslogCategory.getLogger(MODEL_AND_VALUES, AssetModelIndex.class);
+
+    protected AssetModelIndex() {
+    }
+
+    /**
+     * Writes the index for the classes in the specified classes directories into the output directory.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: AssetModelIndex <output directory> <classes directory>...");
+        }
+
+        Set<String> classNames = new TreeSet<>();
+        for (int i = 1; i < args.length; i++) {
+            Path classesDir = Paths.get(args[i]);
+            if (Files.isDirectory(classesDir)) {
+                scan(classesDir.toUri().toURL()).forEach(assetClass -> classNames.add(assetClass.getName()));
+            }
+        }
+
+        Path indexFile = Paths.get(args[0]).resolve(INDEX_RESOURCE);
+        Files.createDirectories(indexFile.getParent());
+        List<String> lines = new ArrayList<>(classNames.size() + 1);
+        lines.add("# Generated by " + AssetModelIndex.class.getName() + ", do not edit");
+        lines.addAll(classNames);
+        Files.write(indexFile, lines, StandardCharsets.UTF_8);
+        LOG.info("Asset model index written: classes=" + classNames.size() + ", file=" + indexFile);
+    }
+
+    /**
+     * Scans the JAR or directory at the specified URL for sub types of {@link Asset}.
+     */
+    public static Set<Class<? extends Asset<?>>> scan(URL url) {
+        Reflections reflections = new Reflections(new ConfigurationBuilder()
+            .setUrls(url)
+            .setScanners(
+                new SubTypesScanner(true)
+            ));
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Set<Class<? extends Asset<?>>> assetClasses = reflections.getSubTypesOf(Asset.class).stream()
+            .map(assetClass -> (Class<? extends Asset<?>>)(Class)assetClass)
+            .collect(Collectors.toSet());
+        return assetClasses;
+    }
+
+    /**
+     * @return the {@link Asset} classes in the index of the JAR containing the specified class or <code>null</code>
+     * if there is no index or the index can't be loaded.
+     */
+    @SuppressWarnings("unchecked")
+    public static Set<Class<? extends Asset<?>>> read(Class<?> providerClass) {
+        URL root = ClasspathHelper.forClass(providerClass);
+        if (root == null) {
+            return null;
+        }
+
+        ClassLoader classLoader = providerClass.getClassLoader();
+        Set<Class<? extends Asset<?>>> assetClasses = new HashSet<>();
+        URL indexUrl = null;
+
+        try {
+            indexUrl = findIndex(root, classLoader);
+            if (indexUrl == null) {
+                LOG.fine("No asset model index found: " + root);
+                return null;
+            }
+
+            for (String className : readClassNames(indexUrl)) {
+                Class<?> clazz = Class.forName(className, false, classLoader);
+                if (!Asset.class.isAssignableFrom(clazz)) {
+                    LOG.warning("Asset model index contains a class that is not an asset, ignoring index: index=" + indexUrl + ", class=" + className);
+                    return null;
+                }
+                assetClasses.add((Class<? extends Asset<?>>) clazz);
+            }
+        } catch (IOException | ClassNotFoundException | LinkageError e) {
+            LOG.log(Level.WARNING, "Failed to read asset model index, ignoring index: " + (indexUrl != null ? indexUrl : root), e);
+            return null;
+        }
+
+        LOG.fine("Read asset model index: classes=" + assetClasses.size() + ", index=" + indexUrl);
+        return assetClasses;
+    }
+
+    /**
+     * The index is in the same JAR as the classes, but when running from the build output the index is in a separate
+     * generated resources directory; that index is found by where the first class it lists is loaded from.
+     */
+    protected static URL findIndex(URL root, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        List<URL> indexUrls = Collections.list(classLoader.getResources(INDEX_RESOURCE));
+        String rootIndex = root.toExternalForm() + INDEX_RESOURCE;
+
+        for (URL indexUrl : indexUrls) {
+            if (indexUrl.toExternalForm().equals(rootIndex)) {
+                return indexUrl;
+            }
+        }
+
+        for (URL indexUrl : indexUrls) {
+            List<String> classNames = readClassNames(indexUrl);
+            if (!classNames.isEmpty()) {
+                URL classRoot = ClasspathHelper.forClass(Class.forName(classNames.get(0), false, classLoader));
+                if (classRoot != null && classRoot.toExternalForm().equals(root.toExternalForm())) {
+                    return indexUrl;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    protected static List<String> readClassNames(URL indexUrl) throws IOException {
+        List<String> classNames = new ArrayList<>();
+
+        try (InputStream inputStream = indexUrl.openStream();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    classNames.add(line);
+                }
+            }
+        }
+
+        return classNames;
+    }
+}
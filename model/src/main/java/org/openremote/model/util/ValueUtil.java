@@ -30,6 +30,7 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 import com.kjetland.jackson.jsonSchema.JsonSchemaGenerator;
+import com.vividsolutions.jts.geom.Coordinate;
 import org.hibernate.internal.util.SerializationHelper;
 import org.openremote.model.AssetModelProvider;
 import org.openremote.model.ModelDescriptor;
@@ -42,12 +43,13 @@ import org.openremote.model.asset.agent.Agent;
 import org.openremote.model.asset.agent.AgentDescriptor;
 import org.openremote.model.asset.agent.AgentLink;
 import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.geo.GeoJSONPoint;
 import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.value.*;
-import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
+import org.openremote.model.value.impl.ColourRGB;
+import org.openremote.model.value.impl.PeriodAndDuration;
 import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
 
 import javax.persistence.Entity;
 import javax.validation.ConstraintViolation;
@@ -58,6 +60,8 @@ import java.io.Serializable;
 import java.lang.reflect.*;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalAmount;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -134,6 +138,8 @@ public class ValueUtil {
     protected static List<ValueDescriptor<?>> valueDescriptors;
     protected static Validator validator;
     protected static JsonSchemaGenerator generator;
+    // Set to false to always scan for asset classes rather than using the build time generated index
+    protected static boolean useAssetModelIndex = true;
 
     static {
         // Find all service loader registered asset model providers
@@ -457,7 +463,8 @@ public class ValueUtil {
     }
 
     /**
-     * Apply the specified set of {@link ValueFilter}s to the specified value
+     * Apply the specified set of {@link ValueFilter}s to the specified value; the output of each filter is supplied to
+     * the next filter as is, so chained {@link org.openremote.model.value.JsonPathFilter}s only parse the value once.
      */
     public static Object applyValueFilters(Object value, ValueFilter...filters) {
 
@@ -505,6 +512,119 @@ public class ValueUtil {
         return null;
     }
 
+    /**
+     * Deep copies a value without serialising it for the built in {@link ValueType}s, immutable values are returned as
+     * is; any other value is copied using {@link #clone}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T copy(T value) {
+        if (value == null) {
+            return null;
+        }
+
+        Class<?> valueClass = value.getClass();
+
+        if (value instanceof String
+            || value instanceof Boolean
+            || value instanceof Character
+            || value instanceof Enum
+            || value instanceof UUID
+            || value instanceof TemporalAccessor
+            || value instanceof TemporalAmount
+            || value instanceof PeriodAndDuration
+            || value instanceof ColourRGB
+            || value instanceof AttributeRef
+            || valueClass == Integer.class
+            || valueClass == Long.class
+            || valueClass == Double.class
+            || valueClass == Float.class
+            || valueClass == Short.class
+            || valueClass == Byte.class
+            || valueClass == BigInteger.class
+            || valueClass == BigDecimal.class) {
+            return value;
+        }
+
+        if (value instanceof JsonNode) {
+            return (T) ((JsonNode) value).deepCopy();
+        }
+
+        if (valueClass == Date.class) {
+            return (T) ((Date) value).clone();
+        }
+
+        if (valueClass == GeoJSONPoint.class) {
+            return (T) new GeoJSONPoint(new Coordinate(((GeoJSONPoint) value).getCoordinates()));
+        }
+
+        if (valueClass.isArray()) {
+            if (valueClass.getComponentType().isPrimitive()) {
+                int length = Array.getLength(value);
+                Object copy = Array.newInstance(valueClass.getComponentType(), length);
+                System.arraycopy(value, 0, copy, 0, length);
+                return (T) copy;
+            }
+            Object[] copy = ((Object[]) value).clone();
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = copy(copy[i]);
+            }
+            return (T) copy;
+        }
+
+        if (valueClass == ValueType.StringMap.class) {
+            ValueType.StringMap copy = new ValueType.StringMap();
+            copy.putAll((ValueType.StringMap) value);
+            return (T) copy;
+        }
+
+        if (valueClass == ValueType.IntegerMap.class) {
+            ValueType.IntegerMap copy = new ValueType.IntegerMap();
+            copy.putAll((ValueType.IntegerMap) value);
+            return (T) copy;
+        }
+
+        if (valueClass == ValueType.DoubleMap.class) {
+            ValueType.DoubleMap copy = new ValueType.DoubleMap();
+            copy.putAll((ValueType.DoubleMap) value);
+            return (T) copy;
+        }
+
+        if (valueClass == ValueType.BooleanMap.class) {
+            ValueType.BooleanMap copy = new ValueType.BooleanMap();
+            copy.putAll((ValueType.BooleanMap) value);
+            return (T) copy;
+        }
+
+        if (valueClass == ValueType.MultivaluedStringMap.class) {
+            ValueType.MultivaluedStringMap copy = new ValueType.MultivaluedStringMap();
+            ((ValueType.MultivaluedStringMap) value).forEach((key, values) ->
+                copy.put(key, values != null ? new ArrayList<>(values) : null));
+            return (T) copy;
+        }
+
+        if (valueClass == ArrayList.class) {
+            List<Object> list = (List<Object>) value;
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(item -> copy.add(copy(item)));
+            return (T) copy;
+        }
+
+        if (valueClass == HashMap.class || valueClass == LinkedHashMap.class) {
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            Map<Object, Object> copy = valueClass == HashMap.class ? new HashMap<>() : new LinkedHashMap<>();
+            map.forEach((key, item) -> copy.put(key, copy(item)));
+            return (T) copy;
+        }
+
+        if (valueClass == HashSet.class) {
+            Set<Object> copy = new HashSet<>();
+            ((Set<Object>) value).forEach(item -> copy.add(copy(item)));
+            return (T) copy;
+        }
+
+        return clone(value);
+    }
+
     public static <T> TypeReference<Attribute<T>> getRef(Class<T> clazz) {
         return new TypeReference<Attribute<T>>() {};
     }
@@ -961,19 +1081,15 @@ public class ValueUtil {
 
     protected static Set<Class<? extends Asset<?>>> getAssetClasses(AssetModelProvider assetModelProvider) {
 
-        Set<Class<? extends Asset<?>>> assetClasses;
+        Set<Class<? extends Asset<?>>> assetClasses = useAssetModelIndex ? AssetModelIndex.read(assetModelProvider.getClass()) : null;
 
-        // Search for concrete asset classes in the same JAR as the provided AssetModelProvider
-        Reflections reflections = new Reflections(new ConfigurationBuilder()
-            .setUrls(ClasspathHelper.forClass(assetModelProvider.getClass()))
-            .setScanners(
-                new SubTypesScanner(true)
-            ));
-
-        LOG.fine("Scanning for Asset classes");
+        if (assetClasses == null) {
+            // Search for concrete asset classes in the same JAR as the provided AssetModelProvider
+            LOG.fine("Scanning for Asset classes");
+            assetClasses = AssetModelIndex.scan(ClasspathHelper.forClass(assetModelProvider.getClass()));
+        }
 
-        assetClasses = reflections.getSubTypesOf(Asset.class).stream()
-            .map(assetClass -> (Class<? extends Asset<?>>)assetClass)
+        assetClasses = assetClasses.stream()
             .filter(assetClass -> assetClass.getAnnotation(ModelIgnore.class) == null)
             .collect(Collectors.toSet());
 
@@ -20,16 +20,22 @@
 package org.openremote.model.value;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
 import com.jayway.jsonpath.ParseContext;
 import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
 import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
 import com.kjetland.jackson.jsonSchema.annotations.JsonSchemaTitle;
+import org.openremote.model.util.Pair;
 import org.openremote.model.util.TextUtil;
 import org.openremote.model.util.ValueUtil;
 
@@ -37,7 +43,9 @@ import javax.validation.constraints.NotNull;
 
 /**
  * This filter works on any type of data; when applying the filter the data should be converted to JSON representation
- * using a tool like Jackson and then the JSON path expression should be applied to this JSON string.
+ * using a tool like Jackson and then the JSON path expression should be applied to this JSON string. Values that are
+ * already a {@link JsonNode} (e.g. the output of a previous JSON path filter) are read directly without serialising
+ * and re-parsing them, and the path is compiled once for each filter instance.
  */
 @JsonSchemaTitle("JSON Path")
 @JsonTypeName(JsonPathFilter.NAME)
@@ -63,6 +71,10 @@ public class JsonPathFilter extends ValueFilter {
     @JsonProperty
     public boolean returnLast;
 
+    // The path is a public field so keep the source of the compiled path to detect changes
+    @JsonIgnore
+    protected transient volatile Pair<String, JsonPath> compiledPath;
+
     @JsonCreator
     public JsonPathFilter(@JsonProperty("path") String path,
                           @JsonProperty("returnFirst") boolean returnFirst,
@@ -78,18 +90,46 @@ public class JsonPathFilter extends ValueFilter {
             return null;
         }
 
-        String valueStr = ValueUtil.convert(value, String.class);
+        DocumentContext document = parse(value);
 
-        if (valueStr == null) {
+        if (document == null) {
             return null;
         }
 
-        Object obj = jsonPathParser.parse(valueStr).read(path);
+        Object obj = document.read(getCompiledPath());
 
         if ((returnFirst || returnLast) && obj != null && ValueUtil.isArray(obj.getClass())) {
             ArrayNode arrayNode = ValueUtil.convert(obj, ArrayNode.class);
             obj = arrayNode.get(returnFirst ? 0 : arrayNode.size() - 1);
         }
+
+        if (obj instanceof ContainerNode<?> containerNode && document.json() == value) {
+            // Don't share nodes with the supplied value
+            obj = containerNode.deepCopy();
+        }
         return obj;
     }
+
+    protected JsonPath getCompiledPath() {
+        Pair<String, JsonPath> compiled = compiledPath;
+
+        if (compiled == null || !compiled.key.equals(path)) {
+            compiled = new Pair<>(path, JsonPath.compile(path));
+            compiledPath = compiled;
+        }
+        return compiled.value;
+    }
+
+    /**
+     * Text nodes are parsed like strings as their text is the JSON to filter (e.g. a JSON payload inside a JSON
+     * message); any other type of value is converted to a JSON string first.
+     */
+    protected static DocumentContext parse(Object value) {
+        if (value instanceof JsonNode jsonNode && !(jsonNode instanceof TextNode)) {
+            return jsonPathParser.parse(jsonNode);
+        }
+
+        String valueStr = ValueUtil.convert(value, String.class);
+        return valueStr != null ? jsonPathParser.parse(valueStr) : null;
+    }
 }
@@ -0,0 +1,178 @@
+package org.openremote.test.assets
+
+import org.hibernate.Session
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetResource
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.RealmPredicate
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.asset.AssetStorageService.ASSET_STREAM_FETCH_SIZE
+import static org.openremote.manager.security.ManagerIdentityProvider.OR_ADMIN_PASSWORD
+import static org.openremote.manager.security.ManagerIdentityProvider.OR_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+import static org.openremote.model.query.AssetQuery.OrderBy
+import static org.openremote.model.query.AssetQuery.OrderBy.Property.CREATED_ON
+import static org.openremote.model.query.AssetQuery.OrderBy.Property.NAME
+import static org.openremote.model.value.ValueType.TEXT
+
+class AssetQueryPaginationTest extends Specification implements ManagerContainerTrait {
+
+    static List<String> createAssets(AssetStorageService assetStorageService, String realm, String parentId, String prefix, int count) {
+        (1..count).collect {
+            assetStorageService.merge(new ThingAsset(prefix + " " + it)
+                .setRealm(realm)
+                .setParentId(parentId)
+                .addOrReplaceAttributes(new Attribute<>("text", TEXT, "Some text " + it))).id
+        }
+    }
+
+    static List<Asset<?>> getAllPages(AssetStorageService assetStorageService, AssetQuery query, int pageSize, Closure<?> betweenPages) {
+        def assets = []
+        List<Asset<?>> page
+        query.limit(pageSize)
+        while (!(page = assetStorageService.findAll(query)).isEmpty()) {
+            assert page.size() <= pageSize
+            assets.addAll(page)
+            query.after(page.last())
+            betweenPages()
+        }
+        assets
+    }
+
+    def "Check keyset pagination is stable when assets are added between pages"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def realm = keycloakTestSetup.realmBuilding.name
+
+        and: "a parent with many children"
+        def parent = assetStorageService.merge(new ThingAsset("Pagination parent").setRealm(realm))
+        def childIds = createAssets(assetStorageService, realm, parent.id, "Child", 230)
+
+        and: "many of the children were created at the same time"
+        persistenceService.doTransaction { em ->
+            em.createNativeQuery("update ASSET set CREATED_ON = (select CREATED_ON from ASSET where ID = ?) where ID = any(string_to_array(?, ','))")
+                .setParameter(1, childIds[100])
+                .setParameter(2, childIds.subList(50, 150).join(","))
+                .executeUpdate()
+        }
+
+        expect: "the creation time of the children to be the same"
+        assetStorageService.findAll(new AssetQuery().parents(parent.id)).collect { it.createdOn.time }.unique(false).size() <= childIds.size() - 99
+
+        when: "the children are retrieved in pages and more children are added between the pages"
+        def addedIds = []
+        def pages = 0
+        def assets = getAllPages(assetStorageService, new AssetQuery().parents(parent.id), 25) {
+            if (pages++ < 5) {
+                addedIds.addAll(createAssets(assetStorageService, realm, parent.id, "Added child " + pages, 3))
+            }
+        }
+
+        then: "every child should have been retrieved exactly once in order"
+        assets.size() == childIds.size() + addedIds.size()
+        assets.collect { it.id }.unique(false).size() == assets.size()
+        assets.collect { it.id } as Set == (childIds + addedIds) as Set
+        assets.collect { it.createdOn.time } == assets.collect { it.createdOn.time }.sort(false)
+
+        and: "the children added whilst paging should be at the end"
+        assets.takeRight(addedIds.size()).collect { it.id } as Set == addedIds as Set
+
+        when: "the children are retrieved in pages in descending order"
+        def descendingAssets = getAllPages(assetStorageService, new AssetQuery().parents(parent.id).orderBy(new OrderBy(CREATED_ON, true)), 40) {}
+
+        then: "every child should have been retrieved exactly once in reverse order"
+        descendingAssets.collect { it.id } == assets.collect { it.id }.reverse()
+
+        when: "the children are retrieved in pages that only include the ID"
+        def idOnlyAssets = getAllPages(assetStorageService, new AssetQuery().parents(parent.id).select(new AssetQuery.Select().excludeAttributes()), 100) {}
+
+        then: "every child should have been retrieved"
+        idOnlyAssets.collect { it.id } == assets.collect { it.id }
+
+        when: "a cursor is used with a different order"
+        assetStorageService.findAll(new AssetQuery().parents(parent.id).orderBy(new OrderBy(NAME)).after(assets[10]))
+
+        then: "an exception should be thrown"
+        thrown(IllegalStateException)
+    }
+
+    def "Check streamed assets don't accumulate in memory and are the same as the query result"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def realm = keycloakTestSetup.realmBuilding.name
+
+        and: "a small and a large set of assets"
+        def smallParent = assetStorageService.merge(new ThingAsset("Stream small parent").setRealm(realm))
+        def largeParent = assetStorageService.merge(new ThingAsset("Stream large parent").setRealm(realm))
+        createAssets(assetStorageService, realm, smallParent.id, "Small child", 20)
+        createAssets(assetStorageService, realm, largeParent.id, "Large child", 1000)
+
+        and: "a function that streams assets and records the largest persistence context whilst streaming"
+        def stream = { AssetQuery query ->
+            def streamedIds = []
+            def maxEntityCount = 0
+            persistenceService.doTransaction { em ->
+                def session = em.unwrap(Session.class)
+                assetStorageService.streamAll(em, query) { asset ->
+                    streamedIds.add(asset.id)
+                    maxEntityCount = Math.max(maxEntityCount, session.statistics.entityCount)
+                }
+            }
+            [streamedIds, maxEntityCount]
+        }
+
+        when: "the assets are streamed"
+        def (smallIds, smallMaxEntityCount) = stream(new AssetQuery().parents(smallParent.id))
+        def (largeIds, largeMaxEntityCount) = stream(new AssetQuery().parents(largeParent.id))
+
+        then: "the streamed assets should be the same as the query result"
+        smallIds == assetStorageService.findAll(new AssetQuery().parents(smallParent.id)).collect { it.id }
+        largeIds == assetStorageService.findAll(new AssetQuery().parents(largeParent.id)).collect { it.id }
+
+        and: "the persistence context should not have grown with the number of assets"
+        largeIds.size() == 1000
+        largeMaxEntityCount <= smallMaxEntityCount
+        largeMaxEntityCount < ASSET_STREAM_FETCH_SIZE
+
+        when: "the assets are streamed with the REST API"
+        def accessToken = authenticate(
+            container,
+            MASTER_REALM,
+            KEYCLOAK_CLIENT_ID,
+            MASTER_REALM_ADMIN_USER,
+            getString(container.getConfig(), OR_ADMIN_PASSWORD, OR_ADMIN_PASSWORD_DEFAULT)
+        ).token
+        def assetResource = getClientApiTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(AssetResource.class)
+        def response = assetResource.queryAssetsStream(null, new AssetQuery().parents(largeParent.id).realm(new RealmPredicate(realm)))
+        def streamedAssets = response.readEntity(Asset[].class)
+
+        then: "the response should be the same as the query result"
+        response.status == 200
+        streamedAssets.collect { it.id } == largeIds
+        streamedAssets.every { it.getAttribute("text").flatMap { it.value }.isPresent() }
+
+        when: "the next page is streamed with the REST API"
+        response = assetResource.queryAssetsStream(null, new AssetQuery().parents(largeParent.id).realm(new RealmPredicate(realm)).limit(100).after(streamedAssets[899]))
+        streamedAssets = response.readEntity(Asset[].class)
+
+        then: "the last page should be returned"
+        streamedAssets.collect { it.id } == largeIds.takeRight(100)
+    }
+}
@@ -0,0 +1,137 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.asset.AssetQuerySqlCache
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.model.asset.impl.RoomAsset
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.LogicGroup
+import org.openremote.model.query.filter.*
+import org.openremote.model.util.Pair
+import spock.lang.Shared
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.function.Function
+
+import static org.openremote.model.query.AssetQuery.OrderBy
+import static org.openremote.model.query.AssetQuery.OrderBy.Property.NAME
+import static org.openremote.model.value.MetaItemType.ACCESS_RESTRICTED_READ
+import static org.openremote.model.value.MetaItemType.AGENT_LINK
+
+/**
+ * Runs all the {@link AssetQueryTest} scenarios with a cache that also builds every query without the cache and
+ * records any difference in the SQL or the bound parameters.
+ */
+class AssetQuerySqlCacheTest extends AssetQueryTest {
+
+    static class VerifyingAssetQuerySqlCache extends AssetQuerySqlCache {
+
+        List<String> mismatches = new CopyOnWriteArrayList<>()
+
+        VerifyingAssetQuerySqlCache() {
+            super(1000)
+        }
+
+        static List<List<Object>> getParameters(AssetStorageService.PreparedAssetQuery preparedQuery, AssetQuery query) {
+            List<List<Object>> parameters = []
+            def recorder = [setParameter: { Object[] args -> parameters << args.collect { it instanceof Object[] ? it.toList() : it } }] as org.hibernate.query.Query
+            preparedQuery.apply(recorder, query, 0L)
+            parameters
+        }
+
+        @Override
+        Pair<AssetStorageService.PreparedAssetQuery, Boolean> get(AssetQuery query, Function<AssetQuery, Pair<AssetStorageService.PreparedAssetQuery, Boolean>> builder) {
+            def cached = super.get(query, builder)
+            def uncached = builder.apply(query)
+
+            if (cached.key.querySql != uncached.key.querySql || cached.value != uncached.value) {
+                mismatches << "SQL differs for query: " + query
+            } else if (getParameters(cached.key, query) != getParameters(uncached.key, query)) {
+                mismatches << "Parameters differ for query: " + query
+            }
+            cached
+        }
+    }
+
+    @Shared
+    static AssetQuerySqlCache originalCache
+    @Shared
+    static VerifyingAssetQuerySqlCache verifyingCache
+
+    def setupSpec() {
+        // The container is started by the AssetQueryTest setup
+        originalCache = assetStorageService.assetQuerySqlCache
+        verifyingCache = new VerifyingAssetQuerySqlCache()
+        assetStorageService.assetQuerySqlCache = verifyingCache
+    }
+
+    def cleanupSpec() {
+        assetStorageService.assetQuerySqlCache = originalCache
+    }
+
+    def cleanup() {
+        assert verifyingCache.mismatches.isEmpty()
+    }
+
+    def "Cached and uncached queries return the same assets"() {
+
+        given: "queries of the same shapes with different values"
+        def queries = [
+            new AssetQuery().ids(managerTestSetup.apartment1Id, managerTestSetup.apartment1LivingroomId),
+            new AssetQuery().ids(managerTestSetup.apartment2Id),
+            new AssetQuery().userIds(keycloakTestSetup.testuser3Id),
+            new AssetQuery().userIds(keycloakTestSetup.testuser2Id),
+            new AssetQuery().parents(managerTestSetup.apartment1Id).orderBy(new OrderBy(NAME)),
+            new AssetQuery().parents(managerTestSetup.apartment2Id).orderBy(new OrderBy(NAME)),
+            new AssetQuery().realm(new RealmPredicate(keycloakTestSetup.realmBuilding.name)).names(new StringPredicate(AssetQuery.Match.CONTAINS, "Living")),
+            new AssetQuery().realm(new RealmPredicate(keycloakTestSetup.realmMaster.name)).names(new StringPredicate(AssetQuery.Match.CONTAINS, "Lobby")),
+            new AssetQuery().recursive(true).parents(managerTestSetup.apartment1Id).types(RoomAsset.class),
+            new AssetQuery().recursive(true).parents(managerTestSetup.apartment2Id).types(RoomAsset.class),
+            new AssetQuery().attributes(new AttributePredicate("motionSensor", new NumberPredicate(0, AssetQuery.Operator.GREATER_EQUALS))),
+            new AssetQuery().attributes(new AttributePredicate("co2Level", new NumberPredicate(300, AssetQuery.Operator.GREATER_EQUALS))),
+            new AssetQuery().attributes(new LogicGroup<AttributePredicate>(LogicGroup.Operator.OR, [
+                new AttributePredicate("presenceDetected", new BooleanPredicate(true)),
+                new AttributePredicate(new StringPredicate("targetTemperature"), null).meta(new NameValuePredicate(ACCESS_RESTRICTED_READ, new BooleanPredicate(true)))
+            ])),
+            new AssetQuery().attributes(new LogicGroup<AttributePredicate>(LogicGroup.Operator.OR, [
+                new AttributePredicate("presenceDetected", new BooleanPredicate(true)),
+                new AttributePredicate(new StringPredicate("currentTemperature"), null).meta(new NameValuePredicate(AGENT_LINK, null))
+            ])),
+            new AssetQuery().attributes(new AttributePredicate("location", new RadialGeofencePredicate(100, 51.44541688237109, 5.460315214821094))),
+            new AssetQuery().attributes(new AttributePredicate("location", new RadialGeofencePredicate(50000, 51.44541688237109, 5.460315214821094)))
+        ]
+
+        when: "the queries are executed without the cache"
+        assetStorageService.assetQuerySqlCache = null
+        def uncachedResults = queries.collect { query -> assetStorageService.findAll(query).collect { it.id } }
+
+        and: "the queries are executed with a new cache"
+        def cache = new AssetQuerySqlCache(100)
+        assetStorageService.assetQuerySqlCache = cache
+        def cachedResults = queries.collect { query -> assetStorageService.findAll(query).collect { it.id } }
+        assetStorageService.assetQuerySqlCache = verifyingCache
+
+        then: "the results should be the same"
+        cachedResults == uncachedResults
+
+        and: "some of the queries should have returned different assets for the same shape"
+        (0..<queries.size()).step(2).any { uncachedResults[it] != uncachedResults[it + 1] }
+
+        and: "every second query should have used the SQL cached for the previous query (other services may also query)"
+        cache.size >= queries.size() / 2
+        cache.missCount >= queries.size() / 2
+        cache.hitCount >= queries.size() / 2
+        cache.hitRate > 0d
+
+        and: "queries with the same shape should have the same key"
+        (0..<queries.size()).step(2).every { AssetQuerySqlCache.getShapeKey(queries[it]) == AssetQuerySqlCache.getShapeKey(queries[it + 1]) }
+
+        and: "queries with a different shape should have a different key"
+        AssetQuerySqlCache.getShapeKey(new AssetQuery().ids("a")) != AssetQuerySqlCache.getShapeKey(new AssetQuery().ids("a").recursive(true))
+        AssetQuerySqlCache.getShapeKey(new AssetQuery().names("a")) != AssetQuerySqlCache.getShapeKey(new AssetQuery().names(new StringPredicate(AssetQuery.Match.BEGIN, "a")))
+        AssetQuerySqlCache.getShapeKey(new AssetQuery().attributes(new AttributePredicate("a", new BooleanPredicate(true)))) !=
+            AssetQuerySqlCache.getShapeKey(new AssetQuery().attributes(new AttributePredicate("a", new BooleanPredicate(false))))
+        AssetQuerySqlCache.getShapeKey(new AssetQuery().attributes(new AttributePredicate("a", null), new AttributePredicate("a", null))) !=
+            AssetQuerySqlCache.getShapeKey(new AssetQuery().attributes(new AttributePredicate("a", null), new AttributePredicate("b", null)))
+        AssetQuerySqlCache.getShapeKey(new AssetQuery().limit(1)) != AssetQuerySqlCache.getShapeKey(new AssetQuery().limit(2))
+    }
+}
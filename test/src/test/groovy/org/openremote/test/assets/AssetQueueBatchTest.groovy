@@ -0,0 +1,132 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.asset.AssetProcessingException
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.asset.AssetUpdateProcessor
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.Container
+import org.openremote.model.ContainerService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.query.AssetQuery
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.persistence.EntityManager
+import java.util.concurrent.atomic.AtomicInteger
+
+import static org.openremote.manager.asset.AssetProcessingService.OR_ASSET_QUEUE_BATCH_SIZE
+import static org.openremote.model.value.ValueType.NUMBER
+
+class AssetQueueBatchTest extends Specification implements ManagerContainerTrait {
+
+    /**
+     * Counts the events passing through the processing chain; registered whilst the container is initialised so the
+     * processors are never modified once events are being processed.
+     */
+    static class CountingProcessorService implements ContainerService, AssetUpdateProcessor {
+
+        final AtomicInteger processedCount = new AtomicInteger()
+
+        @Override
+        void init(Container container) throws Exception {
+            container.getService(AssetProcessingService.class).processors.add(this)
+        }
+
+        @Override
+        void start(Container container) throws Exception {
+        }
+
+        @Override
+        void stop(Container container) throws Exception {
+        }
+
+        @Override
+        boolean processAssetUpdate(EntityManager em, Asset asset, Attribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+            processedCount.incrementAndGet()
+            false
+        }
+    }
+
+    def "Events should be processed in order with a batch size of #batchSize"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 120, delay: 0.2)
+        def assetCount = 100
+        def eventCount = 10000
+
+        when: "the container is started with the batch size"
+        def container = startContainer(defaultConfig() << [(OR_ASSET_QUEUE_BATCH_SIZE): batchSize.toString()], defaultServices(new CountingProcessorService()))
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def processedCount = container.getService(CountingProcessorService.class).processedCount
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        then: "the system should settle down"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "some assets are created"
+        def assetIds = (1..assetCount).collect {
+            def asset = new ThingAsset("Batch test asset " + it)
+                .setRealm(keycloakTestSetup.realmBuilding.name)
+                .addOrReplaceAttributes(new Attribute<>("counter", NUMBER, 0d))
+            assetStorageService.merge(asset).id
+        }
+
+        and: "events are sent"
+        sendEventsAndWait(assetProcessingService, assetIds, eventCount, 1, processedCount, conditions)
+
+        then: "every asset should have the last value"
+        assertLastValues(assetStorageService, assetIds, eventCount, conditions)
+
+        when: "a batch contains events that fail validation"
+        processedCount.set(0)
+        def timestamp = System.currentTimeMillis() + eventCount * 3
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(assetIds[0], "counter", -1d, timestamp))
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(assetIds[0], "doesNotExist", -2d, timestamp))
+        assetProcessingService.sendAttributeEvent(new AttributeEvent("doesNotExist", "counter", -3d, timestamp))
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(assetIds[1], "counter", -4d, timestamp))
+
+        then: "only the valid events should be processed and stored"
+        conditions.eventually {
+            assert processedCount.get() == 2
+            assert assetStorageService.find(assetIds[0], true).getAttribute("counter").flatMap { it.value }.orElse(null) == -1d
+            assert assetStorageService.find(assetIds[1], true).getAttribute("counter").flatMap { it.value }.orElse(null) == -4d
+        }
+
+        where:
+        batchSize << [1, 100]
+    }
+
+    static void sendEventsAndWait(AssetProcessingService assetProcessingService, List<String> assetIds, int eventCount, int firstValue, AtomicInteger processedCount, PollingConditions conditions) {
+        processedCount.set(0)
+        // Offset the timestamps so they are always later than those of a previous run
+        def timestamp = System.currentTimeMillis() + firstValue
+        eventCount.times {
+            // Each asset gets an increasing value and timestamp so the last event of each asset must be the stored one
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(assetIds[it % assetIds.size()], "counter", (double) (firstValue + it), timestamp + it))
+        }
+        conditions.eventually {
+            assert processedCount.get() == eventCount
+        }
+    }
+
+    static void assertLastValues(AssetStorageService assetStorageService, List<String> assetIds, int lastValue, PollingConditions conditions) {
+        conditions.eventually {
+            def assets = assetStorageService.findAll(new AssetQuery().ids(assetIds as String[]))
+            assert assets.size() == assetIds.size()
+            assets.each { asset ->
+                def index = assetIds.indexOf(asset.id)
+                // The last event for the asset at index i has value lastValue - (size - 1 - i)
+                assert asset.getAttribute("counter").flatMap { it.value }.orElse(null) == (double) (lastValue - (assetIds.size() - 1 - index))
+            }
+        }
+    }
+}
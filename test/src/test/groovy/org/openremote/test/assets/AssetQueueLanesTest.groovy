@@ -0,0 +1,188 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.asset.AssetProcessingException
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetQueueLanes
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.asset.AssetUpdateProcessor
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.rules.RulesService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.query.AssetQuery
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.persistence.EntityManager
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+
+import static org.openremote.manager.asset.AssetProcessingService.OR_ASSET_QUEUE_LANES
+import static org.openremote.model.value.MetaItemType.RULE_STATE
+import static org.openremote.model.value.MetaItemType.STORE_DATA_POINTS
+import static org.openremote.model.value.ValueType.NUMBER
+
+class AssetQueueLanesTest extends Specification implements ManagerContainerTrait {
+
+    static final int ASSET_COUNT = 40
+    static final int EVENTS_PER_ASSET = 50
+    static final int SENDER_COUNT = 4
+
+    /**
+     * Records the values and processing threads of the events passing through the processing chain
+     */
+    static class RecordingProcessor implements AssetUpdateProcessor {
+        Map<String, List<Double>> values = new ConcurrentHashMap<>()
+        Set<String> threads = ConcurrentHashMap.newKeySet()
+
+        @Override
+        boolean processAssetUpdate(EntityManager em, Asset asset, Attribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+            if (attribute.name == "counter") {
+                values.computeIfAbsent(asset.id, { new CopyOnWriteArrayList<>() }).add(attribute.value.orElse(null) as Double)
+                threads.add(Thread.currentThread().name)
+            }
+            false
+        }
+
+        int getCount() {
+            values.values().sum { it.size() } as Integer ?: 0
+        }
+    }
+
+    static class Outcome {
+        List<Double> storedValues
+        List<Integer> datapointCounts
+        List<Double> ruleStateValues
+    }
+
+    def "Events are processed in order per asset by concurrent lanes with the same outcome as a single consumer"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 60, delay: 0.2)
+
+        when: "the events are processed by the single asset queue consumer"
+        def singleContainer = startContainer(defaultConfig(), defaultServices())
+        def singleProcessor = new RecordingProcessor()
+        def singleOutcome = processEvents(singleContainer, singleProcessor, conditions)
+
+        then: "the asset queue should not be processed by lanes"
+        singleContainer.getService(AssetProcessingService.class).assetQueueLanes == null
+
+        and: "the events of each asset should have been processed in the order they were sent"
+        assertProcessedInOrder(singleProcessor)
+
+        when: "the same events are processed by several lanes"
+        def lanesContainer = startContainer(defaultConfig() << [(OR_ASSET_QUEUE_LANES): "4"], defaultServices())
+        def lanesProcessor = new RecordingProcessor()
+        def lanesOutcome = processEvents(lanesContainer, lanesProcessor, conditions)
+        def lanes = lanesContainer.getService(AssetProcessingService.class).assetQueueLanes
+
+        then: "the asset queue should be processed by the lanes"
+        lanes != null
+        lanes.laneCount == 4
+        lanes.processedCounts.count { it > 0 } > 1
+        lanesProcessor.threads.size() > 1
+
+        and: "the events of each asset should have been processed in the order they were sent"
+        assertProcessedInOrder(lanesProcessor)
+
+        and: "the stored values, datapoints and rule facts should be the same as when processed by a single consumer"
+        lanesOutcome.storedValues == singleOutcome.storedValues
+        lanesOutcome.datapointCounts == singleOutcome.datapointCounts
+        lanesOutcome.ruleStateValues == singleOutcome.ruleStateValues
+
+        and: "the lanes should have emptied their queues"
+        lanes.queueDepths.every { it == 0 }
+    }
+
+    def "Events of the same asset are always assigned to the same lane"() {
+
+        expect: "the lane to only depend on the asset ID"
+        (1..1000).every { AssetQueueLanes.getLaneIndex("asset" + it, 8) == AssetQueueLanes.getLaneIndex(new String("asset" + it), 8) }
+        (1..1000).every { AssetQueueLanes.getLaneIndex("asset" + it, 8) in (0..<8) }
+        AssetQueueLanes.getLaneIndex(null, 8) == 0
+
+        and: "the assets to be spread over the lanes"
+        (1..1000).collect { AssetQueueLanes.getLaneIndex("asset" + it, 8) }.toSet().size() == 8
+    }
+
+    Outcome processEvents(container, RecordingProcessor processor, PollingConditions conditions) {
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def rulesService = container.getService(RulesService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        def assetIds = (1..ASSET_COUNT).collect {
+            assetStorageService.merge(new ThingAsset("Lanes test asset " + it)
+                .setRealm(keycloakTestSetup.realmBuilding.name)
+                .addOrReplaceAttributes(new Attribute<>("counter", NUMBER, 0d).addOrReplaceMeta(
+                    new MetaItem<>(RULE_STATE, true),
+                    new MetaItem<>(STORE_DATA_POINTS, true)
+                ))).id
+        }
+        assetProcessingService.processors.add(processor)
+
+        try {
+            // Each sender sends the events of its own assets in order, the senders run concurrently
+            def timestamp = System.currentTimeMillis()
+            def executor = Executors.newFixedThreadPool(SENDER_COUNT)
+            def senders = (0..<SENDER_COUNT).collect { sender ->
+                executor.submit {
+                    (1..EVENTS_PER_ASSET).each { value ->
+                        assetIds.eachWithIndex { assetId, index ->
+                            if (index % SENDER_COUNT == sender) {
+                                assetProcessingService.sendAttributeEvent(new AttributeEvent(assetId, "counter", (double) value, timestamp + value))
+                            }
+                        }
+                    }
+                }
+            }
+            senders.each { it.get() }
+            executor.shutdown()
+
+            conditions.eventually {
+                assert processor.count == ASSET_COUNT * EVENTS_PER_ASSET
+            }
+
+            def outcome = new Outcome()
+            conditions.eventually {
+                def assets = assetStorageService.findAll(new AssetQuery().ids(assetIds as String[]))
+                outcome.storedValues = assetIds.collect { assetId ->
+                    assets.find { it.id == assetId }.getAttribute("counter").flatMap { it.value }.orElse(null) as Double
+                }
+                outcome.datapointCounts = assetIds.collect { assetId ->
+                    assetDatapointService.getDatapoints(new AttributeRef(assetId, "counter")).size()
+                }
+                outcome.ruleStateValues = assetIds.collect { assetId ->
+                    rulesService.assetStates.find { it.id == assetId && it.name == "counter" }?.value?.orElse(null) as Double
+                }
+                assert outcome.storedValues.every { it == (double) EVENTS_PER_ASSET }
+                assert outcome.datapointCounts.every { it == EVENTS_PER_ASSET }
+                assert outcome.ruleStateValues.every { it == (double) EVENTS_PER_ASSET }
+            }
+            outcome
+        } finally {
+            assetProcessingService.processors.remove(processor)
+        }
+    }
+
+    static void assertProcessedInOrder(RecordingProcessor processor) {
+        assert processor.values.size() == ASSET_COUNT
+        processor.values.values().each { values ->
+            assert values == (1..EVENTS_PER_ASSET).collect { (double) it }
+        }
+    }
+}
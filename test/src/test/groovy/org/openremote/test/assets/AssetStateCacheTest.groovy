@@ -0,0 +1,188 @@
+package org.openremote.test.assets
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStateCache
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.Executors
+
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.ASSET
+import static org.openremote.container.concurrent.KeyedLockManager.withLockReturning
+import static org.openremote.manager.asset.AssetStorageService.OR_ASSET_STATE_FLUSH_MILLIS
+import static org.openremote.model.value.ValueType.NUMBER
+import static org.openremote.model.value.ValueType.TEXT
+
+class AssetStateCacheTest extends Specification implements ManagerContainerTrait {
+
+    static final int FLUSH_MILLIS = 200
+
+    static Asset<?> getStoredAsset(PersistenceService persistenceService, String assetId) {
+        // Bypasses the pending attributes of the cache
+        persistenceService.doReturningTransaction { em -> em.find(Asset.class, assetId) }
+    }
+
+    static Asset<?> getCachedAsset(PersistenceService persistenceService, AssetStateCache assetStateCache, String assetId) {
+        // The state the asset processing sees
+        withLockReturning(ASSET, assetId, "AssetStateCacheTest") {
+            persistenceService.doReturningTransaction { em -> assetStateCache.get(em, assetId) }
+        }
+    }
+
+    def "Concurrent merges and attribute updates leave the cached and stored state consistent"() {
+
+        given: "the container is started with attribute values written behind"
+        def conditions = new PollingConditions(timeout: 30, delay: 0.2)
+        def container = startContainerWithoutPseudoClock(defaultConfig() << [(OR_ASSET_STATE_FLUSH_MILLIS): FLUSH_MILLIS.toString()], defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStateCache = assetStorageService.getAssetStateCache()
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        and: "an asset"
+        def asset = assetStorageService.merge(new ThingAsset("Asset state race test")
+            .setRealm(keycloakTestSetup.realmBuilding.name)
+            .addOrReplaceAttributes(
+                new Attribute<>("sensor", NUMBER, 0d),
+                new Attribute<>("setpoint", NUMBER, 0d),
+                new Attribute<>("label", TEXT, "initial")
+            ))
+
+        when: "attribute events are processed whilst the asset is being merged"
+        def executor = Executors.newFixedThreadPool(2)
+        def updates = executor.submit {
+            (1..500).each {
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "sensor", (double) it))
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "setpoint", (double) it))
+            }
+        }
+        def merges = executor.submit {
+            (1..20).each {
+                def mergeAsset = assetStorageService.find(asset.id, true)
+                mergeAsset.getAttribute("label").get().setValue("merge " + it)
+                if (it % 5 == 0) {
+                    // Also change an attribute that is being updated
+                    mergeAsset.getAttribute("setpoint").get().setValue(-1d * it)
+                }
+                assetStorageService.merge(mergeAsset)
+                Thread.sleep(10)
+            }
+        }
+        updates.get()
+        merges.get()
+        executor.shutdown()
+
+        and: "a last value is sent for each attribute"
+        Thread.sleep(10)
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "sensor", 1000d))
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "setpoint", 2000d))
+
+        then: "the cached asset should have the last values and the last merged label"
+        conditions.eventually {
+            def cachedAsset = getCachedAsset(persistenceService, assetStateCache, asset.id)
+            assert cachedAsset.getAttribute("sensor").flatMap { it.value }.orElse(null) == 1000d
+            assert cachedAsset.getAttribute("setpoint").flatMap { it.value }.orElse(null) == 2000d
+            assert cachedAsset.getAttribute("label").flatMap { it.value }.orElse(null) == "merge 20"
+        }
+
+        and: "once flushed the stored asset should be the same as the cached asset"
+        conditions.eventually {
+            assert assetStateCache.pendingCount == 0
+            def cachedAsset = getCachedAsset(persistenceService, assetStateCache, asset.id)
+            def storedAsset = getStoredAsset(persistenceService, asset.id)
+            assert storedAsset.attributes.keySet() == cachedAsset.attributes.keySet()
+            storedAsset.attributes.values().each { storedAttribute ->
+                def cachedAttribute = cachedAsset.getAttribute(storedAttribute.name).get()
+                assert storedAttribute.value == cachedAttribute.value
+                assert storedAttribute.timestamp == cachedAttribute.timestamp
+            }
+        }
+
+        and: "reads should return the same state"
+        def readAsset = assetStorageService.find(asset.id, true)
+        readAsset.getAttribute("sensor").flatMap { it.value }.orElse(null) == 1000d
+        readAsset.getAttribute("label").flatMap { it.value }.orElse(null) == "merge 20"
+
+        when: "the asset is deleted"
+        assetStorageService.delete([asset.id])
+
+        then: "the asset should no longer be cached"
+        !assetStateCache.entries.containsKey(asset.id)
+        getCachedAsset(persistenceService, assetStateCache, asset.id) == null
+    }
+
+    def "Attribute values processed more than the flush interval before a crash are not lost"() {
+
+        given: "the container is started with attribute values written behind"
+        def conditions = new PollingConditions(timeout: 30, delay: 0.1)
+        def container = startContainerWithoutPseudoClock(defaultConfig() << [(OR_ASSET_STATE_FLUSH_MILLIS): FLUSH_MILLIS.toString()], defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStateCache = assetStorageService.getAssetStateCache()
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        and: "an asset"
+        def asset = assetStorageService.merge(new ThingAsset("Asset state crash test")
+            .setRealm(keycloakTestSetup.realmBuilding.name)
+            .addOrReplaceAttributes(new Attribute<>("sensor", NUMBER, 0d)))
+
+        when: "attribute events are processed"
+        (1..100).each {
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "sensor", (double) it))
+        }
+
+        then: "the last value should be read"
+        conditions.eventually {
+            assert assetStorageService.find(asset.id, true).getAttribute("sensor").flatMap { it.value }.orElse(null) == 100d
+        }
+
+        and: "the last value should be stored by the periodic flush with nothing left pending"
+        conditions.eventually {
+            assert getStoredAsset(persistenceService, asset.id).getAttribute("sensor").flatMap { it.value }.orElse(null) == 100d
+            assert assetStateCache.pendingCount == 0
+        }
+
+        when: "the flushing stops and more attribute events are processed"
+        assetStateCache.flushFuture.cancel(false)
+        synchronized (assetStateCache) {
+            // Wait for a flush that is in progress
+        }
+        (101..110).each {
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "sensor", (double) it))
+        }
+
+        then: "the last value should be pending"
+        conditions.eventually {
+            assert assetStorageService.find(asset.id, true).getAttribute("sensor").flatMap { it.value }.orElse(null) == 110d
+        }
+        assetStateCache.pendingCount == 1
+
+        when: "the manager crashes losing the in memory state"
+        assetStateCache.entries.clear()
+
+        then: "only the values of the last flush window should be lost"
+        getStoredAsset(persistenceService, asset.id).getAttribute("sensor").flatMap { it.value }.orElse(null) == 100d
+        assetStorageService.find(asset.id, true).getAttribute("sensor").flatMap { it.value }.orElse(null) == 100d
+
+        when: "processing continues after the restart"
+        assetStateCache.flushFuture = null
+        assetStateCache.start(container.getExecutorService())
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "sensor", 111d))
+
+        then: "the new value should be stored"
+        conditions.eventually {
+            assert getStoredAsset(persistenceService, asset.id).getAttribute("sensor").flatMap { it.value }.orElse(null) == 111d
+        }
+    }
+}
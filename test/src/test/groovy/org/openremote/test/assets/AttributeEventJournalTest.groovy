@@ -0,0 +1,193 @@
+package org.openremote.test.assets
+
+import org.apache.camel.component.seda.SedaEndpoint
+import org.openremote.container.message.MessageBrokerService
+import org.openremote.manager.asset.AssetProcessingException
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.asset.AssetUpdateProcessor
+import org.openremote.manager.asset.AttributeEventJournal
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeEventDeadLetterResource
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.AttributeWriteFailure
+import org.openremote.model.attribute.MetaItem
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.persistence.EntityManager
+import java.nio.file.Files
+import java.util.concurrent.CopyOnWriteArrayList
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.asset.AssetProcessingService.ASSET_QUEUE
+import static org.openremote.manager.asset.AssetProcessingService.OR_ASSET_EVENT_JOURNAL_DIR
+import static org.openremote.manager.security.ManagerIdentityProvider.OR_ADMIN_PASSWORD
+import static org.openremote.manager.security.ManagerIdentityProvider.OR_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+import static org.openremote.model.attribute.AttributeEvent.Source.CLIENT
+import static org.openremote.model.value.MetaItemType.STORE_DATA_POINTS
+import static org.openremote.model.value.ValueType.NUMBER
+
+class AttributeEventJournalTest extends Specification implements ManagerContainerTrait {
+
+    def "Journaled events that were lost or not acknowledged are replayed and processed exactly once"() {
+
+        given: "the container is started with the attribute event journal enabled"
+        def conditions = new PollingConditions(timeout: 30, delay: 0.2)
+        def journalDir = Files.createTempDirectory("attribute-event-journal")
+        def container = startContainerWithoutPseudoClock(defaultConfig() << [(OR_ASSET_EVENT_JOURNAL_DIR): journalDir.toString()], defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def camelContext = container.getService(MessageBrokerService.class).getContext()
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def journal = assetProcessingService.journal
+
+        and: "an asset"
+        def asset = assetStorageService.merge(new ThingAsset("Journal test asset")
+            .setRealm(keycloakTestSetup.realmBuilding.name)
+            .addOrReplaceAttributes(new Attribute<>("counter", NUMBER, 0d).addOrReplaceMeta(new MetaItem<>(STORE_DATA_POINTS, true))))
+
+        and: "a processor that records the values passing through the processing chain"
+        List<Double> processedValues = new CopyOnWriteArrayList<>()
+        AssetUpdateProcessor recordingProcessor = new AssetUpdateProcessor() {
+            @Override
+            boolean processAssetUpdate(EntityManager em, Asset a, Attribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+                if (a.id == asset.id && attribute.name == "counter") {
+                    processedValues.add(attribute.value.orElse(null) as Double)
+                }
+                false
+            }
+        }
+        assetProcessingService.processors.add(recordingProcessor)
+        def timestamp = System.currentTimeMillis()
+
+        when: "events are sent whilst the asset queue isn't being consumed"
+        camelContext.suspendRoute("AssetQueueProcessor")
+        (1..10).each {
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "counter", (double) it, timestamp + it))
+        }
+
+        then: "the events should be pending in the journal"
+        journal.pendingCount == 10
+
+        when: "the asset queue is consumed again"
+        camelContext.resumeRoute("AssetQueueProcessor")
+
+        then: "the events should be processed and complete in the journal"
+        conditions.eventually {
+            assert processedValues == (1..10).collect { (double) it }
+            assert assetStorageService.find(asset.id, true).getAttribute("counter").flatMap { it.value }.orElse(null) == 10d
+            assert journal.pendingCount == 0
+        }
+
+        when: "the completion of these events is lost as if the manager crashed after committing their processing"
+        journal.segments.values().each { segment ->
+            segment.positions.each { position -> segment.buffer.put(position + Integer.BYTES, AttributeEventJournal.PENDING) }
+        }
+
+        and: "more events are sent whilst the asset queue isn't being consumed"
+        camelContext.suspendRoute("AssetQueueProcessor")
+        (11..20).each {
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "counter", (double) it, timestamp + it))
+        }
+
+        and: "the manager crashes losing the queued events"
+        camelContext.getEndpoint(ASSET_QUEUE, SedaEndpoint.class).queue.clear()
+        journal.close()
+
+        and: "the manager is started again"
+        assetProcessingService.openJournal()
+        camelContext.resumeRoute("AssetQueueProcessor")
+
+        then: "every event should have been processed exactly once"
+        conditions.eventually {
+            assert assetStorageService.find(asset.id, true).getAttribute("counter").flatMap { it.value }.orElse(null) == 20d
+            assert assetDatapointService.getDatapoints(new AttributeRef(asset.id, "counter")).size() == 20
+        }
+        processedValues == (1..20).collect { (double) it }
+        journal.pendingCount == 0
+
+        when: "the journal is opened again"
+        journal.close()
+        def pending = journal.open()
+
+        then: "no events should be pending"
+        pending.isEmpty()
+        journal.segmentCount == 1
+
+        cleanup: "the processor is removed"
+        assetProcessingService?.processors?.remove(recordingProcessor)
+    }
+
+    def "Failed journaled events are stored as dead letters that can be re-injected"() {
+
+        given: "the container is started with the attribute event journal enabled"
+        def conditions = new PollingConditions(timeout: 30, delay: 0.2)
+        def journalDir = Files.createTempDirectory("attribute-event-journal")
+        def container = startContainerWithoutPseudoClock(defaultConfig() << [(OR_ASSET_EVENT_JOURNAL_DIR): journalDir.toString()], defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        and: "the dead letter resource of the super user"
+        def accessToken = authenticate(
+            container,
+            MASTER_REALM,
+            KEYCLOAK_CLIENT_ID,
+            MASTER_REALM_ADMIN_USER,
+            getString(container.getConfig(), OR_ADMIN_PASSWORD, OR_ADMIN_PASSWORD_DEFAULT)
+        ).token
+        def deadLetterResource = getClientApiTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(AttributeEventDeadLetterResource.class)
+
+        and: "an asset"
+        def asset = assetStorageService.merge(new ThingAsset("Dead letter test asset")
+            .setRealm(keycloakTestSetup.realmBuilding.name)
+            .addOrReplaceAttributes(new Attribute<>("counter", NUMBER, 0d)))
+
+        when: "a client event is sent without authorization"
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "counter", 5d, System.currentTimeMillis()), CLIENT)
+
+        then: "the event should be stored as a dead letter"
+        def deadLetter
+        conditions.eventually {
+            deadLetter = deadLetterResource.getDeadLetters(null, 1000).find { it.event.assetId == asset.id }
+            assert deadLetter != null
+            assert deadLetter.failure == AttributeWriteFailure.NO_AUTH_CONTEXT
+            assert deadLetter.source == CLIENT
+            assert deadLetter.event.value.orElse(null) == 5d
+        }
+
+        and: "it should be complete in the journal"
+        assetProcessingService.journal.pendingCount == 0
+
+        when: "the dead letter is re-injected by the super user"
+        def result = deadLetterResource.reinjectDeadLetter(null, deadLetter.id)
+
+        then: "the event should be processed with the authorization of the super user"
+        result.failure == null
+        assetStorageService.find(asset.id, true).getAttribute("counter").flatMap { it.value }.orElse(null) == 5d
+
+        and: "the dead letter should be removed"
+        deadLetterResource.getDeadLetters(null, 1000).every { it.id != deadLetter.id }
+
+        when: "an event fails for an attribute that doesn't exist"
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(asset.id, "doesNotExist", 1d, System.currentTimeMillis()))
+
+        then: "the dead letter can be deleted"
+        conditions.eventually {
+            deadLetter = deadLetterResource.getDeadLetters(null, 1000).find { it.event.assetId == asset.id }
+            assert deadLetter?.failure == AttributeWriteFailure.ATTRIBUTE_NOT_FOUND
+        }
+        deadLetterResource.deleteDeadLetter(null, deadLetter.id)
+        deadLetterResource.getDeadLetters(null, 1000).every { it.id != deadLetter.id }
+    }
+}
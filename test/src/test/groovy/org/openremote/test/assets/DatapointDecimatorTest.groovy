@@ -0,0 +1,138 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.datapoint.DatapointDecimator
+import org.openremote.model.datapoint.DatapointDecimation
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static org.openremote.model.datapoint.DatapointDecimation.AVERAGE
+import static org.openremote.model.datapoint.DatapointDecimation.FIRST_LAST
+import static org.openremote.model.datapoint.DatapointDecimation.LTTB
+import static org.openremote.model.datapoint.DatapointDecimation.MIN_MAX
+
+class DatapointDecimatorTest extends Specification {
+
+    static final long FROM = 1688169600000L
+    static final long TO = FROM + 7 * 24 * 3600 * 1000L
+    static final long STEP = 60 * 1000L
+
+    /**
+     * A week of a noisy sine wave with a datapoint every minute and short spikes at the spike indexes
+     */
+    static List<double[]> createSignal(List<Integer> spikeIndexes, double spikeValue) {
+        def random = new Random(42)
+        def count = (int) ((TO - FROM) / STEP)
+        (0..<count).collect { i ->
+            def value = spikeIndexes.contains(i) ? spikeValue : 10 * Math.sin(i * 2 * Math.PI / 1440) + random.nextGaussian()
+            [FROM + i * STEP, value] as double[]
+        }
+    }
+
+    static def decimate(DatapointDecimation decimation, int maxPoints, List<double[]> signal) {
+        def decimator = DatapointDecimator.create(decimation, FROM, TO, maxPoints)
+        signal.each { decimator.accept((long) it[0], it[1]) }
+        decimator.finish()
+    }
+
+    @Unroll
+    def "Check #decimation respects the point budget of #maxPoints"() {
+
+        given: "a signal"
+        def signal = createSignal([], 0)
+
+        when: "it is decimated"
+        def result = decimate(decimation, maxPoints, signal)
+
+        then: "the point budget should be respected and the result should be in timestamp order"
+        result.size() <= maxPoints
+        result.size() >= Math.min(maxPoints, signal.size()) / 2
+        result.collect { it.timestamp } == result.collect { it.timestamp }.sort()
+        result.collect { it.timestamp }.unique().size() == result.size()
+
+        and: "every datapoint should be one of the signal"
+        def signalValues = signal.collectEntries { [((long) it[0]): it[1]] }
+        result.every { signalValues[it.timestamp] == it.value }
+
+        where:
+        decimation | maxPoints
+        MIN_MAX    | 2
+        MIN_MAX    | 101
+        MIN_MAX    | 1000
+        FIRST_LAST | 2
+        FIRST_LAST | 500
+        LTTB       | 3
+        LTTB       | 100
+        LTTB       | 1000
+        LTTB       | 100000
+    }
+
+    @Unroll
+    def "Check #decimation keeps the spikes"() {
+
+        given: "a signal with positive and negative spikes of a single datapoint"
+        def spikeIndexes = [500, 2345, 6000, 9999]
+        def signal = createSignal(spikeIndexes, 1000)
+        signal[4321][1] = -1000d
+
+        when: "it is decimated to a small fraction of the datapoints"
+        def result = decimate(decimation, 200, signal)
+
+        then: "the spikes should have been kept"
+        result.size() <= 200
+        result.count { it.value == 1000d } == spikeIndexes.size()
+        result.count { it.value == -1000d } == 1
+        result.find { it.value == -1000d }.timestamp == (long) signal[4321][0]
+
+        and: "LTTB should also have kept the first and last datapoints"
+        decimation != LTTB || result.first().timestamp == (long) signal.first()[0]
+        decimation != LTTB || result.last().timestamp == (long) signal.last()[0]
+
+        where:
+        decimation << [MIN_MAX, LTTB]
+    }
+
+    def "Check the first and last datapoint of each bucket are kept"() {
+
+        given: "a signal"
+        def signal = createSignal([], 0)
+
+        when: "it is decimated into 10 buckets"
+        def result = decimate(FIRST_LAST, 20, signal)
+
+        then: "the first and last datapoints of each bucket should have been kept"
+        def bucketMillis = (TO - FROM + 10).intdiv(10)
+        def expected = signal.groupBy { ((long) it[0] - FROM).intdiv(bucketMillis) }.values().collectMany { [it.first(), it.last()] }
+        result.collect { it.timestamp } == expected.collect { (long) it[0] }
+        result.collect { it.value } == expected.collect { it[1] }
+    }
+
+    def "Check no datapoints and a single datapoint are decimated"() {
+
+        expect: "no datapoints to be decimated to no datapoints"
+        decimate(decimation, 10, []).isEmpty()
+
+        and: "a single datapoint to be kept"
+        decimate(decimation, 10, [[FROM, 1d] as double[]]).collect { it.value } == [1d]
+
+        where:
+        decimation << [MIN_MAX, FIRST_LAST, LTTB]
+    }
+
+    def "Check a too small point budget is rejected"() {
+
+        when: "a decimator with a budget that is too small for LTTB is created"
+        DatapointDecimator.create(LTTB, FROM, TO, 2)
+
+        then: "an exception should be thrown"
+        thrown(IllegalStateException)
+    }
+
+    def "Check averages are rejected as they are calculated by the database"() {
+
+        when: "a decimator for averages is created"
+        DatapointDecimator.create(AVERAGE, FROM, TO, 100)
+
+        then: "an exception should be thrown"
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,98 @@
+package org.openremote.test.assets
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.datapoint.DatapointInterval
+import org.openremote.model.util.ValueUtil
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+
+import java.time.LocalDateTime
+
+import static org.openremote.model.value.MetaItemType.DATA_POINTS_MAX_AGE_DAYS
+import static org.openremote.model.value.ValueType.NUMBER
+
+class DatapointPartitionTest extends Specification implements ManagerContainerTrait {
+
+    def "Check datapoint partitions are created, queried across and dropped when purged"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def partitionManager = assetDatapointService.partitionManager
+        def now = LocalDateTime.now().withNano(0)
+        def countDefaultPartition = { String assetId ->
+            persistenceService.doReturningTransaction { em ->
+                ((Number) em.createNativeQuery("select count(*) from asset_datapoint_default where entity_id = ?1").setParameter(1, assetId).getSingleResult()).longValue()
+            }
+        }
+        def getValues = { String assetId, String attributeName ->
+            assetDatapointService.getDatapoints(new AttributeRef(assetId, attributeName)).collect { ValueUtil.getValue(it.value, Double.class).orElse(null) }
+        }
+
+        expect: "the datapoint table to be partitioned with partitions for the current and the next months"
+        partitionManager != null
+        partitionManager.isPartitioned()
+        def partitions = partitionManager.getPartitions()
+        partitions.any { !it.from.isAfter(now) && it.to.isAfter(now) }
+        partitions.any { !it.from.isAfter(now.plusMonths(2)) && it.to.isAfter(now.plusMonths(2)) }
+
+        when: "an asset with an attribute using the default max age and one using a long custom max age is created"
+        def asset = assetStorageService.merge(new ThingAsset("Datapoint partition test asset")
+            .setRealm(keycloakTestSetup.realmBuilding.name)
+            .addOrReplaceAttributes(
+                new Attribute<>("default", NUMBER),
+                new Attribute<>("long", NUMBER).addMeta(new MetaItem<>(DATA_POINTS_MAX_AGE_DAYS, 800))
+            ))
+
+        and: "datapoints are stored in the past that aren't covered by a partition"
+        [1000, 400, 100, 0].each { days ->
+            if (days < 1000) {
+                assetDatapointService.upsertValue(asset.id, "default", (double) days, now.minusDays(days))
+            }
+            assetDatapointService.upsertValue(asset.id, "long", (double) days, now.minusDays(days))
+        }
+
+        then: "the old datapoints should be in the default partition"
+        countDefaultPartition(asset.id) == 5L
+
+        when: "partitions are created for the past"
+        partitionManager.ensurePartitions(now.minusDays(1000), now)
+
+        then: "the datapoints should have been moved out of the default partition"
+        countDefaultPartition(asset.id) == 0L
+        partitionManager.getPartitions().any { !it.from.isAfter(now.minusDays(1000)) && it.to.isAfter(now.minusDays(1000)) }
+
+        and: "the datapoints should be returned across all partitions"
+        assetDatapointService.getDatapoints(new AttributeRef(asset.id, "default")).size() == 3
+        getValues(asset.id, "long") == [0d, 100d, 400d, 1000d]
+        def valueDatapoints = assetDatapointService.getValueDatapoints(
+            new AttributeRef(asset.id, "long"),
+            DatapointInterval.DAY,
+            1,
+            now.minusDays(1001),
+            now.plusDays(1))
+        valueDatapoints.findAll { it.value != null }.size() == 4
+
+        when: "the purge routine runs"
+        assetDatapointService.purgeDataPoints()
+
+        then: "the partition that is older than the longest max age should have been dropped"
+        !partitionManager.getPartitions().any { !it.from.isAfter(now.minusDays(1000)) && it.to.isAfter(now.minusDays(1000)) }
+        partitionManager.getPartitions().any { !it.from.isAfter(now.minusDays(400)) && it.to.isAfter(now.minusDays(400)) }
+
+        and: "datapoints older than their max age should have been purged from the remaining partitions"
+        getValues(asset.id, "default") == [0d]
+        getValues(asset.id, "long") == [0d, 100d, 400d]
+    }
+}
@@ -0,0 +1,168 @@
+package org.openremote.test.assets
+
+import org.hibernate.Session
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.DatapointRollupManager
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.datapoint.DatapointInterval
+import org.openremote.model.util.Pair
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+
+import java.sql.Timestamp
+import java.time.LocalDateTime
+import java.time.temporal.ChronoUnit
+
+import static org.openremote.manager.datapoint.AssetDatapointService.OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS
+import static org.openremote.model.value.ValueType.BOOLEAN
+import static org.openremote.model.value.ValueType.NUMBER
+
+class DatapointRollupTest extends Specification implements ManagerContainerTrait {
+
+    static void assertSameDatapoints(def rollupDatapoints, def rawDatapoints) {
+        assert rollupDatapoints.length == rawDatapoints.length
+        rollupDatapoints.eachWithIndex { datapoint, i ->
+            assert datapoint.timestamp == rawDatapoints[i].timestamp
+            if (rawDatapoints[i].value == null) {
+                assert datapoint.value == null
+            } else {
+                assert Math.abs((double) datapoint.value - (double) rawDatapoints[i].value) < 1e-9
+            }
+        }
+    }
+
+    def "Check interval queries answered from the rollups are the same as from the raw datapoints"() {
+
+        given: "the container is started with a long rollup interval so rollups are only refreshed on demand"
+        def container = startContainer(defaultConfig() << [(OR_DATA_POINTS_ROLLUP_INTERVAL_MILLIS): "600000"], defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def rollupManager = assetDatapointService.getRollupManager()
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        and: "an asset with number and boolean attributes"
+        def asset = assetStorageService.merge(new ThingAsset("Datapoint rollup test asset")
+            .setRealm(keycloakTestSetup.realmBuilding.name)
+            .addOrReplaceAttributes(
+                new Attribute<>("number", NUMBER),
+                new Attribute<>("toggle", BOOLEAN)
+            ))
+        def numberAttribute = asset.getAttribute("number").get()
+        def toggleAttribute = asset.getAttribute("toggle").get()
+
+        and: "a function to query the same interval from the rollups and from the raw datapoints"
+        def queryBoth = { Attribute<?> attribute, DatapointInterval interval, Integer step, LocalDateTime from, LocalDateTime to ->
+            def rollupDatapoints = assetDatapointService.getValueDatapoints(asset.id, attribute, interval, step, from, to)
+            assetDatapointService.rollupManager = null
+            try {
+                def rawDatapoints = assetDatapointService.getValueDatapoints(asset.id, attribute, interval, step, from, to)
+                [rollupDatapoints, rawDatapoints]
+            } finally {
+                assetDatapointService.rollupManager = rollupManager
+            }
+        }
+
+        when: "two months of datapoints at irregular intervals are stored"
+        def random = new Random(1234)
+        def start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).minusDays(60).plusMinutes(7)
+        def end = start.plusDays(60)
+        def numberValues = []
+        def toggleValues = []
+        def timestamp = start
+        while (timestamp.isBefore(end)) {
+            numberValues.add(new Pair<>(Math.round(random.nextGaussian() * 10000) / 100d, timestamp))
+            toggleValues.add(new Pair<>(random.nextBoolean(), timestamp))
+            timestamp = timestamp.plusMinutes(5 + random.nextInt(20))
+        }
+        assetDatapointService.upsertValues(asset.id, "number", numberValues)
+        assetDatapointService.upsertValues(asset.id, "toggle", toggleValues)
+
+        then: "the stored datapoints should have marked their buckets as dirty"
+        rollupManager.dirtyCount > 0
+
+        when: "the datapoints are queried with intervals that can be answered from the rollups"
+        def results = [
+            queryBoth(numberAttribute, DatapointInterval.HOUR, 1, start.plusDays(3), start.plusDays(5)),
+            queryBoth(numberAttribute, DatapointInterval.HOUR, 3, start.plusDays(10).plusHours(5), start.plusDays(12)),
+            queryBoth(numberAttribute, DatapointInterval.DAY, 1, start, end),
+            queryBoth(numberAttribute, DatapointInterval.DAY, 2, start.plusDays(1), end.minusDays(1)),
+            queryBoth(numberAttribute, DatapointInterval.WEEK, 1, start, end),
+            queryBoth(numberAttribute, DatapointInterval.MONTH, 1, start.minusDays(40), end.plusDays(40)),
+            queryBoth(toggleAttribute, DatapointInterval.HOUR, 1, start.plusDays(20), start.plusDays(21)),
+            queryBoth(toggleAttribute, DatapointInterval.DAY, 1, start, end),
+            queryBoth(toggleAttribute, DatapointInterval.MONTH, 1, start, end)
+        ]
+
+        then: "the queried attributes should have been rolled up"
+        rollupManager.dirtyCount == 0
+
+        and: "the results should be the same as the raw results"
+        results.each { assertSameDatapoints(it[0], it[1]) }
+        results.every { it[0].any { datapoint -> datapoint.value != null } }
+
+        and: "the daily rollup should have the same aggregates as the raw datapoints"
+        def day = start.plusDays(30).truncatedTo(ChronoUnit.DAYS)
+        def dayValues = numberValues.findAll { !it.value.isBefore(day) && it.value.isBefore(day.plusDays(1)) }
+        def rollupRow = persistenceService.doReturningTransaction { em ->
+            em.unwrap(Session.class).doReturningWork { connection ->
+                def st = connection.prepareStatement("select MIN_VALUE, MAX_VALUE, SUM_VALUE, NUMBER_COUNT, VALUE_COUNT, FIRST_VALUE::text, FIRST_TIMESTAMP, LAST_VALUE::text, LAST_TIMESTAMP " +
+                    "from " + rollupManager.getTableName(DatapointRollupManager.Resolution.DAY) + " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and BUCKET = ?")
+                st.setString(1, asset.id)
+                st.setString(2, "number")
+                st.setObject(3, day)
+                def rs = st.executeQuery()
+                assert rs.next()
+                (1..9).collect { rs.getObject(it) }
+            }
+        }
+        rollupRow[0] as double == dayValues.collect { it.key }.min()
+        rollupRow[1] as double == dayValues.collect { it.key }.max()
+        Math.abs((rollupRow[2] as double) - dayValues.collect { it.key }.sum()) < 1e-6
+        rollupRow[3] == dayValues.size()
+        rollupRow[4] == dayValues.size()
+        rollupRow[5] as double == dayValues.first().key
+        (rollupRow[6] as Timestamp).toLocalDateTime() == dayValues.first().value
+        rollupRow[7] as double == dayValues.last().key
+        (rollupRow[8] as Timestamp).toLocalDateTime() == dayValues.last().value
+
+        when: "datapoints are overwritten and added"
+        assetDatapointService.upsertValue(asset.id, "number", 100000d, dayValues[3].value)
+        assetDatapointService.upsertValue(asset.id, "number", -100000d, day.plusHours(5).plusSeconds(1))
+
+        and: "the whole day is queried"
+        def result = queryBoth(numberAttribute, DatapointInterval.HOUR, 1, day, day.plusDays(1).minusMinutes(1))
+
+        then: "the rollups should reflect the changes"
+        assertSameDatapoints(result[0], result[1])
+        result[0].any { it.value != null && it.value > 1000d }
+        result[0].any { it.value != null && it.value < -1000d }
+
+        when: "datapoints are deleted without the rollup manager knowing"
+        persistenceService.doTransaction { em ->
+            em.createNativeQuery("delete from ASSET_DATAPOINT where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP < ?")
+                .setParameter(1, asset.id)
+                .setParameter(2, "number")
+                .setParameter(3, day.plusHours(2))
+                .setParameter(4, day.plusDays(2))
+                .executeUpdate()
+        }
+
+        and: "the rollups catch up"
+        rollupManager.catchUp(day)
+        results = [
+            queryBoth(numberAttribute, DatapointInterval.HOUR, 1, day, day.plusDays(3)),
+            queryBoth(numberAttribute, DatapointInterval.DAY, 1, start, end)
+        ]
+
+        then: "the results should be the same as the raw results"
+        results.each { assertSameDatapoints(it[0], it[1]) }
+        results[0][0].findAll { it.value != null }.size() > 0
+        results[0][0].findAll { it.value == null }.size() >= 46
+    }
+}
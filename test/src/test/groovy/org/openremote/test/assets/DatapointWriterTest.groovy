@@ -0,0 +1,110 @@
+package org.openremote.test.assets
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.DatapointWriter
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+
+import java.time.LocalDateTime
+
+import static org.openremote.model.value.ValueType.NUMBER
+import static org.openremote.model.value.ValueType.TEXT
+
+class DatapointWriterTest extends Specification implements ManagerContainerTrait {
+
+    def "Check buffered datapoints are merged into the datapoint table"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        and: "an asset to store datapoints for"
+        def asset = assetStorageService.merge(new ThingAsset("Datapoint writer test asset")
+            .setRealm(keycloakTestSetup.realmBuilding.name)
+            .addOrReplaceAttributes(
+                new Attribute<>("number", NUMBER),
+                new Attribute<>("text", TEXT)
+            ))
+        def start = LocalDateTime.now().withNano(0).minusDays(1)
+
+        when: "a writer with a long flush interval receives more datapoints than its batch size"
+        def writers = []
+        def writer = new DatapointWriter(assetDatapointService, persistenceService, 1000, 30, 60000, DatapointWriter.OverflowPolicy.DROP_NEWEST)
+        writers << writer
+        writer.start(container.getExecutorService())
+        100.times {
+            writer.add(asset.id, "number", (double) it, start.plusSeconds(it))
+        }
+
+        and: "some datapoints are written more than once, contain characters that need escaping or belong to an unknown asset"
+        writer.add(asset.id, "number", -1d, start)
+        writer.add(asset.id, "text", "Comma, \"quotes\"\nand a new line", start)
+        writer.add("doesNotExist", "number", 1d, start)
+
+        then: "nothing should have been written yet"
+        writer.queuedCount == 103
+        assetDatapointService.getDatapointsCount(new AttributeRef(asset.id, "number")) == 0
+
+        when: "the writer is stopped"
+        writer.stop()
+
+        then: "all the datapoints should have been written with the last value of duplicates"
+        writer.queuedCount == 0
+        def numberDatapoints = assetDatapointService.getDatapoints(new AttributeRef(asset.id, "number"))
+        numberDatapoints.size() == 100
+        numberDatapoints.find { it.timestamp == start.atZone(TimeZone.getDefault().toZoneId()).toInstant().toEpochMilli() }.value == -1d
+        def textDatapoints = assetDatapointService.getDatapoints(new AttributeRef(asset.id, "text"))
+        textDatapoints.size() == 1
+        textDatapoints[0].value == "Comma, \"quotes\"\nand a new line"
+
+        when: "a writer that drops the newest datapoints overflows"
+        writer = new DatapointWriter(assetDatapointService, persistenceService, 10, 30, 60000, DatapointWriter.OverflowPolicy.DROP_NEWEST)
+        writers << writer
+        15.times {
+            writer.add(asset.id, "number", 1000d + it, start.plusDays(1).plusSeconds(it))
+        }
+
+        then: "the newest datapoints should have been dropped"
+        writer.queuedCount == 10
+        writer.droppedCount == 5
+
+        when: "a writer that drops the oldest datapoints overflows"
+        writer = new DatapointWriter(assetDatapointService, persistenceService, 10, 30, 60000, DatapointWriter.OverflowPolicy.DROP_OLDEST)
+        writers << writer
+        15.times {
+            writer.add(asset.id, "number", 2000d + it, start.plusDays(2).plusSeconds(it))
+        }
+        writer.stop()
+
+        then: "the oldest datapoints should have been dropped"
+        writer.droppedCount == 5
+        def oldestDroppedDatapoints = assetDatapointService.getDatapoints(new AttributeRef(asset.id, "number")).findAll { it.value >= 2000d }
+        oldestDroppedDatapoints.size() == 10
+        oldestDroppedDatapoints.every { it.value >= 2005d }
+
+        when: "a writer that flushes on overflow overflows"
+        writer = new DatapointWriter(assetDatapointService, persistenceService, 10, 30, 60000, DatapointWriter.OverflowPolicy.FLUSH)
+        writers << writer
+        25.times {
+            writer.add(asset.id, "number", 3000d + it, start.plusDays(3).plusSeconds(it))
+        }
+
+        then: "the datapoints should have been written by the caller"
+        writer.droppedCount == 0
+        writer.queuedCount <= 10
+        assetDatapointService.getDatapoints(new AttributeRef(asset.id, "number")).findAll { it.value >= 3000d }.size() == 25 - writer.queuedCount
+
+        cleanup: "the writers are stopped"
+        writers?.each { it.stop() }
+    }
+}
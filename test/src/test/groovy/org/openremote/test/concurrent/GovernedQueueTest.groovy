@@ -0,0 +1,288 @@
+package org.openremote.test.concurrent
+
+import org.apache.camel.Exchange
+import org.apache.camel.ExchangePattern
+import org.apache.camel.builder.RouteBuilder
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.apache.camel.support.SynchronizationAdapter
+import org.openremote.container.message.GovernedQueue
+import org.openremote.container.message.GovernedSedaComponent
+import org.openremote.model.attribute.AttributeEvent
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+
+import static org.openremote.container.message.MessageBrokerService.OR_MESSAGE_QUEUE_POLICY
+import static org.openremote.container.message.QueueOverloadPolicy.*
+
+class GovernedQueueTest extends Specification {
+
+    def context = new DefaultCamelContext()
+
+    def cleanup() {
+        context.stop()
+    }
+
+    Exchange createExchange(Object body, ExchangePattern pattern = ExchangePattern.InOnly) {
+        def exchange = new DefaultExchange(context, pattern)
+        exchange.getIn().setBody(body)
+        exchange
+    }
+
+    static int waitingProducers(GovernedQueue queue) {
+        queue.lock.lock()
+        try {
+            queue.lock.getWaitQueueLength(queue.notFull)
+        } finally {
+            queue.lock.unlock()
+        }
+    }
+
+    def "The fail policy rejects exchanges added to a full queue"() {
+
+        given: "a full queue"
+        def queue = new GovernedQueue("Test", 10, FAIL, 0, 80)
+        10.times { queue.add(createExchange(it)) }
+
+        when: "another exchange is added"
+        queue.add(createExchange(10))
+
+        then: "it should be rejected"
+        def e = thrown(IllegalStateException)
+        e.message.contains("Test")
+        queue.size() == 10
+        queue.rejectedCount == 1
+        queue.enqueuedCount == 10
+
+        and: "offer should still return false rather than fail"
+        !queue.offer(createExchange(11))
+    }
+
+    def "The block policy waits for space and rejects after the block time"() {
+
+        given: "a full queue"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.05)
+        def queue = new GovernedQueue("Test", 5, BLOCK, 60000, 80)
+        5.times { queue.add(createExchange(it)) }
+
+        when: "an exchange is added whilst the queue is full"
+        def producer = Thread.start { queue.add(createExchange(5)) }
+
+        then: "the producer should wait for space"
+        conditions.eventually {
+            assert waitingProducers(queue) == 1
+        }
+        queue.collect { it.in.body } == [0, 1, 2, 3, 4]
+
+        when: "a consumer takes an exchange"
+        queue.poll()
+        producer.join(10000)
+
+        then: "the exchange should have been added"
+        !producer.alive
+        queue.size() == 5
+        queue.rejectedCount == 0
+        queue.collect { it.in.body } == [1, 2, 3, 4, 5]
+
+        when: "an exchange is added to a full queue with a short block time without a consumer"
+        queue = new GovernedQueue("Test", 5, BLOCK, 100, 80)
+        5.times { queue.add(createExchange(it)) }
+        queue.add(createExchange(5))
+
+        then: "it should be rejected once the block time has passed"
+        thrown(IllegalStateException)
+        queue.rejectedCount == 1
+        queue.collect { it.in.body } == [0, 1, 2, 3, 4]
+    }
+
+    def "The drop oldest policy keeps the newest exchanges and fails the dropped exchanges"() {
+
+        given: "a queue"
+        def queue = new GovernedQueue("Test", 10, DROP_OLDEST, 0, 80)
+        def failed = new CopyOnWriteArrayList<Exchange>()
+
+        when: "it is flooded with exchanges that have a completion"
+        100.times {
+            def exchange = createExchange(it, ExchangePattern.InOut)
+            exchange.addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                void onFailure(Exchange ex) {
+                    failed.add(ex)
+                }
+            })
+            queue.add(exchange)
+        }
+
+        then: "only the newest exchanges should be waiting"
+        queue.collect { it.in.body } == (90..<100).toList()
+        queue.droppedCount == 90
+        queue.enqueuedCount == 100
+        queue.rejectedCount == 0
+
+        and: "the dropped exchanges should have failed in order"
+        failed.collect { it.in.body } == (0..<90).toList()
+        failed.every { it.exception instanceof RejectedExecutionException }
+    }
+
+    def "The drop newest policy keeps the oldest exchanges and fails the dropped exchanges"() {
+
+        given: "a queue"
+        def queue = new GovernedQueue("Test", 10, DROP_NEWEST, 0, 80)
+        def failed = new CopyOnWriteArrayList<Exchange>()
+
+        when: "it is flooded with exchanges that have a completion"
+        100.times {
+            def exchange = createExchange(it, ExchangePattern.InOut)
+            exchange.addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                void onFailure(Exchange ex) {
+                    failed.add(ex)
+                }
+            })
+            queue.add(exchange)
+        }
+
+        then: "only the oldest exchanges should be waiting"
+        queue.collect { it.in.body } == (0..<10).toList()
+        queue.droppedCount == 90
+        queue.enqueuedCount == 10
+
+        and: "the dropped exchanges should have failed"
+        failed.collect { it.in.body } == (10..<100).toList()
+        failed.every { it.exception instanceof RejectedExecutionException }
+    }
+
+    def "The coalesce policy keeps the latest message of each key"() {
+
+        given: "a queue"
+        def queue = new GovernedQueue("Test", 10, COALESCE, 0, 80)
+
+        when: "it is flooded with attribute events of as many attributes as the queue size"
+        1000.times {
+            queue.add(createExchange(new AttributeEvent("asset1", "attribute" + (it % 10), it)))
+        }
+
+        then: "every attribute should be waiting once with its latest value in the original order"
+        queue.size() == 10
+        queue.collect { ((AttributeEvent) it.in.body).name } == (0..<10).collect { "attribute" + it }
+        queue.collect { ((AttributeEvent) it.in.body).value.orElse(null) } == (990..<1000).toList()
+        queue.coalescedCount == 990
+        queue.droppedCount == 0
+
+        when: "an exchange with a coalesce key header is added"
+        def exchange = createExchange("Some body")
+        exchange.in.setHeader(GovernedQueue.HEADER_COALESCE_KEY, "key")
+        queue.add(exchange)
+
+        then: "it should be rejected as there is nothing to coalesce with"
+        thrown(IllegalStateException)
+        queue.rejectedCount == 1
+
+        when: "an in out exchange of a waiting attribute is added"
+        queue.add(createExchange(new AttributeEvent("asset1", "attribute0", 1000), ExchangePattern.InOut))
+
+        then: "it should be rejected as only in only exchanges are coalesced"
+        thrown(IllegalStateException)
+        queue.rejectedCount == 2
+
+        when: "the queue is drained and flooded again"
+        def drained = []
+        queue.drainTo(drained)
+        15.times {
+            queue.add(createExchange(new AttributeEvent("asset1", "attribute" + (it % 10), 2000 + it)))
+        }
+
+        then: "the drained exchanges should no longer be coalesced with"
+        drained.size() == 10
+        drained.collect { ((AttributeEvent) it.in.body).value.orElse(null) } == (990..<1000).toList()
+        queue.collect { ((AttributeEvent) it.in.body).value.orElse(null) } == [2010, 2011, 2012, 2013, 2014, 2005, 2006, 2007, 2008, 2009]
+    }
+
+    def "Queues report crossing the watermark until the depth drops to half of it"() {
+
+        given: "a queue"
+        def queue = new GovernedQueue("Test", 10, FAIL, 0, 80)
+
+        when: "the depth is just under the watermark"
+        7.times { queue.add(createExchange(it)) }
+
+        then: "the queue should not be over its watermark"
+        queue.highWatermark == 8
+        !queue.overWatermark
+
+        when: "the depth reaches the watermark"
+        queue.add(createExchange(7))
+
+        then: "the queue should be over its watermark"
+        queue.overWatermark
+        queue.maxDepth == 8
+
+        when: "the depth drops under the watermark but not to half of it"
+        3.times { queue.poll() }
+
+        then: "the queue should still be over its watermark"
+        queue.overWatermark
+
+        when: "the depth drops to half of the watermark"
+        queue.poll()
+
+        then: "the queue should no longer be over its watermark"
+        !queue.overWatermark
+        queue.dequeuedCount == 4
+        queue.maxDepth == 8
+    }
+
+    def "SEDA endpoints use governed queues configured by queue name"() {
+
+        given: "a context with the governed SEDA component and a consumer that waits"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.1)
+        def sedaComponent = new GovernedSedaComponent([(OR_MESSAGE_QUEUE_POLICY + "_FLOOD_QUEUE"): "drop_newest"])
+        context.addComponent("seda", sedaComponent)
+        def release = new CountDownLatch(1)
+        def consumed = new CopyOnWriteArrayList<Object>()
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            void configure() throws Exception {
+                from("seda://FloodQueue?waitForTaskToComplete=NEVER&size=10")
+                    .process { exchange ->
+                        release.await()
+                        consumed.add(exchange.in.body)
+                    }
+                from("seda://OtherQueue?size=10")
+                    .process {}
+            }
+        })
+        context.start()
+        def producerTemplate = context.createProducerTemplate()
+
+        when: "the queue is flooded whilst the consumer waits"
+        producerTemplate.sendBody("seda://FloodQueue?waitForTaskToComplete=NEVER&size=10", 0)
+        conditions.eventually {
+            assert sedaComponent.getGovernedQueue("FloodQueue").size() == 0
+        }
+        (1..<100).each {
+            producerTemplate.sendBody("seda://FloodQueue?waitForTaskToComplete=NEVER&size=10", it)
+        }
+        release.countDown()
+
+        then: "the configured policy should have been applied"
+        def queue = sedaComponent.getGovernedQueue("FloodQueue")
+        queue.policy == DROP_NEWEST
+        queue.capacity == 10
+        queue.droppedCount == 89
+        conditions.eventually {
+            assert consumed == (0..10).toList()
+        }
+        queue.dequeuedCount == 11
+
+        and: "the other queue should be governed with the default policy"
+        sedaComponent.governedQueues.collect { it.name } == ["FloodQueue", "OtherQueue"]
+        sedaComponent.getGovernedQueue("OtherQueue").policy == FAIL
+        GovernedSedaComponent.getConfigName("MqttClientQueue") == "MQTT_CLIENT_QUEUE"
+        GovernedSedaComponent.getQueueName("seda://AssetQueue?size=25000") == "AssetQueue"
+    }
+}
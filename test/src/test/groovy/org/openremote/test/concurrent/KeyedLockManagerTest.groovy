@@ -0,0 +1,165 @@
+package org.openremote.test.concurrent
+
+import org.openremote.container.concurrent.KeyedLockManager
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+import static org.openremote.container.concurrent.KeyedLockManager.Scope.*
+
+class KeyedLockManagerTest extends Specification {
+
+    /**
+     * Returns the requested number of keys that all map to different stripes
+     */
+    static List<String> distinctStripeKeys(int count) {
+        def keys = []
+        def stripes = [] as Set
+        def i = 0
+        while (keys.size() < count) {
+            def key = "asset" + i++
+            if (stripes.add(KeyedLockManager.getStripeIndex(key))) {
+                keys.add(key)
+            }
+        }
+        return keys
+    }
+
+    def "Locks can be re-entered and are released afterwards"() {
+        when: "a keyed lock is obtained twice by the same thread"
+        def heldInside = false
+        KeyedLockManager.withLock(ASSET, "asset1", "outer", {
+            KeyedLockManager.withLock(ASSET, "asset1", "inner", {
+                heldInside = KeyedLockManager.isLockHeldByCurrentThread(ASSET, "asset1")
+            })
+        })
+
+        then: "the lock was held and has been released"
+        heldInside
+        !KeyedLockManager.isLockHeldByCurrentThread(ASSET, "asset1")
+        !KeyedLockManager.isAnyLockHeldByCurrentThread()
+    }
+
+    def "Acquiring locks out of scope order is rejected"() {
+        when: "an asset lock is requested whilst holding a rules engine lock"
+        KeyedLockManager.withLock(RULES, "engine1", "outer", {
+            KeyedLockManager.withLock(ASSET, "asset1", "inner", {})
+        })
+
+        then: "the lock order violation is detected"
+        thrown(IllegalStateException)
+
+        and: "no locks are left held"
+        !KeyedLockManager.isAnyLockHeldByCurrentThread()
+
+        when: "the locks are acquired in scope order"
+        def executed = false
+        KeyedLockManager.withLock(ASSET, "asset1", "outer", {
+            KeyedLockManager.withLock(AGENT, "agent1", "middle", {
+                KeyedLockManager.withLock(RULES, "engine1", "inner", {
+                    executed = true
+                })
+            })
+        })
+
+        then: "the code is executed"
+        executed
+    }
+
+    def "Acquiring locks out of stripe order within a scope is rejected"() {
+        given: "two keys sorted by stripe"
+        def keys = distinctStripeKeys(2).sort { KeyedLockManager.getStripeIndex(it) }
+
+        when: "the higher stripe is locked before the lower one"
+        KeyedLockManager.withLock(ASSET, keys[1], "outer", {
+            KeyedLockManager.withLock(ASSET, keys[0], "inner", {})
+        })
+
+        then: "the lock order violation is detected"
+        thrown(IllegalStateException)
+
+        when: "both keys are locked together"
+        def executed = false
+        KeyedLockManager.withLocks(ASSET, [keys[1], keys[0]], "both", {
+            executed = KeyedLockManager.isLockHeldByCurrentThread(ASSET, keys[0]) && KeyedLockManager.isLockHeldByCurrentThread(ASSET, keys[1])
+        })
+
+        then: "both locks were held"
+        executed
+        !KeyedLockManager.isAnyLockHeldByCurrentThread()
+    }
+
+    @Timeout(30)
+    def "Threads locking the same keys in opposite order don't deadlock"() {
+        given: "two keys and two threads that request them in opposite order"
+        def keys = distinctStripeKeys(2)
+        def executor = Executors.newFixedThreadPool(2)
+        def counter = new AtomicInteger()
+        def iterations = 5000
+
+        when: "both threads repeatedly obtain both locks"
+        def futures = [keys, keys.reverse()].collect { orderedKeys ->
+            executor.submit({
+                iterations.times {
+                    KeyedLockManager.withLocks(ASSET, orderedKeys, "deadlockTest", {
+                        counter.incrementAndGet()
+                    })
+                }
+            } as Runnable)
+        }
+        futures.each { it.get(20, TimeUnit.SECONDS) }
+
+        then: "all iterations completed"
+        counter.get() == iterations * 2
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    @Timeout(30)
+    def "Updates to disjoint assets proceed in parallel and updates to the same asset are serialised"() {
+        given: "some assets that map to different stripes"
+        def threads = 8
+        def keys = distinctStripeKeys(threads)
+        def executor = Executors.newFixedThreadPool(threads)
+
+        when: "each thread holds the lock of a different asset and waits for all the others to be inside their lock"
+        def barrier = new CyclicBarrier(threads)
+        def futures = keys.collect { key ->
+            executor.submit({
+                KeyedLockManager.withLock(ASSET, key, "parallelTest", {
+                    // Would time out if the locks were serialised
+                    barrier.await(10, TimeUnit.SECONDS)
+                })
+            } as Runnable)
+        }
+        futures.each { it.get(20, TimeUnit.SECONDS) }
+
+        then: "all threads were inside their lock at the same time"
+        noExceptionThrown()
+
+        when: "all threads update the same asset"
+        def concurrent = new AtomicInteger()
+        def maxConcurrent = new AtomicInteger()
+        futures = (1..threads).collect {
+            executor.submit({
+                100.times {
+                    KeyedLockManager.withLock(ASSET, keys[0], "serialTest", {
+                        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), { a, b -> Math.max(a, b) } as java.util.function.IntBinaryOperator)
+                        Thread.yield()
+                        concurrent.decrementAndGet()
+                    })
+                }
+            } as Runnable)
+        }
+        futures.each { it.get(20, TimeUnit.SECONDS) }
+
+        then: "only one thread at a time was inside the lock"
+        maxConcurrent.get() == 1
+
+        cleanup:
+        executor.shutdownNow()
+    }
+}
@@ -0,0 +1,156 @@
+package org.openremote.test.event
+
+import org.apache.camel.Message
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.container.timer.TimerService
+import org.openremote.container.web.ConnectionConstants
+import org.openremote.manager.event.EventSubscriptions
+import org.openremote.model.asset.AssetFilter
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.TriggeredEventSubscription
+import org.openremote.model.event.shared.CancelEventSubscription
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import spock.lang.Shared
+import spock.lang.Specification
+
+class EventSubscriptionsTest extends Specification {
+
+    static final int SESSION_COUNT = 10000
+    static final int ASSET_COUNT = 2000
+    static final List<String> REALMS = ["master", "building", "smartcity"]
+
+    @Shared
+    def random = new Random(1234)
+
+    /**
+     * A synthetic session subscription and the reference (linear scan) matching logic
+     */
+    static class SyntheticSubscription {
+        String sessionKey
+        boolean restrictedUser
+        boolean anonymousUser
+        EventSubscription<AttributeEvent> subscription
+
+        boolean matches(SharedEvent event) {
+            return (!restrictedUser || event.canAccessRestrictedRead()) &&
+                (!anonymousUser || event.canAccessPublicRead()) &&
+                subscription.eventType == event.eventType &&
+                (subscription.filter == null || subscription.filter.apply(event))
+        }
+    }
+
+    static String assetId(int i) {
+        return "asset" + i
+    }
+
+    static String[] assetPath(int i) {
+        // Build a hierarchy where each asset is a child of asset i / 10
+        def path = [assetId(i)]
+        while (i > 0) {
+            i = i.intdiv(10)
+            path.add(assetId(i))
+        }
+        return path as String[]
+    }
+
+    AttributeEvent randomEvent() {
+        def i = random.nextInt(ASSET_COUNT)
+        def path = assetPath(i)
+        new AttributeEvent(assetId(i), "attribute" + random.nextInt(3), random.nextDouble())
+            .setRealm(REALMS[i % REALMS.size()])
+            .setParentId(path.length > 1 ? path[1] : null)
+            .setPath(path)
+            .setAccessRestrictedRead(random.nextBoolean())
+            .setAccessPublicRead(random.nextInt(4) == 0)
+    }
+
+    SyntheticSubscription randomSubscription(int session) {
+        AssetFilter<AttributeEvent> filter = null
+
+        switch (random.nextInt(6)) {
+            case 0:
+                filter = new AssetFilter<AttributeEvent>().setAssetIds((1..(1 + random.nextInt(3))).collect { assetId(random.nextInt(ASSET_COUNT)) } as String[])
+                break
+            case 1:
+                filter = new AssetFilter<AttributeEvent>().setParentIds(assetId(random.nextInt(ASSET_COUNT.intdiv(10))))
+                break
+            case 2:
+                filter = new AssetFilter<AttributeEvent>().setPath([assetId(random.nextInt(ASSET_COUNT.intdiv(100))), assetId(random.nextInt(ASSET_COUNT.intdiv(10)))] as String[])
+                break
+            case 3:
+                filter = new AssetFilter<AttributeEvent>().setRealm(REALMS[random.nextInt(REALMS.size())])
+                break
+            case 4:
+                filter = new AssetFilter<AttributeEvent>().setAssetIds(assetId(random.nextInt(ASSET_COUNT))).setAttributeNames("attribute" + random.nextInt(3))
+                break
+        }
+
+        new SyntheticSubscription(
+            sessionKey: "session" + session,
+            restrictedUser: random.nextInt(5) == 0,
+            anonymousUser: random.nextInt(10) == 0,
+            subscription: new EventSubscription<AttributeEvent>(AttributeEvent.class, filter, "subscription" + session)
+        )
+    }
+
+    static Set<String> split(EventSubscriptions eventSubscriptions, DefaultCamelContext context, SharedEvent event) {
+        def exchange = new DefaultExchange(context)
+        exchange.getIn().setBody(event)
+        List<Message> messages = eventSubscriptions.splitForSubscribers(exchange)
+        messages.collect {
+            it.getHeader(ConnectionConstants.SESSION_KEY) + ":" + ((TriggeredEventSubscription) it.body).subscriptionId
+        } as Set
+    }
+
+    static Set<String> linearScan(List<SyntheticSubscription> subscriptions, SharedEvent event) {
+        subscriptions.findAll { it.matches(event) }.collect { it.sessionKey + ":" + it.subscription.subscriptionId } as Set
+    }
+
+    def "Indexed subscription lookup matches a linear scan of all sessions"() {
+
+        given: "event subscriptions for 10k sessions"
+        def timerService = Stub(TimerService) {
+            getCurrentTimeMillis() >> System.currentTimeMillis()
+        }
+        def context = new DefaultCamelContext()
+        def eventSubscriptions = new EventSubscriptions(timerService)
+        def subscriptions = (1..SESSION_COUNT).collect { randomSubscription(it) }
+        subscriptions.each {
+            eventSubscriptions.createOrUpdate(it.sessionKey, it.restrictedUser, it.anonymousUser, it.subscription)
+        }
+        def events = (1..2000).collect { randomEvent() }
+
+        expect: "the same sessions to be matched for every event"
+        def totalMatches = 0
+        events.each { event ->
+            def expected = linearScan(subscriptions, event)
+            totalMatches += expected.size()
+            assert split(eventSubscriptions, context, event) == expected
+        }
+        totalMatches > 0
+
+        when: "half of the subscriptions are cancelled"
+        def cancelled = subscriptions.findAll { random.nextBoolean() }
+        cancelled.eachWithIndex { subscription, i ->
+            if (i % 2 == 0) {
+                eventSubscriptions.cancel(subscription.sessionKey, new CancelEventSubscription(subscription.subscription.subscriptionId))
+            } else {
+                eventSubscriptions.cancelAll(subscription.sessionKey)
+            }
+        }
+        subscriptions.removeAll(cancelled)
+
+        then: "the same sessions to be matched for every event"
+        events.every { event -> split(eventSubscriptions, context, event) == linearScan(subscriptions, event) }
+
+        when: "a session replaces its subscription with a different filter"
+        def replaced = subscriptions[0]
+        replaced.subscription = new EventSubscription<AttributeEvent>(AttributeEvent.class, new AssetFilter<AttributeEvent>().setAssetIds(assetId(1)), replaced.subscription.subscriptionId)
+        eventSubscriptions.createOrUpdate(replaced.sessionKey, replaced.restrictedUser, replaced.anonymousUser, replaced.subscription)
+
+        then: "the same sessions to be matched for every event"
+        events.every { event -> split(eventSubscriptions, context, event) == linearScan(subscriptions, event) }
+    }
+}
@@ -0,0 +1,136 @@
+package org.openremote.test.event
+
+import org.apache.camel.Message
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.event.EventSubscriptions
+import org.openremote.manager.event.EventTypeConverters
+import org.openremote.manager.event.SharedEventPayload
+import org.openremote.manager.event.SharedTriggeredEventSubscription
+import org.openremote.model.asset.AssetEvent
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.TriggeredEventSubscription
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.geo.GeoJSONPoint
+import org.openremote.model.util.ValueUtil
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class SharedEventPayloadTest extends Specification {
+
+    static String triggeredMessage(SharedEvent event, String subscriptionId) {
+        TriggeredEventSubscription.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(new TriggeredEventSubscription<>([event], subscriptionId))
+    }
+
+    static List<SharedEvent> createEvents() {
+        def objectValue = ValueUtil.JSON.createObjectNode()
+        objectValue.put("text", "quote \" backslash \\ unicode é中\n")
+        objectValue.putArray("array").add(1).add(2.5).addNull()
+
+        [
+            new AttributeEvent("asset1", "number", 12.5d, 1000L),
+            new AttributeEvent("asset2", "text", "Some text with \"quotes\" and unicode é中", 2000L).setRealm("master").setPath(["asset2", "asset1"] as String[]),
+            new AttributeEvent("asset3", "empty", null, 3000L),
+            new AttributeEvent("asset4", "object", objectValue, 4000L).setParentId("asset1"),
+            new AttributeEvent("asset5", "location", new GeoJSONPoint(5.46, 51.44), 5000L),
+            new AttributeEvent("asset6", "array", [1d, 2d, 3d] as Double[], 6000L),
+            new AssetEvent(AssetEvent.Cause.UPDATE, new ThingAsset("Thing \"1\"").setId("asset7").setRealm("master"), ["name"] as String[])
+        ]
+    }
+
+    def "Shared payload messages are byte for byte the same as serializing each triggered event subscription"() {
+
+        given: "events of different types and values"
+        def events = createEvents()
+        def subscriptionIds = [null, "", "subscription1", "with \"quotes\" and \\", "unicode é中", "SUBSCRIPTION_ID_"]
+        def converters = new EventTypeConverters()
+
+        expect: "the shared payload message to be the same as the triggered event subscription message for every subscription ID"
+        events.each { event ->
+            def payload = new SharedEventPayload<>([event])
+            subscriptionIds.each { subscriptionId ->
+                def expected = triggeredMessage(event, subscriptionId)
+                assert payload.getMessage(subscriptionId) == expected
+                assert payload.getMessage(subscriptionId).getBytes(StandardCharsets.UTF_8) == expected.getBytes(StandardCharsets.UTF_8)
+                assert converters.writeTriggeredEventSubscription(new SharedTriggeredEventSubscription<>(payload, subscriptionId), null) == expected
+            }
+        }
+
+        and: "the shared subscription to serialize the same as a triggered event subscription"
+        events.every { event ->
+            ValueUtil.JSON.writeValueAsString(new SharedTriggeredEventSubscription<>(new SharedEventPayload<>([event]), "subscription1")) ==
+                ValueUtil.JSON.writeValueAsString(new TriggeredEventSubscription<>([event], "subscription1"))
+        }
+
+        and: "the event bytes to be the same as the JSON of the event"
+        events.every { event ->
+            new SharedEventPayload<>([event]).getEventBytes() == ValueUtil.asJSON(event).get().getBytes(StandardCharsets.UTF_8)
+        }
+    }
+
+    def "Event bytes are only shared with the thread delivering the payload"() {
+
+        given: "a payload"
+        def event = createEvents()[0]
+        def payload = new SharedEventPayload<>([event])
+
+        expect: "no event bytes when not delivering"
+        SharedEventPayload.getCurrentEventBytes(event) == null
+
+        when: "the payload is delivered"
+        byte[] sameEvent = null
+        byte[] otherEvent = null
+        byte[] otherThread = null
+        payload.deliver {
+            sameEvent = SharedEventPayload.getCurrentEventBytes(event)
+            otherEvent = SharedEventPayload.getCurrentEventBytes(createEvents()[0])
+            def thread = Thread.start { otherThread = SharedEventPayload.getCurrentEventBytes(event) }
+            thread.join()
+        }
+
+        then: "the event bytes should only be available for the same event on the same thread"
+        sameEvent == payload.getEventBytes()
+        otherEvent == null
+        otherThread == null
+        SharedEventPayload.getCurrentEventBytes(event) == null
+    }
+
+    def "Fan out to 5k sessions produces the same messages as serializing for every session"() {
+
+        given: "5k sessions subscribed to the same attribute events"
+        def sessionCount = 5000
+        def timerService = Stub(TimerService) {
+            getCurrentTimeMillis() >> System.currentTimeMillis()
+        }
+        def context = new DefaultCamelContext()
+        def converters = new EventTypeConverters()
+        def eventSubscriptions = new EventSubscriptions(timerService)
+        sessionCount.times {
+            eventSubscriptions.createOrUpdate("session" + it, false, false, new EventSubscription<AttributeEvent>(AttributeEvent.class, null, "subscription" + it))
+        }
+        def events = (1..20).collect { new AttributeEvent("asset" + it, "attribute", [value: it, text: "Some text " + it], 1000L + it) }
+        def fanOut = { SharedEvent event, boolean shared ->
+            def exchange = new DefaultExchange(context)
+            exchange.getIn().setBody(event)
+            List<Message> messages = eventSubscriptions.splitForSubscribers(exchange)
+            messages.collect {
+                TriggeredEventSubscription<?> triggered = (TriggeredEventSubscription<?>) it.body
+                shared
+                    ? converters.writeTriggeredEventSubscription(triggered, exchange)
+                    : triggeredMessage(triggered.events[0], triggered.subscriptionId)
+            }
+        }
+
+        when: "the events are fanned out serializing once and serializing for every session"
+        def sharedMessages = events.collect { event -> fanOut(event, true) }
+        def perSessionMessages = events.collect { event -> fanOut(event, false) }
+
+        then: "the messages should be the same for every session"
+        sharedMessages == perSessionMessages
+        sharedMessages.every { it.size() == sessionCount }
+    }
+}
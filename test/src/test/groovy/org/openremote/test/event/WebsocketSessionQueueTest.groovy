@@ -0,0 +1,165 @@
+package org.openremote.test.event
+
+import org.openremote.container.web.socket.WebsocketSessionQueue
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.util.concurrent.PollingConditions
+
+import javax.websocket.CloseReason
+import javax.websocket.RemoteEndpoint
+import javax.websocket.SendHandler
+import javax.websocket.SendResult
+import javax.websocket.Session
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicReference
+
+class WebsocketSessionQueueTest extends Specification {
+
+    /**
+     * A fake websocket session that completes each async send after the send delay, and once the send release is
+     * counted down when there is one
+     */
+    static class FakeSession {
+        String id
+        long sendDelayMillis
+        CountDownLatch sendRelease
+        List<String> received = new CopyOnWriteArrayList<>()
+        AtomicReference<CloseReason> closeReason = new AtomicReference<>()
+        Session session
+    }
+
+    ExecutorService executor = Executors.newCachedThreadPool()
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    FakeSession createFakeSession(String id, long sendDelayMillis, CountDownLatch sendRelease = null) {
+        def fakeSession = new FakeSession(id: id, sendDelayMillis: sendDelayMillis, sendRelease: sendRelease)
+        def async = Stub(RemoteEndpoint.Async) {
+            sendText(_ as String, _ as SendHandler) >> { String message, SendHandler handler ->
+                // Deliberately hold up the sending thread of a slow session
+                executor.execute {
+                    if (sendDelayMillis > 0) {
+                        Thread.sleep(sendDelayMillis)
+                    }
+                    sendRelease?.await()
+                    fakeSession.received.add(message)
+                    handler.onResult(new SendResult())
+                }
+            }
+        }
+        fakeSession.session = Stub(Session) {
+            getId() >> id
+            isOpen() >> { fakeSession.closeReason.get() == null }
+            getAsyncRemote() >> async
+            close(_ as CloseReason) >> { CloseReason reason -> fakeSession.closeReason.set(reason) }
+        }
+        fakeSession
+    }
+
+    static String attributeEvent(int attribute, int value) {
+        "TRIGGERED:{\"events\":[{\"eventType\":\"attribute\",\"attributeState\":{\"ref\":{\"id\":\"asset1\",\"name\":\"attribute" + attribute + "\"},\"value\":" + value + "}}],\"subscriptionId\":\"1\"}"
+    }
+
+    @Timeout(30)
+    def "Slow sessions don't hold up delivery to other sessions and only receive the latest attribute values"() {
+
+        given: "a slow session that doesn't complete a send until released and many fast sessions with outbound queues"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.1)
+        def slowSendRelease = new CountDownLatch(1)
+        def slowSession = createFakeSession("slow", 0, slowSendRelease)
+        def fastSessions = (1..20).collect { createFakeSession("fast" + it, 0) }
+        def queues = ([slowSession] + fastSessions).collectEntries { [(it), new WebsocketSessionQueue(it.session, 1000, 30000)] }
+
+        when: "events for 10 attributes are delivered to every session from a single thread"
+        1000.times { value ->
+            def attribute = value % 10
+            queues.each { fakeSession, queue -> queue.offer(attributeEvent(attribute, value), "1:asset1:attribute" + attribute) }
+        }
+
+        then: "the fast sessions should receive every event in order whilst the slow session is still sending its first event"
+        conditions.eventually {
+            assert fastSessions.every { it.received.size() == 1000 }
+        }
+        fastSessions.every { it.received == (0..<1000).collect { value -> attributeEvent(value % 10, value) } }
+        slowSession.received.isEmpty()
+
+        when: "the slow session completes its sends"
+        slowSendRelease.countDown()
+
+        then: "the slow session should receive the latest value of every attribute"
+        conditions.eventually {
+            assert queues[slowSession].size() == 0
+            assert slowSession.received.size() < 1000
+            assert (990..<1000).every { value -> slowSession.received.contains(attributeEvent(value % 10, value)) }
+        }
+        queues[slowSession].coalescedCount + queues[slowSession].sentCount >= 1000
+        slowSession.closeReason.get() == null
+    }
+
+    def "Sessions that fall too far behind are disconnected whilst other sessions keep receiving events"() {
+
+        given: "a slow session and a fast session with small outbound queues"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.1)
+        def slowSession = createFakeSession("slow", 1000)
+        def fastSession = createFakeSession("fast", 0)
+        def slowQueue = new WebsocketSessionQueue(slowSession.session, 50, 30000)
+        def fastQueue = new WebsocketSessionQueue(fastSession.session, 50, 30000)
+
+        when: "more events that can't be coalesced are delivered than the slow session can keep up with"
+        200.times { value ->
+            slowQueue.offer("EVENT:" + value, null)
+            fastQueue.offer("EVENT:" + value, null)
+            Thread.sleep(1)
+        }
+
+        then: "the slow session should have been closed with a clear reason"
+        slowQueue.isClosed()
+        slowSession.closeReason.get().closeCode == CloseReason.CloseCodes.TRY_AGAIN_LATER
+        slowSession.closeReason.get().reasonPhrase.contains("queue is full")
+
+        and: "the fast session should have received every event"
+        conditions.eventually {
+            assert fastSession.received == (0..<200).collect { "EVENT:" + it }
+        }
+        !fastQueue.isClosed()
+    }
+
+    def "Sessions lagging more than the maximum lag are disconnected"() {
+
+        given: "a session that never completes a send and a controllable clock"
+        long now = 0
+        def closeReason = new AtomicReference<CloseReason>()
+        def session = Stub(Session) {
+            getId() >> "stuck"
+            isOpen() >> true
+            getAsyncRemote() >> Stub(RemoteEndpoint.Async)
+            close(_ as CloseReason) >> { CloseReason reason -> closeReason.set(reason) }
+        }
+        def queue = new WebsocketSessionQueue(session, 1000, 5000, { now })
+
+        when: "messages are queued within the maximum lag"
+        queue.offer("EVENT:1", null)
+        queue.offer("EVENT:2", null)
+        now = 4000
+        queue.offer("EVENT:3", null)
+
+        then: "the session should still be open"
+        !queue.isClosed()
+        queue.size() == 2
+
+        when: "a message is queued after the oldest waiting message exceeds the maximum lag"
+        now = 6000
+        queue.offer("EVENT:4", null)
+
+        then: "the session should have been closed with a clear reason"
+        queue.isClosed()
+        queue.size() == 0
+        closeReason.get().closeCode == CloseReason.CloseCodes.TRY_AGAIN_LATER
+        closeReason.get().reasonPhrase.contains("lagging")
+    }
+}
@@ -0,0 +1,55 @@
+package org.openremote.test.model
+
+import org.openremote.model.asset.AssetTypeInfo
+import org.openremote.model.util.AssetModelIndex
+import org.openremote.model.util.ValueUtil
+import org.reflections.util.ClasspathHelper
+import spock.lang.Specification
+
+class AssetModelIndexTest extends Specification {
+
+    static Map<String, List<Object>> getAssetModel() {
+        ValueUtil.getAssetInfos(null).collectEntries { AssetTypeInfo assetTypeInfo ->
+            [(assetTypeInfo.assetDescriptor.name): [
+                assetTypeInfo.assetDescriptor.type.name,
+                assetTypeInfo.attributeDescriptors.collect { it.name + ":" + it.type.type.name + ":" + it.optional }.toSet(),
+                assetTypeInfo.metaItemDescriptors.collect { it.name + ":" + it.type.type.name }.toSet(),
+                assetTypeInfo.valueDescriptors.collect { it.name + ":" + it.type.name }.toSet()
+            ]]
+        }
+    }
+
+    def cleanup() {
+        ValueUtil.useAssetModelIndex = true
+        ValueUtil.initialise()
+    }
+
+    def "The asset model index should contain the same asset classes as the classpath scan"() {
+
+        expect: "every auto scan asset model provider to have an index that matches the scanned asset classes"
+        def providers = ValueUtil.getModelProviders().findAll { it.useAutoScan() }
+        !providers.isEmpty()
+        providers.every { provider ->
+            def indexed = AssetModelIndex.read(provider.class)
+            def scanned = AssetModelIndex.scan(ClasspathHelper.forClass(provider.class))
+            indexed != null && !indexed.isEmpty() && indexed == scanned
+        }
+    }
+
+    def "The asset model loaded from the index should be the same as the scanned asset model"() {
+
+        when: "the asset model is initialised by scanning the classpath"
+        ValueUtil.useAssetModelIndex = false
+        ValueUtil.initialise()
+        def scannedModel = getAssetModel()
+
+        and: "the asset model is initialised from the index"
+        ValueUtil.useAssetModelIndex = true
+        ValueUtil.initialise()
+        def indexedModel = getAssetModel()
+
+        then: "the asset models should be the same"
+        !scannedModel.isEmpty()
+        indexedModel == scannedModel
+    }
+}
@@ -0,0 +1,150 @@
+package org.openremote.test.model
+
+import com.fasterxml.jackson.databind.node.ArrayNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import org.openremote.model.asset.agent.ConnectionStatus
+import org.openremote.model.asset.agent.DefaultAgentLink
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.AttributeState
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.auth.UsernamePassword
+import org.openremote.model.calendar.CalendarEvent
+import org.openremote.model.geo.GeoJSONPoint
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.util.ValueUtil
+import org.openremote.model.value.ValueDescriptor
+import org.openremote.model.value.ValueType
+import org.openremote.model.value.impl.ColourRGB
+import spock.lang.Specification
+
+import java.time.Duration
+import java.time.Period
+
+import static org.openremote.model.value.MetaItemType.*
+
+class AttributeSnapshotTest extends Specification {
+
+    static Attribute<?> createAttribute(ValueDescriptor<?> type, Object value) {
+        new Attribute<>("test", type, value, 1000L).addMeta(
+            new MetaItem<>(LABEL, "Test"),
+            new MetaItem<>(READ_ONLY, true),
+            new MetaItem<>(UNITS, ["celsius"] as String[])
+        )
+    }
+
+    def "Changing the value of a snapshot doesn't change the original attribute"() {
+
+        given: "an attribute with a mutable value"
+        def attribute = createAttribute(type, value)
+        def originalJson = ValueUtil.asJSON(attribute.value.orElse(null)).orElse(null)
+
+        when: "a snapshot is taken and its value is changed"
+        def snapshot = attribute.snapshot()
+        mutator(snapshot.value.orElse(null))
+
+        then: "the snapshot should have a different value instance"
+        !snapshot.value.orElse(null).is(attribute.value.orElse(null))
+        ValueUtil.asJSON(snapshot.value.orElse(null)).orElse(null) != originalJson
+
+        and: "the original value should be unchanged"
+        ValueUtil.asJSON(attribute.value.orElse(null)).orElse(null) == originalJson
+
+        where:
+        type                          | value                                                                     | mutator
+        ValueType.TEXT_MAP            | new ValueType.StringMap(a: "1")                                           | { it.put("a", "2") }
+        ValueType.INTEGER_MAP         | new ValueType.IntegerMap(a: 1)                                            | { it.put("a", 2) }
+        ValueType.NUMBER_MAP          | new ValueType.DoubleMap(a: 1d)                                            | { it.put("a", 2d) }
+        ValueType.BOOLEAN_MAP         | new ValueType.BooleanMap(a: 1d)                                           | { it.put("a", 0d) }
+        ValueType.MULTIVALUED_TEXT_MAP| new ValueType.MultivaluedStringMap(a: ["1"])                              | { it.get("a").add("2") }
+        ValueType.JSON_OBJECT         | ValueUtil.JSON.createObjectNode().put("a", 1).set("b", ValueUtil.JSON.createObjectNode().put("c", 1)) | { ((ObjectNode) it.get("b")).put("c", 2) }
+        ValueType.JSON_ARRAY          | ValueUtil.JSON.createArrayNode().add(1).add(ValueUtil.JSON.createArrayNode().add(2)) | { ((ArrayNode) it.get(1)).add(3) }
+        ValueType.JSON                | ValueUtil.JSON.createObjectNode().put("a", 1)                             | { ((ObjectNode) it).put("a", 2) }
+        ValueType.DATE_AND_TIME       | new Date(1000L)                                                           | { ((Date) it).setTime(2000L) }
+        ValueType.GEO_JSON_POINT      | new GeoJSONPoint(5.46, 51.44)                                             | { ((GeoJSONPoint) it).coordinates.x = 6d }
+        ValueType.TEXT.asArray()      | ["a", "b"] as String[]                                                    | { it[0] = "c" }
+        ValueType.NUMBER.asArray()    | [1d, 2d] as Double[]                                                      | { it[0] = 3d }
+        ValueType.TEXT_MAP.asArray()  | [new ValueType.StringMap(a: "1")] as ValueType.StringMap[]                | { it[0].put("a", "2") }
+        ValueType.ATTRIBUTE_STATE     | new AttributeState(new AttributeRef("asset", "attribute"), 1d)            | { ((AttributeState) it).value = 2d }
+        ValueType.CALENDAR_EVENT      | new CalendarEvent(new Date(1000L), new Date(2000L))                       | { ((CalendarEvent) it).start.setTime(1500L) }
+        ValueType.ASSET_QUERY         | new AssetQuery().ids("a")                                                 | { ((AssetQuery) it).ids("b") }
+    }
+
+    def "Immutable values are shared and other values are copied"() {
+
+        expect: "immutable values of the built in value types to be returned as is"
+        [
+            "text", true, 'c' as Character, 1, 2L, 1.5d, 1.5f, (short) 1, (byte) 1, BigInteger.TEN, BigDecimal.ONE,
+            Duration.ofSeconds(1), Period.ofDays(1), new ColourRGB(1, 2, 3), new AttributeRef("asset", "attribute"),
+            ConnectionStatus.CONNECTED, UUID.randomUUID()
+        ].every { ValueUtil.copy(it).is(it) }
+
+        and: "null to be copied as null"
+        ValueUtil.copy(null) == null
+
+        and: "other model values to be copied by value"
+        [
+            new DefaultAgentLink("agent"),
+            new UsernamePassword("user", "secret"),
+            [1, [2, 3]],
+            [a: [b: 1]]
+        ].every {
+            def copy = ValueUtil.copy(it)
+            !copy.is(it) && ValueUtil.asJSON(copy) == ValueUtil.asJSON(it)
+        }
+    }
+
+    def "Snapshots share meta until either attribute changes it"() {
+
+        given: "an attribute and a snapshot"
+        def attribute = createAttribute(ValueType.NUMBER, 1d)
+        def snapshot = attribute.snapshot(2d, 2000L)
+
+        expect: "the snapshot to have the new value and timestamp and share the meta items"
+        snapshot.value.orElse(null) == 2d
+        snapshot.timestamp.orElse(null) == 2000L
+        attribute.value.orElse(null) == 1d
+        attribute.timestamp.orElse(null) == 1000L
+        snapshot.meta == attribute.meta
+        snapshot.meta.isShared()
+        attribute.meta.isShared()
+        snapshot.getMetaItem(LABEL).get().is(attribute.getMetaItem(LABEL).get())
+
+        when: "the meta of the snapshot is changed"
+        snapshot.getMeta().set(LABEL, "Changed")
+        snapshot.getMeta().getOrCreate(UNITS).value.get()[0] = "fahrenheit"
+        snapshot.addOrReplaceMeta(new MetaItem<>(ACCESS_PUBLIC_READ, true))
+
+        then: "the snapshot should have its own meta items"
+        !snapshot.meta.isShared()
+        snapshot.getMetaValue(LABEL).orElse(null) == "Changed"
+        snapshot.getMetaValue(UNITS).orElse(null) == ["fahrenheit"] as String[]
+        snapshot.hasMeta(ACCESS_PUBLIC_READ)
+
+        and: "the original meta should be unchanged"
+        attribute.getMetaValue(LABEL).orElse(null) == "Test"
+        attribute.getMetaValue(UNITS).orElse(null) == ["celsius"] as String[]
+        !attribute.hasMeta(ACCESS_PUBLIC_READ)
+
+        when: "another snapshot is taken and the original meta is changed"
+        def snapshot2 = attribute.snapshot()
+        attribute.getMeta().remove(READ_ONLY)
+
+        then: "the new snapshot should be unchanged"
+        snapshot2.hasMeta(READ_ONLY)
+        !attribute.hasMeta(READ_ONLY)
+
+        and: "the collection views of a shared map should be read only"
+        def snapshot3 = snapshot2.snapshot()
+        snapshot3.meta.values().iterator().next() != null
+
+        when: "a view of a shared map is changed"
+        snapshot3.meta.values().clear()
+
+        then: "an exception should be thrown"
+        thrown(UnsupportedOperationException)
+
+        and: "the snapshots should serialise the same as a clone"
+        ValueUtil.asJSON(snapshot2) == ValueUtil.asJSON(ValueUtil.clone(snapshot2))
+    }
+}
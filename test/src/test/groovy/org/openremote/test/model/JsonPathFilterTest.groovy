@@ -0,0 +1,127 @@
+package org.openremote.test.model
+
+import com.jayway.jsonpath.JsonPath
+import org.openremote.model.util.ValueUtil
+import org.openremote.model.value.JsonPathFilter
+import org.openremote.model.value.RegexValueFilter
+import org.openremote.model.value.SubStringValueFilter
+import org.openremote.model.value.ValueFilter
+import spock.lang.Specification
+
+class JsonPathFilterTest extends Specification {
+
+    static final String EVENT_MESSAGE = "TRIGGERED:{\"subscriptionId\":\"1\",\"events\":[" +
+        "{\"eventType\":\"attribute\",\"attributeState\":{\"ref\":{\"id\":\"a1\",\"name\":\"targetTemperature\"},\"value\":19.5}}," +
+        "{\"eventType\":\"attribute\",\"attributeState\":{\"ref\":{\"id\":\"a1\",\"name\":\"co2Level\"},\"value\":450}}]}"
+
+    static final String READINGS = "{\"device\":{\"id\":\"livingroom\",\"status\":{\"temperature\":21.5,\"online\":true,\"label\":null," +
+        "\"payload\":\"{\\\"nested\\\":[1,2,3]}\"}},\"readings\":[" +
+        "{\"type\":\"temperature\",\"value\":21,\"timestamp\":1672531200000}," +
+        "{\"type\":\"humidity\",\"value\":45.5,\"timestamp\":1672531260000}," +
+        "{\"type\":\"co2\",\"value\":600,\"timestamp\":1672531320000}]}"
+
+    /**
+     * The filter as it was before paths were compiled and JSON values were read directly
+     */
+    static class ReparsingJsonPathFilter extends ValueFilter {
+
+        JsonPathFilter filter
+
+        ReparsingJsonPathFilter(JsonPathFilter filter) {
+            this.filter = filter
+        }
+
+        @Override
+        Object filter(Object value) {
+            String valueStr = ValueUtil.convert(value, String.class)
+            if (valueStr == null) {
+                return null
+            }
+            Object obj = JsonPathFilter.jsonPathParser.parse(valueStr).read(filter.path)
+            if ((filter.returnFirst || filter.returnLast) && obj != null && ValueUtil.isArray(obj.getClass())) {
+                def arrayNode = ValueUtil.convert(obj, com.fasterxml.jackson.databind.node.ArrayNode.class)
+                obj = arrayNode.get(filter.returnFirst ? 0 : arrayNode.size() - 1)
+            }
+            obj
+        }
+    }
+
+    static ValueFilter[] reparsing(ValueFilter[] filters) {
+        filters.collect { it instanceof JsonPathFilter ? new ReparsingJsonPathFilter(it) : it } as ValueFilter[]
+    }
+
+    def "JSON path filters should return the same values as re-parsing the value for every filter"() {
+
+        expect: "the filter chain to return the same value as the re-parsing filter chain"
+        def expected = ValueUtil.applyValueFilters(value, reparsing(filters as ValueFilter[]))
+        def actual = ValueUtil.applyValueFilters(value, filters as ValueFilter[])
+        actual == expected
+        actual?.getClass() == expected?.getClass()
+
+        and: "a JSON tree value to return the same value as its JSON string"
+        if (value instanceof String && ValueUtil.parse(value as String).isPresent()) {
+            def tree = JsonPathFilter.jsonPathParser.parse(value as String).json()
+            assert ValueUtil.applyValueFilters(tree, filters as ValueFilter[]) == expected
+        }
+
+        where:
+        value          | filters
+        // Existing attribute link and websocket agent filters
+        "[{\"prop1\": true, \"prop2\": \"a\"},{\"prop1\": false, \"prop2\": \"b\"}]" | [new JsonPathFilter("\$[1].prop1", true, false)]
+        EVENT_MESSAGE  | [new RegexValueFilter("TRIGGERED:(.*)", true, false).setMatchGroup(1), new JsonPathFilter("\$..attributeState.ref.name", true, false)]
+        EVENT_MESSAGE  | [new SubStringValueFilter(10), new JsonPathFilter("\$..events[?(@.attributeState.ref.name == \"targetTemperature\")].attributeState.value", true, false)]
+        EVENT_MESSAGE  | [new SubStringValueFilter(10), new JsonPathFilter("\$..events[?(@.attributeState.ref.name == \"co2Level\")].attributeState.value", true, false)]
+        EVENT_MESSAGE  | [new SubStringValueFilter(10), new JsonPathFilter("\$..attributeState.ref.name", false, true)]
+        // Leaf values of each type
+        READINGS       | [new JsonPathFilter("\$.device.status.temperature", false, false)]
+        READINGS       | [new JsonPathFilter("\$.device.status.online", false, false)]
+        READINGS       | [new JsonPathFilter("\$.device.status.label", false, false)]
+        READINGS       | [new JsonPathFilter("\$.device.status.missing", false, false)]
+        READINGS       | [new JsonPathFilter("\$.device.id", false, false)]
+        READINGS       | [new JsonPathFilter("\$.readings[0].timestamp", false, false)]
+        READINGS       | [new JsonPathFilter("\$.readings[?(@.type == 'humidity')].value", true, false)]
+        READINGS       | [new JsonPathFilter("\$.readings[*].timestamp", false, true)]
+        READINGS       | [new JsonPathFilter("\$.readings[*].value", false, false)]
+        READINGS       | [new JsonPathFilter("\$.readings.length()", false, false)]
+        // Chained filters
+        READINGS       | [new JsonPathFilter("\$.device", false, false), new JsonPathFilter("\$.status", false, false), new JsonPathFilter("\$.temperature", false, false)]
+        READINGS       | [new JsonPathFilter("\$.readings", false, false), new JsonPathFilter("\$[?(@.value > 40)]", false, true), new JsonPathFilter("\$.type", false, false)]
+        READINGS       | [new JsonPathFilter("\$.device.status.payload", false, false), new JsonPathFilter("\$.nested[1]", false, false)]
+        READINGS       | [new JsonPathFilter("\$.device.id", false, false), new SubStringValueFilter(0, 6)]
+        // Non JSON string values
+        21.5d          | [new JsonPathFilter("\$", false, false)]
+        [a: [b: 1]]    | [new JsonPathFilter("\$.a.b", false, false)]
+    }
+
+    def "JSON path filters should not share nodes with the filtered value"() {
+
+        given: "a JSON tree"
+        def tree = ValueUtil.parse(READINGS).orElseThrow()
+
+        when: "a sub tree is filtered and modified"
+        def status = new JsonPathFilter("\$.device.status", false, false).filter(tree)
+        status.put("temperature", 0)
+
+        then: "the JSON tree should not be modified"
+        tree.get("device").get("status").get("temperature").doubleValue() == 21.5d
+    }
+
+    def "The compiled path should follow changes to the path"() {
+
+        given: "a filter"
+        def filter = new JsonPathFilter("\$.device.id", false, false)
+
+        expect: "the path to be compiled once"
+        filter.filter(READINGS) == "livingroom"
+        def compiledPath = filter.getCompiledPath()
+        filter.filter(READINGS) == "livingroom"
+        filter.getCompiledPath().is(compiledPath)
+        compiledPath.path == JsonPath.compile("\$.device.id").path
+
+        when: "the path is changed"
+        filter.path = "\$.device.status.online"
+
+        then: "the new path should be used"
+        filter.filter(READINGS) == true
+    }
+}
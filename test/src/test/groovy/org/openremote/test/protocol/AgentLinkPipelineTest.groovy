@@ -0,0 +1,183 @@
+package org.openremote.test.protocol
+
+import com.fasterxml.jackson.databind.node.TextNode
+import org.openremote.model.asset.agent.DefaultAgentLink
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeExecuteStatus
+import org.openremote.model.attribute.AttributeState
+import org.openremote.model.protocol.AgentLinkPipeline
+import org.openremote.model.protocol.ProtocolUtil
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.model.util.ValueUtil
+import org.openremote.model.value.JsonPathFilter
+import org.openremote.model.value.RegexValueFilter
+import org.openremote.model.value.SubStringValueFilter
+import org.openremote.model.value.ValueFilter
+import org.openremote.model.value.ValueType
+import spock.lang.Specification
+
+import static org.openremote.model.protocol.AgentLinkPipeline.IGNORE
+
+class AgentLinkPipelineTest extends Specification {
+
+    static AgentLinkPipeline createPipeline(Attribute<?> attribute, DefaultAgentLink agentLink) {
+        new AgentLinkPipeline("asset", attribute, agentLink)
+    }
+
+    def "Inbound values should be coerced to the attribute value type"() {
+
+        given: "a link without any value processing"
+        def pipeline = createPipeline(new Attribute<>("temperature", ValueType.NUMBER), new DefaultAgentLink("agent"))
+
+        expect: "values to be coerced"
+        pipeline.processInbound(21.5d) == 21.5d
+        pipeline.processInbound("21.5") == 21.5d
+        pipeline.processInbound(21) == 21d
+        pipeline.processInbound(null) == null
+        pipeline.processInbound("not a number") == null
+    }
+
+    def "Inbound values should be filtered"() {
+
+        given: "links with value filters"
+        def attribute = new Attribute<>("temperature", ValueType.NUMBER)
+        def regexPipeline = createPipeline(attribute, new DefaultAgentLink("agent").setValueFilters([
+            new RegexValueFilter("TEMP=([0-9.]+)", false, false).setMatchGroup(1),
+            new SubStringValueFilter(0, 4)
+        ] as ValueFilter[]))
+        def jsonPathPipeline = createPipeline(attribute, new DefaultAgentLink("agent").setValueFilters([
+            new JsonPathFilter("\$.readings[?(@.type == 'temperature')].value", true, false)
+        ] as ValueFilter[]))
+
+        expect: "the filtered values"
+        regexPipeline.processInbound("DEVICE=livingroom;TEMP=21.56;HUMIDITY=45") == 21.5d
+        regexPipeline.processInbound("DEVICE=livingroom;HUMIDITY=45") == null
+        jsonPathPipeline.processInbound("{\"readings\":[{\"type\":\"humidity\",\"value\":45},{\"type\":\"temperature\",\"value\":21.5}]}") == 21.5d
+    }
+
+    def "Inbound values should be converted"() {
+
+        given: "a link with a value converter"
+        def converter = ValueUtil.JSON.createObjectNode()
+            .put("ON", true)
+            .put("OFF", false)
+            .put("UNKNOWN", "@IGNORE")
+            .put("NONE", "@null")
+        def pipeline = createPipeline(new Attribute<>("on", ValueType.BOOLEAN), new DefaultAgentLink("agent").setValueConverter(converter))
+
+        expect: "the converted values"
+        pipeline.processInbound("on") == true
+        pipeline.processInbound("OFF") == false
+        pipeline.processInbound("none") == null
+
+        and: "ignored values"
+        pipeline.processInbound("unknown").is(IGNORE)
+        pipeline.processInbound("other").is(IGNORE)
+        pipeline.processInbound(null).is(IGNORE)
+
+        when: "the converter has a default value"
+        converter.put("*", false)
+        converter.put("NULL", true)
+        pipeline = createPipeline(new Attribute<>("on", ValueType.BOOLEAN), new DefaultAgentLink("agent").setValueConverter(converter))
+
+        then: "the default value should be used for other values"
+        pipeline.processInbound("other") == false
+        pipeline.processInbound(null) == true
+        pipeline.processInbound("unknown").is(IGNORE)
+
+        when: "the default value negates the value"
+        def negateConverter = ValueUtil.JSON.createObjectNode().put("*", "@NEGATE")
+        def numberPipeline = createPipeline(new Attribute<>("number", ValueType.NUMBER), new DefaultAgentLink("agent").setValueConverter(negateConverter))
+        def booleanPipeline = createPipeline(new Attribute<>("on", ValueType.BOOLEAN), new DefaultAgentLink("agent").setValueConverter(negateConverter))
+
+        then: "numbers and booleans should be negated"
+        numberPipeline.processInbound(5) == -5d
+        numberPipeline.processInbound(-2.5d) == 2.5d
+        booleanPipeline.processInbound(true) == false
+        booleanPipeline.processInbound(false) == true
+    }
+
+    def "Outbound values should be converted"() {
+
+        given: "a link with a write value converter"
+        def converter = ValueUtil.JSON.createObjectNode()
+            .put("TRUE", "ON")
+            .put("FALSE", "@IGNORE")
+        def pipeline = createPipeline(new Attribute<>("on", ValueType.BOOLEAN), new DefaultAgentLink("agent").setWriteValueConverter(converter))
+
+        expect: "the converted values"
+        pipeline.processOutbound(true) == new TextNode("ON")
+        pipeline.processOutbound(false).is(IGNORE)
+        pipeline.processOutbound(null).is(IGNORE)
+
+        and: "without a write value converter the value should be written as is"
+        createPipeline(new Attribute<>("on", ValueType.BOOLEAN), new DefaultAgentLink("agent")).processOutbound(true) == true
+    }
+
+    def "The write value should be written with the value inserted"() {
+
+        expect: "the write value"
+        createPipeline(new Attribute<>("value", ValueType.NUMBER), new DefaultAgentLink("agent").setWriteValue(writeValue)).processOutbound(value) == expected
+
+        where:
+        writeValue                                  | value                 | expected
+        "PING"                                      | 21.5d                 | "PING"
+        "{\$value}"                                 | 21.5d                 | "21.5"
+        "{\"value\": \"{\$value}\"}"                | 21.5d                 | "{\"value\": 21.5}"
+        "{\"value\": {\$value}, \"old\": {\$value}}" | 5                     | "{\"value\": 5, \"old\": 5}"
+        "SET {\$value}"                             | null                  | "SET null"
+        "SET {\$value};"                            | "a\$1\\b"             | "SET a\$1\\b;"
+        "SET {\$value}"                             | [a: 1]                | "SET {\"a\":1}"
+        ""                                          | 21.5d                 | 21.5d
+    }
+
+    def "The write value of an executable attribute should be written when execution is requested"() {
+
+        given: "a link of an execution status attribute"
+        def pipeline = createPipeline(new Attribute<>("execute", ValueType.EXECUTION_STATUS), new DefaultAgentLink("agent").setWriteValue("RUN {\$value}"))
+
+        expect: "the write value to be written as is when execution is requested"
+        pipeline.processOutbound(AttributeExecuteStatus.REQUEST_START) == "RUN {\$value}"
+
+        and: "the status to be written as is without a write value"
+        createPipeline(new Attribute<>("execute", ValueType.EXECUTION_STATUS), new DefaultAgentLink("agent"))
+            .processOutbound(AttributeExecuteStatus.REQUEST_START) == AttributeExecuteStatus.REQUEST_START
+    }
+
+    def "The protocol util value processing should use the pipeline"() {
+
+        given: "a link with a value converter and write value"
+        def converter = ValueUtil.JSON.createObjectNode().put("ON", true).put("OFF", "@IGNORE")
+        def attribute = new Attribute<>("on", ValueType.BOOLEAN)
+        def agentLink = new DefaultAgentLink("agent").setValueConverter(converter).setWriteValue("{\$value}")
+
+        expect: "the same values"
+        ProtocolUtil.doInboundValueProcessing("asset", attribute, agentLink, "on").with { !it.key && it.value == true }
+        ProtocolUtil.doInboundValueProcessing("asset", attribute, agentLink, "off").key
+        ProtocolUtil.doOutboundValueProcessing("asset", attribute, agentLink, true, true).with { !it.key && it.value == "true" }
+        ProtocolUtil.doOutboundValueProcessing("asset", attribute, agentLink, true, false).with { !it.key && it.value == "{\$value}" }
+    }
+
+    def "Messages should be matched with the message match filters and predicate"() {
+
+        given: "a link with message matching"
+        def agentLink = new DefaultAgentLink("agent")
+            .setMessageMatchFilters([new SubStringValueFilter(0, 4)] as ValueFilter[])
+            .setMessageMatchPredicate(new StringPredicate(AssetQuery.Match.EXACT, "TEMP"))
+        def states = []
+        def consumer = ProtocolUtil.createGenericAttributeMessageConsumer("asset", new Attribute<>("temperature", ValueType.NUMBER), agentLink, { 0L }, { states << it })
+
+        when: "messages are consumed"
+        consumer.accept("TEMP=21.5")
+        consumer.accept("HUMIDITY=45")
+        consumer.accept("")
+
+        then: "only the matching message should be passed on"
+        states.size() == 1
+        (states[0] as AttributeState).value.orElse(null) == "TEMP=21.5"
+
+        and: "no consumer should be created without a message match predicate"
+        ProtocolUtil.createGenericAttributeMessageConsumer("asset", new Attribute<>("temperature", ValueType.NUMBER), new DefaultAgentLink("agent"), { 0L }, { states << it }) == null
+    }
+}
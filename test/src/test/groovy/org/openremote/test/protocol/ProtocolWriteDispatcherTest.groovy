@@ -0,0 +1,155 @@
+package org.openremote.test.protocol
+
+import org.apache.camel.builder.RouteBuilder
+import org.apache.camel.impl.DefaultCamelContext
+import org.openremote.manager.agent.ProtocolWriteDispatcher
+import org.openremote.model.asset.agent.Protocol
+import org.openremote.model.attribute.AttributeEvent
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+import static org.openremote.model.asset.agent.Protocol.ACTUATOR_TOPIC
+import static org.openremote.model.asset.agent.Protocol.ACTUATOR_TOPIC_TARGET_PROTOCOL
+
+class ProtocolWriteDispatcherTest extends Specification {
+
+    static final String SENTINEL_ATTRIBUTE = "sentinel"
+
+    ProtocolWriteDispatcher dispatcher = new ProtocolWriteDispatcher(4, 1000)
+    Map<String, List<AttributeEvent>> writes = new ConcurrentHashMap<>()
+    AtomicReference<CountDownLatch> writeLatch = new AtomicReference<>(new CountDownLatch(0))
+
+    def cleanup() {
+        dispatcher.stop()
+    }
+
+    Protocol<?> createProtocol(String agentId) {
+        def protocolWrites = new CopyOnWriteArrayList<AttributeEvent>()
+        writes.put(agentId, protocolWrites)
+        def agent = new MockAgent("Mock agent " + agentId).setId(agentId)
+        Stub(Protocol) {
+            getAgent() >> agent
+            processLinkedAttributeWrite(_ as AttributeEvent) >> { AttributeEvent event ->
+                protocolWrites.add(event)
+                writeLatch.get().countDown()
+            }
+        }
+    }
+
+    List<String> registerProtocols(int count) {
+        (writes.size()..<count).each {
+            def agentId = "agent" + it
+            dispatcher.register(agentId, createProtocol(agentId))
+        }
+        (0..<count).collect { "agent" + it }
+    }
+
+    /**
+     * Dispatches a sentinel write to every instance and waits until each has processed it; instances process their
+     * writes in order so every write dispatched before has then been processed. The sentinels are removed again.
+     */
+    void awaitDispatchedWrites(List<String> agentIds) {
+        agentIds.each { dispatcher.dispatch(it, new AttributeEvent(it, SENTINEL_ATTRIBUTE)) }
+        new PollingConditions(timeout: 5).eventually {
+            assert agentIds.every { writes[it].any { it.name == SENTINEL_ATTRIBUTE } }
+        }
+        writes.values().each { protocolWrites -> protocolWrites.removeIf { it.name == SENTINEL_ATTRIBUTE } }
+    }
+
+    def "Writes only reach the target protocol instance in the order they were dispatched"() {
+
+        given: "10 registered protocol instances"
+        def agentIds = registerProtocols(10)
+
+        when: "writes are dispatched to every instance"
+        agentIds.eachWithIndex { agentId, i ->
+            3.times { dispatcher.dispatch(agentId, new AttributeEvent("asset" + i, "attribute", it)) }
+        }
+
+        then: "each instance should receive only its own writes in order"
+        new PollingConditions(timeout: 5).eventually {
+            assert agentIds.every { writes[it].size() == 3 }
+        }
+        agentIds.eachWithIndex { agentId, i ->
+            assert writes[agentId].every { it.assetId == "asset" + i }
+            assert writes[agentId].collect { it.value.orElse(null) } == [0, 1, 2]
+        }
+
+        when: "writes are dispatched to random instances of 500"
+        agentIds = registerProtocols(500)
+        writes.values().each { it.clear() }
+        def random = new Random(1)
+        def expectedWrites = [:]
+        writeLatch.set(new CountDownLatch(1000))
+        def dispatched = (0..<1000).collect {
+            def agentId = agentIds[random.nextInt(agentIds.size())]
+            expectedWrites.computeIfAbsent(agentId, { [] }) << it
+            dispatcher.dispatch(agentId, new AttributeEvent(agentId, "attribute", it))
+        }
+
+        then: "every write should have reached only its target instance in the order it was dispatched"
+        dispatched.every()
+        writeLatch.get().await(5, TimeUnit.SECONDS)
+        writes.findAll { it.value.size() > 0 }.every { agentId, protocolWrites -> protocolWrites.every { it.assetId == agentId } }
+        writes.findAll { it.value.size() > 0 }.collectEntries { [(it.key): it.value.collect { it.value.orElse(null) }] } == expectedWrites
+
+        when: "a write is dispatched to a single instance of the 500"
+        writes.values().each { it.clear() }
+        writeLatch.set(new CountDownLatch(1))
+        dispatcher.dispatch("agent250", new AttributeEvent("asset250", "attribute", "value"))
+
+        then: "only that instance should receive it"
+        writeLatch.get().await(5, TimeUnit.SECONDS)
+        awaitDispatchedWrites(agentIds)
+        writes.findAll { it.value.size() > 0 }.keySet() == ["agent250"] as Set
+
+        when: "an instance is unregistered"
+        dispatcher.unregister("agent250")
+
+        then: "writes to it should be discarded"
+        !dispatcher.dispatch("agent250", new AttributeEvent("asset250", "attribute", "value"))
+        dispatcher.getProtocol("agent250") == null
+    }
+
+    def "Writes sent on the actuator topic are dispatched to the target protocol instance"() {
+
+        given: "registered protocol instances and a context that dispatches the actuator topic"
+        def agentIds = registerProtocols(100)
+        def context = new DefaultCamelContext()
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            void configure() throws Exception {
+                from(ACTUATOR_TOPIC).process(dispatcher)
+            }
+        })
+        context.start()
+        def producerTemplate = context.createProducerTemplate()
+
+        when: "writes are sent on the actuator topic for some of the instances"
+        writeLatch.set(new CountDownLatch(3))
+        ["agent1", "agent50", "agent99"].each {
+            producerTemplate.sendBodyAndHeader(ACTUATOR_TOPIC, new AttributeEvent("asset1", "attribute", it), ACTUATOR_TOPIC_TARGET_PROTOCOL, dispatcher.getProtocol(it))
+        }
+
+        and: "a write is sent for a protocol instance that isn't registered"
+        producerTemplate.sendBodyAndHeader(ACTUATOR_TOPIC, new AttributeEvent("asset1", "attribute", "other"), ACTUATOR_TOPIC_TARGET_PROTOCOL, createProtocol("agentOther"))
+
+        then: "only the target instances should receive the writes"
+        writeLatch.get().await(5, TimeUnit.SECONDS)
+        awaitDispatchedWrites(agentIds)
+        writes.findAll { it.value.size() > 0 }.collectEntries { [(it.key): it.value.collect { it.value.orElse(null) }] } == [
+            agent1 : ["agent1"],
+            agent50: ["agent50"],
+            agent99: ["agent99"]
+        ]
+
+        cleanup:
+        context?.stop()
+    }
+}
@@ -0,0 +1,109 @@
+package org.openremote.test.protocol
+
+import org.openremote.container.message.MessageBrokerService
+import org.openremote.manager.agent.AgentService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.agent.ConnectionStatus
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.AttributeState
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.query.AssetQuery
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.model.value.MetaItemType.AGENT_LINK
+import static org.openremote.model.value.ValueType.NUMBER
+
+class SensorBatchTest extends Specification implements ManagerContainerTrait {
+
+    static final int ASSET_COUNT = 100
+    static final int ATTRIBUTES_PER_ASSET = 100
+
+    def "A protocol emitting 10k values per tick sends one sensor message per tick"() {
+
+        given: "the container is started"
+        def conditions = new PollingConditions(timeout: 60, delay: 0.5)
+        def container = startContainerWithoutPseudoClock(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def agentService = container.getService(AgentService.class)
+        def messageBrokerService = container.getService(MessageBrokerService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        and: "a mock agent with 10k linked attributes"
+        def mockAgent = assetStorageService.merge(new MockAgent("Sensor batch agent")
+            .setRealm(keycloakTestSetup.realmMaster.name)
+            .setRequired(true))
+        def assetIds = (1..ASSET_COUNT).collect { assetIndex ->
+            assetStorageService.merge(new ThingAsset("Sensor batch asset " + assetIndex)
+                .setParent(mockAgent)
+                .addOrReplaceAttributes((1..ATTRIBUTES_PER_ASSET).collect { attributeIndex ->
+                    new Attribute<>("point" + attributeIndex, NUMBER, 0d)
+                        .addOrReplaceMeta(new MetaItem<>(AGENT_LINK, new MockAgentLink(mockAgent.id).setRequiredValue("true")))
+                } as Attribute[])).id
+        }
+        def attributeRefs = assetIds.collectMany { assetId -> (1..ATTRIBUTES_PER_ASSET).collect { new AttributeRef(assetId, "point" + it) } }
+
+        expect: "the attributes to be linked"
+        conditions.eventually {
+            assert agentService.getAgent(mockAgent.id).getAgentStatus().orElse(null) == ConnectionStatus.CONNECTED
+            assert agentService.getProtocolInstance(mockAgent.id).linkedAttributes.size() == ASSET_COUNT * ATTRIBUTES_PER_ASSET
+        }
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "the protocol emits the values of all attributes for several ticks"
+        def protocol = (MockProtocol) agentService.getProtocolInstance(mockAgent.id)
+        def sensorQueue = messageBrokerService.queues.find { it.name == "SensorQueue" }
+        def sensorMessages = sensorQueue.enqueuedCount
+        def ticks = 3
+        (1..ticks).each { tick ->
+            protocol.updateReceived(attributeRefs.withIndex().collect { ref, i -> new AttributeState(ref, (double) (tick * 100000 + i)) })
+
+            // Wait for the tick to be processed
+            conditions.eventually {
+                def assets = assetStorageService.findAll(new AssetQuery().ids(assetIds as String[]))
+                assert assets.size() == ASSET_COUNT
+                assert assets.every { Asset<?> asset ->
+                    asset.attributes.values().findAll { it.name.startsWith("point") }.every {
+                        ((it.value.orElse(0d) as Double) as long).intdiv(100000) == tick
+                    }
+                }
+            }
+        }
+
+        then: "each tick should have been a single sensor message"
+        sensorQueue.enqueuedCount - sensorMessages == ticks
+
+        and: "every attribute should have the value of the last tick"
+        def assets = assetStorageService.findAll(new AssetQuery().ids(assetIds as String[]))
+        attributeRefs.withIndex().every { ref, i ->
+            assets.find { it.id == ref.id }.getAttribute(ref.name).flatMap { it.value }.orElse(null) == (double) (ticks * 100000 + i)
+        }
+
+        when: "a batch contains values of unlinked attributes"
+        sensorMessages = sensorQueue.enqueuedCount
+        protocol.updateReceived([
+            new AttributeState(attributeRefs[0], 1d),
+            new AttributeState(new AttributeRef(assetIds[0], "unlinked"), 2d),
+            new AttributeState(attributeRefs[1], 3d)
+        ])
+
+        then: "only the linked values should be processed"
+        conditions.eventually {
+            def asset = assetStorageService.find(assetIds[0], true)
+            assert asset.getAttribute(attributeRefs[0].name).flatMap { it.value }.orElse(null) == 1d
+            assert asset.getAttribute(attributeRefs[1].name).flatMap { it.value }.orElse(null) == 3d
+            assert !asset.getAttribute("unlinked").isPresent()
+        }
+        sensorQueue.enqueuedCount - sensorMessages == 1
+    }
+}
@@ -0,0 +1,212 @@
+package org.openremote.test.rules
+
+import com.fasterxml.jackson.databind.JsonNode
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.AssetQueryPredicate
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.UserAssetLink
+import org.openremote.model.asset.impl.*
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.calendar.CalendarEvent
+import org.openremote.model.geo.GeoJSONPoint
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.LogicGroup
+import org.openremote.model.query.filter.*
+import org.openremote.model.rules.AssetState
+import org.openremote.model.util.ValueUtil
+import org.openremote.model.value.ValueType
+import spock.lang.Specification
+
+import static org.openremote.model.query.AssetQuery.Operator.*
+import static org.openremote.model.value.MetaItemType.READ_ONLY
+import static org.openremote.model.value.MetaItemType.RULE_STATE
+
+class AssetQueryPredicateTest extends Specification {
+
+    static final List<Class<? extends Asset<?>>> ASSET_TYPES = [ThingAsset, LightAsset, RoomAsset, BuildingAsset, ElectricityProducerSolarAsset]
+    static final List<String> REALMS = ["master", "building"]
+    static final Set<String> USER_ASSET_IDS = ["asset1", "asset4", "asset7"] as Set
+
+    TimerService timerService
+    AssetStorageService assetStorageService
+
+    def setup() {
+        timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        timerService.clock.stop()
+        assetStorageService = Stub(AssetStorageService) {
+            isUserAsset(_ as List, _ as String) >> { List userIds, String assetId -> userIds.contains("user1") && USER_ASSET_IDS.contains(assetId) }
+            findUserAssetLinks(_, _ as List, _) >> { String realm, List userIds, List assetIds ->
+                userIds.contains("user1") ? USER_ASSET_IDS.collect { new UserAssetLink("master", "user1", it) } : []
+            }
+        }
+    }
+
+    List<AssetState<?>> createAssetStates() {
+        def now = timerService.currentTimeMillis
+        def assetStates = []
+
+        10.times { i ->
+            Asset<?> asset = ASSET_TYPES[i % ASSET_TYPES.size()].getDeclaredConstructor(String.class).newInstance("Asset " + i)
+            asset.setId("asset" + i)
+            asset.setRealm(REALMS[i % REALMS.size()])
+            asset.setParentId(i > 0 ? "asset" + (i.intdiv(3)) : null)
+            asset.setPath(i > 0 ? ["asset" + i, "asset" + (i.intdiv(3))] as String[] : ["asset" + i] as String[])
+
+            def numberMap = new ValueType.DoubleMap()
+            numberMap.put("a", (double) i)
+            numberMap.put("b", (double) i * 2)
+            def jsonObject = ValueUtil.JSON.createObjectNode()
+            jsonObject.put("name", "Item " + i)
+            jsonObject.putArray("values").add(i).add(i + 1)
+
+            def attributes = [
+                new Attribute<>("number", ValueType.NUMBER, (double) i * 10),
+                new Attribute<>("text", ValueType.TEXT, i % 2 == 0 ? "Hello world " + i : "HELLO " + i),
+                new Attribute<>("boolean", ValueType.BOOLEAN, i % 3 == 0),
+                new Attribute<>("empty", ValueType.TEXT, i % 4 == 0 ? null : "notEmpty"),
+                new Attribute<>("date", ValueType.DATE_AND_TIME, new Date(now + (i - 5) * 3600000L)),
+                new Attribute<>("location", ValueType.GEO_JSON_POINT, new GeoJSONPoint(5.46 + i * 0.001, 51.44 + i * 0.001)),
+                new Attribute<>("calendar", ValueType.CALENDAR_EVENT, new CalendarEvent(new Date(now + (i - 5) * 3600000L), new Date(now + (i - 3) * 3600000L))),
+                new Attribute<>("array", ValueType.NUMBER.asArray(), [(double) i, 2d, 3d] as Double[]),
+                new Attribute<>("map", ValueType.NUMBER_MAP, numberMap),
+                new Attribute<>("json", ValueType.JSON_OBJECT, jsonObject)
+            ]
+            attributes.each { attribute ->
+                attribute.setTimestamp(now)
+                if (i % 2 == 0) {
+                    attribute.addMeta(new MetaItem<>(RULE_STATE, true))
+                }
+                if (i % 3 == 0) {
+                    attribute.addMeta(new MetaItem<>(READ_ONLY, true))
+                }
+                asset.getAttributes().addOrReplace(attribute)
+            }
+            attributes.each { attribute ->
+                // Use a copy so the asset holds the old value
+                def newAttribute = ValueUtil.clone(attribute)
+                if (attribute.name == "number") {
+                    newAttribute.setValue((double) i * 10 + 1)
+                }
+                assetStates.add(new AssetState<>(asset, newAttribute, AttributeEvent.Source.SENSOR))
+            }
+        }
+
+        assetStates
+    }
+
+    List<AssetQuery> createQueries() {
+        def now = timerService.currentTimeMillis
+        [
+            new AssetQuery(),
+            new AssetQuery().ids("asset1", "asset3"),
+            new AssetQuery().names("Asset 2"),
+            new AssetQuery().names(new StringPredicate(AssetQuery.Match.BEGIN, false, "asset 1")),
+            new AssetQuery().parents("asset1"),
+            new AssetQuery().parents(new ParentPredicate(null)),
+            new AssetQuery().paths(new PathPredicate("asset4", "asset1")),
+            new AssetQuery().types(LightAsset),
+            new AssetQuery().types(ElectricityProducerAsset, RoomAsset),
+            new AssetQuery().realm(new RealmPredicate("building")),
+            new AssetQuery().realm(new RealmPredicate(null)),
+            new AssetQuery().userIds("user1"),
+            new AssetQuery().userIds("user2"),
+            new AssetQuery().userIds("user1").types(LightAsset),
+            new AssetQuery().attributeName("text"),
+            new AssetQuery().attributes(new AttributePredicate("text", new StringPredicate(AssetQuery.Match.CONTAINS, false, "hello"))),
+            new AssetQuery().attributes(new AttributePredicate("text", new StringPredicate(AssetQuery.Match.END, "1").negate(true))),
+            new AssetQuery().attributes(new AttributePredicate("number", new NumberPredicate(40, GREATER_THAN))),
+            new AssetQuery().attributes(new AttributePredicate("number", new NumberPredicate(20, LESS_EQUALS))),
+            new AssetQuery().attributes(new AttributePredicate("number", new NumberPredicate(20, BETWEEN).rangeValue(60))),
+            new AssetQuery().attributes(new AttributePredicate("boolean", new BooleanPredicate(true))),
+            new AssetQuery().attributes(new AttributePredicate("empty", new ValueEmptyPredicate())),
+            new AssetQuery().attributes(new AttributePredicate("empty", new ValueAnyPredicate())),
+            new AssetQuery().attributes(new AttributePredicate("date", new DateTimePredicate(GREATER_THAN, "PT0S"))),
+            new AssetQuery().attributes(new AttributePredicate("date", new DateTimePredicate(new Date(now - 7200000L).toInstant().toString(), new Date(now + 7200000L).toInstant().toString()))),
+            new AssetQuery().attributes(new AttributePredicate("calendar", new CalendarEventPredicate(new Date(now)))),
+            new AssetQuery().attributes(new AttributePredicate("location", new RadialGeofencePredicate(500, 51.44, 5.46))),
+            new AssetQuery().attributes(new AttributePredicate("location", new RadialGeofencePredicate(500, 51.44, 5.46, true))),
+            new AssetQuery().attributes(new AttributePredicate("location", new RectangularGeofencePredicate(51.443, 5.463, 51.5, 5.5))),
+            new AssetQuery().attributes(new AttributePredicate("array", new ArrayPredicate(2d, 1, null, null, null, false))),
+            new AssetQuery().attributes(new AttributePredicate("array", new ArrayPredicate(5d, null, 3, null, null, false))),
+            new AssetQuery().attributes(new AttributePredicate("map", new NumberPredicate(8, GREATER_EQUALS)).path(new NameValuePredicate.Path("b"))),
+            new AssetQuery().attributes(new AttributePredicate("map", new ValueEmptyPredicate()).path(new NameValuePredicate.Path("c"))),
+            new AssetQuery().attributes(new AttributePredicate("json", new StringPredicate("Item 3")).path(new NameValuePredicate.Path("name"))),
+            new AssetQuery().attributes(new AttributePredicate("json", new NumberPredicate(5, GREATER_THAN)).path(new NameValuePredicate.Path("values").append(1))),
+            new AssetQuery().attributes(new AttributePredicate("array", new NumberPredicate(4, GREATER_THAN)).path(new NameValuePredicate.Path(0))),
+            new AssetQuery().attributes(new AttributePredicate("number", new NumberPredicate(31)).previousValue(new NumberPredicate(30))),
+            new AssetQuery().attributes(new AttributePredicate("number", null).meta(new NameValuePredicate(RULE_STATE, new BooleanPredicate(true)))),
+            new AssetQuery().attributes(new LogicGroup<AttributePredicate>(LogicGroup.Operator.OR,
+                new AttributePredicate("number", new NumberPredicate(80, GREATER_THAN)),
+                new AttributePredicate("boolean", new BooleanPredicate(true)))),
+            new AssetQuery().realm(new RealmPredicate("master")).attributes(new LogicGroup<AttributePredicate>(LogicGroup.Operator.AND,
+                [new LogicGroup<AttributePredicate>(LogicGroup.Operator.OR,
+                    new AttributePredicate("text", new StringPredicate(AssetQuery.Match.BEGIN, "Hello")),
+                    new AttributePredicate("number", new NumberPredicate(0)))],
+                new AttributePredicate(new StringPredicate(AssetQuery.Match.CONTAINS, "e"), new ValueAnyPredicate())))
+        ]
+    }
+
+    def "Compiled asset query predicates match the same asset states as the interpreted predicates"() {
+
+        given: "asset states with values of every type"
+        def assetStates = createAssetStates()
+        def queries = createQueries()
+
+        expect: "every query to match the same asset states with both predicates"
+        queries.eachWithIndex { query, i ->
+            def interpreted = new AssetQueryPredicate(timerService, assetStorageService, query)
+            def compiled = AssetQueryPredicate.compile(timerService, assetStorageService, query)
+            def expected = assetStates.findAll { interpreted.test(it) }
+            assert assetStates.findAll { compiled.test(it) } == expected: "Query " + i + " doesn't match the same asset states"
+        }
+
+        and: "the queries to actually match some asset states"
+        queries.count { query ->
+            def interpreted = new AssetQueryPredicate(timerService, assetStorageService, query)
+            assetStates.any { interpreted.test(it) }
+        } >= queries.size() - 4
+
+        when: "the clock advances"
+        timerService.clock.advanceTime(3, java.util.concurrent.TimeUnit.HOURS)
+
+        then: "time based predicates should still match the same asset states"
+        queries.every { query ->
+            def interpreted = new AssetQueryPredicate(timerService, assetStorageService, query)
+            def compiled = AssetQueryPredicate.compile(timerService, assetStorageService, query)
+            assetStates.findAll { compiled.test(it) } == assetStates.findAll { interpreted.test(it) }
+        }
+    }
+
+    def "Path values are the same as navigating the converted JSON value"() {
+
+        expect: "the path value to be the same as the value found in the JSON"
+        def jsonNode = ValueUtil.convert(value, JsonNode.class)
+        for (Object path : paths) {
+            if (jsonNode == null) {
+                break
+            }
+            jsonNode = path instanceof Integer ? jsonNode.get((int) path) : jsonNode.get((String) path)
+        }
+        AssetQueryPredicate.getPathValue(value, paths as Object[]) == jsonNode
+
+        where:
+        value                                                | paths
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["a"]
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["b", "c"]
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["b", "d", 2]
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["b", "d", 3]
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["b", "d", -1]
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["b", 0]
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["a", "b"]
+        [a: 1d, b: [c: "text", d: [1, 2, 3]]]                | ["x", "y"]
+        [a: null, b: true]                                   | ["a"]
+        [[x: 1], [x: 2]]                                     | [1, "x"]
+        [1d, 2d, 3d] as Double[]                             | [0]
+        new GeoJSONPoint(5.46, 51.44)                        | ["coordinates", 1]
+        ValueUtil.JSON.createObjectNode().put("name", "foo") | ["name"]
+    }
+}
@@ -0,0 +1,193 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.AssetQueryPredicate
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.manager.rules.facade.AssetsFacade
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.*
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.LogicGroup
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.NumberPredicate
+import org.openremote.model.query.filter.RealmPredicate
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.model.rules.AssetState
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.stream.Collectors
+
+import static org.openremote.model.value.ValueType.NUMBER
+
+class RulesFactsIndexTest extends Specification {
+
+    static final List<Class<? extends Asset<?>>> ASSET_TYPES = [ThingAsset, LightAsset, RoomAsset, ElectricityProducerSolarAsset, ElectricityProducerWindAsset]
+    static final List<String> REALMS = ["master", "building", "smartcity"]
+
+    def random = new Random(1234)
+    AssetStorageService assetStorageService
+    RulesFacts rulesFacts
+    TimerService timerService
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        timerService.clock.stop()
+        assetStorageService = new AssetStorageService()
+        rulesFacts = new RulesFacts(timerService, assetStorageService, Mock(AssetsFacade), this, RulesEngine.RULES_LOG)
+    }
+
+    AssetState<?> createAssetState(int assetIndex, int attributeIndex, double value) {
+        Asset<?> asset = ASSET_TYPES[assetIndex % ASSET_TYPES.size()].getDeclaredConstructor(String.class).newInstance("Asset " + assetIndex)
+        asset.setId("asset" + assetIndex)
+        asset.setRealm(REALMS[assetIndex % REALMS.size()])
+        def attribute = new Attribute<>("attribute" + attributeIndex, NUMBER, value)
+        attribute.setTimestamp(timerService.currentTimeMillis)
+        new AssetState<>(asset, attribute, AttributeEvent.Source.SENSOR)
+    }
+
+    List<AssetQuery> createQueries(int assetCount) {
+        [
+            new AssetQuery(),
+            new AssetQuery().ids("asset1"),
+            new AssetQuery().ids("asset1", "asset2", "asset" + (assetCount - 1), "doesNotExist"),
+            new AssetQuery().ids("asset3").attributeName("attribute2"),
+            new AssetQuery().types(LightAsset),
+            new AssetQuery().types(ElectricityProducerAsset).attributeName("attribute1"),
+            new AssetQuery().realm(new RealmPredicate("building")),
+            new AssetQuery().realm(new RealmPredicate("doesNotExist")),
+            new AssetQuery().attributeName("attribute0"),
+            new AssetQuery().attributeNames("attribute0", "attribute3"),
+            new AssetQuery().attributes(new AttributePredicate(new StringPredicate(AssetQuery.Match.BEGIN, "attribute"), new NumberPredicate(50, AssetQuery.Operator.GREATER_THAN))),
+            new AssetQuery().attributes(new AttributePredicate(new StringPredicate(AssetQuery.Match.EXACT, false, "ATTRIBUTE1"), null)),
+            new AssetQuery().attributes(new AttributePredicate("attribute2", new NumberPredicate(50, AssetQuery.Operator.LESS_THAN))),
+            new AssetQuery().attributes(new LogicGroup<AttributePredicate>(LogicGroup.Operator.OR, new AttributePredicate("attribute1", null), new AttributePredicate(new StringPredicate(AssetQuery.Match.CONTAINS, "3"), null))),
+            new AssetQuery().types(RoomAsset).realm(new RealmPredicate("master")).attributes(new LogicGroup<AttributePredicate>(
+                LogicGroup.Operator.AND,
+                [new LogicGroup<AttributePredicate>(LogicGroup.Operator.OR, new AttributePredicate("attribute0", null), new AttributePredicate("attribute4", null))],
+                new AttributePredicate(new StringPredicate(AssetQuery.Match.END, "0"), null)))
+        ]
+    }
+
+    def linearAssetStates(AssetQuery query) {
+        rulesFacts.matchAssetState(new AssetQueryPredicate(timerService, assetStorageService, query)).collect(Collectors.toSet())
+    }
+
+    def linearAssetEvents(AssetQuery query) {
+        def predicate = new AssetQueryPredicate(timerService, assetStorageService, query)
+        rulesFacts.assetEvents.findAll { predicate.test(it.fact) }
+    }
+
+    def "Indexed asset state and event matching returns the same results as matching all facts"() {
+
+        given: "asset states for 1000 assets with 5 attributes each"
+        def assetCount = 1000
+        assetCount.times { assetIndex ->
+            5.times { attributeIndex ->
+                rulesFacts.putAssetState(createAssetState(assetIndex, attributeIndex, random.nextInt(100)))
+            }
+        }
+
+        and: "asset events for some of them"
+        2000.times {
+            rulesFacts.insertAssetEvent(60000, createAssetState(random.nextInt(assetCount), random.nextInt(5), random.nextInt(100)))
+        }
+        def queries = createQueries(assetCount)
+
+        expect: "the indexed matches to be the same as matching every fact"
+        rulesFacts.assetStates.size() == assetCount * 5
+        queries.every { query ->
+            rulesFacts.matchAssetState(query).collect(Collectors.toSet()) == linearAssetStates(query)
+        }
+
+        and: "the matched events to be the same and in the same order"
+        queries.every { query ->
+            rulesFacts.matchAssetEvent(query).collect(Collectors.toList()) == linearAssetEvents(query)
+        }
+        queries.every { query ->
+            def expected = linearAssetEvents(query)
+            rulesFacts.matchLastAssetEvent(query).orElse(null) == (expected ? expected[-1] : null)
+        }
+
+        when: "asset states are updated and removed and attribute updates invalidate some of them"
+        200.times {
+            def assetIndex = random.nextInt(assetCount)
+            def attributeIndex = random.nextInt(5)
+            switch (random.nextInt(3)) {
+                case 0:
+                    rulesFacts.putAssetState(createAssetState(assetIndex, attributeIndex, random.nextInt(100)))
+                    break
+                case 1:
+                    rulesFacts.removeAssetState(createAssetState(assetIndex, attributeIndex, 0))
+                    break
+                case 2:
+                    rulesFacts.updateAssetState("asset" + assetIndex, "attribute" + attributeIndex, 1)
+                    break
+            }
+        }
+
+        and: "some of the asset events expire"
+        timerService.clock.advanceTime(30, TimeUnit.SECONDS)
+        1000.times {
+            rulesFacts.insertAssetEvent(60000, createAssetState(random.nextInt(assetCount), random.nextInt(5), random.nextInt(100)))
+        }
+        timerService.clock.advanceTime(40, TimeUnit.SECONDS)
+        rulesFacts.removeExpiredTemporaryFacts()
+
+        then: "the indexed matches should still be the same as matching every fact"
+        rulesFacts.assetEvents.size() == 1000
+        queries.every { query ->
+            rulesFacts.matchAssetState(query).collect(Collectors.toSet()) == linearAssetStates(query)
+        }
+        queries.every { query ->
+            rulesFacts.matchAssetEvent(query).collect(Collectors.toList()) == linearAssetEvents(query)
+        }
+
+        and: "asset states can be found by asset ID and attribute name"
+        def assetState = rulesFacts.assetStates.first()
+        rulesFacts.getAssetState(assetState.id, assetState.name).orElse(null).is(assetState)
+        !rulesFacts.getAssetState("doesNotExist", assetState.name).isPresent()
+    }
+
+    def "Indexed asset state matching returns the same results as matching all facts with 100k facts"() {
+
+        given: "asset states for 20k assets with 5 attributes each"
+        def assetCount = 20000
+        assetCount.times { assetIndex ->
+            5.times { attributeIndex ->
+                rulesFacts.putAssetState(createAssetState(assetIndex, attributeIndex, random.nextInt(100)))
+            }
+        }
+        def queries = (1..100).collect {
+            new AssetQuery().ids("asset" + random.nextInt(assetCount)).attributeName("attribute" + random.nextInt(5))
+        }
+
+        expect: "the indexed matches to be the same as matching every fact"
+        rulesFacts.assetStates.size() == assetCount * 5
+        queries.every { query ->
+            rulesFacts.matchAssetState(query).collect(Collectors.toSet()) == linearAssetStates(query)
+        }
+
+        when: "asset states are updated"
+        10000.times {
+            rulesFacts.putAssetState(createAssetState(random.nextInt(assetCount), random.nextInt(5), random.nextInt(100)))
+        }
+
+        then: "the indexed matches should still be the same as matching every fact"
+        rulesFacts.assetStates.size() == assetCount * 5
+        queries.every { query ->
+            rulesFacts.matchAssetState(query).collect(Collectors.toSet()) == linearAssetStates(query)
+        }
+    }
+}
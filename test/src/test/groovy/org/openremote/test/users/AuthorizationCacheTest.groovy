@@ -0,0 +1,210 @@
+package org.openremote.test.users
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.security.AuthorizationCache
+import org.openremote.manager.security.ManagerIdentityProvider
+import org.openremote.manager.security.ManagerIdentityService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.PersistenceEvent
+import org.openremote.model.asset.UserAssetLink
+import org.openremote.model.security.Realm
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import org.openremote.test.setup.ManagerTestSetup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.model.Constants.MASTER_REALM
+
+class AuthorizationCacheTest extends Specification implements ManagerContainerTrait {
+
+    static List<Object> getDecisions(ManagerIdentityProvider identityProvider, AssetStorageService assetStorageService, List<String> userIds, List<String> realms, List<String> assetIds) {
+        def decisions = []
+        realms.each { realm ->
+            decisions << identityProvider.getRealm(realm)?.id
+            decisions << identityProvider.isRealmActiveAndAccessible(null, realm)
+        }
+        userIds.each { userId ->
+            realms.each { realm -> decisions << identityProvider.isUserInRealm(userId, realm) }
+            assetIds.each { assetId -> decisions << assetStorageService.isUserAsset(userId, assetId) }
+            decisions << assetStorageService.isUserAssets(userId, assetIds)
+            decisions << assetStorageService.isUserAssets(userId, assetIds.take(2))
+            decisions << assetStorageService.isUserAssets(userId, [assetIds[0], assetIds[0]])
+        }
+        assetIds.each { assetId -> decisions << assetStorageService.isUserAsset(userIds, assetId) }
+        decisions
+    }
+
+    def "Cached authorization decisions are the same as uncached decisions"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def identityService = container.getService(ManagerIdentityService.class)
+        def identityProvider = identityService.getIdentityProvider()
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def authorizationCache = identityService.getAuthorizationCache()
+
+        and: "users, realms and assets to authorize"
+        def userIds = [keycloakTestSetup.testuser1Id, keycloakTestSetup.testuser2Id, keycloakTestSetup.testuser3Id, keycloakTestSetup.buildingUserId, "unknownUser"]
+        def realms = [MASTER_REALM, keycloakTestSetup.realmBuilding.name, keycloakTestSetup.realmCity.name, "unknownrealm"]
+        def assetIds = [managerTestSetup.apartment1Id, managerTestSetup.apartment1LivingroomId, managerTestSetup.apartment2Id, managerTestSetup.apartment2LivingroomId, managerTestSetup.smartBuildingId, "unknownAsset"]
+
+        expect: "the cache to be enabled"
+        authorizationCache != null
+
+        when: "the decisions are made without the cache"
+        identityService.authorizationCache = null
+        identityProvider.authorizationCache = null
+        def uncachedDecisions = getDecisions(identityProvider, assetStorageService, userIds, realms, assetIds)
+
+        and: "the decisions are made with the cache twice"
+        identityService.authorizationCache = authorizationCache
+        identityProvider.authorizationCache = authorizationCache
+        authorizationCache.clear()
+        def missCount = authorizationCache.missCount
+        def hitCount = authorizationCache.hitCount
+        def cachedDecisions = getDecisions(identityProvider, assetStorageService, userIds, realms, assetIds)
+        def firstMissCount = authorizationCache.missCount - missCount
+        def secondCachedDecisions = getDecisions(identityProvider, assetStorageService, userIds, realms, assetIds)
+
+        then: "the decisions should be the same"
+        cachedDecisions == uncachedDecisions
+        secondCachedDecisions == uncachedDecisions
+
+        and: "the second decisions should have been cached (except for unknown realms and users)"
+        firstMissCount > 0
+        authorizationCache.hitCount - hitCount > firstMissCount
+
+        cleanup: "the cache is enabled"
+        identityService.authorizationCache = authorizationCache
+        identityProvider.authorizationCache = authorizationCache
+    }
+
+    def "Revoked user asset links and disabled realms are visible to the next authorization"() {
+
+        given: "the container is started"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.1)
+        def container = startContainer(defaultConfig(), defaultServices())
+        def identityService = container.getService(ManagerIdentityService.class)
+        def identityProvider = identityService.getIdentityProvider()
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def link = new UserAssetLink(keycloakTestSetup.realmBuilding.name, keycloakTestSetup.testuser3Id, managerTestSetup.apartment1LivingroomId)
+
+        expect: "the restricted user to be linked to the asset"
+        assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1LivingroomId)
+        assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1LivingroomId)
+
+        when: "the link is deleted"
+        assetStorageService.deleteUserAssetLinks([link])
+
+        then: "the user should no longer be linked to the asset"
+        !assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1LivingroomId)
+        assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1KitchenId)
+
+        when: "the link is restored"
+        assetStorageService.storeUserAssetLinks([link])
+
+        then: "the user should be linked to the asset again"
+        assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1LivingroomId)
+
+        when: "the link is deleted without the manager"
+        persistenceService.doTransaction { em ->
+            em.createNativeQuery("delete from user_asset_link where user_id = ?1 and asset_id = ?2")
+                .setParameter(1, keycloakTestSetup.testuser3Id)
+                .setParameter(2, managerTestSetup.apartment1LivingroomId)
+                .executeUpdate()
+        }
+
+        then: "the cached link should still be used"
+        assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1LivingroomId)
+
+        when: "a single persistence event for the deleted link is published"
+        persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.DELETE, link, null, null, null)
+
+        then: "the user should no longer be linked to the asset"
+        conditions.eventually {
+            assert !assetStorageService.isUserAsset(keycloakTestSetup.testuser3Id, managerTestSetup.apartment1LivingroomId)
+        }
+
+        when: "a realm is read and then disabled"
+        def realmName = keycloakTestSetup.realmEnergy.name
+        assert identityProvider.isRealmActiveAndAccessible(null, realmName)
+        def realm = ManagerIdentityProvider.getRealmFromDb(persistenceService, realmName)
+        realm.setEnabled(false)
+        identityProvider.updateRealm(realm)
+
+        then: "the realm should no longer be accessible"
+        !identityProvider.isRealmActiveAndAccessible(null, realmName)
+
+        when: "the realm is enabled again"
+        realm = ManagerIdentityProvider.getRealmFromDb(persistenceService, realmName)
+        realm.setEnabled(true)
+        identityProvider.updateRealm(realm)
+
+        then: "the realm should be accessible again"
+        identityProvider.isRealmActiveAndAccessible(null, realmName)
+
+        when: "a realm read through the cache is modified without being updated"
+        identityProvider.getRealm(realmName).setEnabled(false).setDisplayName("Modified")
+
+        then: "the cached realm should not have changed"
+        identityProvider.isRealmActiveAndAccessible(null, realmName)
+        identityProvider.getRealm(realmName).displayName == keycloakTestSetup.realmEnergy.displayName
+
+        cleanup: "the link is restored"
+        assetStorageService.storeUserAssetLinks([link])
+    }
+
+    def "Cached entries expire after the time to live"() {
+
+        given: "a cache with a controllable clock"
+        long now = 0
+        def cache = new AuthorizationCache(1000, { now })
+        def loads = 0
+        def loader = { String userId -> loads++; [userId + "Asset"] as Set<String> }
+
+        when: "the user assets are read twice"
+        def first = cache.getUserAssetIds("user1", loader)
+        def second = cache.getUserAssetIds("user1", loader)
+
+        then: "they should have been loaded once"
+        first == ["user1Asset"] as Set
+        second == first
+        loads == 1
+
+        when: "the time to live passes"
+        now = 1001
+        cache.getUserAssetIds("user1", loader)
+
+        then: "they should have been loaded again"
+        loads == 2
+
+        when: "a user asset link of another user changes"
+        cache.onPersistenceEvent(new PersistenceEvent<>(PersistenceEvent.Cause.CREATE, new UserAssetLink("realm", "user2", "asset"), null, null))
+        cache.getUserAssetIds("user1", loader)
+
+        then: "the user assets should still be cached"
+        loads == 2
+
+        when: "a user asset link of the user changes"
+        cache.onPersistenceEvent(new PersistenceEvent<>(PersistenceEvent.Cause.DELETE, new UserAssetLink("realm", "user1", "asset"), null, null))
+        cache.getUserAssetIds("user1", loader)
+
+        then: "they should have been loaded again"
+        loads == 3
+
+        when: "missing realms are read"
+        def realmLoads = 0
+        2.times { cache.getRealm("missing", { realmLoads++; null }) }
+        2.times { cache.getRealm("existing", { realmLoads++; new Realm().setName("existing") }) }
+
+        then: "only the existing realm should be cached"
+        realmLoads == 3
+    }
+}
@@ -31,6 +31,7 @@ import org.openremote.model.protocol.ProtocolAssetDiscovery;
 import org.openremote.model.value.ValueType;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
@@ -108,6 +109,11 @@ public class MockProtocol extends AbstractProtocol<MockAgent, MockAgentLink> imp
         updateLinkedAttribute(state);
     }
 
+    public void updateReceived(Collection<AttributeState> states) {
+        // Values of many attributes read at once e.g. by polling
+        updateLinkedAttributes(states);
+    }
+
     protected void updateAttribute(AttributeState state) {
         sendAttributeEvent(state);
     }